@@ -0,0 +1,688 @@
+package ci583.batch;
+
+import ci583.metrics.Histogram;
+import ci583.metrics.MetricsRegistry;
+import ci583.receiver.*;
+import ci583.trace.TraceWriter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * <p>
+ * Runs a {@link Workload} through one or more receivers without a GUI, then prints a summary of
+ * each receiver and optionally writes its metrics in the Prometheus text format. Nothing here
+ * touches ImGui, so no native libraries are loaded and it can run on a headless machine:
+ * </p>
+ * <pre>
+ *     java -jar modulesreg-master-1.0-headless.jar [options] workload.txt
+ *
+ *     --receivers rr,priority,mlfq,mlfq-real,sjf,fcfs,fair,mlq
+ *                                                       receivers to run, all by default
+ *     --quantum ms                                      time slice of each receiver, 100 by default
+ *     --metrics file                                    write the metrics to a file, or - for stdout
+ *     --trace file                                      write a binary scheduler trace
+ *     --checkpoint dir                                  checkpoint each receiver to dir/&lt;receiver&gt;.ckpt
+ *     --checkpoint-interval ms                          time between checkpoints, 1000 by default
+ *     --wal dir                                         log accepted and completed processes to dir/&lt;receiver&gt;.wal
+ *     --capacity n                                      hold at most n processes in each receiver
+ *     --admission reject|block|shed                     what a full receiver does with a new process
+ *     --weights group=w,...                             weights of the fair-share groups, 1 by default
+ *     --quota group=ms/period,...                       cap the CPU time of groups in every receiver
+ *     --batch                                           run short processes back to back in one quantum
+ *     --switch-cost ms                                  time lost to each context switch, 0 by default
+ *     --cache-refill ms                                 time a process spends refilling a cold cache
+ *     --cache-slots n                                   processes whose working sets fit in the cache, 1 by default
+ *     --predict alpha[/ms]                              sjf orders by bursts predicted with weight alpha, from an
+ *                                                       initial estimate of ms (the quantum by default)
+ *     --cores n                                         also simulate each receiver on n cores, with and without affinity
+ *     --imbalance n                                     extra processes a core may have before they migrate, 1 by default
+ *     --migration-cost ms                               time a migrated process spends refilling caches, 5 by default
+ * </pre>
+ * <p>
+ * The receivers run at the same time, each on its own dispatcher thread, as they do in the GUI.
+ * </p>
+ * <p>
+ * With checkpoints, a receiver that finds its checkpoint at startup resumes from it instead of
+ * starting the workload again, and the checkpoint is deleted once the receiver finishes. With
+ * write-ahead logs, the processes that were accepted but not completed are recovered as well,
+ * from the checkpoint where it has them.
+ * </p>
+ * <p>
+ * The workload is enqueued by each receiver's own thread, which cannot wait for room, so a full
+ * receiver rejects under {@code --admission block}. Processes that were rejected or shed are left
+ * out of the turnaround and wait times, and counted as dropped.
+ * </p>
+ * <p>
+ * The fair-share receiver is followed by the CPU time each of its groups was given, and each
+ * receiver with quotas by how often and for how long its groups were throttled. With
+ * {@code --predict}, the shortest-job receiver is not told how much work each process has, and
+ * is followed by how far its burst predictions were out. With {@code --cores}, each receiver is
+ * also run on several cores in simulated time (see {@link MultiCoreSimulator}), once with soft
+ * affinity and once without, followed by the migrations and throughput of each.
+ * </p>
+ */
+public class BatchRunner {
+
+    private static final Map<String, LongFunction<ModRegReceiver>> RECEIVERS = new LinkedHashMap<>();
+
+    static {
+        RECEIVERS.put("rr", RoundRobinReceiver::new);
+        RECEIVERS.put("priority", PriorityReceiver::new);
+        RECEIVERS.put("mlfq", MultiLevelFeedbackQueueReceiver::new);
+        RECEIVERS.put("mlfq-real", MultiLevelFeedbackQueueRealReceiver::new);
+        RECEIVERS.put("sjf", ShortestJobFirstReceiver::new);
+        RECEIVERS.put("fcfs", FirstComeFirstServeReceiver::new);
+        RECEIVERS.put("fair", FairShareReceiver::new);
+        RECEIVERS.put("mlq", MultiLevelQueueReceiver::new);
+    }
+
+    /**
+     * @return the names of the receivers that can be created, e.g. {@code rr}
+     */
+    public static Set<String> getReceiverNames() {
+        return Collections.unmodifiableSet(RECEIVERS.keySet());
+    }
+
+    /**
+     * Creates a receiver by name.
+     * @param name one of {@link #getReceiverNames()}
+     * @param quantum the time slice of the receiver
+     * @throws IllegalArgumentException if there is no receiver with the given name
+     */
+    public static ModRegReceiver createReceiver(String name, long quantum) {
+        LongFunction<ModRegReceiver> factory = RECEIVERS.get(name);
+        if(factory == null) {
+            throw new IllegalArgumentException("Unknown receiver '" + name + "', expected one of " +
+                    RECEIVERS.keySet());
+        }
+        return factory.apply(quantum);
+    }
+
+    private final Workload workload;
+    private final List<String> receivers;
+    private final long quantum;
+    private Path checkpointDir;
+    private long checkpointIntervalMs;
+    private Path walDir;
+    private int capacity = Integer.MAX_VALUE;
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.REJECT;
+    private Map<String, Integer> groupWeights = Map.of();
+    // Quota and period in ms by group
+    private Map<String, long[]> quotas = Map.of();
+    private boolean batching;
+    private long switchMs;
+    private long refillMs;
+    private int cacheSlots = 1;
+    private double predictAlpha;
+    private long predictInitialMs;
+    private int imbalance = 1;
+    private long migrationMs = 5;
+
+    public BatchRunner(Workload workload, List<String> receivers, long quantum) {
+        for(String name : receivers) {
+            if(!RECEIVERS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown receiver '" + name + "', expected one of " +
+                        RECEIVERS.keySet());
+            }
+        }
+        this.workload = workload;
+        this.receivers = List.copyOf(receivers);
+        this.quantum = quantum;
+    }
+
+    /**
+     * Checkpoints each receiver while it runs, and resumes from a checkpoint left by an earlier run.
+     * @param dir the directory to write the checkpoints to
+     * @param intervalMs the time between checkpoints
+     */
+    public void setCheckpoints(Path dir, long intervalMs) {
+        checkpointDir = dir;
+        checkpointIntervalMs = intervalMs;
+    }
+
+    /**
+     * Logs the processes each receiver accepts and completes, and recovers the processes left
+     * in a log by an earlier run that did not finish.
+     * @param dir the directory to write the logs to
+     */
+    public void setWriteAheadLogs(Path dir) {
+        walDir = dir;
+    }
+
+    /**
+     * Bounds the number of processes each receiver holds.
+     * @see ModRegReceiver#setAdmission(int, AdmissionPolicy)
+     */
+    public void setAdmission(int capacity, AdmissionPolicy policy) {
+        this.capacity = capacity;
+        this.admissionPolicy = policy;
+    }
+
+    /**
+     * Sets the weights of the fair-share receiver's groups.
+     * @param weights the weight of each group, by path
+     */
+    public void setGroupWeights(Map<String, Integer> weights) {
+        groupWeights = Map.copyOf(weights);
+    }
+
+    /**
+     * Caps the CPU time of groups in every receiver.
+     * @param quotas the quota and period in ms of each group, by path
+     * @see ModRegReceiver#setQuota(String, long, long)
+     */
+    public void setQuotas(Map<String, long[]> quotas) {
+        this.quotas = Map.copyOf(quotas);
+    }
+
+    /**
+     * @see ModRegReceiver#setBatching(boolean)
+     */
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
+
+    /**
+     * Charges every receiver for its context switches, each with its own {@link ContextSwitchModel}.
+     * @see ContextSwitchModel#ContextSwitchModel(long, long, int)
+     * @throws IllegalArgumentException if a cost is negative or there are no cache slots
+     */
+    public void setContextSwitchCost(long switchMs, long refillMs, int cacheSlots) {
+        // Checks the costs now rather than when the receivers are made
+        new ContextSwitchModel(switchMs, refillMs, cacheSlots);
+        this.switchMs = switchMs;
+        this.refillMs = refillMs;
+        this.cacheSlots = cacheSlots;
+    }
+
+    /**
+     * Makes the shortest-job receiver order by predicted rather than actual work, each run with
+     * its own {@link BurstPredictor}.
+     * @see BurstPredictor#BurstPredictor(double, long)
+     * @throws IllegalArgumentException if alpha is not in (0, 1] or the estimate is not positive
+     */
+    public void setBurstPrediction(double alpha, long initialMs) {
+        // Checks the parameters now rather than when the receivers are made
+        new BurstPredictor(alpha, initialMs);
+        this.predictAlpha = alpha;
+        this.predictInitialMs = initialMs;
+    }
+
+    /**
+     * Sets how the workload is moved between cores by {@link #simulateCores(String, int, boolean)}.
+     * @see MultiCoreSimulator#setAffinity(boolean, int, long)
+     * @throws IllegalArgumentException if the imbalance or migration cost is negative
+     */
+    public void setMigration(int imbalance, long migrationMs) {
+        if(imbalance < 0 || migrationMs < 0) {
+            throw new IllegalArgumentException("The imbalance and migration cost cannot be negative");
+        }
+        this.imbalance = imbalance;
+        this.migrationMs = migrationMs;
+    }
+
+    /**
+     * Runs the workload through a receiver on several cores in simulated time, each core with its
+     * own queues. The run takes no real time, so checkpoints, logs and quotas are left out.
+     * @param name one of {@link #getReceiverNames()}
+     * @param affinity true to keep processes on their last core while the load allows
+     * @return the simulator, with the migrations and throughput of the run
+     */
+    public MultiCoreSimulator simulateCores(String name, int cores, boolean affinity) {
+        List<ModRegReceiver> receivers = new ArrayList<>(cores);
+        for(int i = 0; i < cores; i++) {
+            receivers.add(createReceiver(name, quantum));
+        }
+        MultiCoreSimulator simulator = new MultiCoreSimulator(receivers, quantum);
+        simulator.setAffinity(affinity, imbalance, migrationMs);
+        List<ModuleRegister> processes = workload.createProcesses();
+        long[] arrivals = new long[processes.size()];
+        for(int i = 0; i < arrivals.length; i++) {
+            arrivals[i] = workload.getJobs().get(i).getArrival();
+        }
+        simulator.run(processes, arrivals, new long[processes.size()]);
+        return simulator;
+    }
+
+    /**
+     * Runs the workload through every receiver and waits for them all to finish.
+     * @return a summary of each receiver, in the order they were given
+     * @throws IOException if a checkpoint or log cannot be read
+     */
+    public List<Summary> run() throws IOException, InterruptedException {
+        List<Summary> summaries = new ArrayList<>(receivers.size());
+        List<Thread> dispatchers = new ArrayList<>(receivers.size());
+        List<Checkpointer> checkpointers = new ArrayList<>();
+        List<WriteAheadLog> logs = new ArrayList<>();
+        for(String name : receivers) {
+            ModRegReceiver receiver = createReceiver(name, quantum);
+            if(capacity != Integer.MAX_VALUE) {
+                receiver.setAdmission(capacity, admissionPolicy);
+            }
+            if(receiver instanceof FairShareReceiver fair) {
+                groupWeights.forEach(fair::setWeight);
+            }
+            if(receiver instanceof ShortestJobFirstReceiver sjf && predictAlpha > 0) {
+                sjf.setBurstPredictor(new BurstPredictor(predictAlpha, predictInitialMs));
+            }
+            quotas.forEach((group, quota) -> receiver.setQuota(group, quota[0], quota[1]));
+            receiver.setBatching(batching);
+            if(switchMs > 0 || refillMs > 0) {
+                receiver.setContextSwitchModel(new ContextSwitchModel(switchMs, refillMs, cacheSlots));
+            }
+            Path checkpoint = checkpointDir != null ? checkpointDir.resolve(name + ".ckpt") : null;
+            Checkpoint saved = checkpoint != null && Files.exists(checkpoint) ? Checkpoint.read(checkpoint) : null;
+            WriteAheadLog wal = walDir != null ? WriteAheadLog.open(walDir.resolve(name + ".wal")) : null;
+            if(wal != null) {
+                logs.add(wal);
+                receiver.setWriteAheadLog(wal);
+            }
+
+            List<ModuleRegister> processes;
+            if(wal != null && (saved != null || wal.getRecoveredCount() > 0)) {
+                processes = wal.recover(receiver, saved);
+                System.err.println(name + ": recovered " + processes.size() + " processes from " + wal.getFile());
+            } else if(saved != null) {
+                processes = saved.restore(receiver);
+                System.err.println(name + ": resumed " + processes.size() + " processes from " + checkpoint);
+            } else {
+                processes = workload.createProcesses();
+                for(int i = 0; i < processes.size(); i++) {
+                    long arrival = workload.getJobs().get(i).getArrival();
+                    if(arrival == 0) {
+                        receiver.enqueue(processes.get(i));
+                    } else {
+                        receiver.enqueueAfter(processes.get(i), arrival);
+                    }
+                }
+            }
+            if(checkpoint != null) {
+                Checkpointer checkpointer = new Checkpointer(receiver, checkpoint, checkpointIntervalMs);
+                checkpointer.start();
+                checkpointers.add(checkpointer);
+            }
+
+            Summary summary = new Summary(name, processes, System.currentTimeMillis());
+            summary.switchModel = receiver.getContextSwitchModel();
+            if(receiver instanceof ShortestJobFirstReceiver sjf) {
+                summary.predictor = sjf.getBurstPredictor();
+            }
+            summaries.add(summary);
+            dispatchers.add(receiver.startDispatcher(() -> {
+                summary.end = System.currentTimeMillis();
+                if(receiver instanceof FairShareReceiver fair) {
+                    summary.groupUsage = fair.getGroupUsage();
+                }
+                summary.quotas = receiver.getQuotas();
+                summary.cpuUtilisation = receiver.getCpuUtilisation();
+                summary.ioResponse = receiver.getIoResponseTimes();
+            }));
+        }
+
+        for(Thread dispatcher : dispatchers) {
+            dispatcher.join();
+        }
+        for(Checkpointer checkpointer : checkpointers) {
+            checkpointer.close();
+        }
+        for(WriteAheadLog wal : logs) {
+            wal.close();
+        }
+        // Every receiver finished, so there is nothing to resume
+        for(String name : receivers) {
+            if(checkpointDir != null) {
+                Files.deleteIfExists(checkpointDir.resolve(name + ".ckpt"));
+            }
+            if(walDir != null) {
+                Files.deleteIfExists(walDir.resolve(name + ".wal"));
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * The outcome of running the workload through one receiver.
+     */
+    public static final class Summary {
+        private final String receiver;
+        private final List<ModuleRegister> processes;
+        private final long start;
+        private volatile long end;
+        private volatile List<FairShareReceiver.GroupUsage> groupUsage = List.of();
+        private volatile List<GroupBandwidth> quotas = List.of();
+        private ContextSwitchModel switchModel;
+        private BurstPredictor predictor;
+        private volatile double cpuUtilisation;
+        private volatile Histogram ioResponse = new Histogram();
+
+        private Summary(String receiver, List<ModuleRegister> processes, long start) {
+            this.receiver = receiver;
+            this.processes = processes;
+            this.start = start;
+        }
+
+        public String getReceiver() {
+            return receiver;
+        }
+
+        public List<ModuleRegister> getProcesses() {
+            return processes;
+        }
+
+        /**
+         * @return the CPU time given to each group, if the receiver was the fair-share receiver
+         */
+        public List<FairShareReceiver.GroupUsage> getGroupUsage() {
+            return groupUsage;
+        }
+
+        /**
+         * @return the quotas of the receiver's groups, with how much each was throttled
+         */
+        public List<GroupBandwidth> getQuotas() {
+            return quotas;
+        }
+
+        /**
+         * @return the fraction of the receiver's run in which a process held the CPU
+         */
+        public double getCpuUtilisation() {
+            return cpuUtilisation;
+        }
+
+        /**
+         * @return the time in ms from each I/O burst completing until the process next had the CPU
+         */
+        public Histogram getIoResponseTimes() {
+            return ioResponse;
+        }
+
+        /**
+         * @return the time the receiver lost to context switches, or null if switches were free
+         */
+        public ContextSwitchModel getContextSwitchModel() {
+            return switchModel;
+        }
+
+        /**
+         * @return how far the receiver's burst predictions were out, or null if it was told the
+         * work of each process
+         */
+        public BurstPredictor getBurstPredictor() {
+            return predictor;
+        }
+
+        /**
+         * @return the time in ms from the receiver starting until its last process finished
+         */
+        public long getMakespan() {
+            return end - start;
+        }
+
+        static void printHeader(PrintStream out) {
+            out.printf("%-10s %5s %9s %9s %9s %9s %9s %7s %7s %6s %7s %7s%n", "receiver", "jobs", "makespan",
+                    "mean_ta", "p50_ta", "p99_ta", "mean_wait", "missed", "dropped", "util", "io_p50", "io_p99");
+        }
+
+        void print(PrintStream out) {
+            long[] turnaround = new long[processes.size()];
+            int jobs = 0;
+            long totalTurnaround = 0;
+            long totalWait = 0;
+            int missed = 0;
+            for(ModuleRegister m : processes) {
+                // Rejected and shed processes never finish their work
+                if(m.getRemainingWorkToDo() > 0) continue;
+                // After a process terminates, its ready time is when it last left the CPU
+                long ta = m.getReadyTime() - m.getAdmittedTime();
+                turnaround[jobs++] = ta;
+                totalTurnaround += ta;
+                totalWait += Math.max(0, ta - m.getWorkCompleted());
+                if(m.hasMissedDeadline()) missed++;
+            }
+            turnaround = Arrays.copyOf(turnaround, jobs);
+            Arrays.sort(turnaround);
+
+            out.printf("%-10s %5d %9d %9d %9d %9d %9d %7d %7d %6.3f %7d %7d%n", receiver, jobs, getMakespan(),
+                    jobs == 0 ? 0 : totalTurnaround / jobs, percentile(turnaround, 50),
+                    percentile(turnaround, 99), jobs == 0 ? 0 : totalWait / jobs, missed, processes.size() - jobs,
+                    cpuUtilisation, ioResponse.getValueAtPercentile(50), ioResponse.getValueAtPercentile(99));
+        }
+
+        // Nearest-rank percentile of a sorted array
+        private static long percentile(long[] sorted, double percentile) {
+            if(sorted.length == 0) return 0;
+            int rank = (int) Math.ceil(sorted.length * percentile / 100);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> receivers = new ArrayList<>(RECEIVERS.keySet());
+        long quantum = 100;
+        String metrics = null;
+        String trace = null;
+        String checkpoints = null;
+        long checkpointInterval = 1000;
+        String wal = null;
+        int capacity = Integer.MAX_VALUE;
+        AdmissionPolicy admission = AdmissionPolicy.REJECT;
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        Map<String, long[]> quotas = new LinkedHashMap<>();
+        boolean batching = false;
+        long switchCost = 0;
+        long cacheRefill = 0;
+        int cacheSlots = 1;
+        double predictAlpha = 0;
+        long predictInitial = -1;
+        int cores = 1;
+        int imbalance = 1;
+        long migrationCost = 5;
+        String file = null;
+
+        for(int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--receivers" -> receivers = List.of(value(args, ++i).split(","));
+                case "--quantum" -> quantum = Long.parseLong(value(args, ++i));
+                case "--metrics" -> metrics = value(args, ++i);
+                case "--trace" -> trace = value(args, ++i);
+                case "--checkpoint" -> checkpoints = value(args, ++i);
+                case "--checkpoint-interval" -> checkpointInterval = Long.parseLong(value(args, ++i));
+                case "--wal" -> wal = value(args, ++i);
+                case "--capacity" -> capacity = Integer.parseInt(value(args, ++i));
+                case "--admission" -> admission = admissionPolicy(value(args, ++i));
+                case "--weights" -> {
+                    for(String weight : value(args, ++i).split(",")) {
+                        int eq = weight.lastIndexOf('=');
+                        if(eq < 0) usage("Expected group=weight, got '" + weight + "'");
+                        weights.put(weight.substring(0, eq), Integer.parseInt(weight.substring(eq + 1)));
+                    }
+                }
+                case "--batch" -> batching = true;
+                case "--switch-cost" -> switchCost = Long.parseLong(value(args, ++i));
+                case "--cache-refill" -> cacheRefill = Long.parseLong(value(args, ++i));
+                case "--cache-slots" -> cacheSlots = Integer.parseInt(value(args, ++i));
+                case "--cores" -> cores = Integer.parseInt(value(args, ++i));
+                case "--imbalance" -> imbalance = Integer.parseInt(value(args, ++i));
+                case "--migration-cost" -> migrationCost = Long.parseLong(value(args, ++i));
+                case "--predict" -> {
+                    String predict = value(args, ++i);
+                    int slash = predict.indexOf('/');
+                    predictAlpha = Double.parseDouble(slash < 0 ? predict : predict.substring(0, slash));
+                    if(slash >= 0) predictInitial = Long.parseLong(predict.substring(slash + 1));
+                }
+                case "--quota" -> {
+                    for(String quota : value(args, ++i).split(",")) {
+                        int eq = quota.lastIndexOf('=');
+                        int slash = quota.indexOf('/', eq);
+                        if(eq < 0 || slash < 0) usage("Expected group=ms/period, got '" + quota + "'");
+                        quotas.put(quota.substring(0, eq), new long[] {
+                                Long.parseLong(quota.substring(eq + 1, slash)), Long.parseLong(quota.substring(slash + 1))});
+                    }
+                }
+                default -> {
+                    if(args[i].startsWith("--") || file != null) usage("Unexpected argument " + args[i]);
+                    file = args[i];
+                }
+            }
+        }
+        if(file == null) {
+            usage("No workload file given");
+        }
+
+        BatchRunner runner = null;
+        try {
+            runner = new BatchRunner(Workload.read(Path.of(file)), receivers, quantum);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+        if(checkpoints != null) {
+            Files.createDirectories(Path.of(checkpoints));
+            runner.setCheckpoints(Path.of(checkpoints), checkpointInterval);
+        }
+        if(wal != null) {
+            Files.createDirectories(Path.of(wal));
+            runner.setWriteAheadLogs(Path.of(wal));
+        }
+        if(capacity != Integer.MAX_VALUE) {
+            runner.setAdmission(capacity, admission);
+        }
+        runner.setGroupWeights(weights);
+        runner.setQuotas(quotas);
+        runner.setBatching(batching);
+        try {
+            runner.setContextSwitchCost(switchCost, cacheRefill, cacheSlots);
+            if(predictAlpha != 0) {
+                runner.setBurstPrediction(predictAlpha, predictInitial < 0 ? quantum : predictInitial);
+            }
+            runner.setMigration(imbalance, migrationCost);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+
+        MetricsRegistry registry = new MetricsRegistry();
+        ModRegReceiver.setMetricsRegistry(registry);
+        if(trace != null) {
+            ModRegReceiver.setTraceWriter(new TraceWriter(Path.of(trace), TraceWriter.DEFAULT_CAPACITY));
+        }
+
+        List<Summary> summaries = runner.run();
+
+        Summary.printHeader(System.out);
+        for(Summary summary : summaries) {
+            summary.print(System.out);
+        }
+        for(Summary summary : summaries) {
+            if(summary.getGroupUsage().isEmpty()) continue;
+            System.out.println();
+            System.out.printf("%-24s %6s %8s %6s %6s%n", "group", "weight", "cpu_ms", "share", "target");
+            for(FairShareReceiver.GroupUsage usage : summary.getGroupUsage()) {
+                System.out.printf("%-24s %6d %8d %6.3f %6.3f%n", usage.getGroup(), usage.getWeight(),
+                        usage.getCpuTime(), usage.getShare(), usage.getTargetShare());
+            }
+        }
+        if(!quotas.isEmpty()) {
+            System.out.println();
+            System.out.printf("%-10s %-24s %10s %8s %9s %12s%n", "receiver", "group", "quota", "cpu_ms",
+                    "throttles", "throttled_ms");
+            for(Summary summary : summaries) {
+                for(GroupBandwidth quota : summary.getQuotas()) {
+                    System.out.printf("%-10s %-24s %10s %8d %9d %12d%n", summary.getReceiver(), quota.getGroup(),
+                            quota.getQuota() + "/" + quota.getPeriod(), quota.getCpuTime(),
+                            quota.getThrottleCount(), quota.getThrottledTime());
+                }
+            }
+        }
+        if(switchCost > 0 || cacheRefill > 0) {
+            System.out.println();
+            System.out.printf("%-10s %8s %9s %9s %9s %6s%n", "receiver", "switches", "switch_ms", "refill_ms",
+                    "useful_ms", "util");
+            for(Summary summary : summaries) {
+                ContextSwitchModel model = summary.getContextSwitchModel();
+                System.out.printf("%-10s %8d %9d %9d %9d %6.3f%n", summary.getReceiver(), model.getSwitches(),
+                        model.getSwitchTime(), model.getRefillTime(), model.getUsefulTime(), model.getUtilisation());
+            }
+        }
+        if(predictAlpha != 0) {
+            System.out.println();
+            System.out.printf("%-10s %7s %8s %8s %8s %8s%n", "receiver", "bursts", "mae_ms", "bias_ms",
+                    "p50_err", "p99_err");
+            for(Summary summary : summaries) {
+                BurstPredictor predictor = summary.getBurstPredictor();
+                if(predictor == null) continue;
+                Histogram errors = predictor.getErrors();
+                System.out.printf("%-10s %7d %8.1f %8.1f %8d %8d%n", summary.getReceiver(), errors.getCount(),
+                        predictor.getMeanAbsoluteError(), predictor.getBias(), errors.getValueAtPercentile(50),
+                        errors.getValueAtPercentile(99));
+            }
+        }
+        if(cores > 1) {
+            int jobs = runner.workload.getJobs().size();
+            System.out.println();
+            System.out.printf("%-10s %5s %10s %10s %9s %9s %8s %8s%n", "receiver", "cores", "migr_aff",
+                    "migr_none", "tput_aff", "tput_none", "change", "saved_ms");
+            for(String name : receivers) {
+                MultiCoreSimulator affine = runner.simulateCores(name, cores, true);
+                MultiCoreSimulator spread = runner.simulateCores(name, cores, false);
+                double change = spread.getThroughput(jobs) == 0 ? 0
+                        : affine.getThroughput(jobs) / spread.getThroughput(jobs) - 1;
+                System.out.printf("%-10s %5d %10d %10d %9.2f %9.2f %+7.1f%% %8d%n", name, cores,
+                        affine.getMigrations(), spread.getMigrations(), affine.getThroughput(jobs),
+                        spread.getThroughput(jobs), change * 100, spread.getMigrationTime() - affine.getMigrationTime());
+            }
+        }
+
+        if(metrics != null) {
+            StringBuilder out = new StringBuilder(4096);
+            registry.writePrometheus(out);
+            if(metrics.equals("-")) {
+                System.out.println();
+                System.out.print(out);
+            } else {
+                Files.writeString(Path.of(metrics), out);
+            }
+        }
+
+        if(trace != null) {
+            ModRegReceiver.getTraceWriter().close();
+        }
+    }
+
+    private static AdmissionPolicy admissionPolicy(String name) {
+        return switch (name) {
+            case "reject" -> AdmissionPolicy.REJECT;
+            case "block" -> AdmissionPolicy.BLOCK;
+            case "shed" -> AdmissionPolicy.SHED_LOWEST_PRIORITY;
+            default -> {
+                usage("Unknown admission policy '" + name + "', expected reject, block or shed");
+                yield null;
+            }
+        };
+    }
+
+    private static String value(String[] args, int i) {
+        if(i >= args.length) usage("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: BatchRunner [--receivers rr,priority,mlfq,mlfq-real,sjf,fcfs,fair,mlq] " +
+                "[--quantum ms] [--metrics file|-] [--trace file] [--checkpoint dir] [--checkpoint-interval ms] " +
+                "[--wal dir] [--capacity n] [--admission reject|block|shed] [--weights group=w,...] " +
+                "[--quota group=ms/period,...] [--batch] [--switch-cost ms] [--cache-refill ms] [--cache-slots n] " +
+                "[--predict alpha[/ms]] [--cores n] [--imbalance n] [--migration-cost ms] <workload file>");
+        System.exit(2);
+    }
+}
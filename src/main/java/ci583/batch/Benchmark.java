@@ -0,0 +1,491 @@
+package ci583.batch;
+
+import ci583.receiver.ModRegReceiver;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.PolicySimulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * <p>
+ * A performance regression gate for the receivers. Fixed, seeded workloads are run through every
+ * receiver twice: through its scheduling policy alone with a {@link PolicySimulator}, and through
+ * its real dispatch loop in simulated time (see {@link ModRegReceiver#simulateTime()}), which adds
+ * the cost of the timing wheel, dispatch log, admission and everything else done at a dispatch
+ * point. The results are compared with baselines committed to the repository:
+ * </p>
+ * <ul>
+ *     <li>throughput, as decisions per second relative to a reference workload run on the same
+ *     machine at the same time</li>
+ *     <li>bytes allocated per decision</li>
+ *     <li>p50 and p99 turnaround, in simulated time</li>
+ * </ul>
+ * <p>
+ * The turnarounds only depend on the decisions made, so are the same on every machine and are
+ * held to a tight tolerance. Decisions per second depend on the machine, so are divided by the
+ * speed of a reference workload that uses none of the receivers' code (see
+ * {@link #measureReference()}), which leaves a ratio that holds across machines. It and allocation
+ * still vary between JVM runs, so are given more room. To record new baselines after an intended
+ * change:
+ * </p>
+ * <pre>
+ *     java -cp target/classes ci583.batch.Benchmark --write src/main/resources/ci583/benchmark-baseline.properties
+ * </pre>
+ * <p>
+ * Without {@code --write}, the benchmark compares against the committed baselines and exits with
+ * status 1 if a metric has regressed past its tolerance.
+ * </p>
+ */
+public final class Benchmark {
+
+    /** The classpath resource holding the committed baselines */
+    public static final String BASELINE_RESOURCE = "/ci583/benchmark-baseline.properties";
+
+    /** The fraction relative throughput may fall below the baseline by, as it varies between JVM runs */
+    public static final double THROUGHPUT_TOLERANCE = 0.6;
+    /** The fraction bytes per decision may rise above the baseline by, on top of ALLOCATION_SLACK */
+    public static final double ALLOCATION_TOLERANCE = 0.25;
+    /** Bytes per decision always allowed over the baseline, so a policy that allocates nothing has some room */
+    public static final double ALLOCATION_SLACK = 16;
+    /** The fraction turnarounds may rise above the baseline by */
+    public static final double LATENCY_TOLERANCE = 0.02;
+
+    private static final long QUANTUM = 100;
+    private static final int WARMUP_RUNS = 15;
+    private static final int MEASURED_RUNS = 10;
+    // The reference workload sorts this many keys in each of its runs
+    private static final int REFERENCE_KEYS = 1 << 16;
+    // Rounds of every measurement made when writing baselines
+    private static final int BASELINE_ROUNDS = 3;
+
+    private Benchmark() {}
+
+    /**
+     * How a scenario is run through a receiver.
+     */
+    public enum Mode {
+        /** Through the receiver's scheduling policy alone, with a {@link PolicySimulator} */
+        POLICY,
+        /** Through the receiver's real dispatch loop, in simulated time */
+        DISPATCH
+    }
+
+    /**
+     * A fixed workload, generated from a seed so that it is the same on every run.
+     */
+    public enum Scenario {
+        /** Jobs of evenly spread lengths, all arriving at once, in four groups and three priorities */
+        UNIFORM(42) {
+            @Override
+            Workload workload(Random random) {
+                List<Workload.Job> jobs = new ArrayList<>(JOBS);
+                for(int i = 0; i < JOBS; i++) {
+                    jobs.add(job(i, 100 + random.nextInt(4901), 0, random));
+                }
+                return new Workload(jobs);
+            }
+        },
+        /** Mostly short jobs with a few long ones, arriving in bursts of 200 every 10s */
+        BURSTY(7) {
+            @Override
+            Workload workload(Random random) {
+                List<Workload.Job> jobs = new ArrayList<>(JOBS);
+                for(int i = 0; i < JOBS; i++) {
+                    long work = random.nextInt(5) == 0 ? 5000 + random.nextInt(15001) : 100 + random.nextInt(401);
+                    jobs.add(job(i, work, i / 200 * 10_000L + random.nextInt(100), random));
+                }
+                return new Workload(jobs);
+            }
+        };
+
+        private static final int JOBS = 2000;
+        private static final ModuleRegister.Priority[] PRIORITIES = ModuleRegister.Priority.values();
+        private static final String[] GROUPS = { "computing/year1", "computing/year2", "business", "arts" };
+
+        private final long seed;
+
+        Scenario(long seed) {
+            this.seed = seed;
+        }
+
+        abstract Workload workload(Random random);
+
+        /**
+         * @return the jobs of the scenario, the same every time
+         */
+        public Workload workload() {
+            return workload(new Random(seed));
+        }
+
+        private static Workload.Job job(int i, long work, long arrival, Random random) {
+            return new Workload.Job("P" + i, "P" + i, work, PRIORITIES[random.nextInt(PRIORITIES.length)],
+                    arrival, 0, 0, GROUPS[random.nextInt(GROUPS.length)]);
+        }
+    }
+
+    /**
+     * Measures how fast this machine runs a fixed workload that uses none of the receivers' code,
+     * sorting seeded random keys, after warming up. Throughputs are divided by this, so that a
+     * baseline recorded on one machine can be checked on another.
+     * @return keys sorted per second, the best of the measured runs
+     */
+    public static double measureReference() {
+        long[] keys = new Random(1).longs(REFERENCE_KEYS).toArray();
+        double best = 0;
+        for(int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+            long[] copy = keys.clone();
+            long start = System.nanoTime();
+            Arrays.sort(copy);
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            if(run >= WARMUP_RUNS) {
+                best = Math.max(best, REFERENCE_KEYS * 1e9 / elapsed);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs a scenario through a receiver, after warming up.
+     * @param receiver one of {@link BatchRunner#getReceiverNames()}
+     * @param reference the speed of the reference workload, see {@link #measureReference()}
+     */
+    public static Result measure(String receiver, Scenario scenario, Mode mode, double reference) {
+        Workload workload = scenario.workload();
+        long[] arrivals = new long[workload.getJobs().size()];
+        for(int i = 0; i < arrivals.length; i++) {
+            arrivals[i] = workload.getJobs().get(i).getArrival();
+        }
+        long[] turnaround = new long[arrivals.length];
+
+        double decisionsPerSecond = 0;
+        double bytesPerDecision = Double.MAX_VALUE;
+        for(int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+            // Made outside the measurement, as the threads of the processes are costly to make
+            List<ModuleRegister> processes = workload.createProcesses();
+            ModRegReceiver target = BatchRunner.createReceiver(receiver, QUANTUM);
+
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            long decisions = mode == Mode.POLICY
+                    ? simulate(target, processes, arrivals, turnaround)
+                    : dispatch(target, processes, arrivals, turnaround);
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            // The dispatch log is allocated once, on the first slice, so is not charged to every decision
+            long bytes = allocatedBytes() - allocated - target.getDispatchLog().getFootprint();
+
+            if(run >= WARMUP_RUNS) {
+                // The best of the runs, as noise only ever makes a run look worse
+                decisionsPerSecond = Math.max(decisionsPerSecond, decisions * 1e9 / elapsed);
+                bytesPerDecision = allocated < 0 ? -1 : Math.min(bytesPerDecision, (double) bytes / decisions);
+            }
+        }
+
+        Arrays.sort(turnaround);
+        return new Result(receiver, scenario, mode, decisionsPerSecond, decisionsPerSecond / reference,
+                bytesPerDecision, percentile(turnaround, 0.5), percentile(turnaround, 0.99));
+    }
+
+    private static long simulate(ModRegReceiver receiver, List<ModuleRegister> processes, long[] arrivals,
+                                 long[] turnaround) {
+        long decisions = new PolicySimulator(receiver, QUANTUM).run(processes, arrivals, turnaround);
+        for(int i = 0; i < turnaround.length; i++) {
+            // The simulator fills in the finish times
+            turnaround[i] -= arrivals[i];
+        }
+        return decisions;
+    }
+
+    /**
+     * Runs the processes through the receiver's dispatch loop on this thread, in simulated time.
+     * @return the number of slices of CPU time handed out
+     */
+    private static long dispatch(ModRegReceiver receiver, List<ModuleRegister> processes, long[] arrivals,
+                                 long[] turnaround) {
+        receiver.simulateTime();
+        for(int i = 0; i < arrivals.length; i++) {
+            if(arrivals[i] == 0) {
+                receiver.enqueue(processes.get(i));
+            } else {
+                receiver.enqueueAfter(processes.get(i), arrivals[i]);
+            }
+        }
+        receiver.startRegistration();
+        for(int i = 0; i < turnaround.length; i++) {
+            ModuleRegister m = processes.get(i);
+            turnaround[i] = m.getReadyTime() - m.getAdmittedTime();
+        }
+        return receiver.getDispatchLog().head();
+    }
+
+    /**
+     * Runs every scenario through every receiver, both ways.
+     */
+    public static List<Result> measureAll() {
+        double reference = measureReference();
+        List<Result> results = new ArrayList<>();
+        for(String receiver : BatchRunner.getReceiverNames()) {
+            for(Scenario scenario : Scenario.values()) {
+                for(Mode mode : Mode.values()) {
+                    results.add(measure(receiver, scenario, mode, reference));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compares results with the baselines, measuring any result that has regressed once more, with
+     * a fresh reference, as a single measurement can be slowed by the JIT compiler or another
+     * process. Only a result that regresses both times is reported.
+     * @param throughputTolerance the fraction relative throughput may fall below the baseline by
+     * @return a description of each metric that has regressed, empty if none have
+     */
+    public static List<String> check(List<Result> results, Properties baseline, double throughputTolerance) {
+        List<String> regressions = new ArrayList<>();
+        Double reference = null;
+        for(Result result : results) {
+            if(compare(List.of(result), baseline, throughputTolerance).isEmpty()) {
+                continue;
+            }
+            if(reference == null) {
+                reference = measureReference();
+            }
+            Result again = measure(result.getReceiver(), result.getScenario(), result.getMode(), reference);
+            regressions.addAll(compare(List.of(again), baseline, throughputTolerance));
+        }
+        return regressions;
+    }
+
+    /**
+     * Compares results with the baselines. Results without a baseline, e.g. of a new receiver,
+     * are not checked.
+     * @param throughputTolerance the fraction decisions per second may fall below the baseline by
+     * @return a description of each metric that has regressed, empty if none have
+     */
+    public static List<String> compare(List<Result> results, Properties baseline, double throughputTolerance) {
+        List<String> regressions = new ArrayList<>();
+        for(Result result : results) {
+            String key = result.getKey();
+            String recorded = baseline.getProperty(key + ".relativeThroughput");
+            if(recorded != null) {
+                double limit = Double.parseDouble(recorded) * (1 - throughputTolerance);
+                if(result.getRelativeThroughput() < limit) {
+                    regressions.add(String.format("%s: %.4f of the reference throughput, below %.4f", key,
+                            result.getRelativeThroughput(), limit));
+                }
+            }
+            recorded = baseline.getProperty(key + ".bytesPerDecision");
+            if(recorded != null && result.getBytesPerDecision() >= 0) {
+                double limit = Double.parseDouble(recorded) * (1 + ALLOCATION_TOLERANCE) + ALLOCATION_SLACK;
+                if(result.getBytesPerDecision() > limit) {
+                    regressions.add(String.format("%s: %.1f bytes/decision, above %.1f", key,
+                            result.getBytesPerDecision(), limit));
+                }
+            }
+            checkLatency(regressions, key, "p50", result.getP50(), baseline);
+            checkLatency(regressions, key, "p99", result.getP99(), baseline);
+        }
+        return regressions;
+    }
+
+    private static void checkLatency(List<String> regressions, String key, String name, long value,
+                                     Properties baseline) {
+        String recorded = baseline.getProperty(key + "." + name);
+        if(recorded == null) {
+            return;
+        }
+        double limit = Long.parseLong(recorded) * (1 + LATENCY_TOLERANCE);
+        if(value > limit) {
+            regressions.add(String.format("%s: %s turnaround %dms, above %.0fms", key, name, value, limit));
+        }
+    }
+
+    /**
+     * Reads the committed baselines from the classpath.
+     * @throws IOException if there are none
+     */
+    public static Properties readBaseline() throws IOException {
+        Properties baseline = new Properties();
+        try(InputStream in = Benchmark.class.getResourceAsStream(BASELINE_RESOURCE)) {
+            if(in == null) {
+                throw new IOException("No baseline at " + BASELINE_RESOURCE);
+            }
+            baseline.load(in);
+        }
+        return baseline;
+    }
+
+    /**
+     * Writes results as baselines.
+     */
+    public static void writeBaseline(List<Result> results, Path file) throws IOException {
+        // Written by hand rather than with Properties#store, so the file is sorted and has no timestamp
+        try(Writer out = Files.newBufferedWriter(file)) {
+            out.write("# Baselines for ci583.batch.Benchmark, regenerate with --write after an intended change\n");
+            for(Result result : results) {
+                String key = result.getKey();
+                out.write(String.format(Locale.ROOT, "%s.relativeThroughput=%.4f%n", key, result.getRelativeThroughput()));
+                if(result.getBytesPerDecision() >= 0) {
+                    out.write(String.format(Locale.ROOT, "%s.bytesPerDecision=%.1f%n", key, result.getBytesPerDecision()));
+                }
+                out.write(key + ".p50=" + result.getP50() + "\n");
+                out.write(key + ".p99=" + result.getP99() + "\n");
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far, or -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads &&
+                threads.isThreadAllocatedMemorySupported()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    /**
+     * The measurements of one scenario run through one receiver.
+     */
+    public static final class Result {
+        private final String receiver;
+        private final Scenario scenario;
+        private final Mode mode;
+        private final double decisionsPerSecond;
+        private final double relativeThroughput;
+        private final double bytesPerDecision;
+        private final long p50;
+        private final long p99;
+
+        private Result(String receiver, Scenario scenario, Mode mode, double decisionsPerSecond,
+                       double relativeThroughput, double bytesPerDecision, long p50, long p99) {
+            this.receiver = receiver;
+            this.scenario = scenario;
+            this.mode = mode;
+            this.decisionsPerSecond = decisionsPerSecond;
+            this.relativeThroughput = relativeThroughput;
+            this.bytesPerDecision = bytesPerDecision;
+            this.p50 = p50;
+            this.p99 = p99;
+        }
+
+        public String getReceiver() {
+            return receiver;
+        }
+
+        public Scenario getScenario() {
+            return scenario;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * @return the key of the result's baselines, e.g. {@code rr.uniform} through the policy, or
+         * {@code rr.uniform.dispatch} through the dispatch loop
+         */
+        public String getKey() {
+            String key = receiver + "." + scenario.name().toLowerCase(Locale.ROOT);
+            return mode == Mode.POLICY ? key : key + "." + mode.name().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * @return the decisions made per second on this machine
+         */
+        public double getDecisionsPerSecond() {
+            return decisionsPerSecond;
+        }
+
+        /**
+         * @return the decisions made per second, divided by the keys the reference workload sorted
+         * per second on the same machine
+         */
+        public double getRelativeThroughput() {
+            return relativeThroughput;
+        }
+
+        /**
+         * @return the bytes allocated per decision, or -1 if the JVM cannot tell
+         */
+        public double getBytesPerDecision() {
+            return bytesPerDecision;
+        }
+
+        /**
+         * @return the median turnaround in simulated ms
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * @return the 99th percentile turnaround in simulated ms
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.0f decisions/s (%.4f of reference) %.1f bytes/decision p50=%dms p99=%dms",
+                    getKey(), decisionsPerSecond, relativeThroughput, bytesPerDecision, p50, p99);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path write = null;
+        double tolerance = THROUGHPUT_TOLERANCE;
+        for(int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--write" -> write = Path.of(args[++i]);
+                case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+                default -> {
+                    System.err.println("Usage: Benchmark [--write baseline file] [--tolerance fraction]");
+                    System.exit(2);
+                }
+            }
+        }
+
+        List<Result> results = measureAll();
+        if(write != null) {
+            // The slowest of several rounds, so that a lucky round does not set a baseline others cannot meet
+            for(int round = 1; round < BASELINE_ROUNDS; round++) {
+                List<Result> again = measureAll();
+                for(int i = 0; i < results.size(); i++) {
+                    if(again.get(i).getRelativeThroughput() < results.get(i).getRelativeThroughput()) {
+                        results.set(i, again.get(i));
+                    }
+                }
+            }
+        }
+        System.out.printf("%-28s %14s %10s %16s %9s %9s%n", "receiver.scenario[.mode]", "decisions/s", "relative",
+                "bytes/decision", "p50_ms", "p99_ms");
+        for(Result result : results) {
+            System.out.printf("%-28s %14.0f %10.4f %16.1f %9d %9d%n", result.getKey(), result.getDecisionsPerSecond(),
+                    result.getRelativeThroughput(), result.getBytesPerDecision(), result.getP50(), result.getP99());
+        }
+
+        if(write != null) {
+            writeBaseline(results, write);
+            System.out.println("Wrote " + write);
+            return;
+        }
+        List<String> regressions = check(results, readBaseline(), tolerance);
+        for(String regression : regressions) {
+            System.out.println("REGRESSION " + regression);
+        }
+        System.exit(regressions.isEmpty() ? 0 : 1);
+    }
+}
@@ -0,0 +1,408 @@
+package ci583.batch;
+
+import ci583.metrics.Histogram;
+import ci583.receiver.AdmissionPolicy;
+import ci583.receiver.ModRegReceiver;
+import ci583.receiver.ModuleRegister;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Drives a receiver at a fixed arrival rate, to find the rate at which its latency takes off. The
+ * driver is open-loop: job <em>i</em> is due at {@code i / rate} seconds whether or not earlier jobs
+ * have completed, and is submitted from the driver's own thread as {@link ModRegReceiver#submit}
+ * would be by a client.
+ * </p>
+ * <p>
+ * Latency is measured from when each job was due, not from when it was actually submitted. A driver
+ * that falls behind (because the machine stalled, or submission blocked) submits the late jobs
+ * straight away, and their wait counts against the receiver, rather than being silently left out
+ * of the results, which would be coordinated omission. The latency from submission is reported too,
+ * for comparison. A job still unfinished once the run has drained is recorded with the time it has
+ * waited so far, as its latency is at least that.
+ * </p>
+ * <p>
+ * A rate is sustainable if every job was accepted and completed, and the corrected p99 latency is
+ * within the SLO. {@link #findMaxSustainable} ramps the rate geometrically until it crosses from
+ * sustainable to not, then bisects between the last two rates:
+ * </p>
+ * <pre>
+ *     java ci583.batch.LoadDriver [--receivers rr,sjf,...] [--quantum ms] [--work ms] [--rate jobs/s]
+ *                                 [--duration ms] [--slo ms] [--capacity n] [--batch]
+ * </pre>
+ * <p>
+ * Each rate is run against a new receiver, which holds at most {@code capacity} jobs, so an
+ * overloaded run rejects jobs rather than building an unbounded backlog. Whatever backlog is left
+ * once a rate has been measured is finished before the next rate starts, so that no rate shares
+ * the machine with the one before it.
+ * </p>
+ */
+public final class LoadDriver {
+
+    private static final double RAMP_FACTOR = 1.5;
+    private static final int MAX_RAMP_STEPS = 16;
+    private static final int BISECT_STEPS = 3;
+
+    private final Supplier<? extends ModRegReceiver> receivers;
+    private final long workMs;
+    private long durationMs = 3000;
+    private long sloMs = 1000;
+    private int capacity = 1000;
+
+    /**
+     * @param receivers creates a new receiver for each rate
+     * @param workMs the work of each job
+     */
+    public LoadDriver(Supplier<? extends ModRegReceiver> receivers, long workMs) {
+        if(workMs <= 0) {
+            throw new IllegalArgumentException("Work must be positive: " + workMs);
+        }
+        this.receivers = receivers;
+        this.workMs = workMs;
+    }
+
+    /**
+     * @param durationMs how long jobs are submitted for at each rate
+     * @param sloMs the p99 latency a sustainable rate must stay within
+     * @param capacity the most jobs each receiver holds at once
+     */
+    public void setLimits(long durationMs, long sloMs, int capacity) {
+        if(durationMs <= 0 || sloMs <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("The duration, SLO and capacity must be positive");
+        }
+        this.durationMs = durationMs;
+        this.sloMs = sloMs;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Submits jobs at the given rate for the configured duration, then waits up to as long again
+     * for them to complete. Any jobs still unfinished are then run to completion, outside the
+     * results, before returning, which takes at most {@code capacity * work} ms.
+     * @param rate jobs per second
+     */
+    public Step run(double rate) throws InterruptedException {
+        if(!(rate > 0)) {
+            throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        int jobs = Math.max(1, (int) (rate * durationMs / 1000));
+        Run run = new Run(receivers.get(), jobs);
+        run.receiver.setAdmission(capacity, AdmissionPolicy.REJECT);
+        run.receiver.setCompletionListener(run::completed);
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long startNanos = System.nanoTime();
+        long startMs = System.currentTimeMillis();
+        for(int i = 0; i < jobs; i++) {
+            long due = startNanos + i * intervalNanos;
+            long wait;
+            while((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            ModuleRegister m = new ModuleRegister("L" + i, workMs);
+            // In ms since the epoch, as the process times are
+            run.due.put(m, startMs + TimeUnit.NANOSECONDS.toMillis(due - startNanos));
+            if(run.receiver.submit(m)) {
+                run.startDispatcher();
+            } else {
+                run.due.remove(m);
+                run.rejected.incrementAndGet();
+            }
+        }
+        long submittedMs = System.currentTimeMillis() - startMs;
+
+        long drainUntil = System.currentTimeMillis() + durationMs;
+        synchronized(run) {
+            long left;
+            while(!run.due.isEmpty() && (left = drainUntil - System.currentTimeMillis()) > 0) {
+                run.wait(left);
+            }
+        }
+        run.receiver.setCompletionListener(null);
+        // Whatever is left has waited at least this long
+        long now = System.currentTimeMillis();
+        int unfinished = 0;
+        for(Long due : run.due.values()) {
+            run.corrected.record(now - due);
+            unfinished++;
+        }
+        long elapsed = Math.max(submittedMs, run.lastCompletion - startMs);
+        run.awaitDispatcherFinished();
+        boolean sustainable = run.rejected.get() == 0 && unfinished == 0 && run.corrected.getValueAtPercentile(99) <= sloMs;
+        return new Step(rate, jobs, run.completed.get(), run.rejected.get(), unfinished,
+                elapsed <= 0 ? 0 : run.completed.get() * 1000D / elapsed, run.corrected, run.uncorrected, sustainable);
+    }
+
+    /**
+     * Ramps the rate up from {@code startRate} by half again each step until it is not sustainable,
+     * or down until it is if {@code startRate} is not, then bisects between the highest sustainable
+     * rate and the lowest that was not.
+     * @return every step run, in order
+     */
+    public List<Step> findMaxSustainable(double startRate) throws InterruptedException {
+        List<Step> steps = new ArrayList<>();
+        double good = 0;
+        double bad = 0;
+        double rate = startRate;
+        // Up until a rate is not sustainable, or down until one is if the first is not
+        for(int i = 0; i < MAX_RAMP_STEPS && (good == 0 || bad == 0); i++) {
+            Step step = run(rate);
+            steps.add(step);
+            if(step.isSustainable()) {
+                good = rate;
+                rate *= RAMP_FACTOR;
+            } else {
+                bad = rate;
+                rate /= RAMP_FACTOR;
+            }
+        }
+        for(int i = 0; i < BISECT_STEPS && good > 0 && bad > 0; i++) {
+            double mid = (good + bad) / 2;
+            Step step = run(mid);
+            steps.add(step);
+            if(step.isSustainable()) {
+                good = mid;
+            } else {
+                bad = mid;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * @return the highest sustainable rate among the steps, or 0 if none were
+     */
+    public static double maxSustainable(List<Step> steps) {
+        double max = 0;
+        for(Step step : steps) {
+            if(step.isSustainable()) {
+                max = Math.max(max, step.getRate());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * One rate's receiver and the jobs it has not yet completed.
+     */
+    private static final class Run {
+        private final ModRegReceiver receiver;
+        // When each job still outstanding was due, in ms since the epoch
+        private final Map<ModuleRegister, Long> due;
+        private final Histogram corrected = new Histogram();
+        private final Histogram uncorrected = new Histogram();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger rejected = new AtomicInteger();
+        private volatile long lastCompletion;
+        private boolean dispatching;
+
+        private Run(ModRegReceiver receiver, int jobs) {
+            this.receiver = receiver;
+            due = new ConcurrentHashMap<>(jobs * 2);
+        }
+
+        // Called on the dispatcher thread
+        private void completed(ModuleRegister m) {
+            Long dueMs = due.remove(m);
+            if(dueMs == null) return;
+            // After a process terminates, its ready time is when it last left the CPU
+            long finished = m.getReadyTime();
+            corrected.record(finished - dueMs);
+            uncorrected.record(finished - m.getAdmittedTime());
+            completed.incrementAndGet();
+            lastCompletion = finished;
+            if(due.isEmpty()) {
+                synchronized(this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized void startDispatcher() {
+            if(!dispatching) {
+                dispatching = true;
+                receiver.startDispatcher(this::dispatcherFinished);
+            }
+        }
+
+        // A job submitted while the dispatcher was finishing has not been run, so start it again
+        private synchronized void dispatcherFinished() {
+            dispatching = false;
+            if(receiver.getOccupancy() > 0) {
+                startDispatcher();
+            } else {
+                notifyAll();
+            }
+        }
+
+        // Waits for the dispatcher to run out of work, once no more jobs are being submitted
+        private synchronized void awaitDispatcherFinished() throws InterruptedException {
+            while(dispatching) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * The outcome of driving a receiver at one rate.
+     */
+    public static final class Step {
+        private final double rate;
+        private final int offered;
+        private final int completed;
+        private final int rejected;
+        private final int unfinished;
+        private final double achievedRate;
+        private final Histogram corrected;
+        private final Histogram uncorrected;
+        private final boolean sustainable;
+
+        private Step(double rate, int offered, int completed, int rejected, int unfinished, double achievedRate,
+                     Histogram corrected, Histogram uncorrected, boolean sustainable) {
+            this.rate = rate;
+            this.offered = offered;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.unfinished = unfinished;
+            this.achievedRate = achievedRate;
+            this.corrected = corrected;
+            this.uncorrected = uncorrected;
+            this.sustainable = sustainable;
+        }
+
+        /**
+         * @return the rate jobs were submitted at, per second
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        public int getOffered() {
+            return offered;
+        }
+
+        public int getCompleted() {
+            return completed;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the jobs accepted but not completed once the run had drained
+         */
+        public int getUnfinished() {
+            return unfinished;
+        }
+
+        /**
+         * @return the jobs completed per second, from the first being due until the last completed
+         */
+        public double getAchievedRate() {
+            return achievedRate;
+        }
+
+        /**
+         * @return the latency in ms of each job from when it was due
+         */
+        public Histogram getLatency() {
+            return corrected;
+        }
+
+        /**
+         * @return the latency in ms of each completed job from when it was submitted, which hides
+         * any time the driver spent behind schedule
+         */
+        public Histogram getUncorrectedLatency() {
+            return uncorrected;
+        }
+
+        public boolean isSustainable() {
+            return sustainable;
+        }
+
+        static void printHeader() {
+            System.out.printf("%-10s %8s %8s %8s %7s %8s %8s %8s %9s %4s%n", "receiver", "rate", "achieved",
+                    "rejected", "unfin", "p50_ms", "p99_ms", "p999_ms", "p99_uncor", "ok");
+        }
+
+        void print(String receiver) {
+            System.out.printf(Locale.ROOT, "%-10s %8.1f %8.1f %8d %7d %8d %8d %8d %9d %4s%n", receiver, rate,
+                    achievedRate, rejected, unfinished, corrected.getValueAtPercentile(50),
+                    corrected.getValueAtPercentile(99), corrected.getValueAtPercentile(99.9),
+                    uncorrected.getValueAtPercentile(99), sustainable ? "yes" : "no");
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<String> names = new ArrayList<>(BatchRunner.getReceiverNames());
+        long quantum = 100;
+        long work = 20;
+        double rate = 2;
+        long duration = 3000;
+        long slo = 1000;
+        int capacity = 1000;
+        boolean batching = false;
+        for(int i = 0; i < args.length; i++) {
+            if(i + 1 >= args.length && !args[i].equals("--batch")) {
+                usage("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--receivers" -> names = List.of(args[++i].split(","));
+                case "--quantum" -> quantum = Long.parseLong(args[++i]);
+                case "--work" -> work = Long.parseLong(args[++i]);
+                case "--rate" -> rate = Double.parseDouble(args[++i]);
+                case "--duration" -> duration = Long.parseLong(args[++i]);
+                case "--slo" -> slo = Long.parseLong(args[++i]);
+                case "--capacity" -> capacity = Integer.parseInt(args[++i]);
+                case "--batch" -> batching = true;
+                default -> usage("Unexpected argument " + args[i]);
+            }
+        }
+
+        List<String> results = new ArrayList<>();
+        Step.printHeader();
+        for(String name : names) {
+            long q = quantum;
+            boolean batch = batching;
+            LoadDriver driver = null;
+            try {
+                BatchRunner.createReceiver(name, q);
+                driver = new LoadDriver(() -> {
+                    ModRegReceiver receiver = BatchRunner.createReceiver(name, q);
+                    receiver.setBatching(batch);
+                    return receiver;
+                }, work);
+                driver.setLimits(duration, slo, capacity);
+            } catch (IllegalArgumentException e) {
+                usage(e.getMessage());
+            }
+            List<Step> steps = driver.findMaxSustainable(rate);
+            for(Step step : steps) {
+                step.print(name);
+            }
+            results.add(String.format(Locale.ROOT, "%-10s %8.1f", name, maxSustainable(steps)));
+        }
+
+        System.out.println();
+        System.out.printf("%-10s %8s%n", "receiver", "max_rate");
+        results.forEach(System.out::println);
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: LoadDriver [--receivers rr,sjf,...] [--quantum ms] [--work ms] [--rate jobs/s] " +
+                "[--duration ms] [--slo ms] [--capacity n] [--batch]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,275 @@
+package ci583.batch;
+
+import ci583.receiver.ModuleRegister;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * A list of jobs to run through each receiver. A workload file has one job per line, made up of
+ * a name, the work in ms and any number of optional {@code key=value} fields:
+ * </p>
+ * <pre>
+ *     # name  work  [priority=LOW|MED|HIGH] [arrival=ms] [deadline=ms] [yield=chance] [key=student]
+ *     #             [group=department/group] [bursts=cpu/io/cpu/...] [module=code]
+ *     P1      5000  priority=HIGH module=CI583
+ *     P2      3000  arrival=500 deadline=6000
+ *     P3      1000  yield=0.2 key=cs-1042 group=computing/year2
+ *     P4      600   bursts=200/300/400
+ * </pre>
+ * <p>
+ * Blank lines and lines starting with {@code #} are ignored. The arrival is the delay after the
+ * receiver starts before the job is enqueued, and the deadline is relative to its arrival. The key
+ * is the student or module a job belongs to, which decides its worker when the jobs are spread
+ * across a cluster, and defaults to the name of the job. The group is the fair-share group of
+ * the job, see {@link ci583.receiver.FairShareReceiver}. The bursts split the work into CPU bursts
+ * separated by waits for I/O, see {@link ModuleRegister#setBursts(long...)}, so the CPU bursts must
+ * add up to the work. The module is the one the job claims a seat on when it completes, see
+ * {@link ci583.receiver.ModuleCatalogue}, and must fit the timetable of the student given by the
+ * key, see {@link ci583.receiver.Timetable}.
+ * </p>
+ */
+public class Workload {
+
+    private final List<Job> jobs;
+
+    public Workload(List<Job> jobs) {
+        this.jobs = List.copyOf(jobs);
+    }
+
+    /**
+     * Reads a workload file.
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is malformed, with the line number in the message
+     */
+    public static Workload read(Path file) throws IOException {
+        try(Reader reader = Files.newBufferedReader(file)) {
+            return read(reader);
+        }
+    }
+
+    public static Workload read(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        List<Job> jobs = new ArrayList<>();
+        String line;
+        int number = 0;
+        while((line = lines.readLine()) != null) {
+            number++;
+            line = line.strip();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                jobs.add(Job.parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        return new Workload(jobs);
+    }
+
+    public List<Job> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * @return new processes for every job, as a process can only be run once
+     */
+    public List<ModuleRegister> createProcesses() {
+        List<ModuleRegister> processes = new ArrayList<>(jobs.size());
+        for(Job job : jobs) {
+            processes.add(job.create());
+        }
+        return Collections.unmodifiableList(processes);
+    }
+
+    /**
+     * One line of a workload file.
+     */
+    public static final class Job {
+        private final String name;
+        private final String key;
+        private final long work;
+        private final ModuleRegister.Priority priority;
+        private final long arrival;
+        private final long deadline;
+        private final double yieldChance;
+        private final String group;
+        private final long[] bursts;
+        private final String module;
+
+        public Job(String name, String key, long work, ModuleRegister.Priority priority, long arrival,
+                   long deadline, double yieldChance) {
+            this(name, key, work, priority, arrival, deadline, yieldChance, null);
+        }
+
+        /**
+         * @param group the fair-share group of the job, or null for the default group
+         */
+        public Job(String name, String key, long work, ModuleRegister.Priority priority, long arrival,
+                   long deadline, double yieldChance, String group) {
+            this(name, key, work, priority, arrival, deadline, yieldChance, group, null);
+        }
+
+        /**
+         * @param bursts the CPU and I/O bursts of the job, starting and ending with CPU, or null for
+         *               a single CPU burst
+         */
+        public Job(String name, String key, long work, ModuleRegister.Priority priority, long arrival,
+                   long deadline, double yieldChance, String group, long[] bursts) {
+            this(name, key, work, priority, arrival, deadline, yieldChance, group, bursts, null);
+        }
+
+        /**
+         * @param module the module the job claims a seat on, or null if it needs none
+         */
+        public Job(String name, String key, long work, ModuleRegister.Priority priority, long arrival,
+                   long deadline, double yieldChance, String group, long[] bursts, String module) {
+            if(work <= 0) {
+                throw new IllegalArgumentException("Work must be positive: " + work);
+            }
+            if(arrival < 0 || deadline < 0) {
+                throw new IllegalArgumentException("Arrival and deadline cannot be negative");
+            }
+            if(yieldChance < 0 || yieldChance > 1) {
+                throw new IllegalArgumentException("Yield chance must be between 0 and 1: " + yieldChance);
+            }
+            this.name = name;
+            this.key = key;
+            this.work = work;
+            this.priority = priority;
+            this.arrival = arrival;
+            this.deadline = deadline;
+            this.yieldChance = yieldChance;
+            this.group = group;
+            if(bursts != null) {
+                long cpu = 0;
+                for(int i = 0; i < bursts.length; i += 2) {
+                    cpu += bursts[i];
+                }
+                if(bursts.length % 2 == 0 || cpu != work) {
+                    throw new IllegalArgumentException("Bursts must start and end with CPU, and the CPU bursts " +
+                            "must add up to the work: " + cpu + " != " + work);
+                }
+                bursts = bursts.clone();
+            }
+            this.bursts = bursts;
+            this.module = module;
+        }
+
+        static Job parse(String line) {
+            String[] fields = line.split("\\s+");
+            if(fields.length < 2) {
+                throw new IllegalArgumentException("Expected a name and work, got '" + line + "'");
+            }
+
+            ModuleRegister.Priority priority = ModuleRegister.Priority.MED;
+            long arrival = 0;
+            long deadline = 0;
+            double yieldChance = 0;
+            String key = fields[0];
+            String group = null;
+            long[] bursts = null;
+            String module = null;
+            for(int i = 2; i < fields.length; i++) {
+                int eq = fields[i].indexOf('=');
+                if(eq < 0) {
+                    throw new IllegalArgumentException("Expected key=value, got '" + fields[i] + "'");
+                }
+                String field = fields[i].substring(0, eq);
+                String value = fields[i].substring(eq + 1);
+                switch (field) {
+                    case "priority" -> priority = ModuleRegister.Priority.valueOf(value.toUpperCase());
+                    case "arrival" -> arrival = Long.parseLong(value);
+                    case "deadline" -> deadline = Long.parseLong(value);
+                    case "yield" -> yieldChance = Double.parseDouble(value);
+                    case "key" -> key = value;
+                    case "group" -> group = value;
+                    case "module" -> module = value;
+                    case "bursts" -> {
+                        String[] lengths = value.split("/");
+                        bursts = new long[lengths.length];
+                        for(int b = 0; b < lengths.length; b++) {
+                            bursts[b] = Long.parseLong(lengths[b]);
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Unknown field '" + field + "'");
+                }
+            }
+            return new Job(fields[0], key, Long.parseLong(fields[1]), priority, arrival, deadline, yieldChance,
+                    group, bursts, module);
+        }
+
+        ModuleRegister create() {
+            ModuleRegister m = new ModuleRegister(name, work, priority);
+            m.setInteractiveThreadChance(yieldChance);
+            m.setDeadline(deadline);
+            m.setGroup(group);
+            m.setModule(module);
+            m.setStudent(key);
+            if(bursts != null) {
+                m.setBursts(bursts);
+            }
+            return m;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the student or module this job belongs to
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public long getWork() {
+            return work;
+        }
+
+        public ModuleRegister.Priority getPriority() {
+            return priority;
+        }
+
+        public long getArrival() {
+            return arrival;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public double getYieldChance() {
+            return yieldChance;
+        }
+
+        /**
+         * @return the fair-share group of the job, or null for the default group
+         */
+        public String getGroup() {
+            return group;
+        }
+
+        /**
+         * @return the CPU and I/O bursts of the job, or null if it has a single CPU burst
+         */
+        public long[] getBursts() {
+            return bursts == null ? null : bursts.clone();
+        }
+
+        /**
+         * @return the module the job claims a seat on, or null if it needs none
+         */
+        public String getModule() {
+            return module;
+        }
+    }
+}
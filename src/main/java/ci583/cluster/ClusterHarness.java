@@ -0,0 +1,156 @@
+package ci583.cluster;
+
+import ci583.batch.Workload;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Launches several {@link Worker} JVMs on localhost and runs a workload through a
+ * {@link Coordinator} with 1, 2, 4, ... of them, printing the throughput of each run to show how
+ * it scales. A final run starts with one worker fewer and adds the last one halfway through
+ * submitting, to show rebalancing:
+ * </p>
+ * <pre>
+ *     java ci583.cluster.ClusterHarness [--workers n] [--receiver rr] [--quantum ms] [--repeat r]
+ *                                       [--window w] workload.txt
+ * </pre>
+ * <p>
+ * The workload is submitted {@code repeat} times, with each copy of a job given its own key, as if
+ * it belonged to a different student.
+ * </p>
+ */
+public class ClusterHarness {
+
+    private static final long TIMEOUT_MS = 10 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        int workerCount = 4;
+        String receiver = "rr";
+        long quantum = 50;
+        int repeat = 10;
+        int window = 4;
+        String file = null;
+
+        for(int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers" -> workerCount = Integer.parseInt(args[++i]);
+                case "--receiver" -> receiver = args[++i];
+                case "--quantum" -> quantum = Long.parseLong(args[++i]);
+                case "--repeat" -> repeat = Integer.parseInt(args[++i]);
+                case "--window" -> window = Integer.parseInt(args[++i]);
+                default -> file = args[i];
+            }
+        }
+        if(file == null || workerCount < 1) {
+            System.err.println("Usage: ClusterHarness [--workers n] [--receiver name] [--quantum ms] " +
+                    "[--repeat r] [--window w] <workload file>");
+            System.exit(2);
+        }
+        Workload workload = Workload.read(Path.of(file));
+
+        List<Process> processes = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        try {
+            for(int i = 0; i < workerCount; i++) {
+                Process process = launchWorker(receiver, quantum);
+                processes.add(process);
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), readPort(process)));
+            }
+
+            System.out.printf("%7s %6s %10s %8s%n", "workers", "jobs", "elapsed_ms", "jobs/s");
+            for(int n = 1; n <= workerCount; n = n < workerCount ? Math.min(n * 2, workerCount) : n + 1) {
+                run(workload, repeat, window, addresses.subList(0, n), -1);
+            }
+            if(workerCount > 1) {
+                run(workload, repeat, window, addresses, workload.getJobs().size() * repeat / 2);
+            }
+        } finally {
+            for(Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Runs the workload with the given workers.
+     * @param addAt the number of jobs to submit before adding the last worker, or -1 to start
+     *              with every worker
+     */
+    private static void run(Workload workload, int repeat, int window, List<InetSocketAddress> workers,
+                            int addAt) throws IOException, InterruptedException {
+        AtomicLong missed = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        try(Coordinator coordinator = new Coordinator(window, c -> {
+            if(c.hasMissedDeadline()) missed.incrementAndGet();
+            if(c.isRejected()) rejected.incrementAndGet();
+        })) {
+            int initial = addAt < 0 ? workers.size() : workers.size() - 1;
+            for(int i = 0; i < initial; i++) {
+                coordinator.addWorker(workers.get(i));
+            }
+
+            long start = System.currentTimeMillis();
+            int submitted = 0;
+            int moved = -1;
+            for(int r = 0; r < repeat; r++) {
+                for(Workload.Job job : workload.getJobs()) {
+                    if(submitted++ == addAt) {
+                        moved = coordinator.addWorker(workers.get(workers.size() - 1));
+                    }
+                    coordinator.submit(job.getKey() + "-" + r, job);
+                }
+            }
+            if(!coordinator.awaitCompletion(TIMEOUT_MS)) {
+                System.err.println(coordinator.getOutstanding() + " jobs did not complete");
+            }
+            long elapsed = System.currentTimeMillis() - start;
+
+            System.out.printf("%7d %6d %10d %8.1f", workers.size(), submitted, elapsed,
+                    submitted * 1000D / Math.max(1, elapsed));
+            if(moved >= 0) {
+                System.out.printf("   (worker %d added after %d jobs, %d waiting jobs moved to it)",
+                        workers.size(), addAt, moved);
+            }
+            System.out.print(rejected.get() > 0 ? "   " + rejected.get() + " jobs rejected" : "");
+            System.out.println(missed.get() > 0 ? "   " + missed.get() + " deadlines missed" : "");
+        }
+    }
+
+    private static Process launchWorker(String receiver, long quantum) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Worker.class.getName(), "0", receiver, Long.toString(quantum))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    // Reads the port from the first line the worker prints, then discards the rest of its output
+    private static int readPort(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = reader.readLine();
+        if(line == null || !line.startsWith("Worker listening on port ")) {
+            throw new IOException("Worker failed to start: " + line);
+        }
+        Thread drain = new Thread(() -> {
+            try {
+                while(reader.readLine() != null) {
+                    // Discard
+                }
+            } catch (IOException e) {
+                // Worker has exited
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        return Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+    }
+}
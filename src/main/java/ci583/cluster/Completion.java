@@ -0,0 +1,75 @@
+package ci583.cluster;
+
+/**
+ * A job which a worker has finished, as reported back to the {@link Coordinator}.
+ */
+public final class Completion {
+    private final long id;
+    private final String key;
+    private final String name;
+    private final String worker;
+    private final long turnaround;
+    private final long workCompleted;
+    private final boolean missedDeadline;
+    private final boolean rejected;
+
+    Completion(long id, String key, String name, String worker, long turnaround, long workCompleted,
+               boolean missedDeadline, boolean rejected) {
+        this.id = id;
+        this.key = key;
+        this.name = name;
+        this.worker = worker;
+        this.turnaround = turnaround;
+        this.workCompleted = workCompleted;
+        this.missedDeadline = missedDeadline;
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return the id given to the job by {@link Coordinator#submit}
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the student or module the job was partitioned by
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the address of the worker which ran the job
+     */
+    public String getWorker() {
+        return worker;
+    }
+
+    /**
+     * @return the time in ms from the job being enqueued on its worker until it finished
+     */
+    public long getTurnaround() {
+        return turnaround;
+    }
+
+    public long getWorkCompleted() {
+        return workCompleted;
+    }
+
+    public boolean hasMissedDeadline() {
+        return missedDeadline;
+    }
+
+    /**
+     * @return true if the worker's receiver turned the job away, e.g. because it was full, so it
+     * did not run
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+}
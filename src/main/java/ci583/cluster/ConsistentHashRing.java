@@ -0,0 +1,104 @@
+package ci583.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * A consistent hash ring, which maps keys (students or modules) to nodes so that adding or
+ * removing a node only moves the keys of that node. Each node is placed on the ring at many
+ * points (virtual nodes), which evens out how many keys each node gets.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ * @param <N> the type of the nodes
+ */
+public class ConsistentHashRing<N> {
+
+    private final int virtualNodes;
+    private final NavigableMap<Long, N> ring = new TreeMap<>();
+    private final Map<N, String> names = new HashMap<>();
+
+    /**
+     * @param virtualNodes the number of points on the ring for each node
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if(virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be at least 1: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a node to the ring - O(v log(nv)) for n nodes with v virtual nodes each.
+     * @param node the node
+     * @param name a name which is unique to the node and stays the same across runs, e.g. its
+     *             address, so that keys map to the same node every time
+     */
+    public void add(N node, String name) {
+        if(names.putIfAbsent(node, name) != null) {
+            throw new IllegalArgumentException(name + " is already on the ring");
+        }
+        for(int i = 0; i < virtualNodes; i++) {
+            // A collision between two virtual nodes is astronomically unlikely, first one wins
+            ring.putIfAbsent(hash(name + "#" + i), node);
+        }
+    }
+
+    /**
+     * Removes a node from the ring - O(v log(nv))
+     * @return true if the node was on the ring
+     */
+    public boolean remove(N node) {
+        String name = names.remove(node);
+        if(name == null) {
+            return false;
+        }
+        for(int i = 0; i < virtualNodes; i++) {
+            ring.remove(hash(name + "#" + i), node);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the node which owns a key: the first node clockwise from the hash of the key - O(log(nv))
+     * @return the node, or null if the ring is empty
+     */
+    public N nodeFor(String key) {
+        if(ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, N> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, followed by the MurmurHash3 finaliser, which spreads
+     * similar keys (P1, P2, ...) around the whole ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for(byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
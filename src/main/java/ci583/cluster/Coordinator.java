@@ -0,0 +1,356 @@
+package ci583.cluster;
+
+import ci583.batch.Workload;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Partitions jobs across {@link Worker}s by consistent hashing on their key (a student or
+ * module), so that all the jobs of a key run on the same worker and adding a worker only moves
+ * the keys it takes over.
+ * </p>
+ * <p>
+ * Each worker is only sent a window of jobs at a time, and the rest wait here in a queue per
+ * worker. When a worker is added, the waiting jobs whose keys now belong to it are moved to its
+ * queue (rebalancing) - jobs already sent stay where they are. When a worker is lost, its sent and
+ * waiting jobs are resubmitted to the workers that now own their keys, so a job runs at least once.
+ * </p>
+ * <p>
+ * All state is guarded by the coordinator's lock, and each worker has a thread reading its
+ * completions, which are passed to the listener outside the lock. Nothing blocks on a socket
+ * with the lock held: a new worker is connected to before the lock is taken, and the jobs to send
+ * are moved to a worker's outbox under the lock, then written outside it under that worker's own
+ * write lock. A worker slow to read its jobs then only holds up the threads sending to it, not
+ * submissions to other workers, completions or {@link #awaitCompletion}.
+ * </p>
+ */
+public class Coordinator implements Closeable {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final ConsistentHashRing<WorkerLink> ring = new ConsistentHashRing<>(VIRTUAL_NODES);
+    private final List<WorkerLink> workers = new ArrayList<>();
+    // Jobs submitted while there are no workers
+    private final ArrayDeque<Job> unassigned = new ArrayDeque<>();
+    private final int window;
+    private final Consumer<Completion> listener;
+    private long nextId;
+    private int outstanding;
+    private boolean closed;
+
+    /**
+     * @param window the most jobs sent to a worker at once, the rest wait at the coordinator
+     * @param listener called with each completion, on the thread reading that worker
+     */
+    public Coordinator(int window, Consumer<Completion> listener) {
+        if(window < 1) {
+            throw new IllegalArgumentException("Window must be at least 1: " + window);
+        }
+        this.window = window;
+        this.listener = listener;
+    }
+
+    /**
+     * Connects to a worker and moves the waiting jobs whose keys it now owns to it.
+     * @return the number of jobs moved to the new worker
+     * @throws IOException if the worker cannot be reached
+     */
+    public int addWorker(InetSocketAddress address) throws IOException {
+        synchronized(this) {
+            if(closed) {
+                throw new IllegalStateException("Coordinator is closed");
+            }
+        }
+        // Connected outside the lock, as connecting blocks until the worker answers
+        WorkerLink link = new WorkerLink(address);
+        Set<WorkerLink> toWrite = new LinkedHashSet<>();
+        int moved;
+        synchronized(this) {
+            if(closed) {
+                link.close();
+                throw new IllegalStateException("Coordinator is closed");
+            }
+            moved = attach(link, toWrite);
+        }
+        write(toWrite);
+        return moved;
+    }
+
+    /**
+     * Adds a connected worker to the ring, moves the waiting jobs whose keys it now owns to it and
+     * starts reading its completions. Called with the coordinator's lock held.
+     * @param toWrite the workers with jobs to write once the lock is released
+     * @return the number of jobs moved to the worker
+     */
+    private int attach(WorkerLink link, Set<WorkerLink> toWrite) {
+        workers.add(link);
+        ring.add(link, link.name);
+
+        int moved = 0;
+        for(WorkerLink other : workers) {
+            if(other == link) continue;
+            for(Iterator<Job> it = other.waiting.iterator(); it.hasNext(); ) {
+                Job job = it.next();
+                if(ring.nodeFor(job.key) == link) {
+                    it.remove();
+                    link.waiting.add(job);
+                    moved++;
+                }
+            }
+        }
+        while(!unassigned.isEmpty()) {
+            route(unassigned.poll(), toWrite);
+        }
+
+        link.start();
+        if(link.fill()) {
+            toWrite.add(link);
+        }
+        return moved;
+    }
+
+    /**
+     * Submits a job to the worker which owns its key.
+     * @param key the student or module the job is partitioned by
+     * @return the id of the job, as given in its {@link Completion}
+     */
+    public long submit(String key, Workload.Job job) {
+        Set<WorkerLink> toWrite = new LinkedHashSet<>(2);
+        Job pending;
+        synchronized(this) {
+            if(closed) {
+                throw new IllegalStateException("Coordinator is closed");
+            }
+            pending = new Job(nextId++, key, job);
+            outstanding++;
+            route(pending, toWrite);
+        }
+        write(toWrite);
+        return pending.id;
+    }
+
+    /**
+     * Waits until every submitted job has completed, and its completion has been passed to the
+     * listener.
+     * @param timeoutMs the longest time to wait
+     * @return true if every job completed, false if the time ran out
+     */
+    public synchronized boolean awaitCompletion(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while(outstanding > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of jobs submitted which have not yet completed
+     */
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    public synchronized int getWorkerCount() {
+        return workers.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for(WorkerLink link : workers) {
+            link.close();
+        }
+        workers.clear();
+        notifyAll();
+    }
+
+    /**
+     * Queues a job for the worker which owns its key. Called with the coordinator's lock held.
+     * @param toWrite the workers with jobs to write once the lock is released
+     */
+    private void route(Job job, Set<WorkerLink> toWrite) {
+        WorkerLink owner = ring.nodeFor(job.key);
+        if(owner == null) {
+            unassigned.add(job);
+        } else {
+            owner.waiting.add(job);
+            if(owner.fill()) {
+                toWrite.add(owner);
+            }
+        }
+    }
+
+    /**
+     * Writes the outboxes of the workers, without the coordinator's lock held.
+     */
+    private void write(Set<WorkerLink> links) {
+        for(WorkerLink link : links) {
+            link.write();
+        }
+    }
+
+    private void completed(WorkerLink link, long id, long turnaround, long workCompleted, boolean missed,
+                           boolean rejected) {
+        Job job;
+        boolean more;
+        synchronized(this) {
+            job = link.sent.remove(id);
+            if(job == null) {
+                return;
+            }
+            more = link.fill();
+        }
+        if(more) {
+            link.write();
+        }
+        listener.accept(new Completion(id, job.key, job.job.getName(), link.name, turnaround,
+                workCompleted, missed, rejected));
+        // Only counted once the listener has it, so awaitCompletion never returns ahead of it
+        synchronized(this) {
+            outstanding--;
+            if(outstanding == 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void lost(WorkerLink link) {
+        Set<WorkerLink> toWrite = new LinkedHashSet<>();
+        synchronized(this) {
+            if(!workers.remove(link)) {
+                return;
+            }
+            ring.remove(link);
+            link.close();
+            // Sent jobs first, as they were submitted before the waiting ones
+            List<Job> jobs = new ArrayList<>(link.sent.values());
+            jobs.sort(Comparator.comparingLong(job -> job.id));
+            jobs.addAll(link.waiting);
+            link.sent.clear();
+            link.waiting.clear();
+            link.outbox.clear();
+            for(Job job : jobs) {
+                route(job, toWrite);
+            }
+        }
+        write(toWrite);
+    }
+
+    private static final class Job {
+        private final long id;
+        private final String key;
+        private final Workload.Job job;
+
+        private Job(long id, String key, Workload.Job job) {
+            this.id = id;
+            this.key = key;
+            this.job = job;
+        }
+    }
+
+    /**
+     * The connection to one worker, with the jobs sent to it and the jobs waiting to be sent.
+     * The queues are guarded by the coordinator's lock, and the socket's output by the write lock.
+     */
+    private final class WorkerLink implements Runnable {
+        private final String name;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final Map<Long, Job> sent = new HashMap<>();
+        private final ArrayDeque<Job> waiting = new ArrayDeque<>();
+        // Jobs counted as sent but not yet written, in the order they were taken from waiting
+        private final ArrayDeque<Job> outbox = new ArrayDeque<>();
+        // Held while writing, so batches go out whole and in the order they were filled
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        private WorkerLink(InetSocketAddress address) throws IOException {
+            name = address.getHostString() + ":" + address.getPort();
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        private void start() {
+            Thread thread = new Thread(this, "coordinator-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Moves waiting jobs to the outbox until the window is full. Called with the coordinator's
+         * lock held.
+         * @return true if the outbox has jobs to write
+         */
+        private boolean fill() {
+            while(sent.size() < window && !waiting.isEmpty()) {
+                Job job = waiting.poll();
+                sent.put(job.id, job);
+                outbox.add(job);
+            }
+            return !outbox.isEmpty();
+        }
+
+        /**
+         * Writes the jobs in the outbox. Called without the coordinator's lock held, as the write
+         * blocks while the worker's receive buffer is full.
+         */
+        private void write() {
+            writeLock.lock();
+            try {
+                List<Job> batch;
+                synchronized(Coordinator.this) {
+                    if(outbox.isEmpty()) {
+                        // Written by whoever held the write lock before
+                        return;
+                    }
+                    batch = new ArrayList<>(outbox);
+                    outbox.clear();
+                }
+                for(Job job : batch) {
+                    Protocol.writeSubmit(out, job.id, job.job);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // The reader thread sees the closed socket and resubmits this worker's jobs
+                close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    byte type = in.readByte();
+                    if(type != Protocol.COMPLETE) {
+                        throw new IOException("Unexpected message type " + type);
+                    }
+                    completed(this, in.readLong(), in.readLong(), in.readLong(), in.readBoolean(), in.readBoolean());
+                }
+            } catch (IOException e) {
+                lost(this);
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ci583.cluster;
+
+import ci583.batch.Workload;
+import ci583.receiver.ModuleRegister;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>
+ * The messages sent between a {@link Coordinator} and its {@link Worker}s over TCP. Each message
+ * is a type byte followed by its fields, written with {@link DataOutputStream}:
+ * </p>
+ * <pre>
+ *     SUBMIT     id:long name:utf work:long priority:byte deadline:long yield:double group:utf
+ *                module:utf student:utf burstCount:int burst:long...                   coordinator to worker
+ *     COMPLETE   id:long turnaround:long workCompleted:long missedDeadline:boolean
+ *                rejected:boolean                                                      worker to coordinator
+ * </pre>
+ * <p>
+ * A job carries everything a {@link Workload.Job} has, so it runs on a worker as it would in a
+ * single receiver. An empty group or module, and no bursts, stand for none. A job the worker's
+ * receiver turns away is completed straight away as rejected. Either side closes its socket to end
+ * the session.
+ * </p>
+ */
+final class Protocol {
+
+    static final byte SUBMIT = 1;
+    static final byte COMPLETE = 2;
+
+    private Protocol() {}
+
+    static void writeSubmit(DataOutputStream out, long id, Workload.Job job) throws IOException {
+        out.writeByte(SUBMIT);
+        out.writeLong(id);
+        out.writeUTF(job.getName());
+        out.writeLong(job.getWork());
+        out.writeByte(job.getPriority().getVal());
+        out.writeLong(job.getDeadline());
+        out.writeDouble(job.getYieldChance());
+        out.writeUTF(job.getGroup() == null ? "" : job.getGroup());
+        out.writeUTF(job.getModule() == null ? "" : job.getModule());
+        out.writeUTF(job.getKey());
+        long[] bursts = job.getBursts();
+        out.writeInt(bursts == null ? 0 : bursts.length);
+        if(bursts != null) {
+            for(long burst : bursts) {
+                out.writeLong(burst);
+            }
+        }
+    }
+
+    /**
+     * Reads the job of a SUBMIT message, after its type and id, as the process to run.
+     */
+    static ModuleRegister readJob(DataInputStream in) throws IOException {
+        ModuleRegister m = new ModuleRegister(in.readUTF(), in.readLong(),
+                ModuleRegister.Priority.fromValue(in.readByte()));
+        m.setDeadline(in.readLong());
+        m.setInteractiveThreadChance(in.readDouble());
+        String group = in.readUTF();
+        String module = in.readUTF();
+        m.setGroup(group.isEmpty() ? null : group);
+        m.setModule(module.isEmpty() ? null : module);
+        m.setStudent(in.readUTF());
+        int count = in.readInt();
+        if(count < 0 || count > 1 << 16) {
+            throw new IOException("Bad burst count " + count);
+        }
+        if(count > 0) {
+            long[] bursts = new long[count];
+            for(int i = 0; i < count; i++) {
+                bursts[i] = in.readLong();
+            }
+            try {
+                m.setBursts(bursts);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        return m;
+    }
+
+    static void writeComplete(DataOutputStream out, long id, long turnaround, long workCompleted,
+                              boolean missedDeadline, boolean rejected) throws IOException {
+        out.writeByte(COMPLETE);
+        out.writeLong(id);
+        out.writeLong(turnaround);
+        out.writeLong(workCompleted);
+        out.writeBoolean(missedDeadline);
+        out.writeBoolean(rejected);
+    }
+}
@@ -0,0 +1,197 @@
+package ci583.cluster;
+
+import ci583.batch.BatchRunner;
+import ci583.receiver.ModRegReceiver;
+import ci583.receiver.ModuleRegister;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Runs the jobs sent by a {@link Coordinator} through a receiver, and streams each completion
+ * back as soon as it happens. Each coordinator connection gets its own receiver, whose dispatcher
+ * is started whenever jobs arrive and finishes whenever the receiver runs out of work:
+ * </p>
+ * <pre>
+ *     java ci583.cluster.Worker &lt;port&gt; &lt;receiver&gt; [quantum]
+ * </pre>
+ * <p>
+ * Once listening, the worker prints {@code Worker listening on port <port>}, so that a port of 0
+ * can be used to pick any free port. Only listens on the loopback address.
+ * </p>
+ */
+public class Worker implements Closeable {
+
+    private final ServerSocket server;
+    private final String receiver;
+    private final long quantum;
+    // The connections of the coordinators being served, closed with the worker
+    private final Set<Socket> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param port the port to listen on, or 0 for any free port
+     * @param receiver the name of the receiver to run, see {@link BatchRunner#getReceiverNames()}
+     * @param quantum the time slice of the receiver
+     * @throws IOException if the port cannot be bound
+     */
+    public Worker(int port, String receiver, long quantum) throws IOException {
+        // Fails fast on an unknown receiver rather than on the first connection
+        if(!BatchRunner.getReceiverNames().contains(receiver)) {
+            throw new IllegalArgumentException("Unknown receiver '" + receiver + "', expected one of " +
+                    BatchRunner.getReceiverNames());
+        }
+        this.receiver = receiver;
+        this.quantum = quantum;
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts coordinators until the worker is closed, serving each on its own thread.
+     */
+    public void serve() {
+        while(!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                sessions.add(socket);
+                if(server.isClosed()) {
+                    // Closed while accepting, so close() may have missed this connection
+                    socket.close();
+                    break;
+                }
+                Thread thread = new Thread(new Session(socket), "worker-session-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if(!server.isClosed()) {
+                    System.err.println("Failed to accept a coordinator: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting coordinators and drops the ones being served, which then resubmit the jobs
+     * sent here to their other workers.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for(Socket socket : sessions) {
+            socket.close();
+        }
+    }
+
+    /**
+     * One coordinator connection and the receiver running its jobs.
+     */
+    private final class Session implements Runnable {
+        private final Socket socket;
+        private final ModRegReceiver scheduler = BatchRunner.createReceiver(receiver, quantum);
+        // The coordinator's id of each job still running here
+        private final Map<ModuleRegister, Long> ids = new ConcurrentHashMap<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private DataOutputStream out;
+        private boolean dispatching;
+
+        private Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try(socket) {
+                socket.setTcpNoDelay(true);
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                scheduler.setCompletionListener(this::completed);
+
+                while(true) {
+                    byte type = in.readByte();
+                    if(type != Protocol.SUBMIT) {
+                        throw new IOException("Unexpected message type " + type);
+                    }
+                    long id = in.readLong();
+                    ModuleRegister m = Protocol.readJob(in);
+
+                    ids.put(m, id);
+                    outstanding.incrementAndGet();
+                    if(scheduler.submit(m)) {
+                        startDispatcher();
+                    } else {
+                        // Turned away by the receiver's admission control, so never completes here
+                        ids.remove(m);
+                        outstanding.decrementAndGet();
+                        sendComplete(id, m, true);
+                    }
+                }
+            } catch (EOFException e) {
+                // The coordinator has gone, any jobs still running here are resubmitted elsewhere
+            } catch (IOException e) {
+                if(!server.isClosed()) {
+                    System.err.println("Lost coordinator: " + e.getMessage());
+                }
+            } finally {
+                scheduler.setCompletionListener(null);
+                sessions.remove(socket);
+            }
+        }
+
+        // Called on the dispatcher thread
+        private void completed(ModuleRegister m) {
+            Long id = ids.remove(m);
+            outstanding.decrementAndGet();
+            if(id == null) return;
+            try {
+                sendComplete(id, m, false);
+            } catch (IOException e) {
+                // The session thread sees the broken connection and ends the session
+            }
+        }
+
+        private synchronized void sendComplete(long id, ModuleRegister m, boolean rejected) throws IOException {
+            Protocol.writeComplete(out, id, rejected ? 0 : m.getReadyTime() - m.getAdmittedTime(),
+                    m.getWorkCompleted(), m.hasMissedDeadline(), rejected);
+            out.flush();
+        }
+
+        private synchronized void startDispatcher() {
+            if(!dispatching) {
+                dispatching = true;
+                scheduler.startDispatcher(this::dispatcherFinished);
+            }
+        }
+
+        // A job submitted while the dispatcher was finishing has not been run, so start it again
+        private synchronized void dispatcherFinished() {
+            dispatching = false;
+            if(outstanding.get() > 0) {
+                startDispatcher();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.err.println("Usage: Worker <port> <receiver> [quantum]");
+            System.exit(2);
+        }
+
+        try(Worker worker = new Worker(Integer.parseInt(args[0]), args[1],
+                args.length > 2 ? Long.parseLong(args[2]) : 100)) {
+            System.out.println("Worker listening on port " + worker.getPort());
+            System.out.flush();
+            worker.serve();
+        }
+    }
+}
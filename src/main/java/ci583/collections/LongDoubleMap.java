@@ -0,0 +1,157 @@
+package ci583.collections;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A hash map from {@code long} keys to {@code double} values, kept in two parallel arrays with
+ * open addressing and linear probing, so there are no boxed keys, values or entry objects. A
+ * key's home slot is found by a multiplicative (Fibonacci) hash, and removals shift the following
+ * entries back rather than leaving tombstones, so lookups never slow down as keys come and go.
+ * </p>
+ * <p>
+ * The table doubles once it is more than half full, so lookups, insertions and removals are
+ * O(1) on average.
+ * </p>
+ * <p>
+ * This class is not thread safe, it is expected to be driven by a single dispatcher thread.
+ * </p>
+ */
+public class LongDoubleMap {
+
+    // 2^64 / phi, which spreads consecutive keys, e.g. job ids, across the table
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    private double[] values;
+    private boolean[] used;
+    private int shift;
+    private int size;
+
+    public LongDoubleMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of keys the map can hold before it first grows
+     */
+    public LongDoubleMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        used = new boolean[capacity];
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private int home(long key) {
+        return (int) ((key * GOLDEN) >>> shift);
+    }
+
+    /**
+     * @return the slot holding the key, or -1 if it is not in the map - O(1) on average
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for(int i = home(key); used[i]; i = (i + 1) & mask) {
+            if(keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of the key, or {@code absent} if it is not in the map - O(1) on average
+     */
+    public double get(long key, double absent) {
+        int i = find(key);
+        return i < 0 ? absent : values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Sets the value of the key - O(1) on average
+     */
+    public void put(long key, double value) {
+        int mask = keys.length - 1;
+        int i = home(key);
+        while(used[i]) {
+            if(keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if(++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Removes the key, moving back any entries that probed past it so none are left unreachable -
+     * O(1) on average
+     * @return true if the key was in the map
+     */
+    public boolean remove(long key) {
+        int i = find(key);
+        if(i < 0) {
+            return false;
+        }
+        int mask = keys.length - 1;
+        int gap = i;
+        for(int j = (gap + 1) & mask; used[j]; j = (j + 1) & mask) {
+            // An entry can fill the gap if the gap lies between its home slot and where it is
+            int distance = (j - home(keys[j])) & mask;
+            if(((j - gap) & mask) <= distance) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        used[gap] = false;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(keys.length * 2);
+        int mask = keys.length - 1;
+        for(int j = 0; j < oldKeys.length; j++) {
+            if(oldUsed[j]) {
+                int i = home(oldKeys[j]);
+                while(used[i]) {
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package ci583.collections;
+
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ * A hierarchical timing wheel, used by the receivers to fire all of their timed events
+ * (quantum expiry, MLFQ boosts, priority aging, deadlines and delayed arrivals).
+ * </p>
+ * <p>
+ * Time is split into ticks of {@code tickMs} milliseconds. The wheel has {@link #LEVELS} levels,
+ * each with 64 slots, where a slot on level <em>n</em> covers 64<sup>n</sup> ticks. A timeout is
+ * placed on the lowest level whose slot can hold its deadline, and is cascaded down a level when
+ * the wheel reaches that slot. Each slot is an intrusive doubly linked list, so scheduling and
+ * cancelling are both O(1).
+ * </p>
+ * <p>
+ * Each level keeps a 64-bit occupancy mask, so the wheel can jump straight over empty slots
+ * rather than visiting every tick. This means thousands of pending timeouts cost nothing on
+ * the ticks where none of them expire.
+ * </p>
+ * <p>
+ * Based on
+ * <a href="http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf">
+ *     Varghese &amp; Lauck: Hashed and Hierarchical Timing Wheels
+ * </a>
+ * </p>
+ * <p>
+ * This class is not thread safe, it is expected to be driven by a single dispatcher thread.
+ * </p>
+ */
+public class TimingWheel {
+
+    /** The number of levels in the wheel, giving a range of 2<sup>36</sup> ticks */
+    public static final int LEVELS = 6;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickMs;
+    private final LongSupplier clock;
+    private final long startTime;
+
+    private final Timeout[][] slots = new Timeout[LEVELS][SLOTS];
+    // Bit i of occupied[n] is set if slot i on level n is non-empty
+    private final long[] occupied = new long[LEVELS];
+    // The last tick that has been processed
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates a timing wheel driven by the system clock.
+     * @param tickMs the resolution of the wheel in milliseconds
+     */
+    public TimingWheel(long tickMs) {
+        this(tickMs, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a timing wheel driven by the given clock.
+     * @param tickMs the resolution of the wheel in milliseconds
+     * @param clock supplies the current time in milliseconds
+     */
+    public TimingWheel(long tickMs, LongSupplier clock) {
+        if(tickMs <= 0) {
+            throw new IllegalArgumentException("tickMs must be positive");
+        }
+        this.tickMs = tickMs;
+        this.clock = clock;
+        this.startTime = clock.getAsLong();
+    }
+
+    /**
+     * Schedules a task to run once, after the given delay.
+     * @param delayMs the delay in milliseconds
+     * @param task the task to run when the timeout expires
+     * @return the timeout, which can be used to cancel the task
+     */
+    public Timeout schedule(long delayMs, Runnable task) {
+        Timeout timeout = new Timeout(task);
+        schedule(timeout, delayMs);
+        return timeout;
+    }
+
+    /**
+     * Schedules a task to run repeatedly, every {@code periodMs} milliseconds, until it is cancelled.
+     * @param periodMs the period in milliseconds
+     * @param task the task to run each time the timeout expires
+     * @return the timeout, which can be used to cancel the task
+     */
+    public Timeout schedulePeriodic(long periodMs, Runnable task) {
+        if(periodMs <= 0) {
+            throw new IllegalArgumentException("periodMs must be positive");
+        }
+        Timeout timeout = new Timeout(task);
+        timeout.period = ticksFor(periodMs);
+        schedule(timeout, periodMs);
+        return timeout;
+    }
+
+    /**
+     * (Re)schedules an existing timeout to expire after the given delay. If the timeout is
+     * already pending it is moved, so a single timeout can be reused without allocating.
+     * @param timeout the timeout
+     * @param delayMs the delay in milliseconds
+     */
+    public void schedule(Timeout timeout, long delayMs) {
+        if(timeout.wheel != null && timeout.wheel != this) {
+            throw new IllegalStateException("Timeout belongs to another wheel");
+        }
+        if(timeout.isPending()) {
+            unlink(timeout);
+        }
+
+        // Round up, so a timeout never fires early
+        long elapsed = clock.getAsLong() - startTime + Math.max(0, delayMs);
+        timeout.wheel = this;
+        timeout.deadline = Math.max(currentTick + 1, Math.ceilDiv(elapsed, tickMs));
+        link(timeout);
+    }
+
+    /**
+     * Cancels a pending timeout - O(1)
+     * @param timeout the timeout
+     * @return true if the timeout was pending
+     */
+    public boolean cancel(Timeout timeout) {
+        if(timeout.wheel != this || !timeout.isPending()) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the clock's current time, running every task that has expired.
+     * @return the number of tasks run
+     */
+    public int advance() {
+        return advanceTo(clock.getAsLong());
+    }
+
+    /**
+     * Advances the wheel to the given time, running every task that has expired.
+     * Empty slots are skipped using the occupancy masks.
+     * @param timeMs the time in milliseconds, according to the wheel's clock
+     * @return the number of tasks run
+     */
+    public int advanceTo(long timeMs) {
+        long target = Math.floorDiv(timeMs - startTime, tickMs);
+        int fired = 0;
+
+        while(currentTick < target) {
+            long next = nextEventTick();
+            if(next > target) {
+                // Nothing to do before the target, so jump straight to it
+                currentTick = target;
+                break;
+            }
+
+            currentTick = next;
+            // Cascade from the highest level down, so timeouts moved into a lower level slot
+            // for this tick are picked up by the lower level's cascade
+            for(int level = LEVELS - 1; level > 0; level--) {
+                if((currentTick & ((1L << (level * SLOT_BITS)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (level * SLOT_BITS)) & SLOT_MASK);
+                }
+            }
+            fired += expire((int) currentTick & SLOT_MASK);
+        }
+
+        return fired;
+    }
+
+    /**
+     * The earliest time at which the wheel may have work to do. This is a lower bound, as
+     * timeouts on higher levels are only cascaded (not run) when this time is reached.
+     * @return the time in milliseconds, or {@link Long#MAX_VALUE} if the wheel is empty
+     */
+    public long nextExpiryTime() {
+        if(size == 0) {
+            return Long.MAX_VALUE;
+        }
+        return startTime + nextEventTick() * tickMs;
+    }
+
+    /**
+     * @return the number of pending timeouts
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    private long ticksFor(long ms) {
+        return Math.max(1, Math.ceilDiv(ms, tickMs));
+    }
+
+    /**
+     * Finds the next tick (after the current tick) at which a non-empty slot is reached.
+     * O(LEVELS), as each level only needs a rotate and count trailing zeros.
+     */
+    private long nextEventTick() {
+        long best = Long.MAX_VALUE;
+        for(int level = 0; level < LEVELS; level++) {
+            if(occupied[level] == 0) {
+                continue;
+            }
+            int shift = level * SLOT_BITS;
+            long base = (currentTick >>> shift) + 1;
+            long rotated = Long.rotateRight(occupied[level], (int) (base & SLOT_MASK));
+            long tick = (base + Long.numberOfTrailingZeros(rotated)) << shift;
+            best = Math.min(best, tick);
+        }
+        return best;
+    }
+
+    private void link(Timeout timeout) {
+        long deadline = Math.max(timeout.deadline, currentTick);
+        // The highest digit at which the deadline differs from the current tick decides the level
+        long diff = deadline ^ currentTick;
+        int level = diff == 0 ? 0 :
+                Math.min(LEVELS - 1, (63 - Long.numberOfLeadingZeros(diff)) / SLOT_BITS);
+        int slot = (int) (deadline >>> (level * SLOT_BITS)) & SLOT_MASK;
+
+        Timeout head = slots[level][slot];
+        timeout.next = head;
+        timeout.prev = null;
+        if(head != null) {
+            head.prev = timeout;
+        }
+        slots[level][slot] = timeout;
+        occupied[level] |= 1L << slot;
+        timeout.level = level;
+        timeout.slot = slot;
+        size++;
+    }
+
+    private void unlink(Timeout timeout) {
+        int level = timeout.level, slot = timeout.slot;
+        if(timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[level][slot] = timeout.next;
+            if(timeout.next == null) {
+                occupied[level] &= ~(1L << slot);
+            }
+        }
+        if(timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = timeout.next = null;
+        timeout.level = -1;
+        size--;
+    }
+
+    /**
+     * Detaches the whole slot, so that timeouts relinked into the same slot are not revisited.
+     */
+    private Timeout detach(int level, int slot) {
+        Timeout head = slots[level][slot];
+        slots[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        for(Timeout t = head; t != null; t = t.next) {
+            t.level = -1;
+            size--;
+        }
+        return head;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout t = detach(level, slot);
+        while(t != null) {
+            Timeout next = t.next;
+            link(t);
+            t = next;
+        }
+    }
+
+    /**
+     * Takes the timeouts off the slot one at a time rather than detaching it, so a task that
+     * cancels or reschedules a timeout due on the same tick finds it still linked. Nothing is
+     * relinked into the slot being expired, as every deadline after the current tick is either
+     * in another level 0 slot or on a higher level.
+     */
+    private int expire(int slot) {
+        int fired = 0;
+        Timeout t;
+        while((t = slots[0][slot]) != null) {
+            unlink(t);
+            if(t.deadline > currentTick) {
+                // Beyond the range of the wheel when it was scheduled, so it came round early
+                link(t);
+            } else {
+                if(t.period > 0) {
+                    t.deadline = currentTick + t.period;
+                    link(t);
+                }
+                t.task.run();
+                fired++;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * A handle to a task scheduled on a {@link TimingWheel}.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private TimingWheel wheel;
+        private long deadline;
+        private long period;
+        private Timeout prev, next;
+        private int level = -1, slot;
+
+        /**
+         * Creates an unscheduled timeout, for use with {@link TimingWheel#schedule(Timeout, long)}.
+         * @param task the task to run when the timeout expires
+         */
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * @return true if this timeout is scheduled and has not yet expired or been cancelled
+         */
+        public boolean isPending() {
+            return level >= 0;
+        }
+
+        /**
+         * Cancels this timeout - O(1)
+         * @return true if this timeout was pending
+         */
+        public boolean cancel() {
+            return wheel != null && wheel.cancel(this);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package ci583.gui;
+
+import ci583.receiver.DispatchLog;
+import imgui.ImDrawList;
+import imgui.ImGui;
+import imgui.flag.ImGuiWindowFlags;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Draws a receiver's {@link DispatchLog} as a Gantt chart, with a row per process and a bar for
+ * each slice of CPU time it was given. The view can be zoomed with the mouse wheel and scrolled
+ * by dragging, or left to follow the latest slices.
+ * </p>
+ * <p>
+ * When zoomed in the slices are drawn straight from the log. When zoomed out, slices are drawn
+ * from levels of detail which merge the slices of each row that are less than a bucket apart
+ * (16ms, 256ms, 4s, ...). The levels are built incrementally as slices are recorded, so the cost of
+ * a frame depends on the number of bars on screen, not on the number of slices in the log.
+ * </p>
+ * <p>
+ * A bar is found by searching for the first one starting before the view by as much as the longest
+ * bar, so no bar is allowed to grow past {@value #MAX_BAR_BUCKETS} buckets, and a process that runs
+ * for a long time is drawn as several bars end to end. Likewise the few slices longer than
+ * {@value #LONG_SLICE_MS}ms are drawn from pieces of that length when zoomed in, so one long slice
+ * does not make every frame search back to its start.
+ * </p>
+ */
+public class GanttView {
+
+    private static final float LABEL_WIDTH = 90;
+    private static final float ROW_HEIGHT = 18;
+    private static final double MIN_MS_PER_PIXEL = 0.05, MAX_MS_PER_PIXEL = 1 << 22;
+
+    // Each level of detail merges slices into buckets 16x larger than the level below
+    private static final int LOD_SHIFT = 4;
+    private static final int LOD_LEVELS = 5;
+    private static final int LOD_CAPACITY = 1 << 16;
+    // The longest bar in a level of detail, in buckets of that level
+    private static final int MAX_BAR_BUCKETS = 64;
+    // Slices longer than this are drawn from pieces when zoomed in
+    private static final int LONG_SLICE_MS = 1024;
+
+    private final String windowTitle;
+    private final DispatchLog log;
+    private final LevelOfDetail[] levels = new LevelOfDetail[LOD_LEVELS];
+    // The slices longer than LONG_SLICE_MS, split into pieces no longer than that
+    private final LevelOfDetail longSlices = new LevelOfDetail(-1, LONG_SLICE_MS);
+    // The next slice of the log to be merged into the levels of detail
+    private long consumed;
+    // Length of the longest slice, so that a search can find slices that start before the view
+    private int maxSliceLength;
+
+    // Bar colour for each outcome, reused every frame
+    private final int[] colours = new int[DispatchLog.Outcome.values().length];
+
+    private double msPerPixel = 10;
+    private double viewStart;
+    private boolean follow = true;
+    private double scaleShown = -1;
+    private String scaleLabel = "";
+
+    public GanttView(String title, DispatchLog log) {
+        this.windowTitle = "Timeline - " + title;
+        this.log = log;
+        for(int i = 0; i < LOD_LEVELS; i++) {
+            int shift = LOD_SHIFT * (i + 1);
+            levels[i] = new LevelOfDetail(1 << shift, MAX_BAR_BUCKETS << shift);
+        }
+    }
+
+    public void imGuiDraw() {
+        consume();
+
+        ImGui.begin(windowTitle);
+
+        if(ImGui.checkbox("Follow", follow)) {
+            follow = !follow;
+        }
+        ImGui.sameLine();
+        if(ImGui.button("-")) {
+            zoom(1.25, 0);
+        }
+        ImGui.sameLine();
+        if(ImGui.button("+")) {
+            zoom(0.8, 0);
+        }
+        ImGui.sameLine();
+        if(scaleShown != msPerPixel) {
+            // Only rebuilt when the zoom changes
+            scaleShown = msPerPixel;
+            scaleLabel = String.format("1px = %.2fms", msPerPixel);
+        }
+        ImGui.text(scaleLabel);
+
+        if(ImGui.beginChild("##gantt", 0, 0, true, ImGuiWindowFlags.NoScrollWithMouse)) {
+            drawChart();
+        }
+        ImGui.endChild();
+
+        ImGui.end();
+    }
+
+    private void drawChart() {
+        float originX = ImGui.getCursorScreenPosX();
+        float originY = ImGui.getCursorScreenPosY();
+        float width = Math.max(1, ImGui.getContentRegionAvailX() - LABEL_WIDTH);
+        float height = ImGui.getContentRegionAvailY();
+        float chartX = originX + LABEL_WIDTH;
+
+        int rows = log.getRowCount();
+        // Reserve the full height so the child window scrolls vertically, then only draw visible rows
+        ImGui.dummy(LABEL_WIDTH + width, rows * ROW_HEIGHT);
+        float scrollY = ImGui.getScrollY();
+        int firstRow = Math.max(0, (int) (scrollY / ROW_HEIGHT));
+        int lastRow = Math.min(rows - 1, (int) ((scrollY + height) / ROW_HEIGHT) + 1);
+
+        if(ImGui.isWindowHovered()) {
+            float wheel = ImGui.getIO().getMouseWheel();
+            if(wheel != 0) {
+                zoom(wheel > 0 ? 0.8 : 1.25, ImGui.getMousePosX() - chartX);
+            }
+            if(ImGui.isMouseDragging(0)) {
+                follow = false;
+                viewStart -= ImGui.getIO().getMouseDeltaX() * msPerPixel;
+            }
+        }
+
+        long now = System.currentTimeMillis() - log.getEpoch();
+        if(follow) {
+            viewStart = now - width * msPerPixel;
+        }
+        double viewEnd = viewStart + width * msPerPixel;
+
+        ImDrawList drawList = ImGui.getWindowDrawList();
+        int textColour = ImGui.getColorU32(0.9f, 0.9f, 0.9f, 1);
+        int gridColour = ImGui.getColorU32(0.3f, 0.3f, 0.3f, 1);
+        for(int row = firstRow; row <= lastRow; row++) {
+            float y = originY + row * ROW_HEIGHT;
+            drawList.addText(originX, y, textColour, log.getRowName(row));
+            drawList.addLine(chartX, y + ROW_HEIGHT, chartX + width, y + ROW_HEIGHT, gridColour);
+        }
+
+        drawList.pushClipRect(chartX, originY + firstRow * ROW_HEIGHT, chartX + width,
+                originY + (lastRow + 1) * ROW_HEIGHT);
+        colours[DispatchLog.Outcome.PREEMPTED.ordinal()] = ImGui.getColorU32(0.3f, 0.5f, 0.9f, 1);
+        colours[DispatchLog.Outcome.COMPLETED.ordinal()] = ImGui.getColorU32(0.3f, 0.8f, 0.4f, 1);
+        colours[DispatchLog.Outcome.YIELDED.ordinal()] = ImGui.getColorU32(0.9f, 0.6f, 0.2f, 1);
+        colours[DispatchLog.Outcome.BLOCKED.ordinal()] = ImGui.getColorU32(0.7f, 0.4f, 0.8f, 1);
+
+        // Use the coarsest level of detail whose buckets are still no wider than a pixel
+        LevelOfDetail lod = null;
+        for(LevelOfDetail level : levels) {
+            if(level.gap <= msPerPixel) {
+                lod = level;
+            }
+        }
+
+        if(lod == null) {
+            long from = (long) viewStart - Math.min(maxSliceLength, LONG_SLICE_MS);
+            for(long seq = log.search(from); seq < log.head(); seq++) {
+                int start = log.getStart(seq);
+                if(start > viewEnd) break;
+                int row = log.getRow(seq);
+                int length = log.getLength(seq);
+                int colour = colours[log.getOutcome(seq).ordinal()];
+                // Long slices are drawn from their pieces
+                if(row < firstRow || row > lastRow || length > LONG_SLICE_MS || !log.isValid(seq)) continue;
+                drawBar(drawList, chartX, originY, row, start, start + length, colour);
+            }
+            drawBars(longSlices, drawList, chartX, originY, firstRow, lastRow, viewEnd, true);
+        } else {
+            drawBars(lod, drawList, chartX, originY, firstRow, lastRow, viewEnd, false);
+        }
+
+        drawList.popClipRect();
+    }
+
+    /**
+     * Draws the bars of a level that are in view. No bar is longer than the level's maximum length,
+     * so the search only goes back that far before the view.
+     */
+    private void drawBars(LevelOfDetail lod, ImDrawList drawList, float chartX, float originY,
+                          int firstRow, int lastRow, double viewEnd, boolean byOutcome) {
+        for(long bar = lod.search((long) viewStart - lod.maxLength); bar < lod.head; bar++) {
+            int i = (int) bar & (LOD_CAPACITY - 1);
+            if(lod.start[i] > viewEnd) break;
+            int row = lod.row[i];
+            if(row < firstRow || row > lastRow) continue;
+            drawBar(drawList, chartX, originY, row, lod.start[i], lod.end[i],
+                    colours[byOutcome ? lod.outcome[i] : 0]);
+        }
+    }
+
+    private void drawBar(ImDrawList drawList, float chartX, float originY, int row,
+                         long start, long end, int colour) {
+        float x0 = chartX + (float) ((start - viewStart) / msPerPixel);
+        // Always at least a pixel wide, so short slices are still visible
+        float x1 = Math.max(x0 + 1, chartX + (float) ((end - viewStart) / msPerPixel));
+        float y = originY + row * ROW_HEIGHT;
+        drawList.addRectFilled(x0, y + 2, x1, y + ROW_HEIGHT - 2, colour);
+    }
+
+    /**
+     * Zooms the view, keeping the time under the given x position fixed.
+     */
+    private void zoom(double factor, float x) {
+        double anchor = viewStart + x * msPerPixel;
+        msPerPixel = Math.max(MIN_MS_PER_PIXEL, Math.min(MAX_MS_PER_PIXEL, msPerPixel * factor));
+        viewStart = anchor - x * msPerPixel;
+    }
+
+    /**
+     * Merges the slices recorded since the last frame into every level of detail.
+     */
+    private void consume() {
+        long head = log.head();
+        for(long seq = Math.max(consumed, log.tail()); seq < head; seq++) {
+            int row = log.getRow(seq);
+            int start = log.getStart(seq);
+            int length = log.getLength(seq);
+            int outcome = log.getOutcome(seq).ordinal();
+            if(!log.isValid(seq)) continue;
+
+            maxSliceLength = Math.max(maxSliceLength, length);
+            if(length > LONG_SLICE_MS) {
+                longSlices.add(row, start, start + length, outcome);
+            }
+            for(LevelOfDetail level : levels) {
+                level.add(row, start, start + length, outcome);
+            }
+        }
+        consumed = head;
+    }
+
+    /**
+     * A ring of bars, each covering the slices of one row which are less than a gap apart, and
+     * no longer than the maximum length, so a longer run of slices is split between several bars.
+     * Bars are appended in start time order, so the ring can be binary searched.
+     */
+    private static final class LevelOfDetail {
+        // Slices of a row at most this far apart are merged into one bar, or never if negative
+        private final int gap;
+        private final int maxLength;
+        private final int[] row = new int[LOD_CAPACITY];
+        private final int[] start = new int[LOD_CAPACITY];
+        private final int[] end = new int[LOD_CAPACITY];
+        // The outcome of the first slice in each bar
+        private final byte[] outcome = new byte[LOD_CAPACITY];
+        private long head;
+        // The last bar of each row, which a new slice may extend
+        private long[] lastBar = new long[0];
+
+        private LevelOfDetail(int gap, int maxLength) {
+            this.gap = gap;
+            this.maxLength = maxLength;
+        }
+
+        private void add(int r, int s, int e, int how) {
+            if(r >= lastBar.length) {
+                int old = lastBar.length;
+                lastBar = Arrays.copyOf(lastBar, Math.max(16, r * 2));
+                Arrays.fill(lastBar, old, lastBar.length, -1);
+            }
+
+            long last = lastBar[r];
+            if(gap >= 0 && last >= 0 && last >= head - LOD_CAPACITY) {
+                int i = (int) last & (LOD_CAPACITY - 1);
+                if(s - end[i] <= gap && e - start[i] <= maxLength) {
+                    end[i] = Math.max(end[i], e);
+                    return;
+                }
+            }
+
+            // A slice longer than a bar is split into bars end to end
+            for(; e - s > maxLength; s += maxLength) {
+                append(r, s, s + maxLength, how);
+            }
+            append(r, s, e, how);
+        }
+
+        private void append(int r, int s, int e, int how) {
+            int i = (int) head & (LOD_CAPACITY - 1);
+            row[i] = r;
+            start[i] = s;
+            end[i] = e;
+            outcome[i] = (byte) how;
+            lastBar[r] = head++;
+        }
+
+        private long search(long time) {
+            long lo = Math.max(0, head - LOD_CAPACITY), hi = head;
+            while(lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if(start[(int) mid & (LOD_CAPACITY - 1)] < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ci583.gui;
+
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.QueueSnapshot;
+import imgui.ImGui;
+import imgui.ImGuiListClipper;
+import imgui.callback.ImListClipperCallback;
+import imgui.flag.ImGuiTableFlags;
+
+/**
+ * <p>
+ * Renders one level of a {@link QueueSnapshot} as a table with a row per process.
+ * </p>
+ * <p>
+ * The table scrolls and is clipped with {@link ImGuiListClipper}, so only the rows that are
+ * visible are submitted to ImGui, and rendering a frame does not allocate: labels are constants,
+ * the slider wrapper is reused and the clipper callback is created once.
+ * </p>
+ */
+public class QueueTable {
+
+    private static final int TABLE_FLAGS = ImGuiTableFlags.Borders | ImGuiTableFlags.RowBg |
+            ImGuiTableFlags.ScrollY;
+    private static final float TABLE_HEIGHT = 250;
+
+    // Thread priorities are 1 - 10, so the labels can be made once rather than every frame
+    private static final String[] PRIORITY_LABELS = new String[Thread.MAX_PRIORITY + 1];
+    static {
+        for(int i = 0; i < PRIORITY_LABELS.length; i++) {
+            ModuleRegister.Priority priority = ModuleRegister.Priority.fromValue(i);
+            PRIORITY_LABELS[i] = priority == null ? Integer.toString(i) : priority.name();
+        }
+    }
+
+    private final String id;
+    private final boolean showPriority;
+    private final boolean showYield;
+    private final int columns;
+
+    // Reused by every slider, rather than allocating a wrapper per row per frame
+    private final int[] wrapper = new int[1];
+    private final ImListClipperCallback rowCallback = new ImListClipperCallback() {
+        @Override
+        public void accept(int index) {
+            drawRow(levelStart + index);
+        }
+    };
+
+    // The snapshot being drawn, set for the duration of draw()
+    private QueueSnapshot snapshot;
+    private int levelStart;
+    private boolean edited;
+
+    /**
+     * @param id unique ImGui id of the table
+     * @param showPriority show (and allow editing of) the priority of each process
+     * @param showYield show (and allow editing of) the yield chance of each process
+     */
+    public QueueTable(String id, boolean showPriority, boolean showYield) {
+        this.id = id;
+        this.showPriority = showPriority;
+        this.showYield = showYield;
+        this.columns = 3 + (showPriority ? 1 : 0) + (showYield ? 1 : 0);
+    }
+
+    /**
+     * Draws a level of the snapshot.
+     * @param snapshot the snapshot
+     * @param level the level to draw
+     * @return true if the user edited a process that has not started yet
+     */
+    public boolean draw(QueueSnapshot snapshot, int level) {
+        this.snapshot = snapshot;
+        this.levelStart = snapshot.levelStart(level);
+        this.edited = false;
+
+        ImGui.pushID(level);
+        if(ImGui.beginTable(id, columns, TABLE_FLAGS, 0, TABLE_HEIGHT)) {
+            ImGui.tableSetupScrollFreeze(0, 1);
+            ImGui.tableSetupColumn("Process");
+            ImGui.tableSetupColumn("State");
+            ImGui.tableSetupColumn("Work");
+            if(showPriority) ImGui.tableSetupColumn("Priority");
+            if(showYield) ImGui.tableSetupColumn("Yield %");
+            ImGui.tableHeadersRow();
+
+            // Only the visible rows are drawn - O(visible) rather than O(n)
+            ImGuiListClipper.forEach(snapshot.levelSize(level), rowCallback);
+
+            ImGui.endTable();
+        }
+        ImGui.popID();
+
+        this.snapshot = null;
+        return edited;
+    }
+
+    private void drawRow(int row) {
+        ModuleRegister register = snapshot.getRegister(row);
+        if(register == null) return;
+
+        ImGui.pushID(row);
+        ImGui.tableNextRow();
+
+        ImGui.tableNextColumn();
+        ImGui.text(register.getName());
+
+        ImGui.tableNextColumn();
+        ImGui.text(snapshot.isExecuting(row) ? "Executing" :
+                snapshot.isStarted(row) ? "Runnable" : "New");
+
+        ImGui.tableNextColumn();
+        long work = snapshot.getWork(row);
+        if(snapshot.isStarted(row)) {
+            ImGui.progressBar(work == 0 ? 1 : (float) snapshot.getWorkCompleted(row) / work);
+        } else {
+            // Slider to configure work done amount
+            wrapper[0] = (int) work;
+            if(ImGui.sliderInt("##work", wrapper, 1000, 60000)) {
+                register.setWorkToDo(wrapper[0]);
+                edited = true;
+            }
+        }
+
+        if(showPriority) {
+            ImGui.tableNextColumn();
+            int priority = snapshot.getPriority(row);
+            if(!snapshot.isStarted(row) && ImGui.beginMenu(PRIORITY_LABELS[priority])) {
+                // Menu to configure priority
+                for(ModuleRegister.Priority p : ModuleRegister.Priority.values()) {
+                    if(ImGui.menuItem(p.name(), "", false, p.getVal() != priority)) {
+                        register.setPriority(p.getVal());
+                        edited = true;
+                    }
+                }
+                ImGui.endMenu();
+            } else if(snapshot.isStarted(row)) {
+                ImGui.text(PRIORITY_LABELS[priority]);
+            }
+        }
+
+        if(showYield) {
+            ImGui.tableNextColumn();
+            wrapper[0] = (int) (register.getInteractiveThreadChance() * 100);
+            if(!snapshot.isStarted(row) && ImGui.sliderInt("##yield", wrapper, 1, 99)) {
+                register.setInteractiveThreadChance((double) wrapper[0] / 100D);
+                edited = true;
+            } else if(snapshot.isStarted(row)) {
+                ImGui.progressBar((float) register.getInteractiveThreadChance());
+            }
+        }
+
+        ImGui.popID();
+    }
+}
@@ -1,6 +1,9 @@
 package ci583.gui;
 
 import ci583.receiver.*;
+import ci583.metrics.MetricsRegistry;
+import ci583.metrics.MetricsServer;
+import ci583.trace.TraceWriter;
 import imgui.ImDrawList;
 import imgui.ImFont;
 import imgui.ImGui;
@@ -9,7 +12,10 @@ import imgui.app.Application;
 import imgui.app.Configuration;
 import imgui.flag.ImGuiCol;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -33,6 +39,8 @@ public class Window extends Application {
     private final FirstComeFirstServeReceiver firstComeFirstServeReceiver = new FirstComeFirstServeReceiver(100);
     private final MultiLevelFeedbackQueueRealReceiver multiLevelFeedbackQueueRealReceiver =
             new MultiLevelFeedbackQueueRealReceiver(100);
+    private final FairShareReceiver fairShareReceiver = new FairShareReceiver(100);
+    private final MultiLevelQueueReceiver multiLevelQueueReceiver = new MultiLevelQueueReceiver(100);
 
     // Linked hash map containing all the selectable types of schedulers
     private final LinkedHashMap<String, ModRegReceiver> selectMap = new LinkedHashMap<>(){{
@@ -43,11 +51,19 @@ public class Window extends Application {
         put("Shortest Job First", shortestJobFirstReceiver);
         put("First Come First Serve", firstComeFirstServeReceiver);
         put("Multi-level Feedback Queue (impl.)", multiLevelFeedbackQueueRealReceiver);
+        put("Fair Share", fairShareReceiver);
+        put("Multilevel Queue", multiLevelQueueReceiver);
     }};
 
     // The running schedulers
     private final HashMap<Class<? extends ModRegReceiver>, ModRegReceiver> selectedReceivers = new HashMap<>();
     private boolean running;
+    // Gantt timeline of each receiver, made the first time it is shown
+    private final IdentityHashMap<ModRegReceiver, GanttView> timelines = new IdentityHashMap<>();
+    private boolean showTimelines;
+    // The context switch cost given to each receiver when it starts, 0 for free switches
+    private final int[] switchCost = { 0 };
+    private final int[] cacheRefill = { 0 };
 
     @Override
     protected void configure(Configuration config) {
@@ -61,6 +77,11 @@ public class Window extends Application {
         mainMenuBar();
         selectedReceivers.forEach((aClass, modRegReceiver) ->
                 modRegReceiver.imGuiDraw());
+        if(showTimelines) {
+            selectedReceivers.forEach((aClass, modRegReceiver) ->
+                    timelines.computeIfAbsent(modRegReceiver, r ->
+                            new GanttView(r.getClass().getSimpleName(), r.getDispatchLog())).imGuiDraw());
+        }
 
         ImGui.popFont();
 
@@ -124,11 +145,23 @@ public class Window extends Application {
                     ModRegReceiver.setQUANTUM(wrapper[0]);
                 }
 
+                // Context switch cost, charged from the next start
+                ImGui.text("Switch cost (ms):");
+                ImGui.sliderInt("##switchCost", switchCost, 0, 50);
+                ImGui.text("Cache refill (ms):");
+                ImGui.sliderInt("##cacheRefill", cacheRefill, 0, 50);
+
                 ImGui.endMenu();
             }
 
             ImGui.separator();
 
+            if(ImGui.menuItem("Timelines", "", showTimelines)) {
+                showTimelines = !showTimelines;
+            }
+
+            ImGui.separator();
+
             if(ImGui.beginMenu("Load Tests")) {
                 if(ImGui.menuItem("Default JUnit Tests")) {
                     loadJUnitTests();
@@ -158,12 +191,14 @@ public class Window extends Application {
         // New thread for each scheduler, so that they can run simultaneously
         AtomicInteger resultCount = new AtomicInteger();
         for(ModRegReceiver scheduler : selectedReceivers.values()) {
-            Thread thread = new Thread(() -> {
-                scheduler.startRegistration();
+            scheduler.setContextSwitchModel(switchCost[0] > 0 || cacheRefill[0] > 0
+                    ? new ContextSwitchModel(switchCost[0], cacheRefill[0], 1) : null);
+            // The receiver hands its queues to the dispatcher thread, so the GUI only reads
+            // the snapshots it publishes
+            scheduler.startDispatcher(() -> {
                 schedulerFinishedRunning(resultCount.incrementAndGet());
                 scheduler.imGuiReset();
             });
-            thread.start();
         }
     }
 
@@ -178,50 +213,50 @@ public class Window extends Application {
 
         // Round-robin
         ModRegReceiver r = new RoundRobinReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 5000));
-        r.enqueue(new ModuleRegister("P2", 3000));
-        r.enqueue(new ModuleRegister("P3", 1000));
-        r.enqueue(new ModuleRegister("P4", 4000));
+        r.submit(new ModuleRegister("P1", 5000));
+        r.submit(new ModuleRegister("P2", 3000));
+        r.submit(new ModuleRegister("P3", 1000));
+        r.submit(new ModuleRegister("P4", 4000));
         selectedReceivers.put(r.getClass(), r);
 
         // Priority
         r = new PriorityReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 2000, ModuleRegister.Priority.MED));
-        r.enqueue(new ModuleRegister("P2", 3000, ModuleRegister.Priority.LOW));
-        r.enqueue(new ModuleRegister("P3", 4000, ModuleRegister.Priority.MED));
-        r.enqueue(new ModuleRegister("P4", 4000, ModuleRegister.Priority.HIGH));
-        r.enqueue(new ModuleRegister("P5", 4000, ModuleRegister.Priority.LOW));
-        r.enqueue(new ModuleRegister("P6", 4000, ModuleRegister.Priority.HIGH));
+        r.submit(new ModuleRegister("P1", 2000, ModuleRegister.Priority.MED));
+        r.submit(new ModuleRegister("P2", 3000, ModuleRegister.Priority.LOW));
+        r.submit(new ModuleRegister("P3", 4000, ModuleRegister.Priority.MED));
+        r.submit(new ModuleRegister("P4", 4000, ModuleRegister.Priority.HIGH));
+        r.submit(new ModuleRegister("P5", 4000, ModuleRegister.Priority.LOW));
+        r.submit(new ModuleRegister("P6", 4000, ModuleRegister.Priority.HIGH));
         selectedReceivers.put(r.getClass(), r);
 
         // Multi-level feedback queue (young & old)
         r = new MultiLevelFeedbackQueueReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 2000));
-        r.enqueue(new ModuleRegister("P2", 3000));
-        r.enqueue(new ModuleRegister("P3", 4000));
-        r.enqueue(new ModuleRegister("P4", 4000));
-        r.enqueue(new ModuleRegister("P5", 4000));
-        r.enqueue(new ModuleRegister("P6", 4000));
+        r.submit(new ModuleRegister("P1", 2000));
+        r.submit(new ModuleRegister("P2", 3000));
+        r.submit(new ModuleRegister("P3", 4000));
+        r.submit(new ModuleRegister("P4", 4000));
+        r.submit(new ModuleRegister("P5", 4000));
+        r.submit(new ModuleRegister("P6", 4000));
         selectedReceivers.put(r.getClass(), r);
 
         // Shortest job first
         r = new ShortestJobFirstReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 2000));
-        r.enqueue(new ModuleRegister("P2", 3000));
-        r.enqueue(new ModuleRegister("P3", 4000));
-        r.enqueue(new ModuleRegister("P4", 2000));
-        r.enqueue(new ModuleRegister("P5", 4000));
-        r.enqueue(new ModuleRegister("P6", 1000));
+        r.submit(new ModuleRegister("P1", 2000));
+        r.submit(new ModuleRegister("P2", 3000));
+        r.submit(new ModuleRegister("P3", 4000));
+        r.submit(new ModuleRegister("P4", 2000));
+        r.submit(new ModuleRegister("P5", 4000));
+        r.submit(new ModuleRegister("P6", 1000));
         selectedReceivers.put(r.getClass(), r);
 
         // First come first serve
         r = new FirstComeFirstServeReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 2000));
-        r.enqueue(new ModuleRegister("P2", 3000));
-        r.enqueue(new ModuleRegister("P3", 4000));
-        r.enqueue(new ModuleRegister("P4", 2000));
-        r.enqueue(new ModuleRegister("P5", 4000));
-        r.enqueue(new ModuleRegister("P6", 1000));
+        r.submit(new ModuleRegister("P1", 2000));
+        r.submit(new ModuleRegister("P2", 3000));
+        r.submit(new ModuleRegister("P3", 4000));
+        r.submit(new ModuleRegister("P4", 2000));
+        r.submit(new ModuleRegister("P5", 4000));
+        r.submit(new ModuleRegister("P6", 1000));
         selectedReceivers.put(r.getClass(), r);
 
     }
@@ -231,54 +266,68 @@ public class Window extends Application {
 
         // RR
         ModRegReceiver r = new RoundRobinReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 19000));
-        r.enqueue(new ModuleRegister("P2", 29000));
-        r.enqueue(new ModuleRegister("P3", 35000));
-        r.enqueue(new ModuleRegister("P4", 6000));
-        r.enqueue(new ModuleRegister("P5", 40000));
-        r.enqueue(new ModuleRegister("P6", 44000));
+        r.submit(new ModuleRegister("P1", 19000));
+        r.submit(new ModuleRegister("P2", 29000));
+        r.submit(new ModuleRegister("P3", 35000));
+        r.submit(new ModuleRegister("P4", 6000));
+        r.submit(new ModuleRegister("P5", 40000));
+        r.submit(new ModuleRegister("P6", 44000));
         selectedReceivers.put(r.getClass(), r);
 
         // P
         r = new PriorityReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 19000));
-        r.enqueue(new ModuleRegister("P2", 29000));
-        r.enqueue(new ModuleRegister("P3", 35000));
-        r.enqueue(new ModuleRegister("P4", 6000));
-        r.enqueue(new ModuleRegister("P5", 40000));
-        r.enqueue(new ModuleRegister("P6", 44000));
+        r.submit(new ModuleRegister("P1", 19000));
+        r.submit(new ModuleRegister("P2", 29000));
+        r.submit(new ModuleRegister("P3", 35000));
+        r.submit(new ModuleRegister("P4", 6000));
+        r.submit(new ModuleRegister("P5", 40000));
+        r.submit(new ModuleRegister("P6", 44000));
         selectedReceivers.put(r.getClass(), r);
 
         // MLFQ
         r = new MultiLevelFeedbackQueueReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 19000));
-        r.enqueue(new ModuleRegister("P2", 29000));
-        r.enqueue(new ModuleRegister("P3", 35000));
-        r.enqueue(new ModuleRegister("P4", 6000));
-        r.enqueue(new ModuleRegister("P5", 40000));
-        r.enqueue(new ModuleRegister("P6", 44000));
+        r.submit(new ModuleRegister("P1", 19000));
+        r.submit(new ModuleRegister("P2", 29000));
+        r.submit(new ModuleRegister("P3", 35000));
+        r.submit(new ModuleRegister("P4", 6000));
+        r.submit(new ModuleRegister("P5", 40000));
+        r.submit(new ModuleRegister("P6", 44000));
         selectedReceivers.put(r.getClass(), r);
 
         r = new ShortestJobFirstReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 19000));
-        r.enqueue(new ModuleRegister("P2", 29000));
-        r.enqueue(new ModuleRegister("P3", 35000));
-        r.enqueue(new ModuleRegister("P4", 6000));
-        r.enqueue(new ModuleRegister("P5", 40000));
-        r.enqueue(new ModuleRegister("P6", 44000));
+        r.submit(new ModuleRegister("P1", 19000));
+        r.submit(new ModuleRegister("P2", 29000));
+        r.submit(new ModuleRegister("P3", 35000));
+        r.submit(new ModuleRegister("P4", 6000));
+        r.submit(new ModuleRegister("P5", 40000));
+        r.submit(new ModuleRegister("P6", 44000));
         selectedReceivers.put(r.getClass(), r);
 
         r = new FirstComeFirstServeReceiver(100);
-        r.enqueue(new ModuleRegister("P1", 19000));
-        r.enqueue(new ModuleRegister("P2", 29000));
-        r.enqueue(new ModuleRegister("P3", 35000));
-        r.enqueue(new ModuleRegister("P4", 6000));
-        r.enqueue(new ModuleRegister("P5", 40000));
-        r.enqueue(new ModuleRegister("P6", 44000));
+        r.submit(new ModuleRegister("P1", 19000));
+        r.submit(new ModuleRegister("P2", 29000));
+        r.submit(new ModuleRegister("P3", 35000));
+        r.submit(new ModuleRegister("P4", 6000));
+        r.submit(new ModuleRegister("P5", 40000));
+        r.submit(new ModuleRegister("P6", 44000));
         selectedReceivers.put(r.getClass(), r);
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // Tracing is turned on with -Dci583.trace=<file>, decode with ci583.trace.TraceReader
+        String trace = System.getProperty("ci583.trace");
+        if(trace != null) {
+            ModRegReceiver.setTraceWriter(new TraceWriter(Path.of(trace), TraceWriter.DEFAULT_CAPACITY));
+        }
+
+        // Metrics are served with -Dci583.metrics.port=<port>, scrape http://localhost:<port>/metrics
+        String metricsPort = System.getProperty("ci583.metrics.port");
+        if(metricsPort != null) {
+            MetricsRegistry registry = new MetricsRegistry();
+            ModRegReceiver.setMetricsRegistry(registry);
+            new MetricsServer(registry, Integer.parseInt(metricsPort));
+        }
+
         ImGui.createContext();
         ImGuiIO io = ImGui.getIO();
         JETBRAINS_FONT = io.getFonts().addFontFromFileTTF("jetbrains_mono.ttf", 25);
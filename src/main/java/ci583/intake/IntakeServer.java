@@ -0,0 +1,229 @@
+package ci583.intake;
+
+import ci583.batch.BatchRunner;
+import ci583.batch.Workload;
+import ci583.receiver.ModRegReceiver;
+import ci583.receiver.ModuleRegister;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * <p>
+ * Accepts registrations over HTTP, using the server built into the JDK, and replies to each
+ * request once its registrations have completed. A request is a {@code POST} to
+ * {@code /registrations} whose body is one or more lines in the workload format (see
+ * {@link Workload}), without arrivals:
+ * </p>
+ * <pre>
+ *     curl --data-binary 'P1 5000 priority=HIGH key=cs-1042' http://localhost:8080/registrations
+ *     P1 turnaround=5123 work=5001 missed=false
+ * </pre>
+ * <p>
+ * Each registration is submitted to the receiver as its key (see {@link ModRegReceiver#submit(String,
+ * ModuleRegister)}), and one the receiver turns away is listed as {@code rejected}, or {@code clash}
+ * if it clashed with the student's timetable. The reply is
+ * 200 if every registration was accepted, 503 if none were, and 400 if the body could not be
+ * parsed. A registration for a module also says whether it was given a seat, if the receiver has a
+ * {@link ci583.receiver.ModuleCatalogue}.
+ * </p>
+ * <p>
+ * Every request is handled on its own virtual thread, which simply waits for its registrations
+ * to complete, so tens of thousands of requests can be pending at once without tuning a thread
+ * pool. The receiver's dispatcher is started whenever registrations arrive and finishes whenever
+ * the receiver runs out of work, as on a {@link ci583.cluster.Worker}. The server takes over the
+ * receiver's completion listener, and only listens on the loopback address.
+ * </p>
+ * <pre>
+ *     java ci583.intake.IntakeServer &lt;port&gt; &lt;receiver&gt; [quantum]
+ * </pre>
+ */
+public class IntakeServer implements Closeable {
+
+    private static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+    // Connections waiting to be accepted, so a burst of clients is not refused
+    private static final int BACKLOG = 4096;
+
+    private final ModRegReceiver receiver;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // The reply to complete when each registration still running finishes
+    private final Map<ModuleRegister, CompletableFuture<ModuleRegister>> pending = new ConcurrentHashMap<>();
+    private boolean dispatching;
+    private boolean closed;
+
+    /**
+     * Starts accepting registrations into the receiver, which must not be dispatching.
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the server cannot be started
+     */
+    public IntakeServer(ModRegReceiver receiver, int port) throws IOException {
+        this.receiver = receiver;
+        receiver.setCompletionListener(this::completed);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/registrations", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of registrations accepted that have not yet completed
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // Called on the request's virtual thread
+    private void handle(HttpExchange exchange) throws IOException {
+        try(exchange) {
+            if(!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            Workload workload;
+            try(Reader body = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                workload = Workload.read(body);
+                for(Workload.Job job : workload.getJobs()) {
+                    if(job.getArrival() > 0) {
+                        throw new IllegalArgumentException("Registrations are enqueued on arrival: " + job.getName());
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                reply(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+
+            List<Workload.Job> jobs = workload.getJobs();
+            List<ModuleRegister> processes = workload.createProcesses();
+            List<CompletableFuture<ModuleRegister>> replies = new ArrayList<>(jobs.size());
+            int accepted = 0;
+            for(int i = 0; i < jobs.size(); i++) {
+                ModuleRegister m = processes.get(i);
+                CompletableFuture<ModuleRegister> reply = new CompletableFuture<>();
+                // Registered first, so a registration that completes straight away is not missed
+                pending.put(m, reply);
+                if(submit(jobs.get(i).getKey(), m)) {
+                    accepted++;
+                } else {
+                    pending.remove(m);
+                    reply = null;
+                }
+                replies.add(reply);
+            }
+
+            StringBuilder out = new StringBuilder(64 * jobs.size());
+            for(int i = 0; i < processes.size(); i++) {
+                ModuleRegister m = processes.get(i);
+                out.append(m.getName());
+                if(replies.get(i) == null) {
+                    out.append(m.hasClash() ? " clash\n" : " rejected\n");
+                    continue;
+                }
+                try {
+                    // Parks the virtual thread, not a carrier thread
+                    replies.get(i).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    reply(exchange, 503, "Server is shutting down\n");
+                    return;
+                }
+                out.append(" turnaround=").append(m.getReadyTime() - m.getAdmittedTime())
+                        .append(" work=").append(m.getWorkCompleted())
+                        .append(" missed=").append(m.hasMissedDeadline());
+                if(m.getModule() != null) {
+                    out.append(" seated=").append(m.hasSeat());
+                }
+                out.append('\n');
+            }
+            reply(exchange, accepted == 0 && !jobs.isEmpty() ? 503 : 200, out.toString());
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try(OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+
+    private boolean submit(String submitter, ModuleRegister m) {
+        synchronized(this) {
+            if(closed) {
+                return false;
+            }
+        }
+        if(!receiver.submit(submitter, m)) {
+            return false;
+        }
+        startDispatcher();
+        return true;
+    }
+
+    // Called on the dispatcher thread
+    private void completed(ModuleRegister m) {
+        CompletableFuture<ModuleRegister> reply = pending.remove(m);
+        if(reply != null) {
+            reply.complete(m);
+        }
+    }
+
+    private synchronized void startDispatcher() {
+        if(!dispatching && !closed) {
+            dispatching = true;
+            receiver.startDispatcher(this::dispatcherFinished);
+        }
+    }
+
+    // A registration submitted while the dispatcher was finishing has not been run, so start it again
+    private synchronized void dispatcherFinished() {
+        dispatching = false;
+        if(!pending.isEmpty()) {
+            startDispatcher();
+        }
+    }
+
+    /**
+     * Stops accepting registrations, and replies 503 to the requests still waiting.
+     */
+    @Override
+    public void close() {
+        synchronized(this) {
+            closed = true;
+        }
+        for(CompletableFuture<ModuleRegister> reply : pending.values()) {
+            reply.completeExceptionally(new IOException("Server closed"));
+        }
+        server.stop(0);
+        executor.shutdown();
+        receiver.setCompletionListener(null);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.err.println("Usage: IntakeServer <port> <receiver> [quantum]");
+            System.exit(2);
+        }
+
+        ModRegReceiver receiver = BatchRunner.createReceiver(args[1], args.length > 2 ? Long.parseLong(args[2]) : 100);
+        IntakeServer server = new IntakeServer(receiver, Integer.parseInt(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Accepting registrations on port " + server.getPort());
+    }
+}
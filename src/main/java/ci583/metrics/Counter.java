@@ -0,0 +1,25 @@
+package ci583.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Backed by a {@link LongAdder}, which stripes the count over
+ * several cells under contention, so incrementing from many threads does not serialise on one
+ * cache line.
+ */
+public class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,102 @@
+package ci583.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A lock-free histogram of non-negative values, with HDR-style log-linear buckets: each power of two
+ * is split into {@link #SUB_BUCKETS} equal sub-buckets, so any value is recorded with a relative
+ * error of at most 1/{@value #SUB_BUCKETS} whatever its magnitude. Recording a value is an index
+ * calculation and an atomic increment - O(1), no locks and no allocation.
+ * </p>
+ * <p>
+ * Based on <a href="http://hdrhistogram.org/">HdrHistogram</a>
+ * </p>
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Enough buckets for any non-negative long
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a value - O(1). Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.getAndIncrement(index(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the value at the given percentile, or 0 if
+     * nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if(seen >= target) {
+                return lowerBound(i + 1) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of values recorded that are less than the given bound, accurate to the
+     * bucket containing the bound
+     */
+    public long countBelow(long bound) {
+        long total = 0;
+        for(int i = 0; i < BUCKETS && lowerBound(i) < bound; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    static int index(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long lowerBound(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BITS) - 1;
+        long bound = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        // The bucket after the last one
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+}
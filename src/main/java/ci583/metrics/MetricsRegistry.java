@@ -0,0 +1,197 @@
+package ci583.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>
+ * A registry of named metrics, which can be written out in the
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text format</a>.
+ * </p>
+ * <p>
+ * Metrics are grouped into families by name, and each series in a family is identified by its
+ * labels. Looking up a metric is a concurrent map lookup, so callers on hot paths should look a
+ * metric up once and keep it. Gauges are read through callbacks at scrape time, so they cost
+ * nothing between scrapes.
+ * </p>
+ */
+public class MetricsRegistry {
+
+    /** Histogram bounds exported to Prometheus, in ms: powers of two from 1ms to ~4.6 hours */
+    private static final int EXPORTED_BUCKETS = 25;
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * Gets or creates a counter.
+     * @param name the family name, e.g. {@code ci583_dispatches_total}
+     * @param help a description of the family
+     * @param labels alternating label names and values
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER)
+                .series.computeIfAbsent(labelString(labels), l -> new Counter());
+    }
+
+    /**
+     * Gets or creates a histogram, whose values are in ms and exported in seconds.
+     * @param name the family name, e.g. {@code ci583_queue_wait_seconds}
+     * @param help a description of the family
+     * @param labels alternating label names and values
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM)
+                .series.computeIfAbsent(labelString(labels), l -> new Histogram());
+    }
+
+    /**
+     * Adds a source of gauge samples to a family. The source is called on every scrape.
+     * @param name the family name, e.g. {@code ci583_run_queue_depth}
+     * @param help a description of the family
+     * @param source writes the current samples
+     */
+    public void gauge(String name, String help, GaugeSource source) {
+        family(name, help, Type.GAUGE).sources.add(source);
+    }
+
+    /**
+     * Removes a source of gauge samples, e.g. when its receiver is discarded.
+     */
+    public void removeGauge(String name, GaugeSource source) {
+        Family family = families.get(name);
+        if(family != null) {
+            family.sources.remove(source);
+        }
+    }
+
+    /**
+     * Removes a counter or histogram series, e.g. when its receiver is discarded.
+     * @param name the family name
+     * @param labels alternating label names and values, as the series was created with
+     */
+    public void remove(String name, String... labels) {
+        Family family = families.get(name);
+        if(family != null) {
+            family.series.remove(labelString(labels));
+        }
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format.
+     * @param out where to write the metrics
+     */
+    public void writePrometheus(StringBuilder out) {
+        List<Family> sorted = new ArrayList<>(families.values());
+        sorted.sort((a, b) -> a.name.compareTo(b.name));
+
+        for(Family family : sorted) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ')
+                    .append(family.type.name().toLowerCase()).append('\n');
+
+            switch (family.type) {
+                case COUNTER -> family.series.forEach((labels, metric) ->
+                        sample(out, family.name, labels, null, ((Counter) metric).get()));
+                case HISTOGRAM -> family.series.forEach((labels, metric) ->
+                        writeHistogram(out, family.name, labels, (Histogram) metric));
+                case GAUGE -> {
+                    GaugeSink sink = (value, labels) ->
+                            sample(out, family.name, labelString(labels), null, value);
+                    for(GaugeSource source : family.sources) {
+                        source.collect(sink);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        for(int i = 0; i < EXPORTED_BUCKETS; i++) {
+            long boundMs = 1L << i;
+            // A Prometheus bucket counts the values less than or equal to its bound
+            sample(out, name + "_bucket", labels, Double.toString(boundMs / 1000D),
+                    histogram.countBelow(boundMs + 1));
+        }
+        long count = histogram.getCount();
+        sample(out, name + "_bucket", labels, "+Inf", count);
+        sample(out, name + "_sum", labels, null, histogram.getSum() / 1000D);
+        sample(out, name + "_count", labels, null, count);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String le, double value) {
+        out.append(name);
+        if(!labels.isEmpty() || le != null) {
+            out.append('{').append(labels);
+            if(le != null) {
+                out.append(labels.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if(value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if(family.type != type) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String labelString(String[] labels) {
+        if(labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < labels.length; i += 2) {
+            if(i > 0) builder.append(',');
+            builder.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+        return builder.toString();
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, Object> series = new ConcurrentHashMap<>();
+        private final List<GaugeSource> sources = new CopyOnWriteArrayList<>();
+
+        private Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /** Writes the current samples of a gauge family */
+    @FunctionalInterface
+    public interface GaugeSource {
+        void collect(GaugeSink sink);
+    }
+
+    /** Receives gauge samples */
+    @FunctionalInterface
+    public interface GaugeSink {
+        /**
+         * @param value the value of the sample
+         * @param labels alternating label names and values
+         */
+        void sample(double value, String... labels);
+    }
+}
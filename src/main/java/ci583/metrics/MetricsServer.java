@@ -0,0 +1,61 @@
+package ci583.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves a {@link MetricsRegistry} at {@code /metrics} in the Prometheus text format, using the
+ * HTTP server built into the JDK. Only listens on the loopback address.
+ */
+public class MetricsServer implements Closeable {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    /**
+     * Starts serving the registry.
+     * @param registry the metrics to serve
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the server cannot be started
+     */
+    public MetricsServer(MetricsRegistry registry, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            try(exchange) {
+                if(!exchange.getRequestMethod().equals("GET")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                StringBuilder out = new StringBuilder(4096);
+                registry.writePrometheus(out);
+                byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try(OutputStream stream = exchange.getResponseBody()) {
+                    stream.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,153 @@
+package ci583.receiver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * The places a receiver has for processes, see
+ * {@link ModRegReceiver#setAdmission(int, AdmissionPolicy)}. A place is held from the moment a
+ * process is submitted or enqueued until it completes or is dropped, so submitters can be turned
+ * away before anything is queued. Unbounded unless set.
+ * </p>
+ * <p>
+ * Places are reserved from any thread, lock free unless a submitter waits for room under
+ * {@link AdmissionPolicy#BLOCK}.
+ * </p>
+ */
+final class Admission {
+
+    private volatile int capacity = Integer.MAX_VALUE;
+    private volatile AdmissionPolicy policy = AdmissionPolicy.REJECT;
+    // Processes submitted or in the queues
+    private final AtomicInteger occupancy = new AtomicInteger();
+    // Submitters blocked on a full receiver wait on this
+    // A ReentrantLock rather than a monitor, so a blocked virtual thread unmounts from its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition roomFreed = lock.newCondition();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    /**
+     * Sets the capacity and policy, waking any waiting submitters to check them again.
+     */
+    void set(int capacity, AdmissionPolicy policy) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.policy = policy;
+        this.capacity = capacity;
+        lock.lock();
+        try {
+            roomFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    AdmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    boolean isShedding() {
+        return policy == AdmissionPolicy.SHED_LOWEST_PRIORITY;
+    }
+
+    int getOccupancy() {
+        return occupancy.get();
+    }
+
+    /**
+     * Reserves a place for a submitted process, waiting for one under {@link AdmissionPolicy#BLOCK}.
+     * @return false if the receiver is full, or the wait was interrupted
+     */
+    boolean reserve() {
+        AdmissionPolicy policy = this.policy;
+        if(policy == AdmissionPolicy.SHED_LOWEST_PRIORITY) {
+            // Always accepted, something is shed when it is enqueued if the receiver is full
+            occupancy.incrementAndGet();
+            return true;
+        }
+        while(true) {
+            int current = occupancy.get();
+            if(current < capacity) {
+                if(occupancy.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            } else if(policy == AdmissionPolicy.REJECT) {
+                return false;
+            } else {
+                lock.lock();
+                try {
+                    // Checked under the lock, as release signals under it
+                    if(occupancy.get() >= capacity) {
+                        roomFreed.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally {
+                    lock.unlock();
+                }
+                policy = this.policy;
+            }
+        }
+    }
+
+    /**
+     * Takes a place for a process enqueued by the thread that owns the queues, whether or not
+     * there is room.
+     * @param reserved true if the process already reserved its place when it was submitted
+     * @return true if the receiver is within its capacity
+     */
+    boolean take(boolean reserved) {
+        int held = reserved ? occupancy.get() : occupancy.incrementAndGet();
+        return held <= capacity;
+    }
+
+    /**
+     * Frees the place of a process which has left the receiver.
+     */
+    void release() {
+        occupancy.decrementAndGet();
+        if(policy == AdmissionPolicy.BLOCK) {
+            lock.lock();
+            try {
+                roomFreed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    void countRejected() {
+        rejected.increment();
+    }
+
+    void countShed() {
+        shed.increment();
+    }
+
+    void countRateLimited() {
+        rateLimited.increment();
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    long getShedCount() {
+        return shed.sum();
+    }
+
+    long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+}
@@ -0,0 +1,14 @@
+package ci583.receiver;
+
+/**
+ * What a receiver does with a new process once its queues are full, see
+ * {@link ModRegReceiver#setAdmission(int, AdmissionPolicy)}.
+ */
+public enum AdmissionPolicy {
+    /** Turn the new process away */
+    REJECT,
+    /** Make the submitter wait for room. A process enqueued by the dispatcher itself is rejected */
+    BLOCK,
+    /** Accept the new process, and drop the lowest priority process that has not started yet */
+    SHED_LOWEST_PRIORITY
+}
@@ -0,0 +1,92 @@
+package ci583.receiver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Runs processes that need less than a quantum back to back within one quantum (see
+ * {@link ModRegReceiver#setBatching(boolean)}). A process that finishes or blocks early leaves
+ * the rest of its quantum, the carry, to the next process dispatched.
+ * </p>
+ * <p>
+ * Only used by the thread that owns the receiver's queues, apart from turning batching on or off
+ * and reading the count, which take effect from the next slice.
+ * </p>
+ */
+final class Batcher {
+
+    private volatile boolean enabled;
+    // Whether the current slice is batched, read once so that it does not change mid slice
+    private boolean active;
+    // What is left of the current quantum after the last process finished its work early
+    private long carry;
+    private final LongAdder batched = new LongAdder();
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the number of processes run in what was left of another process's quantum
+     */
+    long getBatchedCount() {
+        return batched.sum();
+    }
+
+    /**
+     * Starts a slice, which runs in the carry if there is one - O(1)
+     * @param quantum the length of a full quantum
+     * @param metrics the receiver's metrics, or null if metrics are off
+     * @return the most time the slice may take
+     */
+    long start(long quantum, ReceiverMetrics metrics) {
+        active = enabled;
+        if(!active || carry == 0) {
+            return quantum;
+        }
+        batched.increment();
+        if(metrics != null) {
+            metrics.batched.increment();
+        }
+        return Math.min(quantum, carry);
+    }
+
+    /**
+     * @param timeMs the length of the slice unbatched
+     * @param budget the budget returned by {@link #start}
+     * @param needed the time the process needs to finish its work
+     * @return the length of the slice, which ends as soon as the work is done when batching
+     */
+    long slice(long timeMs, long budget, long needed) {
+        return active ? Math.max(1, Math.min(budget, needed)) : timeMs;
+    }
+
+    /**
+     * Ends a slice. Only a process that finished or blocked early leaves part of its quantum for
+     * the next one.
+     * @param budget the budget returned by {@link #start}
+     * @param used the time the process held the CPU
+     * @param early true if the process finished its work or its CPU burst
+     */
+    void end(long budget, long used, boolean early) {
+        carry = active && early ? Math.max(0, budget - used) : 0;
+    }
+
+    /**
+     * @return true if the next slice runs in what is left of the last one's quantum
+     */
+    boolean isCarrying() {
+        return carry > 0;
+    }
+
+    /**
+     * Drops the carry, as the quantum does not carry over a wait.
+     */
+    void clearCarry() {
+        carry = 0;
+    }
+}
@@ -0,0 +1,160 @@
+package ci583.receiver;
+
+import ci583.collections.LongDoubleMap;
+import ci583.metrics.Histogram;
+
+import java.util.HashMap;
+
+/**
+ * <p>
+ * Predicts the length of a process's next CPU burst from the bursts it, and other processes of
+ * its class, have already run, so shortest-job scheduling does not need to be told how much work
+ * each process has. See {@link ShortestJobFirstReceiver#setBurstPredictor(BurstPredictor)}.
+ * </p>
+ * <p>
+ * Each estimate is an exponential average of the observed bursts,
+ * <code>&tau;<sub>n+1</sub> = &alpha;t<sub>n</sub> + (1 - &alpha;)&tau;<sub>n</sub></code>, so
+ * recent bursts count for more the higher {@code alpha} is. A process that has not finished a
+ * burst yet is predicted from the estimate of its class, which is its fair-share group, or its
+ * name without any trailing digits (so {@code P1} and {@code P2} are the same class), and a class
+ * with no history from {@code initialMs}. Estimates are kept in primitive maps keyed by job id and
+ * by class key. Each class is given the next key the first time it is seen, so no two classes
+ * share an estimate, and the key is kept on the process, so its class is only worked out once.
+ * </p>
+ * <p>
+ * A predictor keeps the estimates for one receiver, and is only updated by its dispatcher. The
+ * prediction errors can be read from any thread.
+ * </p>
+ */
+public final class BurstPredictor {
+
+    private final double alpha;
+    private final long initialMs;
+    // Estimated burst in ms by job id, only for processes that have not finished
+    private final LongDoubleMap jobs = new LongDoubleMap(64);
+    // Estimated burst in ms by class key
+    private final LongDoubleMap classes = new LongDoubleMap();
+    // The key of each class, in the order they were first seen
+    private final HashMap<String, Long> classKeys = new HashMap<>();
+
+    // How far each prediction was from the burst it predicted, in ms
+    private final Histogram errors = new Histogram();
+    private volatile long signedError;
+
+    /**
+     * @param alpha the weight of the latest burst, between 0 (exclusive) and 1
+     * @param initialMs the prediction for a class with no history
+     */
+    public BurstPredictor(double alpha, long initialMs) {
+        if(!(alpha > 0 && alpha <= 1) || initialMs <= 0) {
+            throw new IllegalArgumentException("alpha must be in (0, 1] and the initial estimate positive");
+        }
+        this.alpha = alpha;
+        this.initialMs = initialMs;
+    }
+
+    /**
+     * @return the class the process is predicted from when it has no history of its own
+     */
+    public static String jobClass(ModuleRegister m) {
+        String group = m.getGroup();
+        if(group != null) {
+            return group;
+        }
+        String name = m.getName();
+        int end = name.length();
+        while(end > 0 && Character.isDigit(name.charAt(end - 1))) {
+            end--;
+        }
+        return name.substring(0, end);
+    }
+
+    /**
+     * @return the key of the process's class, which is worked out the first time the process is
+     * seen by this predictor, or after its group changes - O(1) after that
+     */
+    private long classKey(ModuleRegister m) {
+        if(m.burstPredictor != this) {
+            m.burstClass = classKeys.computeIfAbsent(jobClass(m), c -> (long) classKeys.size());
+            m.burstPredictor = this;
+        }
+        return m.burstClass;
+    }
+
+    /**
+     * @return the predicted length in ms of the process's current CPU burst - O(1) on average
+     */
+    public long predictBurst(ModuleRegister m) {
+        double estimate = jobs.get(m.getJobId(), Double.NaN);
+        if(Double.isNaN(estimate)) {
+            estimate = classes.get(classKey(m), initialMs);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return the predicted time in ms the process has left in its current CPU burst. Once it has
+     * run for longer than predicted, it is expected to run for as long again, so a process that
+     * was underestimated does not keep the CPU - O(1) on average
+     */
+    long predictRemaining(ModuleRegister m) {
+        long used = m.getWorkCompleted() - m.burstStart;
+        long burst = predictBurst(m);
+        return used < burst ? burst - used : used;
+    }
+
+    /**
+     * Records the end of the process's current CPU burst, updating its estimate and its class's,
+     * and the prediction error - O(1) on average
+     * @param finished true if the process has finished, so its own estimate is dropped
+     */
+    void observe(ModuleRegister m, boolean finished) {
+        long actual = m.getWorkCompleted() - m.burstStart;
+        long predicted = predictBurst(m);
+        errors.record(Math.abs(actual - predicted));
+        signedError += actual - predicted;
+        m.burstStart = m.getWorkCompleted();
+
+        long classKey = classKey(m);
+        double job = jobs.get(m.getJobId(), classes.get(classKey, initialMs));
+        if(finished) {
+            jobs.remove(m.getJobId());
+        } else {
+            jobs.put(m.getJobId(), alpha * actual + (1 - alpha) * job);
+        }
+        classes.put(classKey, alpha * actual + (1 - alpha) * classes.get(classKey, initialMs));
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public long getInitialEstimate() {
+        return initialMs;
+    }
+
+    /**
+     * @return the absolute difference in ms between each predicted burst and the burst the process
+     * actually ran
+     */
+    public Histogram getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the mean absolute prediction error in ms, 0 if no bursts have been observed
+     */
+    public double getMeanAbsoluteError() {
+        long count = errors.getCount();
+        return count == 0 ? 0 : (double) errors.getSum() / count;
+    }
+
+    /**
+     * @return the mean of the actual minus the predicted bursts in ms, positive if the predictor
+     * underestimates
+     */
+    public double getBias() {
+        long count = errors.getCount();
+        return count == 0 ? 0 : (double) signedError / count;
+    }
+}
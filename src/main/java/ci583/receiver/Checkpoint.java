@@ -0,0 +1,343 @@
+package ci583.receiver;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * <p>
+ * The queues of a receiver and the progress of each process in them, saved so that a restarted
+ * receiver can resume where it left off. A checkpoint is written from a {@link QueueSnapshot},
+ * so taking one never touches the dispatcher's queues.
+ * </p>
+ * <p>
+ * The file is written with {@link DataOutputStream} and ends with a CRC32 of everything before it:
+ * </p>
+ * <pre>
+ *     magic:int version:short receiver:utf snapshotVersion:long time:long levels:int
+ *     per level:   count:int
+ *     per process: name:utf work:long workCompleted:long priority:byte yield:double
+ *                  deadlineRemaining:long missedDeadline:boolean walId:long group:utf module:utf
+ *                  student:utf burstCount:int burst:long... currentBurst:int
+ *     modules:int
+ *     per module:  module:utf seats:int
+ *     crc:int
+ * </pre>
+ * <p>
+ * Processes which had finished are left out. Processes waiting to arrive on the receiver's timers
+ * are not in its queues, so are not in the checkpoint either. The seats taken on each module by
+ * the registrations the receiver had completed are saved too, so they can be taken again.
+ * </p>
+ */
+public final class Checkpoint {
+
+    static final int MAGIC = 0x434b5054; // "CKPT"
+    static final short VERSION = 3;
+
+    private final String receiver;
+    private final long snapshotVersion;
+    private final long time;
+    private final List<List<Entry>> levels;
+    // The seats taken on each module by completed registrations
+    private final Map<String, Integer> seats;
+
+    private Checkpoint(String receiver, long snapshotVersion, long time, List<List<Entry>> levels,
+                       Map<String, Integer> seats) {
+        this.receiver = receiver;
+        this.snapshotVersion = snapshotVersion;
+        this.time = time;
+        this.levels = levels;
+        this.seats = seats;
+    }
+
+    /**
+     * Writes a snapshot to a file. The checkpoint is written to a temporary file first, forced to disk
+     * and then moved over the old one, so a crash while writing leaves the previous checkpoint intact.
+     * The directory is forced to disk after the move, so the new checkpoint survives a crash once this returns.
+     * @param snapshot the snapshot of the receiver's queues
+     * @param receiver the name of the receiver class, which must match on restore
+     * @param file the checkpoint file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(QueueSnapshot snapshot, String receiver, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+
+        CRC32 crc = new CRC32();
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel));
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(stream, crc));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(receiver);
+            out.writeLong(snapshot.getVersion());
+            out.writeLong(now);
+
+            int levelCount = snapshot.getLevelCount();
+            out.writeInt(levelCount);
+            for(int level = 0; level < levelCount; level++) {
+                int start = snapshot.levelStart(level);
+                int end = start + snapshot.levelSize(level);
+                int count = 0;
+                for(int row = start; row < end; row++) {
+                    if(snapshot.getWorkCompleted(row) < snapshot.getWork(row)) count++;
+                }
+
+                out.writeInt(count);
+                for(int row = start; row < end; row++) {
+                    if(snapshot.getWorkCompleted(row) >= snapshot.getWork(row)) continue;
+                    // Only the name is read from the register, everything else that can change is
+                    // read from the snapshot, as it is taken on the dispatcher thread
+                    out.writeUTF(snapshot.getRegister(row).getName());
+                    out.writeLong(snapshot.getWork(row));
+                    out.writeLong(snapshot.getWorkCompleted(row));
+                    out.writeByte(snapshot.getPriority(row));
+                    out.writeDouble(snapshot.getInteractiveThreadChance(row));
+                    // The deadline is relative to being enqueued, so keep what is left of it
+                    long deadline = snapshot.getDeadlineTime(row);
+                    out.writeLong(deadline > 0 ? Math.max(1, deadline - now) : 0);
+                    out.writeBoolean(snapshot.hasMissedDeadline(row));
+                    out.writeLong(snapshot.getWalId(row));
+                    out.writeUTF(orEmpty(snapshot.getGroup(row)));
+                    out.writeUTF(orEmpty(snapshot.getModule(row)));
+                    out.writeUTF(orEmpty(snapshot.getStudent(row)));
+                    writeBursts(out, snapshot.getBursts(row));
+                    out.writeInt(snapshot.getBurst(row));
+                }
+            }
+            Map<String, Integer> seats = snapshot.getSeats();
+            out.writeInt(seats.size());
+            for(Map.Entry<String, Integer> e : seats.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+            // The checksum is written past the checked stream, so is not part of itself
+            new DataOutputStream(stream).writeInt((int) crc.getValue());
+            stream.flush();
+            // On disk before the move, so a crash cannot leave an empty or partial file in place of the old one
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The move is only durable once the directory entry is, or a crash could bring back the old file
+        try(FileChannel dir = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    // A process with a single CPU burst has none written
+    static void writeBursts(DataOutputStream out, long[] bursts) throws IOException {
+        out.writeInt(bursts == null ? 0 : bursts.length);
+        if(bursts != null) {
+            for(long burst : bursts) {
+                out.writeLong(burst);
+            }
+        }
+    }
+
+    /**
+     * @return the bursts written by {@link #writeBursts}, or null if there were none
+     */
+    static long[] readBursts(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0 || count % 2 == 0 && count != 0 || count > 1 << 16) {
+            throw new IOException("Bad burst count " + count);
+        }
+        if(count == 0) {
+            return null;
+        }
+        long[] bursts = new long[count];
+        for(int i = 0; i < count; i++) {
+            bursts[i] = in.readLong();
+        }
+        return bursts;
+    }
+
+    /**
+     * Reads a checkpoint file.
+     * @throws IOException if the file cannot be read, is not a checkpoint or is corrupt
+     */
+    public static Checkpoint read(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try(DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            short version = in.readShort();
+            if(version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version);
+            }
+            String receiver = in.readUTF();
+            long snapshotVersion = in.readLong();
+            long time = in.readLong();
+
+            int levelCount = in.readInt();
+            List<List<Entry>> levels = new ArrayList<>(levelCount);
+            for(int level = 0; level < levelCount; level++) {
+                int count = in.readInt();
+                List<Entry> entries = new ArrayList<>(count);
+                for(int i = 0; i < count; i++) {
+                    entries.add(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readByte(),
+                            in.readDouble(), in.readLong(), in.readBoolean(), in.readLong(),
+                            in.readUTF(), in.readUTF(), in.readUTF(), readBursts(in), in.readInt()));
+                }
+                levels.add(entries);
+            }
+            int moduleCount = in.readInt();
+            Map<String, Integer> seats = new LinkedHashMap<>();
+            for(int i = 0; i < moduleCount; i++) {
+                seats.put(in.readUTF(), in.readInt());
+            }
+
+            int expected = (int) crc.getValue();
+            if(in.readInt() != expected) {
+                throw new IOException("Checkpoint is corrupt: " + file);
+            }
+            return new Checkpoint(receiver, snapshotVersion, time, levels, seats);
+        } catch (EOFException e) {
+            throw new IOException("Checkpoint is truncated: " + file, e);
+        }
+    }
+
+    /**
+     * Puts every process in the checkpoint back in the receiver's queues, in the same levels and
+     * order, with the work it had completed, and takes the seats of the registrations it had
+     * completed from its catalogue, if it has one. Must be called before the receiver's dispatcher
+     * starts.
+     * @return the processes restored
+     * @throws IllegalArgumentException if the checkpoint was taken from a different receiver
+     */
+    public List<ModuleRegister> restore(ModRegReceiver target) {
+        List<ModuleRegister> restored = restore(target, walId -> true);
+        seats.forEach(target::restoreSeats);
+        return restored;
+    }
+
+    /**
+     * Puts the processes in the checkpoint back in the receiver's queues, leaving out those the
+     * {@link WriteAheadLog} shows have completed since the checkpoint was taken. The seats are left
+     * to the log, which has every seat taken since the checkpoint too.
+     * @param include tests the id of each process in the log, -1 if it was not logged
+     */
+    List<ModuleRegister> restore(ModRegReceiver target, LongPredicate include) {
+        if(!target.getClass().getSimpleName().equals(receiver)) {
+            throw new IllegalArgumentException("Checkpoint of a " + receiver + " cannot be restored into a " +
+                    target.getClass().getSimpleName());
+        }
+
+        List<ModuleRegister> restored = new ArrayList<>();
+        for(int level = 0; level < levels.size(); level++) {
+            for(Entry entry : levels.get(level)) {
+                if(!include.test(entry.walId)) continue;
+                ModuleRegister m = new ModuleRegister(entry.name, entry.work);
+                if(entry.bursts != null) {
+                    m.setBursts(entry.bursts);
+                    m.setBurstIndex(entry.burst);
+                }
+                m.setWorkCompleted(entry.workCompleted);
+                m.setPriority(entry.priority);
+                m.setInteractiveThreadChance(entry.yieldChance);
+                if(entry.missedDeadline) {
+                    m.missDeadline();
+                } else {
+                    m.setDeadline(entry.deadlineRemaining);
+                }
+                m.walId = entry.walId;
+                m.setGroup(entry.group.isEmpty() ? null : entry.group);
+                m.setModule(entry.module.isEmpty() ? null : entry.module);
+                m.setStudent(entry.student.isEmpty() ? null : entry.student);
+                target.restore(m, level);
+                restored.add(m);
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * @return the simple name of the receiver class the checkpoint was taken from
+     */
+    public String getReceiver() {
+        return receiver;
+    }
+
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    /**
+     * @return the time in ms the checkpoint was taken
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * @return the seats taken on the module by the registrations the receiver had completed
+     */
+    public int getSeats(String module) {
+        return seats.getOrDefault(module, 0);
+    }
+
+    public int size() {
+        int size = 0;
+        for(List<Entry> level : levels) {
+            size += level.size();
+        }
+        return size;
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final long work;
+        private final long workCompleted;
+        private final int priority;
+        private final double yieldChance;
+        private final long deadlineRemaining;
+        private final boolean missedDeadline;
+        private final long walId;
+        private final String group;
+        private final String module;
+        private final String student;
+        private final long[] bursts;
+        private final int burst;
+
+        private Entry(String name, long work, long workCompleted, int priority, double yieldChance,
+                      long deadlineRemaining, boolean missedDeadline, long walId, String group, String module,
+                      String student, long[] bursts, int burst) {
+            this.name = name;
+            this.work = work;
+            this.workCompleted = workCompleted;
+            this.priority = priority;
+            this.yieldChance = yieldChance;
+            this.deadlineRemaining = deadlineRemaining;
+            this.missedDeadline = missedDeadline;
+            this.walId = walId;
+            this.group = group;
+            this.module = module;
+            this.student = student;
+            this.bursts = bursts;
+            this.burst = burst;
+        }
+    }
+}
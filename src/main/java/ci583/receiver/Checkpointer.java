@@ -0,0 +1,89 @@
+package ci583.receiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Periodically writes a {@link Checkpoint} of a receiver on a background thread. Each checkpoint
+ * is written from the receiver's latest published snapshot, so the dispatcher is never stalled,
+ * and is skipped if nothing has been published since the last one.
+ * </p>
+ * <p>
+ * Reading the snapshot makes the dispatcher publish a new one at its next dispatch point, so a
+ * checkpoint is at most one interval, a frame and a quantum behind the receiver.
+ * </p>
+ */
+public class Checkpointer implements Closeable {
+
+    private final ModRegReceiver receiver;
+    private final Path file;
+    private final ScheduledExecutorService executor;
+    private final long intervalMs;
+    private long lastVersion = -1;
+
+    /**
+     * Creates a checkpointer, which writes nothing until it is started.
+     * @param receiver the receiver to checkpoint
+     * @param file the checkpoint file, replaced by each checkpoint
+     * @param intervalMs the time between checkpoints
+     */
+    public Checkpointer(ModRegReceiver receiver, Path file, long intervalMs) {
+        this.receiver = receiver;
+        this.file = file;
+        this.intervalMs = intervalMs;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint-" + receiver.getClass().getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts writing a checkpoint every interval on the background thread.
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                // Keep the last good checkpoint and try again next time
+                System.err.println("Failed to write checkpoint " + file + ": " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a checkpoint now, unless nothing has changed since the last one.
+     * @return true if a checkpoint was written
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized boolean checkpoint() throws IOException {
+        QueueSnapshot snapshot = receiver.getSnapshot();
+        if(snapshot.getVersion() == lastVersion) {
+            return false;
+        }
+        Checkpoint.write(snapshot, receiver.getClass().getSimpleName(), file);
+        lastVersion = snapshot.getVersion();
+        return true;
+    }
+
+    /**
+     * Stops writing checkpoints, waiting for one being written to finish. The last checkpoint is
+     * left in place.
+     */
+    @Override
+    public void close() {
+        // Lets a checkpoint that is being written finish
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Models the cost of switching the CPU between processes, which the receivers otherwise treat as
+ * free, so that the effect of the quantum on throughput can be measured. See
+ * {@link ModRegReceiver#setContextSwitchModel(ContextSwitchModel)}.
+ * </p>
+ * <p>
+ * Each switch to a different process costs {@code switchMs} of dispatcher time, before the
+ * quantum starts. Optionally, a process whose working set is no longer in the cache also spends
+ * the first {@code refillMs} of its quantum refilling it, without making progress. The cache holds
+ * the working sets of the last {@code cacheSlots} distinct processes to run.
+ * </p>
+ * <p>
+ * A model keeps the totals for one receiver, and is only updated by its dispatcher. The totals can
+ * be read from any thread.
+ * </p>
+ */
+public final class ContextSwitchModel {
+
+    private final long switchMs;
+    private final long refillMs;
+    // Job ids of the processes whose working sets are in the cache, most recent first
+    private final int[] cache;
+    private int cached;
+    private int last;
+
+    private volatile long switches;
+    private volatile long switchTime;
+    private volatile long refillTime;
+    private volatile long usefulTime;
+
+    /**
+     * @param switchMs the dispatcher time each switch to a different process costs
+     * @param refillMs the time a process spends refilling the cache before it makes progress, 0 for none
+     * @param cacheSlots the number of processes whose working sets fit in the cache at once
+     */
+    public ContextSwitchModel(long switchMs, long refillMs, int cacheSlots) {
+        if(switchMs < 0 || refillMs < 0 || cacheSlots < 1) {
+            throw new IllegalArgumentException("Costs cannot be negative and the cache needs a slot");
+        }
+        this.switchMs = switchMs;
+        this.refillMs = refillMs;
+        this.cache = new int[cacheSlots];
+    }
+
+    /**
+     * Records a dispatch of the process - O(cacheSlots)
+     * @return the switch overhead in ms, 0 if the process was the last to run
+     */
+    long switchTo(ModuleRegister process) {
+        int id = process.getJobId();
+        if(id == last) {
+            return 0;
+        }
+        last = id;
+        switches++;
+        switchTime += switchMs;
+        return switchMs;
+    }
+
+    /**
+     * Moves the process to the front of the cache - O(cacheSlots)
+     * @return the time the process must spend refilling the cache, 0 if its working set was still there
+     */
+    long refill(ModuleRegister process) {
+        int id = process.getJobId();
+        int i = 0;
+        while(i < cached && cache[i] != id) {
+            i++;
+        }
+        boolean warm = i < cached;
+        if(!warm && cached < cache.length) {
+            cached++;
+        }
+        // Evicts the least recent process if it was not already cached
+        System.arraycopy(cache, 0, cache, 1, Math.min(i, cached - 1));
+        cache[0] = id;
+        return warm ? 0 : refillMs;
+    }
+
+    /**
+     * Records how a quantum was spent.
+     * @param refill the time spent refilling the cache
+     * @param useful the time the process made progress
+     */
+    void charge(long refill, long useful) {
+        refillTime += refill;
+        usefulTime += useful;
+    }
+
+    public long getSwitchMs() {
+        return switchMs;
+    }
+
+    public long getRefillMs() {
+        return refillMs;
+    }
+
+    public int getCacheSlots() {
+        return cache.length;
+    }
+
+    public long getSwitches() {
+        return switches;
+    }
+
+    /**
+     * @return the time in ms lost to switching, not counting cache refills
+     */
+    public long getSwitchTime() {
+        return switchTime;
+    }
+
+    /**
+     * @return the time in ms processes spent refilling the cache
+     */
+    public long getRefillTime() {
+        return refillTime;
+    }
+
+    /**
+     * @return the time in ms processes made progress
+     */
+    public long getUsefulTime() {
+        return usefulTime;
+    }
+
+    /**
+     * @return the fraction of the busy time in which processes made progress
+     */
+    public double getUtilisation() {
+        long busy = usefulTime + switchTime + refillTime;
+        return busy == 0 ? 1 : (double) usefulTime / busy;
+    }
+
+    /**
+     * Forgets what is in the cache, e.g. before a new run.
+     */
+    void clearCache() {
+        Arrays.fill(cache, 0);
+        cached = 0;
+        last = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("switches=%d switch=%dms refill=%dms utilisation=%.3f", switches, switchTime,
+                refillTime, getUtilisation());
+    }
+}
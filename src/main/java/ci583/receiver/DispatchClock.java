@@ -0,0 +1,50 @@
+package ci583.receiver;
+
+/**
+ * <p>
+ * The time as a receiver's dispatcher sees it. This is the system clock, unless the receiver is
+ * told to simulate time (see {@link ModRegReceiver#simulateTime()}). Simulated time only moves on
+ * when the dispatcher waits, and a wait returns at once. A benchmark can then run the real
+ * dispatch loop, with every quantum, timer and dispatch point it has, without sleeping through
+ * the quanta.
+ * </p>
+ * <p>
+ * Only used by the thread that owns the receiver's queues.
+ * </p>
+ */
+final class DispatchClock {
+
+    private boolean simulated;
+    private long now;
+
+    /**
+     * @return the current time in ms
+     */
+    long millis() {
+        return simulated ? now : System.currentTimeMillis();
+    }
+
+    /**
+     * Switches to simulated time, starting from the current system time so that times already
+     * taken from the clock are still in the past.
+     */
+    void simulate() {
+        now = System.currentTimeMillis();
+        simulated = true;
+    }
+
+    boolean isSimulated() {
+        return simulated;
+    }
+
+    /**
+     * Waits for the given time, which takes no time at all if the time is simulated.
+     */
+    void sleep(long timeMs) throws InterruptedException {
+        if(simulated) {
+            now += timeMs;
+        } else {
+            Thread.sleep(timeMs);
+        }
+    }
+}
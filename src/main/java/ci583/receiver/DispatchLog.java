@@ -0,0 +1,187 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * A fixed-size ring buffer of the CPU slices handed out by a receiver. Each slice records which
+ * process ran, when it started, how long it ran and how it ended (preempted at the end of its
+ * quantum, completed, yielded or blocked for I/O). Once the buffer is full the oldest slices are
+ * overwritten.
+ * </p>
+ * <p>
+ * The slices are stored in parallel primitive arrays, with times in ms relative to the creation of
+ * the log, so a million slices take ~13MB and recording one does not allocate. There is a single
+ * writer (the dispatcher thread); readers (the render thread) read without locking, and use
+ * {@link #isValid(long)} after reading a slice to check it was not overwritten in the meantime.
+ * </p>
+ */
+public class DispatchLog {
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** How a slice of CPU time ended */
+    public enum Outcome {
+        PREEMPTED, COMPLETED, YIELDED, BLOCKED;
+
+        private static final Outcome[] VALUES = values();
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final long epoch;
+
+    // Allocated on the first slice, as most receivers created by the tests never look at the log
+    private int[] start;
+    private int[] length;
+    private int[] row;
+    private byte[] outcome;
+    // Total number of slices ever recorded, published after each slice is written
+    private volatile long head;
+
+    // Each process is given a row of the timeline the first time it runs in this log. Only used by
+    // the writer, so several logs can record the same process without sharing its row
+    private final Map<ModuleRegister, Integer> rows = new IdentityHashMap<>();
+    // The name of each row, grown by doubling. A name is written before the count is published, and
+    // the array is replaced before then when it grows, so a reader sees every row up to the count
+    private volatile String[] rowNames = new String[16];
+    private volatile int rowCount;
+
+    /**
+     * @param capacity the number of slices to keep, rounded up to a power of two
+     */
+    public DispatchLog(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.epoch = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a slice of CPU time. Only called by the dispatcher thread - O(1), amortised over
+     * the doubling of the row names.
+     * @param m the process that ran
+     * @param startMs the time it was given the CPU
+     * @param endMs the time it gave up the CPU
+     * @param how how the slice ended
+     */
+    public void record(ModuleRegister m, long startMs, long endMs, Outcome how) {
+        if(start == null) {
+            start = new int[capacity];
+            length = new int[capacity];
+            row = new int[capacity];
+            outcome = new byte[capacity];
+        }
+        Integer r = rows.get(m);
+        if(r == null) {
+            r = addRow(m.getName());
+            rows.put(m, r);
+        }
+
+        long h = head;
+        int i = (int) h & mask;
+        start[i] = (int) (startMs - epoch);
+        length[i] = (int) Math.max(0, endMs - startMs);
+        row[i] = r;
+        outcome[i] = (byte) how.ordinal();
+        head = h + 1; // Volatile write publishes the slice
+    }
+
+    private int addRow(String name) {
+        int count = rowCount;
+        String[] names = rowNames;
+        if(count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            rowNames = names;
+        }
+        names[count] = name;
+        rowCount = count + 1;
+        return count;
+    }
+
+    /**
+     * @return the total number of slices ever recorded
+     */
+    public long head() {
+        return head;
+    }
+
+    /**
+     * @return the sequence number of the oldest slice still in the buffer
+     */
+    public long tail() {
+        return Math.max(0, head - capacity);
+    }
+
+    /**
+     * @return true if the slice with the given sequence number has not been overwritten
+     */
+    public boolean isValid(long seq) {
+        return seq >= head - capacity && seq < head;
+    }
+
+    /**
+     * Finds the first slice starting at or after the given time, by binary search over the slices
+     * in the buffer (which are recorded in start time order) - O(log n)
+     * @param time time in ms relative to {@link #getEpoch()}
+     * @return the sequence number of the slice, or {@link #head()} if there is none
+     */
+    public long search(long time) {
+        long lo = tail(), hi = head();
+        while(lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if(getStart(mid) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the start of the slice, in ms relative to {@link #getEpoch()}
+     */
+    public int getStart(long seq) {
+        return start[(int) seq & mask];
+    }
+
+    public int getLength(long seq) {
+        return length[(int) seq & mask];
+    }
+
+    public int getRow(long seq) {
+        return row[(int) seq & mask];
+    }
+
+    public Outcome getOutcome(long seq) {
+        return Outcome.VALUES[outcome[(int) seq & mask]];
+    }
+
+    /**
+     * @return the time in ms that the slice times are relative to
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the bytes taken by the slices, which are allocated all at once when the first is recorded
+     */
+    public long getFootprint() {
+        return start == null ? 0 : capacity * (3L * Integer.BYTES + Byte.BYTES);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public String getRowName(int row) {
+        return rowNames[row];
+    }
+}
@@ -0,0 +1,388 @@
+package ci583.receiver;
+
+import ci583.gui.QueueTable;
+import imgui.ImGui;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>
+ * A hierarchical fair-share receiver. Processes belong to groups, e.g. a department and the
+ * student groups within it, given as a path such as {@code "computing/year2"} (see
+ * {@link ModuleRegister#setGroup(String)}). CPU time is divided between the groups at each level
+ * in proportion to their weights, and the processes within a group share its time in round robin,
+ * so a burst of work in one department cannot starve the others.
+ * </p>
+ * <p>
+ * Each group has a virtual time, which advances by the CPU time it is given divided by its
+ * weight, and each group keeps its runnable subgroups in a heap ordered by virtual time (stride
+ * scheduling). The next process is found by walking down from the root to the subgroup with the
+ * lowest virtual time at each level - O(log groups) for each level of the hierarchy. A group that
+ * becomes runnable again starts from the virtual time of its siblings, so it cannot save up
+ * credit while idle.
+ * </p>
+ * <p>
+ * Processes are only held in groups without subgroups. A process in a group that has subgroups
+ * is put in its {@value #DEFAULT_GROUP} subgroup, as are processes without a group.
+ * </p>
+ */
+public class FairShareReceiver extends ModRegReceiver {
+
+    /** The group of processes without a group, and of processes in a group that has subgroups */
+    public static final String DEFAULT_GROUP = "default";
+
+    // Virtual time is kept in units of 1/WEIGHT_SCALE ms for a group of weight 1
+    private static final long WEIGHT_SCALE = 1024;
+
+    private final Group root = new Group(null, "", -1);
+    // Every group, in the order they were made, which is also the order of their levels in the snapshot
+    private final List<Group> groups = new CopyOnWriteArrayList<>();
+    private final Map<String, Group> byPath = new HashMap<>();
+    // The groups dispatched from, from the leaf up, reused for every dispatch
+    private final ArrayList<Group> path = new ArrayList<>();
+
+    public FairShareReceiver(long quantum) {
+        super(quantum);
+    }
+
+    /**
+     * Sets the weight of a group, making the group and its parents if needed. Must be called
+     * before the dispatcher starts.
+     * @param group the path of the group, e.g. "computing" or "computing/year2"
+     * @param weight the share of its parent's CPU time the group gets, relative to its siblings
+     */
+    public void setWeight(String group, int weight) {
+        if(weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1: " + weight);
+        }
+        find(group).weight = weight;
+    }
+
+    @Override
+    public void enqueue(ModuleRegister m) {
+        policy.onArrival(m);
+        admitted(m);
+    }
+
+    @Override
+    public List<ModuleRegister> startRegistration() {
+        return dispatch(policy);
+    }
+
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        // The group the process last picked was taken from
+        private Group leaf;
+
+        @Override
+        public void onArrival(ModuleRegister m) {
+            Group g = find(m.getGroup());
+            if(!g.children.isEmpty()) {
+                g = g.child(DEFAULT_GROUP);
+            }
+            g.jobs.add(m);
+            activate(g);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return root.active.isEmpty();
+        }
+
+        @Override
+        public ModuleRegister pick() {
+            path.clear();
+            leaf = FairShareReceiver.this.pick(root);
+            // Null if only groups emptied by shedding were left.
+            // ArrayDeque#peek is used here instead of poll, as otherwise the GUI cannot see the
+            // process while it runs
+            return leaf == null ? null : leaf.jobs.peek();
+        }
+
+        @Override
+        public int level() {
+            return leaf.seq;
+        }
+
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            leaf.jobs.poll();
+            leaf.jobs.add(m);
+            charge(cpuMs);
+        }
+
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            leaf.jobs.poll();
+            charge(cpuMs);
+        }
+
+        @Override
+        public void onComplete(ModuleRegister m) {
+            leaf.jobs.poll();
+            for(Group g = leaf; g != root; g = g.parent) {
+                g.completed++;
+            }
+            charge(0);
+        }
+    };
+
+    /**
+     * Takes the subgroup with the lowest virtual time at each level, from the given group down to
+     * a group with processes, adding each one to {@link #path}. Groups left empty by shedding are
+     * dropped on the way - O(log groups) for each level.
+     * @return the group with processes, or null if there are none under the given group
+     */
+    private Group pick(Group g) {
+        if(!g.jobs.isEmpty()) {
+            return g;
+        }
+        Group child;
+        while((child = g.active.poll()) != null) {
+            child.queued = false;
+            g.clock = Math.max(g.clock, child.vtime);
+            Group leaf = pick(child);
+            if(leaf != null) {
+                path.add(child);
+                return leaf;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Charges the CPU time to every group on {@link #path} and puts those that still have
+     * processes back in their parents' heaps - O(log groups) for each level.
+     * @param ms the CPU time, at least 1ms so a group always pays for being dispatched, or 0 if a
+     *           finished process was removed rather than dispatched
+     */
+    private void charge(long ms) {
+        for(Group g : path) {
+            if(ms > 0) {
+                g.cpuTime += ms;
+                g.dispatches++;
+                g.vtime += ms * WEIGHT_SCALE / g.weight;
+            }
+            // The leaf is first, so each group's subgroups have been put back before it is checked
+            if(!g.jobs.isEmpty() || !g.active.isEmpty()) {
+                g.queued = true;
+                g.parent.active.offer(g);
+            }
+        }
+    }
+
+    /**
+     * Puts a group and its parents back in their parents' heaps, if they were not already - O(log groups)
+     * for each level.
+     */
+    private void activate(Group g) {
+        for(; g != root && !g.queued; g = g.parent) {
+            // Cannot save up credit while idle
+            g.vtime = Math.max(g.vtime, g.parent.clock);
+            g.queued = true;
+            g.parent.active.offer(g);
+        }
+    }
+
+    /**
+     * Finds a group by its path, making it and its parents if needed - O(depth)
+     */
+    private Group find(String group) {
+        if(group == null || group.isEmpty()) {
+            group = DEFAULT_GROUP;
+        }
+        Group g = byPath.get(group);
+        if(g == null) {
+            int slash = group.lastIndexOf('/');
+            Group parent = slash < 0 ? root : find(group.substring(0, slash));
+            g = parent.child(group.substring(slash + 1));
+        }
+        return g;
+    }
+
+    /**
+     * @return the usage of every group, in the order they were made. Safe to call from any thread,
+     * though the figures may be one dispatch behind each other
+     */
+    public List<GroupUsage> getGroupUsage() {
+        Map<Group, long[]> siblings = new HashMap<>();
+        for(Group g : groups) {
+            long[] totals = siblings.computeIfAbsent(g.parent, p -> new long[2]);
+            totals[0] += g.weight;
+            totals[1] += g.cpuTime;
+        }
+        List<GroupUsage> usage = new ArrayList<>(groups.size());
+        for(Group g : groups) {
+            long[] totals = siblings.get(g.parent);
+            usage.add(new GroupUsage(g.path, g.weight, g.cpuTime, g.dispatches, g.completed,
+                    (double) g.weight / totals[0], totals[1] == 0 ? 0 : (double) g.cpuTime / totals[1]));
+        }
+        return usage;
+    }
+
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        List<ArrayDeque<ModuleRegister>> levels = new ArrayList<>(groups.size());
+        for(Group g : groups) {
+            levels.add(g.jobs);
+        }
+        return levels;
+    }
+
+    /**
+     * The CPU time a group has been given, and its share of the time given to it and its siblings.
+     */
+    public static final class GroupUsage {
+        private final String group;
+        private final int weight;
+        private final long cpuTime;
+        private final long dispatches;
+        private final long completed;
+        private final double targetShare;
+        private final double share;
+
+        private GroupUsage(String group, int weight, long cpuTime, long dispatches, long completed,
+                           double targetShare, double share) {
+            this.group = group;
+            this.weight = weight;
+            this.cpuTime = cpuTime;
+            this.dispatches = dispatches;
+            this.completed = completed;
+            this.targetShare = targetShare;
+            this.share = share;
+        }
+
+        /**
+         * @return the path of the group
+         */
+        public String getGroup() {
+            return group;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return the CPU time in ms given to processes in the group and its subgroups
+         */
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        public long getDispatches() {
+            return dispatches;
+        }
+
+        /**
+         * @return the number of processes in the group and its subgroups which have completed
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return the group's weight as a fraction of its own and its siblings' weights
+         */
+        public double getTargetShare() {
+            return targetShare;
+        }
+
+        /**
+         * @return the group's CPU time as a fraction of its own and its siblings' CPU time
+         */
+        public double getShare() {
+            return share;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s weight=%d cpu=%dms share=%.3f target=%.3f", group, weight, cpuTime,
+                    share, targetShare);
+        }
+    }
+
+    /**
+     * A node in the group hierarchy. Only touched by the thread that owns the queues, apart from
+     * the usage figures, which are written by it and read by {@link #getGroupUsage()}.
+     */
+    private final class Group {
+        private final Group parent;
+        private final String path;
+        // The index of the group in groups, and its level in the snapshot
+        private final int seq;
+        private final Map<String, Group> children = new HashMap<>();
+        // Subgroups with processes, lowest virtual time first, ties in the order they were made
+        private final PriorityQueue<Group> active = new PriorityQueue<>(
+                Comparator.<Group>comparingLong(g -> g.vtime).thenComparingInt(g -> g.seq));
+        private final ArrayDeque<ModuleRegister> jobs = new ArrayDeque<>();
+        private volatile int weight = 1;
+        private long vtime;
+        // The virtual time of the subgroup last dispatched, which idle subgroups catch up to
+        private long clock;
+        // True while in the parent's heap
+        private boolean queued;
+        private volatile long cpuTime;
+        private volatile long dispatches;
+        private volatile long completed;
+
+        private Group(Group parent, String path, int seq) {
+            this.parent = parent;
+            this.path = path;
+            this.seq = seq;
+        }
+
+        private Group child(String name) {
+            Group child = children.get(name);
+            if(child != null) {
+                return child;
+            }
+            child = new Group(this, parent == null ? name : path + "/" + name, groups.size());
+            children.put(name, child);
+            byPath.put(child.path, child);
+            groups.add(child);
+
+            // A group with subgroups holds no processes, so its processes move to its default subgroup
+            if(!jobs.isEmpty()) {
+                Group fallback = child(DEFAULT_GROUP);
+                fallback.jobs.addAll(jobs);
+                jobs.clear();
+                activate(fallback);
+            }
+            return child;
+        }
+    }
+
+    // Gui code
+    private final QueueTable table = new QueueTable("fairshare", false, false);
+
+    @Override
+    public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
+        ImGui.begin("Fair Share");
+
+        List<GroupUsage> usage = getGroupUsage();
+        boolean edited = false;
+        for(int i = 0; i < snapshot.getLevelCount() && i < usage.size(); i++) {
+            ImGui.text(usage.get(i).toString());
+            edited |= table.draw(snapshot, i);
+        }
+        if(edited) {
+            markDirty();
+        }
+
+        if(ImGui.button("+")) {
+            submit(new ModuleRegister("P" + (snapshot.size() + 1), 5000));
+        }
+
+        ImGui.end();
+    }
+
+    @Override
+    public void imGuiReset() {}
+}
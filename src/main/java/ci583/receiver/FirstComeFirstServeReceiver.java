@@ -1,8 +1,7 @@
 package ci583.receiver;
 
+import ci583.gui.QueueTable;
 import imgui.ImGui;
-import imgui.flag.ImGuiCol;
-import imgui.flag.ImGuiTableFlags;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -19,76 +18,74 @@ public class FirstComeFirstServeReceiver extends ModRegReceiver {
 
     @Override
     public void enqueue(ModuleRegister m) {
-        list.add(m);
+        policy.onArrival(m);
+        admitted(m);
     }
 
     @Override
     public List<ModuleRegister> startRegistration() {
-        List<ModuleRegister> results = new ArrayList<>();
-
-        while(list.size() > 0) {
-            ModuleRegister process = list.get(0); // O(1) time complexity
-            assert process != null; // Can't be null as jobs.size() > 0
-            switch (process.getState()) {
-                case NEW -> {
-                    process.start();
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-                }
-                case TERMINATED -> {
-                    list.remove(0); // O(n) time complexity as greater elements shifted down
-                    results.add(process);
-                }
-                default -> {
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-                }
-            }
+        return dispatch(policy);
+    }
+
+    // The process at the head of the list keeps the CPU, a quantum at a time, until it has TERMINATED
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        @Override
+        public void onArrival(ModuleRegister m) {
+            list.add(m);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return list.isEmpty();
+        }
+
+        @Override
+        public ModuleRegister pick() {
+            return list.get(0); // O(1) time complexity
+        }
+
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            // Stays at the head of the list
+        }
+
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            // The next process gets the CPU while this one waits
+            list.remove(0); // O(n) time complexity as greater elements shifted down
         }
 
-        return results;
+        @Override
+        public void onComplete(ModuleRegister m) {
+            list.remove(0); // O(n) time complexity as greater elements shifted down
+        }
+    };
+
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        return List.of(list);
     }
 
     // Gui code
+    private final QueueTable table = new QueueTable("fcfs", false, false);
+
     @Override
     public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
         ImGui.begin("First Come First Serve");
 
-        if (ImGui.beginTable("fcfs", list.size() + 2, ImGuiTableFlags.Borders)) {
-            ImGui.tableNextRow();
-            ImGui.tableNextColumn();
-            ImGui.text("Processes:");
-
-            synchronized (list) {
-                Collection<ModuleRegister> copy = new ArrayList<>(list);
-                for(ModuleRegister register : copy) {
-                    ImGui.tableNextColumn();
-
-                    ImGui.text(register.getName());
-
-                    // Display work done
-                    if(register.getState() != Thread.State.NEW) {
-                        ImGui.text(register.getWorkCompleted() + " / " + register.getWork());
-                    }
-
-                    // Slider to configure work done amount
-                    if(register.getState() == Thread.State.NEW) {
-                        int[] wrapper = {(int) register.getTotalWorkToDo()};
-                        if(ImGui.sliderInt("##work" + register.getName(), wrapper, 1000, 60000)) {
-                            register.setWorkToDo(wrapper[0]);
-                        }
-                    }
-                }
-            }
-
-            ImGui.tableNextColumn();
-            if(ImGui.button("+", ImGui.getColumnWidth(), 0)) {
-                enqueue(new ModuleRegister("P" + (list.size() + 1), 5000));
-            }
-
-            ImGui.endTable();
+        ImGui.text("Processes:");
+        if(table.draw(snapshot, 0)) {
+            markDirty();
+        }
+
+        if(ImGui.button("+")) {
+            submit(new ModuleRegister("P" + (snapshot.size() + 1), 5000));
         }
 
         ImGui.end();
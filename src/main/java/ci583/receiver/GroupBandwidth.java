@@ -0,0 +1,144 @@
+package ci583.receiver;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * A hard cap on the CPU time a group of processes may use: at most {@code quota} ms in every
+ * {@code period} ms, however idle the receiver is otherwise. See
+ * {@link ModRegReceiver#setQuota(String, long, long)}.
+ * </p>
+ * <p>
+ * Once a group has used its quota, it is throttled: its processes are parked outside the
+ * receiver's queues, so the dispatcher never looks at them, and put back when the next period
+ * starts. The state of the quota is only touched by the receiver's dispatcher, and the usage
+ * figures can be read from any thread.
+ * </p>
+ */
+public final class GroupBandwidth {
+
+    private final String group;
+    private final long quota;
+    private final long period;
+
+    // The start of the current period, or -1 before the group first runs
+    private long periodStart = -1;
+    // CPU time used in the current period
+    private long used;
+    private boolean throttled;
+    private long throttledAt;
+    // Processes parked while throttled, and the levels of the queues they were taken from
+    final ArrayList<ModuleRegister> parked = new ArrayList<>();
+    final ArrayList<Integer> parkedLevels = new ArrayList<>();
+
+    private volatile long cpuTime;
+    private volatile long throttleCount;
+    private volatile long throttledTime;
+
+    GroupBandwidth(String group, long quota, long period) {
+        if(quota < 1 || period < quota) {
+            throw new IllegalArgumentException("Quota must be at least 1ms and no more than the period: " +
+                    quota + "/" + period);
+        }
+        this.group = group;
+        this.quota = quota;
+        this.period = period;
+    }
+
+    /**
+     * @return the CPU time left in the current period - O(1)
+     */
+    long remaining(long now) {
+        roll(now);
+        return quota - used;
+    }
+
+    /**
+     * Charges CPU time to the group, throttling it if it has used its quota - O(1)
+     * @return true if the group has just been throttled
+     */
+    boolean charge(long ms, long now) {
+        roll(now);
+        used += ms;
+        cpuTime += ms;
+        if(used < quota || throttled) {
+            return false;
+        }
+        throttled = true;
+        throttledAt = now;
+        throttleCount++;
+        return true;
+    }
+
+    /**
+     * Ends the throttle, once the next period has started.
+     */
+    void unthrottle(long now) {
+        throttled = false;
+        throttledTime += now - throttledAt;
+        roll(now);
+    }
+
+    boolean isThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return the time in ms at which the current period ends
+     */
+    long periodEnd() {
+        return periodStart + period;
+    }
+
+    // Starts a new period if the current one has ended, with none of the quota used
+    private void roll(long now) {
+        if(periodStart < 0) {
+            periodStart = now;
+        } else if(now >= periodStart + period) {
+            periodStart += (now - periodStart) / period * period;
+            used = 0;
+        }
+    }
+
+    /**
+     * @return the path of the group, which the quota also applies to the subgroups of
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return the CPU time in ms the group has used
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * @return the number of times the group has used its quota and been throttled
+     */
+    public long getThrottleCount() {
+        return throttleCount;
+    }
+
+    /**
+     * @return the total time in ms the group has spent throttled, not counting a throttle in progress
+     */
+    public long getThrottledTime() {
+        return throttledTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d/%dms cpu=%dms throttled=%d (%dms)", group, quota, period, cpuTime,
+                throttleCount, throttledTime);
+    }
+}
@@ -0,0 +1,134 @@
+package ci583.receiver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * <p>
+ * The bandwidth quotas of a receiver's groups (see
+ * {@link ModRegReceiver#setQuota(String, long, long)}), and the processes parked outside the
+ * receiver's queues while their groups are throttled.
+ * </p>
+ * <p>
+ * Quotas are set before processes are enqueued and can be listed from any thread. Parking is
+ * only done by the thread that owns the receiver's queues.
+ * </p>
+ */
+final class GroupQuotas {
+
+    // Quotas by group path
+    private final Map<String, GroupBandwidth> quotas = new ConcurrentHashMap<>();
+    // Set when a group is throttled, or a process arrives in a throttled group, so that the next
+    // dispatch point parks its processes
+    private boolean parkPending;
+    private int parkedCount;
+
+    void set(String group, long quotaMs, long periodMs) {
+        quotas.put(group, new GroupBandwidth(group, quotaMs, periodMs));
+    }
+
+    /**
+     * @return the quota of every group, sorted by group
+     */
+    List<GroupBandwidth> list() {
+        List<GroupBandwidth> list = new ArrayList<>(quotas.values());
+        list.sort(Comparator.comparing(GroupBandwidth::getGroup));
+        return list;
+    }
+
+    /**
+     * Finds the quota of a group, or of its nearest parent with one - O(depth)
+     */
+    GroupBandwidth forGroup(String group) {
+        if(quotas.isEmpty() || group == null) {
+            return null;
+        }
+        while(true) {
+            GroupBandwidth bandwidth = quotas.get(group);
+            int slash = group.lastIndexOf('/');
+            if(bandwidth != null || slash < 0) {
+                return bandwidth;
+            }
+            group = group.substring(0, slash);
+        }
+    }
+
+    /**
+     * Has the next dispatch point park the processes of throttled groups.
+     */
+    void requestPark() {
+        parkPending = true;
+    }
+
+    boolean isParkPending() {
+        return parkPending;
+    }
+
+    int getParkedCount() {
+        return parkedCount;
+    }
+
+    /**
+     * Moves the processes of throttled groups out of the given levels - O(n)
+     * @param onParked told about each process parked
+     * @return the number of processes parked
+     */
+    int park(List<? extends Collection<ModuleRegister>> levels, Consumer<ModuleRegister> onParked) {
+        parkPending = false;
+        int before = parkedCount;
+        for(int level = 0; level < levels.size(); level++) {
+            for(Iterator<ModuleRegister> it = levels.get(level).iterator(); it.hasNext(); ) {
+                ModuleRegister m = it.next();
+                GroupBandwidth bandwidth = m.bandwidth;
+                // A finished process is left to be collected
+                if(bandwidth != null && bandwidth.isThrottled() && m.getState() != Thread.State.TERMINATED) {
+                    it.remove();
+                    onParked.accept(m);
+                    bandwidth.parked.add(m);
+                    bandwidth.parkedLevels.add(level);
+                    parkedCount++;
+                }
+            }
+        }
+        return parkedCount - before;
+    }
+
+    /**
+     * Ends a group's throttle, handing its parked processes back with the levels they were taken
+     * from.
+     * @param restore puts a process back in its level
+     * @return the number of processes put back
+     */
+    int unpark(GroupBandwidth bandwidth, long now, ObjIntConsumer<ModuleRegister> restore) {
+        bandwidth.unthrottle(now);
+        int count = bandwidth.parked.size();
+        for(int i = 0; i < count; i++) {
+            restore.accept(bandwidth.parked.get(i), bandwidth.parkedLevels.get(i));
+        }
+        bandwidth.parked.clear();
+        bandwidth.parkedLevels.clear();
+        parkedCount -= count;
+        return count;
+    }
+
+    /**
+     * Hands every parked process to the consumer, with the level it was taken from - O(parked)
+     */
+    void forEachParked(ObjIntConsumer<ModuleRegister> consumer) {
+        if(parkedCount == 0) {
+            return;
+        }
+        for(GroupBandwidth bandwidth : quotas.values()) {
+            for(int i = 0; i < bandwidth.parked.size(); i++) {
+                consumer.accept(bandwidth.parked.get(i), bandwidth.parkedLevels.get(i));
+            }
+        }
+    }
+}
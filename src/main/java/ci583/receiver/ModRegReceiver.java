@@ -7,7 +7,24 @@ package ci583.receiver;
  * @author Jim Burton
  */
 
+import ci583.collections.TimingWheel;
+import ci583.metrics.Histogram;
+import ci583.metrics.MetricsRegistry;
+import ci583.trace.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 
 public abstract class ModRegReceiver {
@@ -25,6 +42,106 @@ public abstract class ModRegReceiver {
         ModRegReceiver.QUANTUM = QUANTUM;
     }
 
+    /** The trace that every receiver writes its events to, or null if tracing is off */
+    private static volatile TraceWriter traceWriter;
+
+    public static TraceWriter getTraceWriter() {
+        return traceWriter;
+    }
+
+    public static void setTraceWriter(TraceWriter traceWriter) {
+        ModRegReceiver.traceWriter = traceWriter;
+    }
+
+    /** The registry that every receiver records its metrics in, or null if metrics are off */
+    private static volatile MetricsRegistry metricsRegistry;
+
+    public static MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    public static void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        ModRegReceiver.metricsRegistry = metricsRegistry;
+    }
+
+    // The time as the dispatcher sees it, the system clock unless simulated for a benchmark
+    private final DispatchClock clock = new DispatchClock();
+    /** All timed scheduler events (quantum expiry, boosts, aging, deadlines and arrivals)
+     * fire from this wheel, which is driven by the dispatcher thread.
+     */
+    protected final TimingWheel timers = new TimingWheel(1, clock::millis);
+    // Reused for every quantum, so a dispatch does not allocate a timeout
+    private final TimingWheel.Timeout quantumEnd = new TimingWheel.Timeout(() -> {});
+    // Events which have fired on the wheel, but change the queues so must wait for a dispatch point
+    private final ArrayDeque<Runnable> dispatchEvents = new ArrayDeque<>();
+    private int pendingArrivals;
+
+    // Every slice of CPU time handed out, for the timeline view
+    protected final DispatchLog dispatchLog = new DispatchLog(DispatchLog.DEFAULT_CAPACITY);
+
+    // One frame at 60fps, the most often the queues are published while being read
+    private static final long FRAME_NANOS = 16_666_667;
+    // The latest state of the queues, published for the render thread - read without locking
+    private volatile QueueSnapshot snapshot = QueueSnapshot.EMPTY;
+    private long snapshotVersion;
+    private boolean snapshotDirty;
+    // Set when a reader takes the snapshot, so the dispatcher only copies the queues for a reader
+    private volatile boolean snapshotWanted;
+    // When the snapshot was last published, in System.nanoTime()
+    private long publishedAt = System.nanoTime() - FRAME_NANOS;
+    // Processes submitted from other threads (e.g. the GUI), drained by whichever thread owns the queues
+    private final ConcurrentLinkedQueue<ModuleRegister> submissions = new ConcurrentLinkedQueue<>();
+    // True while the dispatcher thread owns the queues
+    private volatile boolean dispatching;
+
+    // Name of the receiver in JFR events, made once rather than per event
+    private final String receiverName = getClass().getSimpleName();
+    // This receiver's metrics in the current registry, looked up on first use
+    private volatile ReceiverMetrics metrics;
+    // Told about each process as it completes, e.g. to report it back to a cluster coordinator
+    private volatile Consumer<ModuleRegister> completionListener;
+    // Durably records accepted and completed processes, if set
+    private volatile WriteAheadLog writeAheadLog;
+    // The seats registrations claim as they complete, if set
+    private volatile ModuleCatalogue catalogue;
+    // The slots students book as their registrations complete, if set
+    private volatile Timetable timetable;
+    // The seats on each module taken by registrations completed here, including those recovered,
+    // so that a checkpoint can give them back after a restart
+    private final Map<String, Integer> seatsTaken = new HashMap<>();
+
+    // Admission control, see setAdmission
+    private final Admission admission = new Admission();
+    // True while submissions are being enqueued, as submit has already reserved their places
+    private boolean draining;
+    private volatile RateLimiter rateLimiter;
+    // What can be shed while the admission policy is to shed
+    private final ShedCandidates shedCandidates = new ShedCandidates();
+
+    // Bandwidth quotas by group path and the processes parked by them, see setQuota
+    private final GroupQuotas quotas = new GroupQuotas();
+    // True while parked processes are put back, as they have already been admitted
+    private boolean unparking;
+
+    // Runs processes that need less than a quantum back to back within one quantum, see setBatching
+    private final Batcher batcher = new Batcher();
+
+    // The cost of switching between processes, see setContextSwitchModel
+    private final SwitchCost switchCost = new SwitchCost();
+    // Made once rather than per dispatch
+    private final LongConsumer awaitSwitch = this::awaitSwitch;
+
+    // Processes waiting for I/O between CPU bursts, and the levels they were picked from
+    private final LinkedHashMap<ModuleRegister, Integer> blocked = new LinkedHashMap<>();
+    private volatile int blockedCount;
+    // The time in ms the dispatch loop started and finished, 0 if it has not
+    private volatile long dispatchStarted;
+    private volatile long dispatchFinished;
+    // The time in ms processes have held the CPU
+    private volatile long cpuBusy;
+    // The time from an I/O burst completing until the process next has the CPU
+    private final Histogram ioResponse = new Histogram();
+
     public ModRegReceiver() {}
 
     /**
@@ -41,12 +158,1050 @@ public abstract class ModRegReceiver {
      */
     public abstract void enqueue(ModuleRegister m);
 
+    /**
+     * Puts a process restored from a {@link Checkpoint} back in the given level of the queues.
+     * Receivers with a single queue ignore the level.
+     * @param m
+     * @param level the level the process was in when the checkpoint was taken
+     */
+    protected void restore(ModuleRegister m, int level) {
+        enqueue(m);
+    }
+
+    /**
+     * Add a process to the queue after the given delay. The arrival fires from the timing wheel
+     * and the process is enqueued at the next dispatch point.
+     * @param m
+     * @param delayMs
+     */
+    public void enqueueAfter(ModuleRegister m, long delayMs) {
+        pendingArrivals++;
+        atDispatch(delayMs, () -> {
+            pendingArrivals--;
+            enqueue(m);
+        });
+    }
+
+    /**
+     * Add a process to the queue from any thread, as an anonymous submitter.
+     * @param m
+     * @return true if the process was accepted
+     * @see #submit(String, ModuleRegister)
+     */
+    public boolean submit(ModuleRegister m) {
+        return submit("", m);
+    }
+
+    /**
+     * Add a process to the queue from any thread. The process is enqueued by the thread that owns
+     * the queues: the dispatcher at its next dispatch point, or the render thread when idle.
+     * <p>
+     * The process is turned away if the submitter is over its rate (see {@link #setRateLimiter}),
+     * if its module clashes with the student's timetable (see {@link #setTimetable}), or if the
+     * receiver is full and its policy is {@link AdmissionPolicy#REJECT}. Under
+     * {@link AdmissionPolicy#BLOCK} this waits for room, so must not be called by the thread that
+     * owns the queues.
+     * </p>
+     * @param submitter the student or client submitting the process, for rate limiting
+     * @param m
+     * @return true if the process was accepted, false if it was turned away or the wait for room
+     * was interrupted
+     */
+    public boolean submit(String submitter, ModuleRegister m) {
+        RateLimiter limiter = rateLimiter;
+        if(limiter != null && !limiter.tryAcquire(submitter)) {
+            admission.countRateLimited();
+            ReceiverMetrics metrics = metrics();
+            if(metrics != null) {
+                metrics.rateLimited.increment();
+            }
+            return false;
+        }
+        Timetable timetable = this.timetable;
+        if(timetable != null && timetable.clashes(m)) {
+            m.clashed = true;
+            return false;
+        }
+        if(!admission.reserve()) {
+            rejected();
+            return false;
+        }
+        WriteAheadLog wal = writeAheadLog;
+        if(wal != null) {
+            // The process is only accepted once its enqueue is on disk
+            try {
+                wal.awaitDurable(wal.logEnqueue(m));
+            } catch (IOException e) {
+                admission.release();
+                throw new UncheckedIOException("Could not accept " + m.getName(), e);
+            }
+        }
+        submissions.offer(m);
+        return true;
+    }
+
+    /**
+     * Bounds the number of processes this receiver holds, counting those submitted but not yet
+     * enqueued. Once full, new processes are handled according to the policy - a process enqueued
+     * by the thread that owns the queues cannot wait for room, so it is rejected under
+     * {@link AdmissionPolicy#BLOCK}.
+     * @param capacity the most processes held at once, or {@link Integer#MAX_VALUE} for no bound
+     * @param policy what to do with a process once the receiver is full
+     */
+    public void setAdmission(int capacity, AdmissionPolicy policy) {
+        admission.set(capacity, policy);
+    }
+
+    public int getCapacity() {
+        return admission.getCapacity();
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admission.getPolicy();
+    }
+
+    /**
+     * Limits how fast each submitter can submit processes.
+     * @param rateLimiter the limiter, or null for no limit
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the number of processes submitted or waiting in the queues
+     */
+    public int getOccupancy() {
+        return admission.getOccupancy();
+    }
+
+    /**
+     * @return the number of processes turned away because the receiver was full
+     */
+    public long getRejectedCount() {
+        return admission.getRejectedCount();
+    }
+
+    /**
+     * @return the number of waiting processes dropped to make room for new ones
+     */
+    public long getShedCount() {
+        return admission.getShedCount();
+    }
+
+    /**
+     * @return the number of processes turned away because their submitter was over its rate
+     */
+    public long getRateLimitedCount() {
+        return admission.getRateLimitedCount();
+    }
+
+    /**
+     * Caps the CPU time of a group of processes, however idle the receiver is otherwise. Once the
+     * group has used its quota, its processes are parked outside the queues until the period ends,
+     * so the dispatcher does not look at them. The quota applies to the group and its subgroups
+     * together, unless a subgroup has a quota of its own. Must be called before processes are enqueued.
+     * @param group the path of the group, see {@link ModuleRegister#setGroup(String)}
+     * @param quotaMs the most CPU time the group may use in each period
+     * @param periodMs the length of a period
+     */
+    public void setQuota(String group, long quotaMs, long periodMs) {
+        quotas.set(group, quotaMs, periodMs);
+    }
+
+    /**
+     * @return the quota of every group, with how much it has been throttled, sorted by group
+     */
+    public List<GroupBandwidth> getQuotas() {
+        return quotas.list();
+    }
+
+    /**
+     * @return the number of processes parked because their group is throttled. Only called by
+     * the thread that owns the queues
+     */
+    protected int getParkedCount() {
+        return quotas.getParkedCount();
+    }
+
+    /**
+     * Runs {@link #startRegistration()} on a new dispatcher thread. Ownership of the queues is
+     * handed to the dispatcher before the thread starts, and back once it finishes.
+     * @param onFinished called on the dispatcher thread once registration has finished
+     * @return the dispatcher thread
+     */
+    public Thread startDispatcher(Runnable onFinished) {
+        dispatching = true;
+        Thread thread = new Thread(() -> {
+            startRegistration();
+            publish();
+            dispatching = false;
+            onFinished.run();
+        });
+        thread.start();
+        return thread;
+    }
+
+    public boolean isDispatching() {
+        return dispatching;
+    }
+
+    /**
+     * Runs the receiver in simulated time: the dispatcher waits out quanta, switches and timers
+     * by moving its clock on rather than sleeping, and processes never start their threads, as
+     * their work is done by the clock. A run then takes as long as the dispatch loop itself, and
+     * as the clock only moves when the dispatcher waits, every run of the same processes makes
+     * the same decisions. Only call before the receiver is given any processes.
+     */
+    public void simulateTime() {
+        clock.simulate();
+    }
+
+    /**
+     * @return the current time in ms as the dispatcher sees it, which is simulated if
+     * {@link #simulateTime()} was called
+     */
+    protected long now() {
+        return clock.millis();
+    }
+
+    /**
+     * @return the log of every slice of CPU time handed out by this receiver
+     */
+    public DispatchLog getDispatchLog() {
+        return dispatchLog;
+    }
+
+    /**
+     * The dispatcher publishes a new snapshot once one has been read, at most once a frame, so the
+     * snapshot may be up to a frame and a quantum behind the queues while the dispatcher is running.
+     * @return the latest published snapshot of the queues
+     */
+    public QueueSnapshot getSnapshot() {
+        if(!snapshotWanted) {
+            snapshotWanted = true;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Called by the render thread at the start of each frame. If the dispatcher is not running,
+     * the render thread owns the queues, so it enqueues any submissions and republishes if needed.
+     * @return the snapshot to draw
+     */
+    protected QueueSnapshot frameSnapshot() {
+        if(!dispatching && (snapshotDirty || !submissions.isEmpty())) {
+            drainSubmissions();
+            publish();
+        }
+        return getSnapshot();
+    }
+
+    /**
+     * Marks the snapshot as out of date after the GUI edited a process that has not started.
+     */
+    protected void markDirty() {
+        snapshotDirty = true;
+    }
+
+    /**
+     * The receiver's queues, highest level first, e.g. {@code List.of(queue)}. Only called by the
+     * thread that owns the queues.
+     */
+    protected abstract List<? extends Collection<ModuleRegister>> queues();
+
+    /**
+     * Copies the receiver's queues into a new snapshot, with any parked processes and processes
+     * waiting for I/O at the end of the levels they were taken from, so they are still seen and
+     * checkpointed, and the seats taken by registrations completed here. Only called by the
+     * thread that owns the queues.
+     * @param version the version of the snapshot
+     */
+    protected QueueSnapshot takeSnapshot(long version) {
+        List<? extends Collection<ModuleRegister>> levels = queues();
+        Map<String, Integer> seats = Map.copyOf(seatsTaken);
+        if(quotas.getParkedCount() == 0 && blocked.isEmpty()) {
+            return QueueSnapshot.of(version, levels, seats);
+        }
+        List<List<ModuleRegister>> copy = new ArrayList<>(levels.size());
+        for(Collection<ModuleRegister> level : levels) {
+            copy.add(new ArrayList<>(level));
+        }
+        quotas.forEachParked((m, level) -> copy.get(Math.min(level, copy.size() - 1)).add(m));
+        for(Map.Entry<ModuleRegister, Integer> entry : blocked.entrySet()) {
+            copy.get(Math.min(entry.getValue(), copy.size() - 1)).add(entry.getKey());
+        }
+        return QueueSnapshot.of(version, copy, seats);
+    }
+
+    /**
+     * Publishes a new snapshot of the queues - O(n) on the publishing thread, O(1) for readers.
+     */
+    protected void publish() {
+        snapshotDirty = false;
+        snapshotWanted = false;
+        publishedAt = System.nanoTime();
+        snapshot = takeSnapshot(++snapshotVersion);
+    }
+
+    /**
+     * Publishes a new snapshot from a dispatch point, but only if a reader has taken the last one
+     * and it is at least a frame old. A receiver nothing reads, e.g. in a batch run, never copies
+     * its queues, and one drawn by the GUI copies them once a frame rather than once a quantum.
+     */
+    private void publishIfWanted() {
+        if(snapshotWanted && System.nanoTime() - publishedAt >= FRAME_NANOS) {
+            publish();
+        }
+    }
+
+    private void drainSubmissions() {
+        ModuleRegister m;
+        draining = true;
+        try {
+            while((m = submissions.poll()) != null) {
+                enqueue(m);
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
     /**
      * Start registering modules.
      * @return
      */
     public abstract List<ModuleRegister> startRegistration();
 
+    /**
+     * @return the policy the receiver dispatches with, or null if it runs its own dispatch loop
+     */
+    protected SchedulingPolicy policy() {
+        return null;
+    }
+
+    /**
+     * The dispatch loop shared by every receiver. At each dispatch point, the policy picks the next
+     * process, which is collected if it has finished, and otherwise started if need be, given the
+     * CPU for a quantum and handed back to the policy to requeue. Returns once the queues are empty
+     * and no arrivals are pending.
+     * @param policy orders the receiver's queues
+     * @return the processes in the order they finished
+     */
+    protected final List<ModuleRegister> dispatch(SchedulingPolicy policy) {
+        ArrayList<ModuleRegister> results = new ArrayList<>();
+        boolean interactive = policy.isInteractive();
+        dispatchStarted = clock.millis();
+        dispatchFinished = 0;
+
+        while(awaitWork(policy.isEmpty()) || !policy.isEmpty()) {
+            ModuleRegister process = policy.pick();
+            if(process == null) {
+                continue;
+            }
+            int level = policy.level();
+            Thread.State state = process.getState();
+            // A process with simulated time never starts its thread, so is finished once its work is
+            if(clock.isSimulated() ? process.getRemainingWorkToDo() <= 0 : state == Thread.State.TERMINATED) {
+                policy.onComplete(process);
+                results.add(process);
+                completed(process);
+                continue;
+            }
+
+            if(state == Thread.State.NEW && !clock.isSimulated()) {
+                shedCandidates.remove(process);
+                process.start();
+            }
+            if(interactive && process.hasYieldedCPU()) {
+                yielded(process, level);
+                policy.requeue(process, 0);
+            } else {
+                long start = clock.millis();
+                runQuantum(process, QUANTUM, level);
+                // At least 1ms, so a dispatch is never mistaken for a yield
+                long cpuMs = Math.max(1, clock.millis() - start);
+                long ioMs = process.finishCpuBurst();
+                if(ioMs > 0) {
+                    policy.onBlock(process, cpuMs);
+                    block(policy, process, level, ioMs);
+                } else {
+                    policy.requeue(process, cpuMs);
+                }
+            }
+        }
+
+        dispatchFinished = clock.millis();
+        return results;
+    }
+
+    /**
+     * Holds a process in the blocked set while it waits for I/O, so the CPU goes to other
+     * processes in the meantime, and hands it back to the policy when the I/O completes - O(1)
+     */
+    private void block(SchedulingPolicy policy, ModuleRegister m, int level, long ioMs) {
+        blocked.put(m, level);
+        blockedCount = blocked.size();
+        // The dispatcher waits for the process to come back, as it would for an arrival
+        pendingArrivals++;
+        atDispatch(ioMs, () -> {
+            pendingArrivals--;
+            blocked.remove(m);
+            blockedCount = blocked.size();
+            m.wake(clock.millis());
+            policy.onWake(m, level);
+            trace(TraceEvent.WAKE, m, level);
+            if(m.bandwidth != null && m.bandwidth.isThrottled()) {
+                quotas.requestPark();
+            }
+        });
+    }
+
+    /**
+     * @return the number of processes waiting for I/O
+     */
+    public int getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * @return the fraction of the time since the dispatch loop started, until it finished, in
+     * which a process held the CPU
+     */
+    public double getCpuUtilisation() {
+        long started = dispatchStarted;
+        if(started == 0) {
+            return 0;
+        }
+        long finished = dispatchFinished;
+        long elapsed = (finished == 0 ? clock.millis() : finished) - started;
+        return elapsed <= 0 ? 0 : Math.min(1, (double) cpuBusy / elapsed);
+    }
+
+    /**
+     * @return the time in ms from each I/O burst completing until the process next had the CPU,
+     * i.e. the response time of I/O-bound processes
+     */
+    public Histogram getIoResponseTimes() {
+        return ioResponse;
+    }
+
+    /**
+     * Schedules an event on the timing wheel which is run at the next dispatch point after it
+     * fires, rather than in the middle of a quantum, as it changes the contents of the queues.
+     * @param delayMs the delay in milliseconds
+     * @param event the event
+     * @return the timeout, which can be used to cancel the event
+     */
+    protected TimingWheel.Timeout atDispatch(long delayMs, Runnable event) {
+        return timers.schedule(delayMs, () -> dispatchEvents.add(event));
+    }
+
+    /**
+     * The periodic version of {@link #atDispatch(long, Runnable)}, used for MLFQ boosts and aging.
+     */
+    protected TimingWheel.Timeout atDispatchEvery(long periodMs, Runnable event) {
+        return timers.schedulePeriodic(periodMs, () -> dispatchEvents.add(event));
+    }
+
+    /**
+     * Called by a receiver when a process is added to its queue. If the receiver is over its
+     * capacity, either a waiting process is shed or this one is taken straight back out of the
+     * queue. Otherwise, arms the deadline timer of the process, if it has one.
+     * @param m
+     */
+    protected void admitted(ModuleRegister m) {
+        if(unparking) {
+            return;
+        }
+        boolean shedding = admission.isShedding();
+        if(shedding != shedCandidates.isIndexed()) {
+            shedCandidates.index(shedding, queues(), m);
+        }
+        if(!admit(m)) {
+            return;
+        }
+        m.admit(clock.millis());
+        if(shedding) {
+            shedCandidates.add(m);
+        }
+        trace(TraceEvent.ENQUEUE, m, 0);
+        if(m.getDeadline() > 0 && m.deadlineTimeout == null) {
+            m.deadlineTimeout = timers.schedule(m.getDeadline(), m::missDeadline);
+        }
+        WriteAheadLog wal = writeAheadLog;
+        if(wal != null) {
+            // Processes that were submitted or recovered are already in the log
+            try {
+                wal.logEnqueue(m);
+            } catch (IOException e) {
+                System.err.println("Could not log the enqueue of " + m.getName() + ": " + e.getMessage());
+            }
+        }
+        m.bandwidth = quotas.forGroup(m.getGroup());
+        if(m.bandwidth != null && m.bandwidth.isThrottled()) {
+            quotas.requestPark();
+        }
+    }
+
+    /**
+     * Applies the admission policy to a process which has just been added to the queues - O(1),
+     * or O(log n + queue length) if the receiver is full, to find the process to drop and take it
+     * out of its queue.
+     * @return false if the process was removed again
+     */
+    private boolean admit(ModuleRegister m) {
+        // Submissions reserved their place in submit
+        if(admission.take(draining)) {
+            return true;
+        }
+        if(admission.isShedding()) {
+            ModuleRegister victim = shedCandidates.victim(m);
+            drop(victim);
+            admission.countShed();
+            ReceiverMetrics metrics = metrics();
+            if(metrics != null) {
+                metrics.shed.increment();
+            }
+            return victim != m;
+        }
+        if(draining) {
+            return true;
+        }
+        drop(m);
+        rejected();
+        return false;
+    }
+
+    /**
+     * Takes a process which has not started out of the queues, and frees its place - O(queue
+     * length)
+     */
+    private void drop(ModuleRegister m) {
+        shedCandidates.remove(m);
+        removeFromQueues(m);
+        if(m.deadlineTimeout != null) {
+            m.deadlineTimeout.cancel();
+        }
+        WriteAheadLog wal = writeAheadLog;
+        if(wal != null) {
+            // So that it is not recovered after a restart
+            try {
+                wal.logCompletion(m);
+            } catch (IOException e) {
+                System.err.println("Could not log the removal of " + m.getName() + ": " + e.getMessage());
+            }
+        }
+        admission.release();
+    }
+
+    // Removes by identity, as the comparators of some queues never return 0
+    private void removeFromQueues(ModuleRegister m) {
+        for(Collection<ModuleRegister> level : queues()) {
+            for(Iterator<ModuleRegister> it = level.iterator(); it.hasNext(); ) {
+                if(it.next() == m) {
+                    it.remove();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void rejected() {
+        admission.countRejected();
+        ReceiverMetrics metrics = metrics();
+        if(metrics != null) {
+            metrics.rejected.increment();
+        }
+    }
+
+    /**
+     * Called by a receiver when a process has terminated. Cancels the deadline timer, and books
+     * the timetable slots and claims the seat of a registration for a module - O(1)
+     * @param m
+     */
+    protected void completed(ModuleRegister m) {
+        if(m.deadlineTimeout != null) {
+            m.deadlineTimeout.cancel();
+        }
+        // In simulated time a process completes without its thread starting
+        shedCandidates.remove(m);
+        admission.release();
+        // A registration accepted before another of the student's clashing ones completed is only
+        // caught here
+        Timetable timetable = this.timetable;
+        if(timetable == null || timetable.book(m)) {
+            ModuleCatalogue catalogue = this.catalogue;
+            if(catalogue != null && m.getModule() != null && !catalogue.reserve(m) && timetable != null) {
+                timetable.cancel(m);
+            }
+        }
+        if(m.hasSeat()) {
+            seatsTaken.merge(m.getModule(), 1, Integer::sum);
+        }
+        WriteAheadLog wal = writeAheadLog;
+        if(wal != null) {
+            try {
+                // The seat first, so a registration logged as complete never loses its seat
+                if(m.hasSeat()) {
+                    wal.logSeat(m);
+                }
+                wal.logCompletion(m);
+            } catch (IOException e) {
+                System.err.println("Could not log the completion of " + m.getName() + ": " + e.getMessage());
+            }
+        }
+        Consumer<ModuleRegister> listener = completionListener;
+        if(listener != null) {
+            listener.accept(m);
+        }
+    }
+
+    /**
+     * Sets a listener which is called on the dispatcher thread as each process completes.
+     * @param listener the listener, or null to remove it
+     */
+    public void setCompletionListener(Consumer<ModuleRegister> listener) {
+        completionListener = listener;
+    }
+
+    /**
+     * Takes back seats on a module for registrations completed here before a restart, from the
+     * write-ahead log or a checkpoint. Must be called before the dispatcher starts.
+     * @return the seats taken back, see {@link ModuleCatalogue#restoreSeats(String, int)}
+     */
+    int restoreSeats(String module, int count) {
+        ModuleCatalogue catalogue = this.catalogue;
+        int taken = catalogue == null ? 0 : catalogue.restoreSeats(module, count);
+        if(taken < count && catalogue != null) {
+            System.err.println("Could only restore " + taken + " of " + count + " seats on " + module);
+        }
+        if(taken > 0) {
+            seatsTaken.merge(module, taken, Integer::sum);
+        }
+        return taken;
+    }
+
+    public ModuleCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    /**
+     * Sets the catalogue which each completed registration for a module claims a seat from, see
+     * {@link ModuleRegister#hasSeat()}. The catalogue may be shared with other receivers.
+     * @param catalogue the catalogue, or null for registrations not to claim seats
+     */
+    public void setCatalogue(ModuleCatalogue catalogue) {
+        this.catalogue = catalogue;
+    }
+
+    public Timetable getTimetable() {
+        return timetable;
+    }
+
+    /**
+     * Sets the timetable which each registration's module must fit for its student, see
+     * {@link ModuleRegister#hasClash()}. A clashing registration is turned away by
+     * {@link #submit(ModuleRegister)}, or if it was accepted before the clashing module was
+     * booked, it completes without booking its slots or claiming a seat. The timetable may be
+     * shared with other receivers.
+     * @param timetable the timetable, or null not to check for clashes
+     */
+    public void setTimetable(Timetable timetable) {
+        this.timetable = timetable;
+    }
+
+    public WriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Sets the log which records each process this receiver accepts and completes. Once set,
+     * {@link #submit(ModuleRegister)} waits for the process to be logged to disk before accepting it.
+     * @param writeAheadLog the log, or null to stop logging
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Turns on batched dispatch. A process is only given the CPU until its work is done, and if
+     * it finishes early, the rest of the quantum carries over to the next process, so several
+     * short processes run back to back in one quantum. The queues are only published once per
+     * quantum rather than once per process.
+     * @param batching true to batch short processes
+     */
+    public void setBatching(boolean batching) {
+        batcher.setEnabled(batching);
+    }
+
+    public boolean isBatching() {
+        return batcher.isEnabled();
+    }
+
+    /**
+     * @return the number of processes run in what was left of another process's quantum
+     */
+    public long getBatchedCount() {
+        return batcher.getBatchedCount();
+    }
+
+    /**
+     * Sets the cost of switching between processes, which is otherwise free. Each dispatch of a
+     * different process to the last one first waits out the switch overhead, and a process whose
+     * working set has left the cache spends the start of its quantum refilling it rather than
+     * working, so short quanta cost throughput as they would on a real CPU.
+     * @param switchModel the model, which keeps the time lost for this receiver, or null for free switches
+     */
+    public void setContextSwitchModel(ContextSwitchModel switchModel) {
+        switchCost.setModel(switchModel);
+    }
+
+    public ContextSwitchModel getContextSwitchModel() {
+        return switchCost.getModel();
+    }
+
+    /**
+     * Called by a receiver at each dispatch point, before choosing the next process. Enqueues any
+     * submissions, runs the events that have fired since the last dispatch point and publishes a
+     * snapshot of the queues if a reader wants one. If the receiver is idle, but arrivals are still pending, the
+     * dispatcher waits on the timing wheel until one arrives.
+     * @param idle true if the receiver's queues are empty
+     * @return true if a process arrived or was submitted
+     */
+    protected boolean awaitWork(boolean idle) {
+        int arrivals = pendingArrivals;
+        boolean submitted = !submissions.isEmpty();
+        drainSubmissions();
+        timers.advance();
+        while(true) {
+            Runnable event;
+            while((event = dispatchEvents.poll()) != null) {
+                event.run();
+            }
+            if(quotas.isParkPending() && parkThrottled() && allQueuesEmpty()) {
+                // Everything left was parked, so wait for the end of a period
+                idle = true;
+                submitted = false;
+                arrivals = pendingArrivals;
+            }
+            if(!idle || submitted || pendingArrivals == 0 || pendingArrivals < arrivals) {
+                // Within a batch, the queues are published when the quantum ends
+                if(!batcher.isCarrying()) {
+                    publishIfWanted();
+                }
+                return submitted || pendingArrivals < arrivals;
+            }
+            // The quantum does not carry over a wait
+            batcher.clearCarry();
+            awaitTimers();
+        }
+    }
+
+    /**
+     * Moves the processes of throttled groups out of the queues - O(n), but only at the dispatch
+     * point after a group is throttled or a process arrives in a throttled group. Parked processes
+     * count as pending arrivals, so the dispatcher waits for them rather than finishing.
+     * @return true if any processes were parked
+     */
+    private boolean parkThrottled() {
+        // Only what is in the queues can be shed
+        int parked = quotas.park(queues(), shedCandidates::remove);
+        pendingArrivals += parked;
+        return parked > 0;
+    }
+
+    /**
+     * Ends a group's throttle at the start of its next period, putting its parked processes back
+     * in the levels they were taken from.
+     */
+    private void unpark(GroupBandwidth bandwidth) {
+        int count;
+        unparking = true;
+        try {
+            count = quotas.unpark(bandwidth, clock.millis(), (m, level) -> {
+                restore(m, level);
+                if(shedCandidates.isIndexed() && m.getState() == Thread.State.NEW) {
+                    shedCandidates.add(m);
+                }
+            });
+        } finally {
+            unparking = false;
+        }
+        pendingArrivals -= count;
+    }
+
+    private boolean allQueuesEmpty() {
+        for(Collection<ModuleRegister> level : queues()) {
+            if(!level.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives the current process the CPU for the given time. The quantum expiry is a timeout on the
+     * timing wheel, and any other timers that expire in the meantime are fired as well.
+     * @param timeMs the length of the quantum in milliseconds
+     */
+    protected void awaitQuantum(long timeMs) {
+        timers.schedule(quantumEnd, timeMs);
+        if(!batcher.isCarrying()) {
+            publishIfWanted();
+        }
+        while(quantumEnd.isPending()) {
+            awaitTimers();
+        }
+    }
+
+    /**
+     * Waits out a context switch, in which no process has the CPU. Timers that expire in the
+     * meantime are fired as they would be during a quantum.
+     */
+    private void awaitSwitch(long timeMs) {
+        timers.schedule(quantumEnd, timeMs);
+        while(quantumEnd.isPending()) {
+            awaitTimers();
+        }
+    }
+
+    /**
+     * Gives the process the CPU for one quantum, and records the slice in the dispatch log.
+     * @param process the process, which must have been started
+     * @param timeMs the length of the quantum in milliseconds
+     */
+    protected void runQuantum(ModuleRegister process, long timeMs) {
+        runQuantum(process, timeMs, 0);
+    }
+
+    /**
+     * @see #runQuantum(ModuleRegister, long)
+     * @param level the queue level the process was taken from, for the trace
+     */
+    protected void runQuantum(ModuleRegister process, long timeMs, int level) {
+        long budget = batcher.start(timeMs, metrics());
+        long refill = switchCost.switchTo(process, awaitSwitch, metrics());
+        timeMs = batcher.slice(timeMs, budget, process.getRemainingWorkToDo() + refill);
+        if(process.isIoBound()) {
+            // The slice ends with the CPU burst, as the process then waits for I/O
+            timeMs = Math.max(1, Math.min(timeMs, process.getBurstRemaining() + refill));
+        }
+        GroupBandwidth bandwidth = process.bandwidth;
+        if(bandwidth != null) {
+            // A capped group only gets what is left of its quota
+            timeMs = Math.max(1, Math.min(timeMs, bandwidth.remaining(clock.millis())));
+        }
+        // The refill comes out of the quantum, but the process always gets 1ms of work done
+        refill = Math.max(0, Math.min(refill, timeMs - 1));
+        trace(TraceEvent.DISPATCH, process, level);
+        // JFR events are only filled in if they are enabled, so cost almost nothing otherwise
+        DispatchEvent dispatch = new DispatchEvent();
+        dispatch.begin();
+        // The process thread only terminates shortly after its work is done, so it may be given
+        // another quantum - only the quantum in which the work finishes counts as completing it
+        boolean hadWork = process.getRemainingWorkToDo() > 0;
+        long start = clock.millis();
+        // Read before stopWork moves the ready time to the end of this slice
+        long queueWait = start - process.getReadyTime();
+        long wokenTime = process.wokenTime;
+        if(wokenTime > 0) {
+            process.wokenTime = 0;
+            ioResponse.record(start - wokenTime);
+        }
+        if(refill > 0) {
+            // The process holds the CPU while it refills the cache, but does no work
+            awaitSwitch(refill);
+        }
+        process.startWork(clock.millis());
+        awaitQuantum(timeMs - refill);
+        process.stopWork(clock.millis());
+        dispatch.end();
+        long end = clock.millis();
+
+        boolean complete = hadWork && process.getRemainingWorkToDo() <= 0;
+        boolean blocking = !complete && process.isIoBound() && process.getBurstRemaining() <= 0;
+        cpuBusy += end - start;
+        dispatchLog.record(process, start, end, complete ? DispatchLog.Outcome.COMPLETED
+                : blocking ? DispatchLog.Outcome.BLOCKED : DispatchLog.Outcome.PREEMPTED);
+        if(bandwidth != null && bandwidth.charge(end - start, end)) {
+            throttled(bandwidth, end);
+        }
+        switchCost.charge(process.getWorkStartTime() - start, end - process.getWorkStartTime(), metrics());
+        batcher.end(budget, end - start, complete || blocking);
+        trace(complete ? TraceEvent.COMPLETE : blocking ? TraceEvent.BLOCK : TraceEvent.PREEMPT, process, level);
+
+        ReceiverMetrics m = metrics();
+        if(m != null) {
+            m.dispatches.increment();
+            if(wokenTime > 0) {
+                m.ioResponse.record(start - wokenTime);
+            }
+            m.queueWait.record(queueWait);
+            if(complete) {
+                m.completions.increment();
+                m.turnaround.record(process.getReadyTime() - process.getAdmittedTime());
+            }
+        }
+
+        if(dispatch.shouldCommit()) {
+            dispatch.receiver = receiverName;
+            dispatch.process = process.getName();
+            dispatch.jobId = process.getJobId();
+            dispatch.level = level;
+            dispatch.queueWait = queueWait;
+            dispatch.commit();
+        }
+
+        if(complete) {
+            CompletionEvent completion = new CompletionEvent();
+            if(completion.shouldCommit()) {
+                completion.receiver = receiverName;
+                completion.process = process.getName();
+                completion.jobId = process.getJobId();
+                completion.turnaround = process.getReadyTime() - process.getAdmittedTime();
+                completion.work = process.getWorkCompleted();
+                completion.commit();
+            }
+        } else if(!blocking) {
+            QuantumExpiredEvent expired = new QuantumExpiredEvent();
+            if(expired.shouldCommit()) {
+                expired.receiver = receiverName;
+                expired.process = process.getName();
+                expired.jobId = process.getJobId();
+                expired.level = level;
+                expired.remainingWork = process.getRemainingWorkToDo();
+                expired.commit();
+            }
+        }
+    }
+
+    /**
+     * Called when a group has used its quota. Its processes are parked at the next dispatch point,
+     * and put back when the period ends.
+     */
+    private void throttled(GroupBandwidth bandwidth, long now) {
+        quotas.requestPark();
+        atDispatch(Math.max(1, bandwidth.periodEnd() - now), () -> unpark(bandwidth));
+        ReceiverMetrics m = metrics();
+        if(m != null) {
+            m.throttled(bandwidth.getGroup()).increment();
+        }
+    }
+
+    /**
+     * Gives the process the CPU, which it gives up straight away (e.g. to wait for IO), and records
+     * the slice in the dispatch log.
+     * @param process the process, which must have been started
+     * @param level the queue level the process was taken from, for the trace
+     */
+    protected void yielded(ModuleRegister process, int level) {
+        // Switching in costs the same however briefly the process runs
+        switchCost.switchTo(process, awaitSwitch, metrics());
+        long now = clock.millis();
+        process.startWork(now);
+        process.stopWork(now);
+        dispatchLog.record(process, now, now,
+                DispatchLog.Outcome.YIELDED);
+        trace(TraceEvent.YIELD, process, level);
+    }
+
+    /**
+     * Called by a multi-level receiver when it moves a process to a lower priority queue.
+     */
+    protected void demoted(ModuleRegister m, int fromLevel, int toLevel) {
+        trace(TraceEvent.DEMOTE, m, toLevel);
+        DemotionEvent event = new DemotionEvent();
+        if(event.shouldCommit()) {
+            event.receiver = receiverName;
+            event.process = m.getName();
+            event.jobId = m.getJobId();
+            event.fromLevel = fromLevel;
+            event.toLevel = toLevel;
+            event.commit();
+        }
+    }
+
+    /**
+     * Called by a multi-level receiver when it moves every process to the top queue.
+     * @param moved the number of processes moved
+     */
+    protected void boosted(int moved) {
+        trace(TraceEvent.BOOST, null, 0);
+        BoostEvent event = new BoostEvent();
+        if(event.shouldCommit()) {
+            event.receiver = receiverName;
+            event.moved = moved;
+            event.commit();
+        }
+    }
+
+    /**
+     * Called by a priority receiver when it raises the priority of a waiting process.
+     */
+    protected void aged(ModuleRegister m, int oldPriority, int newPriority) {
+        // Re-keyed, as the candidates are ordered by priority
+        shedCandidates.reprioritise(m, newPriority);
+        trace(TraceEvent.AGE, m, newPriority);
+        AgingEvent event = new AgingEvent();
+        if(event.shouldCommit()) {
+            event.receiver = receiverName;
+            event.process = m.getName();
+            event.jobId = m.getJobId();
+            event.oldPriority = oldPriority;
+            event.newPriority = newPriority;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return this receiver's metrics, or null if metrics are off
+     */
+    private ReceiverMetrics metrics() {
+        MetricsRegistry registry = metricsRegistry;
+        if(registry == null) {
+            return null;
+        }
+        ReceiverMetrics m = metrics;
+        if(m == null || m.registry != registry) {
+            // Submitting threads count rejections, so the lookup may race with the dispatcher
+            synchronized(this) {
+                m = metrics;
+                if(m == null || m.registry != registry) {
+                    metrics = m = new ReceiverMetrics(registry, receiverName, this);
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Writes an event to the trace, if tracing is on - lock free and allocation free.
+     * @param event the event
+     * @param m the process
+     * @param level the queue level of the process
+     */
+    protected void trace(TraceEvent event, ModuleRegister m, int level) {
+        TraceWriter writer = traceWriter;
+        if(writer != null) {
+            // There is a single dispatcher per receiver, so everything runs on core 0
+            writer.write(event, m == null ? 0 : m.getJobId(), level, 0);
+        }
+    }
+
+    /**
+     * Sleeps until the next timer on the wheel may expire, then advances the wheel.
+     */
+    private void awaitTimers() {
+        long wait = timers.nextExpiryTime() - clock.millis();
+        if(wait > 0) {
+            sleepIgnoreException(wait);
+        }
+        timers.advance();
+    }
+
     /**
      * Sleeps the current thread for the specified time, returning false if an interrupt exception was thrown
      *
@@ -54,7 +1209,7 @@ public abstract class ModRegReceiver {
      */
     protected void sleepIgnoreException(long timeMs) {
         try {
-            Thread.sleep(timeMs);
+            clock.sleep(timeMs);
         } catch (InterruptedException ignore) {}
     }
 
@@ -0,0 +1,234 @@
+package ci583.receiver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * The modules students register on, and the seats left on each. A registration for a module (see
+ * {@link ModuleRegister#setModule(String)}) claims a seat when it completes, in a receiver given
+ * this catalogue (see {@link ModRegReceiver#setCatalogue(ModuleCatalogue)}), and is refused if the
+ * module is full. One catalogue can be shared by many receivers, e.g. every worker in a cluster,
+ * and a module is never oversold however many of their dispatchers complete registrations at once.
+ * </p>
+ * <p>
+ * The seats of a module are split between several stripes, each on its own cache lines. A
+ * reservation takes a seat from the stripe its thread hashes to with a compare-and-set, so
+ * dispatchers completing registrations for the same popular module mostly touch different
+ * stripes rather than all contending for one counter. Only when its stripe is empty does a
+ * reservation look through the others, so a module can only appear full once every stripe is
+ * empty. No stripe ever goes below zero, and the stripes start with the module's capacity
+ * between them, so at most that many seats are ever taken. Reserving and releasing are O(1)
+ * while the module has plenty of seats, and O(stripes) when it is nearly full.
+ * </p>
+ * <p>
+ * The seats taken are not saved with the catalogue, but rebuilt from the registrations a receiver
+ * completed when it recovers from its {@link WriteAheadLog} or {@link Checkpoint}, so the modules
+ * must be added before recovering.
+ * </p>
+ */
+public final class ModuleCatalogue {
+
+    static final int NO_SEAT = 0;
+    static final int SEATED = 1;
+    static final int REFUSED = 2;
+
+    // Moves a registration from having no seat to having or being refused one exactly once, so a
+    // seat cannot be claimed or given back twice
+    private static final AtomicIntegerFieldUpdater<ModuleRegister> SEAT =
+            AtomicIntegerFieldUpdater.newUpdater(ModuleRegister.class, "seat");
+
+    private final Map<String, Seats> modules = new ConcurrentHashMap<>();
+    private final LongAdder unknown = new LongAdder();
+
+    /**
+     * Adds a module. Adding a module already in the catalogue with the same capacity returns its
+     * seats, but its capacity cannot be changed, as a receiver may be taking a seat from it at the
+     * same time, which replacing its seats would lose.
+     * @param module the module code, e.g. "CI583"
+     * @param capacity the number of seats on the module
+     * @return the seats of the module
+     * @throws IllegalStateException if the module is already in the catalogue with another capacity
+     */
+    public Seats addModule(String module, int capacity) {
+        Seats seats = modules.computeIfAbsent(module, code -> new Seats(code, capacity));
+        if(seats.getCapacity() != capacity) {
+            throw new IllegalStateException(module + " already has " + seats.getCapacity() + " seats");
+        }
+        return seats;
+    }
+
+    /**
+     * @return the seats of the module, or null if it is not in the catalogue
+     */
+    public Seats getSeats(String module) {
+        return modules.get(module);
+    }
+
+    public Map<String, Seats> getModules() {
+        return Map.copyOf(modules);
+    }
+
+    /**
+     * Claims a seat on the registration's module, unless it has already been given or refused one.
+     * A registration for a module not in the catalogue is refused.
+     * @return true if the registration holds a seat
+     */
+    public boolean reserve(ModuleRegister m) {
+        if(m.getModule() == null || m.seat != NO_SEAT) {
+            return m.seat == SEATED;
+        }
+        Seats seats = modules.get(m.getModule());
+        if(seats == null) {
+            unknown.increment();
+            SEAT.compareAndSet(m, NO_SEAT, REFUSED);
+            return false;
+        }
+        if(!seats.reserve()) {
+            SEAT.compareAndSet(m, NO_SEAT, REFUSED);
+            return false;
+        }
+        if(!SEAT.compareAndSet(m, NO_SEAT, SEATED)) {
+            // Reserved twice at once, so give back the second seat
+            seats.release();
+        }
+        return m.seat == SEATED;
+    }
+
+    /**
+     * Gives back the seat held by a registration, e.g. when the student withdraws, and makes it
+     * able to claim a seat again.
+     * @return false if the registration did not hold a seat
+     */
+    public boolean release(ModuleRegister m) {
+        if(!SEAT.compareAndSet(m, SEATED, NO_SEAT)) {
+            return false;
+        }
+        modules.get(m.getModule()).release();
+        return true;
+    }
+
+    /**
+     * Takes back the seats of registrations which completed before a restart - O(count * stripes)
+     * @return the seats taken, fewer than asked for if the module is not in the catalogue or has
+     * since been filled
+     */
+    int restoreSeats(String module, int count) {
+        Seats seats = modules.get(module);
+        int taken = 0;
+        while(seats != null && taken < count && seats.reserve()) {
+            taken++;
+        }
+        return taken;
+    }
+
+    /**
+     * @return the number of registrations refused because their module was not in the catalogue
+     */
+    public long getUnknownCount() {
+        return unknown.sum();
+    }
+
+    /**
+     * The seats of one module, split between stripes.
+     */
+    public static final class Seats {
+
+        // The stripes for a module with plenty of seats: twice the processors, rounded up to a power
+        // of two, so threads rarely share a stripe
+        private static final int MAX_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2;
+        // Each stripe is 128 bytes apart, so that no two share a cache line, or a pair of lines
+        // which the processor fetches together
+        private static final int SPACING = 16;
+
+        private final String module;
+        private final int capacity;
+        private final int mask;
+        private final AtomicLongArray stripes;
+        private final LongAdder refused = new LongAdder();
+
+        private Seats(String module, int capacity) {
+            if(capacity < 0) {
+                throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+            }
+            this.module = module;
+            this.capacity = capacity;
+            // No more stripes than seats, so a small module is not spread thinly over many stripes
+            int count = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, capacity)));
+            mask = count - 1;
+            stripes = new AtomicLongArray(count * SPACING);
+            for(int i = 0; i < count; i++) {
+                stripes.set(i * SPACING, capacity / count + (i < capacity % count ? 1 : 0));
+            }
+        }
+
+        /**
+         * Takes a seat, from this thread's stripe if it has one left - O(1), or O(stripes) if it
+         * is empty
+         * @return false if there are no seats left
+         */
+        public boolean reserve() {
+            int home = home();
+            for(int i = 0; i <= mask; i++) {
+                int index = ((home + i) & mask) * SPACING;
+                long left;
+                while((left = stripes.get(index)) > 0) {
+                    if(stripes.compareAndSet(index, left, left - 1)) {
+                        return true;
+                    }
+                }
+            }
+            refused.increment();
+            return false;
+        }
+
+        /**
+         * Gives back a seat taken by {@link #reserve()} - O(1)
+         */
+        public void release() {
+            stripes.getAndIncrement(home() * SPACING);
+        }
+
+        // Spreads the threads over the stripes, and keeps each thread on the same one
+        private int home() {
+            return (int) ((Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        }
+
+        public String getModule() {
+            return module;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return the seats left, which may be out of date by the time it returns - O(stripes)
+         */
+        public int getAvailable() {
+            long available = 0;
+            for(int i = 0; i <= mask; i++) {
+                available += stripes.get(i * SPACING);
+            }
+            return (int) available;
+        }
+
+        public int getTaken() {
+            return capacity - getAvailable();
+        }
+
+        /**
+         * @return the number of reservations turned away because the module was full
+         */
+        public long getRefusedCount() {
+            return refused.sum();
+        }
+
+        public int getStripeCount() {
+            return mask + 1;
+        }
+    }
+}
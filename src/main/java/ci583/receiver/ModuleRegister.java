@@ -1,6 +1,9 @@
 package ci583.receiver;
 
+import ci583.collections.TimingWheel;
+
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class representing a process for the CI583 Modules Registration assignment. Process is a subclass of Thread.
@@ -9,6 +12,10 @@ import java.util.Random;
 public class ModuleRegister extends Thread {
 
     private static final Random RANDOM = new Random();
+    private static final AtomicInteger NEXT_JOB_ID = new AtomicInteger();
+
+    // A compact id for this process, used in traces
+    private final int jobId = NEXT_JOB_ID.incrementAndGet();
 
     // The amount of 'work' this process has to do, in milliseconds
     private long work;
@@ -19,6 +26,9 @@ public class ModuleRegister extends Thread {
     private long workStartTime;
     // The total amount of work in ms which has been completed
     private long workCompleted;
+    // The time in ms at which this process was enqueued, and at which it last became runnable
+    private long admittedTime;
+    private long readyTime;
 
     // Interactive thread - used for MLFQ
     // Interactive process is a process that requires IO (such as waiting for keyboard input)
@@ -26,6 +36,50 @@ public class ModuleRegister extends Thread {
     // This variable is a percentage chance of how often this process should yield
     private double interactiveThreadChance;
 
+    // The time in ms after being enqueued by which this process should complete, or 0 for none
+    private long deadline;
+    private volatile boolean deadlineMissed;
+    // The deadline timer on the receiver's timing wheel, cancelled when the process completes
+    TimingWheel.Timeout deadlineTimeout;
+    // The id of this process in its receiver's write-ahead log, or -1 if it has not been logged
+    long walId = -1;
+    // The fair-share group of this process, e.g. "computing/year2", or null for the default group
+    private String group;
+    // The bandwidth quota of the process's group in its receiver, or null if it has none
+    GroupBandwidth bandwidth;
+    // The priority and admission order this process is kept under among its receiver's shed
+    // candidates, and whether it is one, see ModRegReceiver#shedVictim
+    int shedPriority;
+    long shedOrder;
+    boolean shedCandidate;
+
+    // The work completed at the end of each CPU burst, and the I/O burst in ms that follows each
+    // one but the last, or null if the process only has a single CPU burst
+    private long[] cpuBurstEnds;
+    private long[] ioBursts;
+    // The index of the current CPU burst
+    private int burst;
+    // The time in ms the last I/O burst completed, until the process is next dispatched, otherwise 0
+    long wokenTime;
+    // The work completed when the current CPU burst started, for burst prediction
+    long burstStart;
+    // The key of this process's class in the burst predictor that last classified it, see
+    // BurstPredictor#classKey
+    BurstPredictor burstPredictor;
+    long burstClass;
+    // The work the shortest-job receiver expected this process to have left when it was queued
+    long expectedRemaining;
+    // The core this process last ran on in a MultiCoreSimulator, or -1 if it has not run on one
+    int lastCore = -1;
+    // The module this registration claims a seat on, or null if it does not need one
+    private String module;
+    // Whether the registration holds a seat, see ModuleCatalogue
+    volatile int seat = ModuleCatalogue.NO_SEAT;
+    // The student registering, whose timetable the module must fit, or null if it is not checked
+    private String student;
+    // Set if the module clashed with the student's timetable, see Timetable
+    volatile boolean clashed;
+
     /**
      * Constructs a new Process with the given name and amount of work to do.
      * @param pid
@@ -75,16 +129,51 @@ public class ModuleRegister extends Thread {
      * Indicates that this process has just been given CPU time
      */
     public void startWork() {
+        startWork(System.currentTimeMillis());
+    }
+
+    void startWork(long now) {
         executing = true;
-        workStartTime = System.currentTimeMillis();
+        workStartTime = now;
     }
 
     /**
      * Indicates that this process is no longer receiving CPU time
      */
     public void stopWork() {
+        stopWork(System.currentTimeMillis());
+    }
+
+    void stopWork(long now) {
         executing = false;
-        workCompleted += (System.currentTimeMillis() - workStartTime);
+        readyTime = now;
+        workCompleted += (readyTime - workStartTime);
+    }
+
+    /**
+     * Indicates that this process has been added to a receiver's queue
+     */
+    void admit(long now) {
+        admittedTime = readyTime = now;
+    }
+
+    /**
+     * @return the time in ms at which this process was added to a receiver's queue
+     */
+    public long getAdmittedTime() {
+        return admittedTime;
+    }
+
+    /**
+     * @return the time in ms at which this process last became runnable, i.e. was enqueued or
+     * gave up the CPU
+     */
+    public long getReadyTime() {
+        return readyTime;
+    }
+
+    public int getJobId() {
+        return jobId;
     }
 
     /**
@@ -101,6 +190,15 @@ public class ModuleRegister extends Thread {
         return workCompleted;
     }
 
+    /**
+     * Sets the work already completed, e.g. when restoring from a checkpoint. Only call before
+     * the process has started.
+     * @param workCompleted the work completed in ms
+     */
+    public void setWorkCompleted(long workCompleted) {
+        this.workCompleted = workCompleted;
+    }
+
     /**
      * @return amount of work required for this process to finish
      */
@@ -116,6 +214,236 @@ public class ModuleRegister extends Thread {
         this.interactiveThreadChance = interactiveThreadChance;
     }
 
+    /**
+     * @return the time in ms at which this process was last given CPU time, or 0 if it has never run
+     */
+    public long getWorkStartTime() {
+        return workStartTime;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the deadline of this process. Must be set before the process is enqueued.
+     * @param deadline time in ms after being enqueued by which this process should complete
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the fair-share group of this process, or null if it is in the default group
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Sets the group this process shares CPU time with in a {@link FairShareReceiver}. Must be
+     * set before the process is enqueued.
+     * @param group the path of the group, e.g. "computing/year2", or null for the default group
+     */
+    public void setGroup(String group) {
+        this.group = group;
+        // The group is the burst class, so it is worked out again
+        burstPredictor = null;
+    }
+
+    /**
+     * @return the module this registration claims a seat on when it completes, or null if none
+     */
+    public String getModule() {
+        return module;
+    }
+
+    /**
+     * Sets the module whose seat this registration claims from the receiver's
+     * {@link ModuleCatalogue} when it completes. Must be set before the process is enqueued.
+     * @param module the module code, e.g. "CI583", or null if the registration needs no seat
+     */
+    public void setModule(String module) {
+        this.module = module;
+    }
+
+    /**
+     * @return the student registering, or null if the registration is not checked against a timetable
+     */
+    public String getStudent() {
+        return student;
+    }
+
+    /**
+     * Sets the student whose timetable the module of this registration must fit, see
+     * {@link Timetable}. Must be set before the process is enqueued.
+     * @param student the student, e.g. "cs-1042", or null not to check the timetable
+     */
+    public void setStudent(String student) {
+        this.student = student;
+    }
+
+    /**
+     * @return true if the registration was turned away, or refused its module, because the module
+     * clashed with the student's timetable
+     */
+    public boolean hasClash() {
+        return clashed;
+    }
+
+    /**
+     * @return true if the registration was given a seat on its module
+     */
+    public boolean hasSeat() {
+        return seat == ModuleCatalogue.SEATED;
+    }
+
+    /**
+     * @return true if the registration completed but its module had no seats left
+     */
+    public boolean wasRefusedSeat() {
+        return seat == ModuleCatalogue.REFUSED;
+    }
+
+    /**
+     * @return true if the deadline timer fired before this process completed
+     */
+    public boolean hasMissedDeadline() {
+        return deadlineMissed;
+    }
+
+    void missDeadline() {
+        deadlineMissed = true;
+    }
+
+    /**
+     * Describes the process as alternating CPU and I/O bursts, e.g. {@code 200, 50, 300} computes
+     * for 200ms, waits 50ms for I/O, then computes for another 300ms. The work of the process is
+     * the total of its CPU bursts. Only call before the process is enqueued.
+     * @param bursts the lengths of the bursts in ms, starting and ending with a CPU burst
+     */
+    public void setBursts(long... bursts) {
+        if(bursts.length % 2 == 0) {
+            throw new IllegalArgumentException("Bursts must start and end with a CPU burst: " + bursts.length);
+        }
+        long[] ends = new long[bursts.length / 2 + 1];
+        long[] io = new long[bursts.length / 2];
+        long total = 0;
+        for(int i = 0; i < bursts.length; i++) {
+            if(bursts[i] <= 0) {
+                throw new IllegalArgumentException("Bursts must be positive: " + bursts[i]);
+            }
+            if(i % 2 == 0) {
+                total += bursts[i];
+                ends[i / 2] = total;
+            } else {
+                io[i / 2] = bursts[i];
+            }
+        }
+        cpuBurstEnds = ends;
+        ioBursts = io;
+        burst = 0;
+        work = total;
+    }
+
+    /**
+     * @return the lengths of the CPU and I/O bursts as given to {@link #setBursts(long...)}, or null
+     * if the process has a single CPU burst - O(bursts)
+     */
+    public long[] getBursts() {
+        return bursts(cpuBurstEnds, ioBursts);
+    }
+
+    /**
+     * Turns the ends of the CPU bursts and the I/O bursts between them back into alternating
+     * burst lengths, so they can be saved and given to {@link #setBursts(long...)} again
+     * @return the bursts, or null if there are none
+     */
+    static long[] bursts(long[] cpuBurstEnds, long[] ioBursts) {
+        if(cpuBurstEnds == null) {
+            return null;
+        }
+        long[] bursts = new long[cpuBurstEnds.length + ioBursts.length];
+        long start = 0;
+        for(int i = 0; i < cpuBurstEnds.length; i++) {
+            bursts[i * 2] = cpuBurstEnds[i] - start;
+            start = cpuBurstEnds[i];
+            if(i < ioBursts.length) {
+                bursts[i * 2 + 1] = ioBursts[i];
+            }
+        }
+        return bursts;
+    }
+
+    // Never changed once set, so a snapshot can keep them rather than copy them
+    long[] getCpuBurstEnds() {
+        return cpuBurstEnds;
+    }
+
+    long[] getIoBursts() {
+        return ioBursts;
+    }
+
+    /**
+     * @return the index of the current CPU burst
+     */
+    int getBurstIndex() {
+        return burst;
+    }
+
+    /**
+     * Puts a restored process back in the CPU burst it had reached. Only call after
+     * {@link #setBursts(long...)}.
+     */
+    void setBurstIndex(int burst) {
+        if(cpuBurstEnds == null ? burst != 0 : burst < 0 || burst >= cpuBurstEnds.length) {
+            throw new IllegalArgumentException("No CPU burst " + burst);
+        }
+        this.burst = burst;
+    }
+
+    /**
+     * @return true if the process waits for I/O between CPU bursts
+     */
+    public boolean isIoBound() {
+        return ioBursts != null && ioBursts.length > 0;
+    }
+
+    /**
+     * @return the work left in the current CPU burst, which is all the work left if the process
+     * has a single burst
+     */
+    public long getBurstRemaining() {
+        return cpuBurstEnds == null ? getRemainingWorkToDo() : cpuBurstEnds[burst] - workCompleted;
+    }
+
+    /**
+     * Moves on to the next CPU burst, if the current one is done and I/O follows it - O(1)
+     * @return the length of the I/O burst the process must now wait for, or 0 if it is not blocked
+     */
+    long finishCpuBurst() {
+        if(ioBursts == null || burst >= ioBursts.length || workCompleted < cpuBurstEnds[burst]) {
+            return 0;
+        }
+        return ioBursts[burst++];
+    }
+
+    /**
+     * @return the core this process last ran on when simulated on several cores, or -1 if it has
+     * not run on one
+     * @see MultiCoreSimulator
+     */
+    public int getLastCore() {
+        return lastCore;
+    }
+
+    /**
+     * Indicates that this process has finished its I/O and is runnable again
+     */
+    void wake(long now) {
+        wokenTime = readyTime = now;
+    }
+
     public boolean hasYieldedCPU() {
         return RANDOM.nextDouble() <= interactiveThreadChance;
     }
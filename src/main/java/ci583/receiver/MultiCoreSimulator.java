@@ -0,0 +1,282 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Runs processes on several simulated cores, each with its own run queue kept by a receiver's
+ * {@link SchedulingPolicy}, in simulated time as {@link PolicySimulator} does. It measures what
+ * moving processes between cores costs: a process that runs on a different core to the one it
+ * last ran on (see {@link ModuleRegister#getLastCore()}) finds the new core's caches cold, and
+ * spends {@code migrationMs} refilling them before it makes progress.
+ * </p>
+ * <p>
+ * A new process goes to the core with the fewest processes. With soft affinity, a process that
+ * is preempted or wakes from I/O stays on its last core, unless that core has more than
+ * {@code imbalance} processes more than the least loaded core, when it migrates there keeping its
+ * queue level. Without affinity, every process that becomes runnable goes to the least loaded
+ * core, as if the cores shared one queue, which spreads the load evenly but migrates far more
+ * often.
+ * </p>
+ * <p>
+ * Processes with I/O bursts (see {@link ModuleRegister#setBursts(long...)}) block between their
+ * CPU bursts, and the other processes use their core in the meantime. Timer-driven behaviour,
+ * such as aging and boosts, and yielding are left out.
+ * </p>
+ */
+public final class MultiCoreSimulator {
+
+    private final SchedulingPolicy[] cores;
+    private final long quantum;
+    private boolean affinity = true;
+    private int imbalance = 1;
+    private long migrationMs;
+
+    // The processes queued on or running on each core
+    private final int[] load;
+    // The time each core is next free
+    private final long[] clock;
+    private long migrations;
+    private long migrationTime;
+    private long busyTime;
+    private long makespan;
+
+    /**
+     * @param receivers a new receiver for each core, none of which have been given any processes.
+     *                  Their queues are used by the simulation, so they cannot be started afterwards
+     * @param quantum the simulated length of each quantum in ms
+     * @throws IllegalArgumentException if there are no receivers, or one does not dispatch with a policy
+     */
+    public MultiCoreSimulator(List<? extends ModRegReceiver> receivers, long quantum) {
+        if(receivers.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one core");
+        }
+        cores = new SchedulingPolicy[receivers.size()];
+        for(int i = 0; i < cores.length; i++) {
+            cores[i] = receivers.get(i).policy();
+            if(cores[i] == null) {
+                throw new IllegalArgumentException(receivers.get(i).getClass().getSimpleName() + " has no scheduling policy");
+            }
+        }
+        this.quantum = quantum;
+        load = new int[cores.length];
+        clock = new long[cores.length];
+    }
+
+    /**
+     * @param affinity true to keep processes on their last core while the load allows
+     * @param imbalance how many more processes a process's last core may have than the least
+     *                  loaded core before the process migrates
+     * @param migrationMs the time a process spends refilling the caches of a core it has not just
+     *                    run on, before it makes progress
+     */
+    public void setAffinity(boolean affinity, int imbalance, long migrationMs) {
+        if(imbalance < 0 || migrationMs < 0) {
+            throw new IllegalArgumentException("The imbalance and migration cost cannot be negative");
+        }
+        this.affinity = affinity;
+        this.imbalance = imbalance;
+        this.migrationMs = migrationMs;
+    }
+
+    /**
+     * Runs the processes until they have all finished.
+     * @param processes new processes, which are never started
+     * @param arrivals the simulated time in ms each process arrives
+     * @param finish filled in with the simulated time each process finished its work
+     * @return the simulated time in ms the last process finished
+     */
+    public long run(List<ModuleRegister> processes, long[] arrivals, long[] finish) {
+        int n = processes.size();
+        // Arrival order, ties in the order given
+        Integer[] boxed = new Integer[n];
+        for(int i = 0; i < n; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> Long.compare(arrivals[a], arrivals[b]));
+        IdentityHashMap<ModuleRegister, Integer> index = new IdentityHashMap<>(n * 2);
+        for(int i = 0; i < n; i++) {
+            index.put(processes.get(i), i);
+        }
+        Arrays.fill(finish, -1);
+        // Processes waiting for I/O, by the time they wake
+        PriorityQueue<Wake> wakes = new PriorityQueue<>((a, b) -> Long.compare(a.time, b.time));
+
+        int next = 0;
+        int done = 0;
+        int target;
+        while(done < n) {
+            // The busy core which is free first runs next, once everything that happened before
+            // then has been placed, which may give an idle core work
+            int core = nextCore();
+            long now = core < 0 ? Long.MAX_VALUE : clock[core];
+            if(next < n && arrivals[boxed[next]] <= now) {
+                ModuleRegister m = processes.get(boxed[next]);
+                place(leastLoaded(), m, arrivals[boxed[next++]], -1);
+                continue;
+            }
+            if(!wakes.isEmpty() && wakes.peek().time <= now) {
+                Wake wake = wakes.poll();
+                place(wakeCore(wake.process), wake.process, wake.time, wake.level);
+                continue;
+            }
+            if(core < 0) {
+                throw new IllegalStateException("No process can run");
+            }
+
+            SchedulingPolicy policy = cores[core];
+            ModuleRegister process = policy.pick();
+            int level = policy.level();
+            int i = index.get(process);
+            if(process.getRemainingWorkToDo() <= 0) {
+                if(finish[i] < 0) {
+                    finish[i] = clock[core];
+                }
+                policy.onComplete(process);
+                load[core]--;
+                done++;
+                continue;
+            }
+
+            long refill = 0;
+            if(process.lastCore >= 0 && process.lastCore != core) {
+                refill = migrationMs;
+                migrations++;
+                migrationTime += refill;
+            }
+            process.lastCore = core;
+            long slice = Math.min(quantum, process.getBurstRemaining());
+            process.setWorkCompleted(process.getWorkCompleted() + slice);
+            clock[core] += refill + slice;
+            busyTime += slice;
+            if(process.getRemainingWorkToDo() <= 0) {
+                finish[i] = clock[core];
+                makespan = Math.max(makespan, clock[core]);
+            }
+
+            long ioMs = process.finishCpuBurst();
+            if(ioMs > 0) {
+                policy.onBlock(process, slice);
+                load[core]--;
+                wakes.add(new Wake(process, clock[core] + ioMs, level));
+            } else if(process.getRemainingWorkToDo() > 0 && (target = rebalance(core)) >= 0) {
+                // Moved to the back of the other core's queue, at the same level
+                policy.onBlock(process, slice);
+                load[core]--;
+                place(target, process, clock[core], level);
+            } else {
+                policy.requeue(process, slice);
+            }
+        }
+        return makespan;
+    }
+
+    /**
+     * @return the core with work whose clock is lowest, or -1 if every core is idle - O(cores)
+     */
+    private int nextCore() {
+        int best = -1;
+        for(int c = 0; c < cores.length; c++) {
+            if(load[c] > 0 && (best < 0 || clock[c] < clock[best])) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the core with the fewest processes, the lowest numbered on a tie - O(cores)
+     */
+    private int leastLoaded() {
+        int best = 0;
+        for(int c = 1; c < cores.length; c++) {
+            if(load[c] < load[best]) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the core a process preempted on the given core should move to, or -1 if it stays
+     */
+    private int rebalance(int core) {
+        int least = leastLoaded();
+        if(least == core) {
+            return -1;
+        }
+        if(affinity) {
+            return load[core] - load[least] > imbalance ? least : -1;
+        }
+        // Without affinity, any core that would not have more processes than this one once the
+        // process left it will do, as if the cores shared one queue
+        return load[least] <= load[core] - 1 ? least : -1;
+    }
+
+    /**
+     * @return the core a process waking from I/O goes to
+     */
+    private int wakeCore(ModuleRegister m) {
+        int least = leastLoaded();
+        if(!affinity || m.lastCore < 0 || load[m.lastCore] - load[least] > imbalance) {
+            return least;
+        }
+        return m.lastCore;
+    }
+
+    private void place(int core, ModuleRegister m, long time, int level) {
+        if(load[core] == 0) {
+            // An idle core picks up the process as soon as it is placed
+            clock[core] = Math.max(clock[core], time);
+        }
+        if(level < 0) {
+            cores[core].onArrival(m);
+        } else {
+            cores[core].onWake(m, level);
+        }
+        load[core]++;
+    }
+
+    /**
+     * @return the number of times a process ran on a different core to the one it last ran on
+     */
+    public long getMigrations() {
+        return migrations;
+    }
+
+    /**
+     * @return the total time in ms processes spent refilling caches after migrating
+     */
+    public long getMigrationTime() {
+        return migrationTime;
+    }
+
+    /**
+     * @return the fraction of the cores' time, until the last process finished, spent on useful work
+     */
+    public double getUtilisation() {
+        return makespan == 0 ? 0 : (double) busyTime / (makespan * cores.length);
+    }
+
+    /**
+     * @return the processes finished per simulated second
+     */
+    public double getThroughput(int processes) {
+        return makespan == 0 ? 0 : processes * 1000D / makespan;
+    }
+
+    private static final class Wake {
+        private final ModuleRegister process;
+        private final long time;
+        private final int level;
+
+        private Wake(ModuleRegister process, long time, int level) {
+            this.process = process;
+            this.time = time;
+            this.level = level;
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package ci583.receiver;
 
+import ci583.collections.TimingWheel;
+import ci583.gui.QueueTable;
 import imgui.ImGui;
-import imgui.flag.ImGuiTableFlags;
 
 import java.util.*;
 
@@ -33,47 +34,70 @@ public class MultiLevelFeedbackQueueRealReceiver extends ModRegReceiver {
         queues = new LinkedList<>();
     }
 
+    /**
+     * Rule 3: a new job is placed in the topmost queue
+     */
     @Override
     public void enqueue(ModuleRegister m) {
+        policy.onArrival(m);
+        admitted(m);
+    }
 
+    /**
+     * Puts a restored process back in its level, creating the levels above it if needed.
+     */
+    @Override
+    protected void restore(ModuleRegister m, int level) {
+        while(queues.size() <= level) {
+            queues.add(new ArrayDeque<>());
+        }
+        queues.get(level).offer(m);
+        admitted(m);
     }
 
     @Override
     public List<ModuleRegister> startRegistration() {
-        ArrayList<ModuleRegister> result = new ArrayList<>();
-
-        // The last time the loop ran
-        long lastTime = System.currentTimeMillis();
-        long dt = 0; // To count towards S
-
-        // Iterate until we break out
-        while(true) {
-            // Firstly, check if dt > S, if so promote all to top
-            dt += (System.currentTimeMillis() - lastTime);
-            if(dt > S) {
-                dt = 0;
-                ArrayDeque<ModuleRegister> top = queues.getFirst();
-                for(int i = 1; i < queues.size(); i++) {
-                    var q = queues.get(i);
-                    ModuleRegister p;
-                    while((p = q.pollFirst()) != null) {
-                        top.offer(p);
-                    }
-                }
-            }
-            lastTime = System.currentTimeMillis();
+        // Rule 5: the boost after every period S fires from the timing wheel, and is applied
+        // at the next dispatch point
+        TimingWheel.Timeout boost = atDispatchEvery(S, this::boost);
+
+        List<ModuleRegister> result = dispatch(policy);
 
-            // Variable to track if all queues are empty
-            // If all queues are empty, all processes have been processed and the loop can break
-            // If a queue is not empty, this will become false
-            boolean empty = true;
+        boost.cancel();
+        return result;
+    }
+
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        // The queue the process last picked was taken from, the queue below it, and its level
+        private Queue<ModuleRegister> curr;
+        private Queue<ModuleRegister> down;
+        private int level;
+
+        /**
+         * Rule 3: a new job is placed in the topmost queue
+         */
+        @Override
+        public void onArrival(ModuleRegister m) {
+            if(queues.isEmpty()) {
+                queues.add(new ArrayDeque<>());
+            }
+            queues.getFirst().offer(m);
+        }
 
-            // Variable to track process to give CPU time to
-            ModuleRegister register = null;
-            // Variables to track current and descendant queues
-            Queue<ModuleRegister> curr = null;
-            Queue<ModuleRegister> down = null;
+        @Override
+        public boolean isEmpty() {
+            for(ArrayDeque<ModuleRegister> q : queues) {
+                if(!q.isEmpty()) return false;
+            }
+            return true;
+        }
 
+        /**
+         * Rules 1 and 2: the job at the head of the highest queue with jobs runs
+         */
+        @Override
+        public ModuleRegister pick() {
+            level = 0;
             // Iterate over the queues starting from the first (the highest priority)
             Iterator<ArrayDeque<ModuleRegister>> iterator = queues.iterator();
             while(iterator.hasNext()) {
@@ -81,118 +105,135 @@ public class MultiLevelFeedbackQueueRealReceiver extends ModRegReceiver {
 
                 if(!q.isEmpty()) {
                     // If this point is reached, this is the highest queue with a process
-                    empty = false;
-
-                    register = q.peek();
                     curr = q;
                     down = iterator.hasNext() ? iterator.next() : curr; // If this queue is the
                     // lowest priority, process cannot descend further so should round-robin in
                     // this bottom queue
-                    break;
+                    return q.peek();
                 }
+                level++;
             }
+            return null;
+        }
+
+        @Override
+        public int level() {
+            return level;
+        }
 
-            if(empty) {
-                break;
+        /**
+         * Rule 4: a job that used its quantum is demoted, and one that gave up the CPU stays
+         * in the same queue
+         */
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            curr.poll();
+            if(cpuMs == 0) {
+                curr.offer(m);
+            } else {
+                down.offer(m);
+                if(down != curr) {
+                    demoted(m, level, level + 1);
+                }
             }
+        }
 
-            switch (register.getState()) {
-                case TERMINATED:
-                    result.add(register);
-                    curr.poll(); // Polled variable will be the register (as this was
-                    // retrieved using peekFirst)
-                    break;
-
-                case NEW:
-                    register.start();
-                default:
-                    register.startWork();
-                    // Check if this register yields the CPU time
-                    if(register.hasYieldedCPU()) {
-                        register.stopWork();
-                        // Keep register in same queue
-                        curr.poll();
-                        curr.offer(register);
-                    } else {
-                        sleepIgnoreException(QUANTUM);
-                        register.stopWork();
-                        // Demote register
-                        curr.poll();
-                        down.offer(register);
-                    }
-                    break;
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            curr.poll();
+        }
+
+        /**
+         * A job that gave up the CPU for I/O keeps its priority, as with a yield
+         */
+        @Override
+        public void onWake(ModuleRegister m, int level) {
+            queues.get(Math.min(level, queues.size() - 1)).offer(m);
+        }
+
+        @Override
+        public void onComplete(ModuleRegister m) {
+            curr.poll(); // Polled variable will be the register (as this was retrieved using peek)
+        }
+
+        @Override
+        public boolean isInteractive() {
+            return true;
+        }
+    };
+
+    /**
+     * Rule 5: move all jobs to the topmost queue
+     */
+    private void boost() {
+        if(queues.isEmpty()) {
+            return;
+        }
+
+        ArrayDeque<ModuleRegister> top = queues.getFirst();
+        int moved = 0;
+        for(int i = 1; i < queues.size(); i++) {
+            var q = queues.get(i);
+            ModuleRegister p;
+            while((p = q.pollFirst()) != null) {
+                top.offer(p);
+                moved++;
             }
         }
+        boosted(moved);
+    }
 
-        System.out.println(result);
-        return result;
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        return queues;
     }
 
     // Gui code
+    private final QueueTable table = new QueueTable("mlfqr", false, true);
+    // Labels for each level, made once rather than every frame
+    private final ArrayList<String> levelLabels = new ArrayList<>();
+
     @Override
     public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
         ImGui.begin("Multi-level feedback queue");
 
-        int maxElements = 0, totalElements = 0;
-        for (ArrayDeque<ModuleRegister> q : queues) {
-            maxElements = Math.max(q.size(), maxElements);
-            totalElements += q.size();
-        }
-
-        if(ImGui.beginTable("mlfqr", maxElements + 2, ImGuiTableFlags.Borders)) {
-            for (int i = 0; i < queues.size(); i++) {
-                ImGui.tableNextRow();
-                ImGui.tableNextColumn();
-                ImGui.text("Queue[" + i + "]");
-
-                ArrayDeque<ModuleRegister> queue = queues.get(i);
-                Collection<ModuleRegister> copy = new ArrayList<>(queue);
-                for(ModuleRegister register : copy) {
-                    if(register == null) break;
-                    ImGui.tableNextColumn();
-
-                    ImGui.text(register.getName() + " - " +
-                            (register.isExecuting() ? "Executing" : "Runnable"));
-
-                    if(register.getState() != Thread.State.NEW) {
-                        ImGui.text(register.getWorkCompleted() + " / " + register.getWork());
-                        ImGui.text(((int) (register.getInteractiveThreadChance() * 100)) + "% " +
-                                "yield chance");
-                    }
-
-                    // Slider to configure work done amount
-                    if(register.getState() == Thread.State.NEW) {
-                        ImGui.text("Work: ");
-                        ImGui.sameLine();
-                        int[] wrapper = {(int) register.getTotalWorkToDo()};
-                        if(ImGui.sliderInt("##work" + register.getName(), wrapper, 1000, 60000)) {
-                            register.setWorkToDo(wrapper[0]);
-                        }
-
-                        ImGui.text("Yield: ");
-                        ImGui.sameLine();
-                        wrapper = new int[]{ (int) (register.getInteractiveThreadChance() * 100) };
-                        if(ImGui.sliderInt("##interactive" + register.getName(), wrapper, 1, 99)) {
-                            register.setInteractiveThreadChance((double) wrapper[0] / 100D);
-                        }
-                    }
-                }
-
-                ImGui.tableNextColumn();
-                ImGui.pushID("##plus" + i);
-                if(ImGui.button("+", ImGui.getColumnWidth(), 0)) {
-                    queue.push(new ModuleRegister("P" + (totalElements + 1), 5000, 0.5));
+        boolean edited = false;
+        for (int i = 0; i < snapshot.getLevelCount(); i++) {
+            if(levelLabels.size() <= i) {
+                levelLabels.add("Queue[" + i + "]");
+            }
+            ImGui.text(levelLabels.get(i));
+            edited |= table.draw(snapshot, i);
+
+            ImGui.pushID(i);
+            if(ImGui.button("+")) {
+                ModuleRegister register = new ModuleRegister("P" + (snapshot.size() + 1), 5000, 0.5);
+                if(isDispatching()) {
+                    // The dispatcher owns the queues, so the process enters at the top (rule 3)
+                    submit(register);
+                } else {
+                    // Admitted like any other arrival, so it holds a place and is logged
+                    restore(register, i);
+                    edited = true;
                 }
-                ImGui.popID();
             }
+            ImGui.popID();
+        }
 
-            ImGui.tableNextRow();
-            ImGui.tableNextColumn();
-            if(ImGui.button("+ Queue", ImGui.getColumnWidth(), 0)) {
-                queues.addLast(new ArrayDeque<>());
-            }
+        // Levels can only be added while the dispatcher is not running
+        if(!isDispatching() && ImGui.button("+ Queue")) {
+            queues.addLast(new ArrayDeque<>());
+            edited = true;
+        }
 
-            ImGui.endTable();
+        if(edited) {
+            markDirty();
         }
 
         ImGui.end();
@@ -12,9 +12,8 @@ package ci583.receiver;
  * @author Jim Burton
  */
 
+import ci583.gui.QueueTable;
 import imgui.ImGui;
-import imgui.flag.ImGuiCol;
-import imgui.flag.ImGuiTableFlags;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -41,35 +40,47 @@ public class MultiLevelFeedbackQueueReceiver extends ModRegReceiver {
      */
     @Override
     public void enqueue(ModuleRegister m) {
-        young.add(m); // adds last
+        policy.onArrival(m);
+        admitted(m);
     }
 
     /**
-     * Schedule the module registration processes. This method needs to:
-     * + create an empty list which will hold the completed processes. This will be the
-     *   return value of the method.
-     * + while one of the queues is not empty:
-     *   - if the list of YOUNG processes is not empty, take the next process and get its State.
-     *   - if the state is NEW, start the process then sleep for QUANTUM milliseconds
-     *     then put the process at the back of the list of OLD processes.
-     *   - if the state is TERMINATED, add it to the results list.
-     *   - if the state is anything else then interrupt the process to wake it up then
-     *     sleep for QUANTUM milliseconds, then put the process at the back of the queue.
-     *
-     *   - if the list of YOUNG processes is empty, do the same except take the process from the
-     *     list of OLD processes and, after it does its 'work' put it at the end of the list of
-     *     YOUNG processes.
-     *  + when both lists are empty, return the list of completed processes.
-     * @return
+     * Puts a restored process back in the young (0) or old (1) list.
+     */
+    @Override
+    protected void restore(ModuleRegister m, int level) {
+        (level == 0 ? young : old).add(m);
+        admitted(m);
+    }
+
+    /**
+     * Schedule the module registration processes. While the list of YOUNG processes is not empty,
+     * the next young process runs for QUANTUM milliseconds and is then put at the back of the list
+     * of OLD processes. Once it is empty, the old processes run in the same way and are put back
+     * in the list of YOUNG processes. A process leaves the lists once it has TERMINATED.
+     * @return the completed processes
      */
     @Override
     public List<ModuleRegister> startRegistration() {
-        ArrayList<ModuleRegister> results = new ArrayList<>();
+        return dispatch(policy);
+    }
+
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        // The list the process last picked was taken from, and the list it goes back to
+        private ArrayList<ModuleRegister> removingQueue, returningQueue;
+
+        @Override
+        public void onArrival(ModuleRegister m) {
+            young.add(m); // adds last
+        }
 
-        while (!(young.isEmpty() && old.isEmpty())) {
-            ModuleRegister process;
-            ArrayList<ModuleRegister> removingQueue, returningQueue;
+        @Override
+        public boolean isEmpty() {
+            return young.isEmpty() && old.isEmpty();
+        }
 
+        @Override
+        public ModuleRegister pick() {
             if (young.isEmpty()) {
                 // Take from start of old,
                 // which shouldn't be empty if this loop is running
@@ -80,105 +91,65 @@ public class MultiLevelFeedbackQueueReceiver extends ModRegReceiver {
                 removingQueue = young;
                 returningQueue = old;
             }
+            return removingQueue.get(0); // O(1) to get any element due to array backing
+        }
 
-            process = removingQueue.get(0); // O(1) to get any element due to array backing
-            switch (process.getState()) {
-                case NEW -> {
-                    process.start();
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    removingQueue.remove(0); // O(n) to shift all greater elements
-                    returningQueue.add(process); // Amortised O(1) time
-                }
-                case TERMINATED -> {
-                    results.add(process);
-                    removingQueue.remove(0); // O(n) to shift all greater elements
-                }
-                default -> {
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    removingQueue.remove(0); // O(n) to shift all greater elements
-                    returningQueue.add(process); // Amortised O(1) time
-                }
-            }
+        @Override
+        public int level() {
+            return removingQueue == young ? 0 : 1;
+        }
+
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            removingQueue.remove(0); // O(n) to shift all greater elements
+            returningQueue.add(m); // Amortised O(1) time
+        }
+
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            removingQueue.remove(0); // O(n) to shift all greater elements
         }
 
-        return results;
+        @Override
+        public void onWake(ModuleRegister m, int level) {
+            // Goes to the other list, as if it had been requeued
+            (level == 0 ? old : young).add(m);
+        }
+
+        @Override
+        public void onComplete(ModuleRegister m) {
+            removingQueue.remove(0); // O(n) to shift all greater elements
+        }
+    };
+
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        return List.of(young, old);
     }
 
     // Gui code
+    private final QueueTable table = new QueueTable("mlfqqueue", false, false);
+
     @Override
     public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
         ImGui.begin("Multi-level feedback queue (young & old)");
 
-        if (ImGui.beginTable("mlfqqueue", Math.max(young.size(), old.size()) + 2,
-                ImGuiTableFlags.Borders)) {
-            // Young queue
-            ImGui.tableNextRow();
-            ImGui.tableNextColumn();
-            ImGui.text("Young:");
-
-            synchronized (young) {
-                Collection<ModuleRegister> youngCopy = new ArrayList<>(young);
-                for(ModuleRegister register : youngCopy) {
-                    ImGui.tableNextColumn();
-
-                    ImGui.text(register.getName() + " - " +
-                            (register.isExecuting() ? "Executing" : "Runnable"));
-
-                    // Display work done
-                    if(register.getState() != Thread.State.NEW) {
-                        ImGui.text(register.getWorkCompleted() + " / " + register.getWork());
-                    }
-
-                    // Slider to configure work done amount
-                    if(register.getState() == Thread.State.NEW) {
-                        int[] wrapper = {(int) register.getTotalWorkToDo()};
-                        if(ImGui.sliderInt("##work" + register.getName(), wrapper, 1000, 60000)) {
-                            register.setWorkToDo(wrapper[0]);
-                        }
-                    }
-                }
-            }
-
-            ImGui.tableNextColumn();
-            if(ImGui.button("+", ImGui.getColumnWidth(), 0)) {
-                enqueue(new ModuleRegister("P" + (young.size() + 1), 5000));
-            }
-
-            // Old queue
-            ImGui.tableNextRow();
-            ImGui.tableNextColumn();
-            ImGui.text("Old:");
-
-            synchronized (old) {
-                Collection<ModuleRegister> oldCopy = new ArrayList<>(old);
-                for(ModuleRegister register : oldCopy) {
-                    ImGui.tableNextColumn();
-
-                    ImGui.text(register.getName() + " - " +
-                            (register.isExecuting() ? "Executing" : "Runnable"));
-
-                    // Display work done
-                    if(register.getState() != Thread.State.NEW) {
-                        ImGui.text(register.getWorkCompleted() + " / " + register.getWork());
-                    }
-
-                    // Slider to configure work done amount
-                    if(register.getState() == Thread.State.NEW) {
-                        int[] wrapper = {(int) register.getTotalWorkToDo()};
-                        if(ImGui.sliderInt("##work" + register.getName(), wrapper, 1000, 60000)) {
-                            register.setWorkToDo(wrapper[0]);
-                        }
-                    }
-                }
-            }
+        ImGui.text("Young:");
+        boolean edited = table.draw(snapshot, 0);
+        if(ImGui.button("+")) {
+            submit(new ModuleRegister("P" + (snapshot.size() + 1), 5000));
+        }
 
-            ImGui.endTable();
+        ImGui.text("Old:");
+        edited |= table.draw(snapshot, 1);
+        if(edited) {
+            markDirty();
         }
 
         ImGui.end();
@@ -0,0 +1,336 @@
+package ci583.receiver;
+
+import ci583.gui.QueueTable;
+import imgui.ImGui;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A multilevel queue receiver: processes are sorted into fixed levels by their class, and never
+ * move between them, unlike the feedback queues. Each level orders its own processes round robin,
+ * first come first serve, by priority or by shortest job, so e.g. interactive registrations can
+ * share the CPU in a foreground level while bulk imports run one at a time in a background level.
+ * </p>
+ * <p>
+ * The CPU is split between the levels in one of two ways. With a {@link Split#FIXED} split, a
+ * level only runs when every level above it is empty. With a {@link Split#WEIGHTED} split, the
+ * levels take turns, each running for as many quanta as its weight before the next non-empty
+ * level runs, so a busy foreground cannot starve the background.
+ * </p>
+ * <p>
+ * A process is put in the level assigned to its fair-share group (see {@link #assign}), otherwise
+ * in the first level if it is I/O-bound, and the default level if not. The receiver keeps a bit
+ * mask of the non-empty levels, so classifying a process and choosing the level to run are both
+ * O(1), using a hash lookup and a count of trailing zeros. There can be up to 64 levels.
+ * </p>
+ * <p>
+ * By default there are two levels: a round robin foreground with weight 4 and a first come first
+ * serve background with weight 1, split by weight, with unassigned processes in the background.
+ * </p>
+ */
+public class MultiLevelQueueReceiver extends ModRegReceiver {
+
+    /** How a level orders its processes */
+    public enum Ordering {
+        /** Each process runs for a quantum, then goes to the back of the level */
+        ROUND_ROBIN,
+        /** The process at the front of the level runs until it finishes or blocks */
+        FIRST_COME_FIRST_SERVE,
+        /** As {@link PriorityReceiver}, without aging */
+        PRIORITY,
+        /** The process with the least work left runs, as {@link ShortestJobFirstReceiver} */
+        SHORTEST_JOB_FIRST
+    }
+
+    /** How the CPU is split between the levels */
+    public enum Split {
+        /** A level only runs when every level above it is empty */
+        FIXED,
+        /** The non-empty levels take turns, each running for as many quanta as its weight */
+        WEIGHTED
+    }
+
+    public static final int MAX_LEVELS = Long.SIZE;
+
+    private final List<Level> levels = new ArrayList<>();
+    private final List<Queue<ModuleRegister>> queues = new ArrayList<>();
+    private final Map<String, Integer> groupLevels = new HashMap<>();
+    private int defaultLevel;
+    private Split split = Split.WEIGHTED;
+
+    // Bit i is set if level i has processes
+    private long nonEmpty;
+    // The level last picked from, and the quanta it has left of its turn under a weighted split.
+    // Starting at the last possible level, the first turn wraps around to the top
+    private int current = MAX_LEVELS - 1;
+    private int credit;
+
+    public MultiLevelQueueReceiver(long quantum) {
+        super(quantum);
+        addLevel("Foreground", Ordering.ROUND_ROBIN, 4);
+        addLevel("Background", Ordering.FIRST_COME_FIRST_SERVE, 1);
+        defaultLevel = 1;
+    }
+
+    /**
+     * Creates a receiver with no levels, which must be added before it is given any processes.
+     */
+    public MultiLevelQueueReceiver(long quantum, Split split) {
+        super(quantum);
+        this.split = split;
+    }
+
+    /**
+     * Adds a level below the existing ones. Only call before the receiver is given any processes.
+     * @param weight the quanta the level runs for each turn under a weighted split
+     * @return the index of the level
+     * @throws IllegalArgumentException if the weight is not positive
+     * @throws IllegalStateException if there are already {@link #MAX_LEVELS} levels
+     */
+    public final int addLevel(String name, Ordering ordering, int weight) {
+        if(weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        if(levels.size() == MAX_LEVELS) {
+            throw new IllegalStateException("There can be at most " + MAX_LEVELS + " levels");
+        }
+        Level level = new Level(name, ordering, weight);
+        levels.add(level);
+        queues.add(level.queue);
+        return levels.size() - 1;
+    }
+
+    /**
+     * Puts the processes of a fair-share group in the given level. Only call before the receiver
+     * is started.
+     */
+    public void assign(String group, int level) {
+        checkLevel(level);
+        groupLevels.put(group, level);
+    }
+
+    /**
+     * Sets the level of processes in no assigned group that are not I/O-bound.
+     */
+    public void setDefaultLevel(int level) {
+        checkLevel(level);
+        defaultLevel = level;
+    }
+
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    public Split getSplit() {
+        return split;
+    }
+
+    /**
+     * Only call before the receiver is started.
+     */
+    public void setSplit(Split split) {
+        this.split = split;
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    public String getLevelName(int level) {
+        return levels.get(level).name;
+    }
+
+    public Ordering getOrdering(int level) {
+        return levels.get(level).ordering;
+    }
+
+    public int getWeight(int level) {
+        return levels.get(level).weight;
+    }
+
+    private void checkLevel(int level) {
+        if(level < 0 || level >= levels.size()) {
+            throw new IllegalArgumentException("No level " + level + ", there are " + levels.size());
+        }
+    }
+
+    /**
+     * @return the level a process belongs in - O(1)
+     */
+    int classify(ModuleRegister m) {
+        String group = m.getGroup();
+        Integer level = group == null ? null : groupLevels.get(group);
+        if(level != null) {
+            return level;
+        }
+        return m.isIoBound() ? 0 : defaultLevel;
+    }
+
+    @Override
+    public void enqueue(ModuleRegister m) {
+        policy.onArrival(m);
+        admitted(m);
+    }
+
+    @Override
+    public List<ModuleRegister> startRegistration() {
+        return dispatch(policy);
+    }
+
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        @Override
+        public void onArrival(ModuleRegister m) {
+            int i = classify(m);
+            levels.get(i).add(m);
+            nonEmpty |= 1L << i;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return nonEmpty == 0;
+        }
+
+        @Override
+        public ModuleRegister pick() {
+            while(nonEmpty != 0) {
+                if(split == Split.FIXED) {
+                    current = Long.numberOfTrailingZeros(nonEmpty);
+                } else if(credit == 0 || (nonEmpty & 1L << current) == 0) {
+                    // The next non-empty level after the current one, wrapping around - O(1)
+                    long after = current == MAX_LEVELS - 1 ? 0 : nonEmpty & (-1L << (current + 1));
+                    current = Long.numberOfTrailingZeros(after != 0 ? after : nonEmpty);
+                    credit = levels.get(current).weight;
+                }
+                ModuleRegister m = levels.get(current).queue.peek();
+                if(m != null) {
+                    return m;
+                }
+                // Emptied by shedding, rejection or parking, which take processes straight out of
+                // the queues, so the level's bit is stale
+                nonEmpty &= ~(1L << current);
+                credit = 0;
+            }
+            return null;
+        }
+
+        @Override
+        public int level() {
+            return current;
+        }
+
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            levels.get(current).requeue(m);
+            used(cpuMs);
+        }
+
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            remove();
+            used(cpuMs);
+        }
+
+        @Override
+        public void onComplete(ModuleRegister m) {
+            remove();
+        }
+
+        private void remove() {
+            Level level = levels.get(current);
+            level.queue.poll();
+            if(level.queue.isEmpty()) {
+                nonEmpty &= ~(1L << current);
+            }
+        }
+
+        private void used(long cpuMs) {
+            if(cpuMs > 0 && credit > 0) {
+                credit--;
+            }
+        }
+    };
+
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        return queues;
+    }
+
+    /**
+     * A level and the processes in it, with the process to run next at the head of its queue.
+     */
+    private static final class Level {
+        private final String name;
+        private final Ordering ordering;
+        private final int weight;
+        private final Queue<ModuleRegister> queue;
+        private final String label;
+
+        private Level(String name, Ordering ordering, int weight) {
+            this.name = name;
+            this.ordering = ordering;
+            this.weight = weight;
+            label = name + " (" + ordering + ", weight " + weight + "):";
+            queue = switch (ordering) {
+                case ROUND_ROBIN, FIRST_COME_FIRST_SERVE -> new ArrayDeque<>();
+                // Behind any other processes with the same priority, as in PriorityReceiver
+                case PRIORITY -> new PriorityQueue<>((p1, p2) ->
+                        p1.getPriority() == p2.getPriority() ? -1 : p1.getPriority() - p2.getPriority());
+                case SHORTEST_JOB_FIRST -> new PriorityQueue<>((c1, c2) ->
+                        Long.compare(c1.expectedRemaining, c2.expectedRemaining));
+            };
+        }
+
+        void add(ModuleRegister m) {
+            if(ordering == Ordering.SHORTEST_JOB_FIRST) {
+                // The key is fixed while the process is queued, as the heap cannot re-sort
+                m.expectedRemaining = m.getRemainingWorkToDo();
+            }
+            queue.offer(m); // O(1), or O(log n) for the heaps
+        }
+
+        /**
+         * Puts the process at the head back after it has had the CPU
+         */
+        void requeue(ModuleRegister m) {
+            if(ordering != Ordering.FIRST_COME_FIRST_SERVE) {
+                queue.poll();
+                add(m);
+            }
+        }
+    }
+
+    // Gui code
+    private final QueueTable table = new QueueTable("mlq", true, false);
+
+    @Override
+    public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
+        ImGui.begin("Multilevel Queue");
+
+        boolean edited = false;
+        for(int i = 0; i < snapshot.getLevelCount() && i < levels.size(); i++) {
+            ImGui.text(levels.get(i).label);
+            edited |= table.draw(snapshot, i);
+        }
+
+        if(ImGui.button("+")) {
+            submit(new ModuleRegister("P" + (snapshot.size() + 1), 5000));
+        }
+
+        if(edited) {
+            markDirty();
+        }
+
+        ImGui.end();
+    }
+
+    @Override
+    public void imGuiReset() {
+    }
+}
@@ -0,0 +1,95 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * <p>
+ * Runs processes through a receiver's {@link SchedulingPolicy} in simulated time, without
+ * starting their threads or waiting out any quanta. Each decision gives the process picked the
+ * CPU for a quantum, or until its work is done, and moves the simulated clock on by that much.
+ * </p>
+ * <p>
+ * As no time is spent waiting, a run measures what the policy itself costs per decision, and as
+ * the clock only depends on the decisions made, the turnaround of each process is the same on
+ * every run of the same processes. Timer-driven behaviour, such as aging and boosts, and
+ * yielding are left out.
+ * </p>
+ */
+public final class PolicySimulator {
+
+    private final SchedulingPolicy policy;
+    private final long quantum;
+
+    /**
+     * @param receiver a new receiver, which has not been given any processes. Its queues are used
+     *                 by the simulation, so it cannot be started afterwards
+     * @param quantum the simulated length of each quantum in ms
+     * @throws IllegalArgumentException if the receiver does not dispatch with a policy
+     */
+    public PolicySimulator(ModRegReceiver receiver, long quantum) {
+        policy = receiver.policy();
+        if(policy == null) {
+            throw new IllegalArgumentException(receiver.getClass().getSimpleName() + " has no scheduling policy");
+        }
+        this.quantum = quantum;
+    }
+
+    /**
+     * Runs the processes until they have all finished.
+     * @param processes new processes, which are never started
+     * @param arrivals the simulated time in ms each process arrives
+     * @param finish filled in with the simulated time each process finished its work
+     * @return the number of decisions made
+     */
+    public long run(List<ModuleRegister> processes, long[] arrivals, long[] finish) {
+        int n = processes.size();
+        // Arrival order, ties in the order given
+        Integer[] boxed = new Integer[n];
+        for(int i = 0; i < n; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> Long.compare(arrivals[a], arrivals[b]));
+        IdentityHashMap<ModuleRegister, Integer> index = new IdentityHashMap<>(n * 2);
+        for(int i = 0; i < n; i++) {
+            index.put(processes.get(i), i);
+        }
+        Arrays.fill(finish, -1);
+
+        long clock = 0;
+        long decisions = 0;
+        int next = 0;
+        int done = 0;
+        while(done < n) {
+            while(next < n && arrivals[boxed[next]] <= clock) {
+                policy.onArrival(processes.get(boxed[next++]));
+            }
+            if(policy.isEmpty()) {
+                // Idle until the next arrival
+                clock = arrivals[boxed[next]];
+                continue;
+            }
+
+            ModuleRegister process = policy.pick();
+            decisions++;
+            int i = index.get(process);
+            if(process.getRemainingWorkToDo() <= 0) {
+                if(finish[i] < 0) {
+                    finish[i] = clock;
+                }
+                policy.onComplete(process);
+                done++;
+                continue;
+            }
+            long slice = Math.min(quantum, process.getRemainingWorkToDo());
+            process.setWorkCompleted(process.getWorkCompleted() + slice);
+            clock += slice;
+            if(process.getRemainingWorkToDo() <= 0) {
+                finish[i] = clock;
+            }
+            policy.requeue(process, slice);
+        }
+        return decisions;
+    }
+}
@@ -8,15 +8,17 @@ package ci583.receiver;
  *
  * @author Jim Burton
  */
+import ci583.collections.TimingWheel;
+import ci583.gui.QueueTable;
 import imgui.ImGui;
-import imgui.flag.ImGuiCol;
-import imgui.flag.ImGuiTableFlags;
 
 import java.util.*;
 
 public class PriorityReceiver extends ModRegReceiver {
 
     private final PriorityQueue<ModuleRegister> queue;
+    // Time in ms a process must wait without CPU time before its priority is raised, 0 to disable
+    private long agingInterval;
 
     /**
      * Constructs a new Priority Scheduler. The constructor needs to call the constructor of the
@@ -35,119 +37,128 @@ public class PriorityReceiver extends ModRegReceiver {
         this.queue = new PriorityQueue<>(comparator);
     }
 
+    public long getAgingInterval() {
+        return agingInterval;
+    }
+
+    /**
+     * Enables aging, so that low priority processes cannot be starved by a stream of high
+     * priority processes.
+     * @param agingInterval time in ms a process must wait without CPU time before its priority
+     *                      is raised by one, or 0 to disable aging
+     */
+    public void setAgingInterval(long agingInterval) {
+        this.agingInterval = agingInterval;
+    }
+
     @Override
     public void enqueue(ModuleRegister m) {
-        queue.offer(m);
+        policy.onArrival(m);
+        admitted(m);
     }
 
     /**
-     * Schedule the processes. This method needs to:
-     * + create an empty list which will hold the completed processes. This will be the
-     *   return value of the method.
-     * + while the queue is not empty:
-     *   - use the priority queue's `poll` method to take the next process from the queue and get its State.
-     *   - if the state is NEW, start the process then sleep for QUANTUM milliseconds
-     *     then put the process at the back of the queue.
-     *   - if the state is TERMINATED, add it to the results list.
-     *   - if the state is anything else then interrupt the process to wake it up then
-     *     sleep for QUANTUM milliseconds, then put the process at the back of the queue.
-     *  + when the queue is empty, return the list of completed processes.
-     * @return
+     * Schedule the processes. Each process is taken from the head of the priority queue, allowed
+     * to run for QUANTUM milliseconds and put back into the queue behind any other processes with
+     * the same priority, until it has TERMINATED.
+     * @return the completed processes
      */
     @Override
     public List<ModuleRegister> startRegistration() {
-        ArrayList<ModuleRegister> orderedResults = new ArrayList<>();
+        // Aging ticks fire from the timing wheel, and are applied at the next dispatch point
+        TimingWheel.Timeout aging = agingInterval > 0 ? atDispatchEvery(agingInterval, this::age) : null;
+
+        List<ModuleRegister> orderedResults = dispatch(policy);
 
-        while(!queue.isEmpty()) {
+        if(aging != null) {
+            aging.cancel();
+        }
+        return orderedResults;
+    }
+
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        @Override
+        public void onArrival(ModuleRegister m) {
+            queue.offer(m);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        @Override
+        public ModuleRegister pick() {
             // PriorityQueue#peek is used here instead of poll (remove), as otherwise the GUI
             // cannot see the first element on the scheduler
-            ModuleRegister process = queue.peek(); // O(1) time complexity
-            switch(process.getState()) {
-                case NEW -> {
-                    process.start();
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    queue.poll(); // Remove the first element - O(log n) due to sift down operation
-                    queue.offer(process); // Adds back to queue - O(log n) due to sift up operation
-                }
-                case TERMINATED -> {
-                    orderedResults.add(process);
-                    queue.poll(); // Remove the first element - O(log n) due to sift down operation
-                }
-                default -> {
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    queue.poll(); // Remove the first element - O(log n) due to sift down operation
-                    queue.offer(process); // Adds back to queue - O(log n) due to sift up operation
-                }
+            return queue.peek(); // O(1) time complexity
+        }
+
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            queue.poll(); // Remove the first element - O(log n) due to sift down operation
+            queue.offer(m); // Adds back to queue - O(log n) due to sift up operation
+        }
+
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            queue.poll(); // Remove the first element - O(log n) due to sift down operation
+        }
+
+        @Override
+        public void onComplete(ModuleRegister m) {
+            queue.poll(); // Remove the first element - O(log n) due to sift down operation
+        }
+    };
+
+    /**
+     * Raises the priority of every process that has waited at least {@link #agingInterval} ms
+     * without CPU time, since it was enqueued or last gave up the CPU. The priorities change in place, so the heap is rebuilt - O(n log n)
+     */
+    private void age() {
+        long now = now();
+        boolean changed = false;
+        for(ModuleRegister register : queue) {
+            if(register.getPriority() > Thread.MIN_PRIORITY &&
+                    now - register.getReadyTime() >= agingInterval) {
+                aged(register, register.getPriority(), register.getPriority() - 1);
+                register.setPriority(register.getPriority() - 1);
+                changed = true;
             }
         }
 
-        return orderedResults;
+        if(changed) {
+            List<ModuleRegister> copy = new ArrayList<>(queue);
+            queue.clear();
+            queue.addAll(copy);
+        }
+    }
+
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        return List.of(queue);
     }
 
     // Gui code
+    private final QueueTable table = new QueueTable("priorityqueue", true, false);
+
     @Override
     public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
         ImGui.begin("Priority");
 
-        if (ImGui.beginTable("priorityqueue", queue.size() + 2, ImGuiTableFlags.Borders)) {
-            ImGui.tableNextRow();
-            ImGui.tableNextColumn();
-            ImGui.text("Queue:");
-
-            synchronized (queue) {
-                Collection<ModuleRegister> copy = new ArrayList<>(queue);
-                for(ModuleRegister register : copy) {
-                    ImGui.tableNextColumn();
-
-                    ImGui.text(register.getName() + " Pri(" + register.getPriority() + ") " +
-                            (register.isExecuting() ? "Executing" : "Runnable"));
-
-                    // Display work done
-                    if(register.getState() != Thread.State.NEW) {
-                        ImGui.text(register.getWorkCompleted() + " / " + register.getWork());
-                    }
-
-                    // Slider to configure work done amount
-                    // Menu to configure priority
-                    if(register.getState() == Thread.State.NEW) {
-                        ImGui.separator();
-                        ImGui.text("Work:");
-                        ImGui.sameLine();
-                        int[] wrapper = {(int) register.getTotalWorkToDo()};
-                        if(ImGui.sliderInt("##work" + register.getName(), wrapper, 1000, 60000)) {
-                            register.setWorkToDo(wrapper[0]);
-                        }
-
-                        ModuleRegister.Priority[] priorityWrapper =
-                                { ModuleRegister.Priority.fromValue(register.getPriority()) };
-                        ImGui.pushID("priority" + register.getName());
-                        if(ImGui.beginMenu("Priority")) {
-                            for(ModuleRegister.Priority priority :
-                                    ModuleRegister.Priority.values()) {
-                                if(ImGui.menuItem(priority.name(), "", false,
-                                        priority != priorityWrapper[0])) {
-                                    register.setPriority(priority.getVal());
-                                }
-                            }
-                            ImGui.endMenu();
-                        }
-                        ImGui.popID();
-                    }
-                }
-            }
-
-            ImGui.tableNextColumn();
-            if(ImGui.button("+", ImGui.getColumnWidth(), 0)) {
-                enqueue(new ModuleRegister("P" + (queue.size() + 1), 5000));
-            }
+        ImGui.text("Queue:");
+        if(table.draw(snapshot, 0)) {
+            markDirty();
+        }
 
-            ImGui.endTable();
+        if(ImGui.button("+")) {
+            submit(new ModuleRegister("P" + (snapshot.size() + 1), 5000));
         }
 
         ImGui.end();
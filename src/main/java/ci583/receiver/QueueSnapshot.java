@@ -0,0 +1,251 @@
+package ci583.receiver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An immutable, versioned copy of a receiver's queues, published by the dispatcher thread
+ * and read by the render thread without locking.
+ * </p>
+ * <p>
+ * The rows of every level are stored back to back in flat arrays, with {@link #levelStart(int)}
+ * giving the first row of each level, so that a snapshot of 100k processes is a handful of
+ * arrays rather than 100k objects.
+ * </p>
+ */
+public final class QueueSnapshot {
+
+    public static final QueueSnapshot EMPTY = new QueueSnapshot(0, new int[]{0}, 0, Map.of());
+
+    private final long version;
+    private final int[] levelStart;
+    private final ModuleRegister[] registers;
+    private final long[] workCompleted;
+    private final long[] work;
+    private final int[] priority;
+    private final boolean[] executing;
+    private final boolean[] started;
+    // What a checkpoint needs, copied here as the checkpoint thread must not read the registers
+    private final double[] interactiveThreadChance;
+    private final long[] deadlineTime;
+    // The seats on each module taken by registrations the receiver has completed
+    private final Map<String, Integer> seats;
+    private final boolean[] missedDeadline;
+    private final long[] walId;
+    private final String[] group;
+    private final String[] module;
+    private final String[] student;
+    // The bursts of each process, shared with the register as they never change, and the burst it
+    // has reached
+    private final long[][] cpuBurstEnds;
+    private final long[][] ioBursts;
+    private final int[] burst;
+
+    private QueueSnapshot(long version, int[] levelStart, int rows, Map<String, Integer> seats) {
+        this.version = version;
+        this.levelStart = levelStart;
+        this.seats = seats;
+        this.registers = new ModuleRegister[rows];
+        this.workCompleted = new long[rows];
+        this.work = new long[rows];
+        this.priority = new int[rows];
+        this.executing = new boolean[rows];
+        this.started = new boolean[rows];
+        this.interactiveThreadChance = new double[rows];
+        this.deadlineTime = new long[rows];
+        this.missedDeadline = new boolean[rows];
+        this.walId = new long[rows];
+        this.group = new String[rows];
+        this.module = new String[rows];
+        this.student = new String[rows];
+        this.cpuBurstEnds = new long[rows][];
+        this.ioBursts = new long[rows][];
+        this.burst = new int[rows];
+    }
+
+    /**
+     * @see #of(long, List)
+     */
+    @SafeVarargs
+    public static QueueSnapshot of(long version, Collection<ModuleRegister>... levels) {
+        // Copied element by element, as handing the generic array itself on could pollute the heap
+        List<Collection<ModuleRegister>> list = new ArrayList<>(levels.length);
+        for(Collection<ModuleRegister> level : levels) {
+            list.add(level);
+        }
+        return of(version, list);
+    }
+
+    /**
+     * Copies the given levels into a new snapshot - O(n)
+     * @param version the version of the snapshot, which increases with every publication
+     * @param levels the queues of the receiver, from the first (highest) level down
+     * @return the snapshot
+     */
+    public static QueueSnapshot of(long version, List<? extends Collection<ModuleRegister>> levels) {
+        return of(version, levels, Map.of());
+    }
+
+    /**
+     * Copies the given levels into a new snapshot, with the seats the receiver has taken - O(n)
+     * @param seats the seats taken on each module by the registrations the receiver has completed,
+     * which must not change once passed in
+     * @see #of(long, List)
+     */
+    static QueueSnapshot of(long version, List<? extends Collection<ModuleRegister>> levels,
+                            Map<String, Integer> seats) {
+        int count = levels.size();
+        int[] levelStart = new int[count + 1];
+        int i = 0;
+        for(Collection<ModuleRegister> level : levels) {
+            levelStart[i + 1] = levelStart[i] + level.size();
+            i++;
+        }
+
+        QueueSnapshot snapshot = new QueueSnapshot(version, levelStart, levelStart[count], seats);
+        int row = 0;
+        i = 0;
+        for(Collection<ModuleRegister> level : levels) {
+            for(ModuleRegister register : level) {
+                // Never copy past the level's size at the start, in case it has grown since
+                if(row >= levelStart[i + 1]) break;
+                snapshot.registers[row] = register;
+                snapshot.workCompleted[row] = register.getWorkCompleted();
+                snapshot.work[row] = register.getWork();
+                snapshot.priority[row] = register.getPriority();
+                snapshot.executing[row] = register.isExecuting();
+                snapshot.started[row] = register.getState() != Thread.State.NEW;
+                snapshot.interactiveThreadChance[row] = register.getInteractiveThreadChance();
+                snapshot.deadlineTime[row] = register.getDeadline() > 0
+                        ? register.getAdmittedTime() + register.getDeadline() : 0;
+                snapshot.missedDeadline[row] = register.hasMissedDeadline();
+                snapshot.walId[row] = register.walId;
+                snapshot.group[row] = register.getGroup();
+                snapshot.module[row] = register.getModule();
+                snapshot.student[row] = register.getStudent();
+                snapshot.cpuBurstEnds[row] = register.getCpuBurstEnds();
+                snapshot.ioBursts[row] = register.getIoBursts();
+                snapshot.burst[row] = register.getBurstIndex();
+                row++;
+            }
+            row = levelStart[++i];
+        }
+        return snapshot;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getLevelCount() {
+        return levelStart.length - 1;
+    }
+
+    /**
+     * @return the index of the first row of the given level
+     */
+    public int levelStart(int level) {
+        return levelStart[level];
+    }
+
+    /**
+     * @return the number of rows in the given level
+     */
+    public int levelSize(int level) {
+        return levelStart[level + 1] - levelStart[level];
+    }
+
+    /**
+     * @return the total number of rows across all levels
+     */
+    public int size() {
+        return registers.length;
+    }
+
+    /**
+     * @return the process in the given row. Only its immutable details (e.g. name) should be
+     * read from the render thread, use the other getters for its state at the time of the snapshot
+     */
+    public ModuleRegister getRegister(int row) {
+        return registers[row];
+    }
+
+    public long getWorkCompleted(int row) {
+        return workCompleted[row];
+    }
+
+    public long getWork(int row) {
+        return work[row];
+    }
+
+    public int getPriority(int row) {
+        return priority[row];
+    }
+
+    public boolean isExecuting(int row) {
+        return executing[row];
+    }
+
+    public boolean isStarted(int row) {
+        return started[row];
+    }
+
+    public double getInteractiveThreadChance(int row) {
+        return interactiveThreadChance[row];
+    }
+
+    /**
+     * @return the time in ms by which the process should complete, or 0 if it has no deadline
+     */
+    public long getDeadlineTime(int row) {
+        return deadlineTime[row];
+    }
+
+    public boolean hasMissedDeadline(int row) {
+        return missedDeadline[row];
+    }
+
+    /**
+     * @return the lengths of the process's CPU and I/O bursts, or null if it has a single CPU
+     * burst - O(bursts)
+     */
+    public long[] getBursts(int row) {
+        return ModuleRegister.bursts(cpuBurstEnds[row], ioBursts[row]);
+    }
+
+    /**
+     * @return the index of the CPU burst the process had reached
+     */
+    public int getBurst(int row) {
+        return burst[row];
+    }
+
+    /**
+     * @return the seats taken on each module by the registrations the receiver had completed
+     */
+    Map<String, Integer> getSeats() {
+        return seats;
+    }
+
+    /**
+     * @return the id of the process in the {@link WriteAheadLog}, or -1 if it was not logged
+     */
+    long getWalId(int row) {
+        return walId[row];
+    }
+
+    public String getGroup(int row) {
+        return group[row];
+    }
+
+    public String getModule(int row) {
+        return module[row];
+    }
+
+    public String getStudent(int row) {
+        return student[row];
+    }
+}
@@ -0,0 +1,92 @@
+package ci583.receiver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ * Limits how fast each submitter can submit processes, with a token bucket per submitter. A
+ * bucket holds up to {@code burst} tokens and is refilled at {@code ratePerSecond}, and each
+ * submission takes a token, so a submitter can make a burst of submissions and then has to slow
+ * down to the rate.
+ * </p>
+ * <p>
+ * Thread-safe. Buckets which have filled up again are dropped once there are many of them, as
+ * dropping a full bucket makes no difference to its submitter.
+ * </p>
+ */
+public class RateLimiter {
+
+    // Buckets are only pruned once there are more than this many
+    private static final int PRUNE_THRESHOLD = 10_000;
+
+    private final double ratePerNano;
+    private final double burst;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger acquires = new AtomicInteger();
+
+    /**
+     * @param ratePerSecond the submissions per second allowed for each submitter
+     * @param burst the most submissions a submitter can make at once
+     */
+    public RateLimiter(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    /**
+     * @param clock the current time in ns, e.g. {@link System#nanoTime()}
+     */
+    public RateLimiter(double ratePerSecond, int burst, LongSupplier clock) {
+        if(ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst at least 1");
+        }
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes a token from the submitter's bucket - O(1)
+     * @return true if the submitter is within its rate, false if it should be turned away
+     */
+    public boolean tryAcquire(String submitter) {
+        long now = clock.getAsLong();
+        if((acquires.incrementAndGet() & 1023) == 0 && buckets.size() > PRUNE_THRESHOLD) {
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+        return buckets.computeIfAbsent(submitter, s -> new Bucket(burst, now)).tryAcquire(now);
+    }
+
+    private final class Bucket {
+        private double tokens;
+        private long last;
+
+        private Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.last = now;
+        }
+
+        private synchronized boolean tryAcquire(long now) {
+            refill(now);
+            if(tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(long now) {
+            if(now > last) {
+                tokens = Math.min(burst, tokens + (now - last) * ratePerNano);
+                last = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ci583.receiver;
+
+import ci583.metrics.Counter;
+import ci583.metrics.Histogram;
+import ci583.metrics.MetricsRegistry;
+
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The metrics of one receiver, looked up once when the receiver first dispatches so that the
+ * dispatch loop only increments counters and records into histograms.
+ */
+class ReceiverMetrics {
+
+    // Distinguishes receivers of the same class, so their series do not clash
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    static final String RUN_QUEUE_DEPTH = "ci583_run_queue_depth";
+    static final String THROTTLED_SECONDS = "ci583_throttled_seconds";
+    static final String THROTTLED = "ci583_throttled_total";
+    static final String DISPATCHES = "ci583_dispatches_total";
+    static final String COMPLETIONS = "ci583_completions_total";
+    static final String REJECTED = "ci583_rejected_total";
+    static final String SHED = "ci583_shed_total";
+    static final String RATE_LIMITED = "ci583_rate_limited_total";
+    static final String BATCHED = "ci583_batched_dispatches_total";
+    static final String CONTEXT_SWITCHES = "ci583_context_switches_total";
+    static final String SWITCH_OVERHEAD = "ci583_switch_overhead_ms_total";
+    static final String QUEUE_WAIT = "ci583_queue_wait_seconds";
+    static final String TURNAROUND = "ci583_turnaround_seconds";
+    static final String IO_RESPONSE = "ci583_io_response_seconds";
+    // The families with a series for each receiver, removed once the receiver is discarded
+    private static final String[] SERIES = {DISPATCHES, COMPLETIONS, REJECTED, SHED, RATE_LIMITED, BATCHED,
+            CONTEXT_SWITCHES, SWITCH_OVERHEAD, QUEUE_WAIT, TURNAROUND, IO_RESPONSE};
+
+    final MetricsRegistry registry;
+    private final String receiver;
+    private final String instance;
+    final Counter dispatches;
+    final Counter completions;
+    final Counter rejected;
+    final Counter shed;
+    final Counter rateLimited;
+    final Counter batched;
+    final Counter contextSwitches;
+    final Counter switchOverhead;
+    final Histogram queueWait;
+    final Histogram turnaround;
+    final Histogram ioResponse;
+    // The groups with a throttled series
+    private final Set<String> throttledGroups = ConcurrentHashMap.newKeySet();
+
+    ReceiverMetrics(MetricsRegistry registry, String receiver, ModRegReceiver owner) {
+        this.registry = registry;
+        this.receiver = receiver;
+        String instance = this.instance = Integer.toString(INSTANCES.incrementAndGet());
+        dispatches = registry.counter(DISPATCHES,
+                "Slices of CPU time handed out", "receiver", receiver, "instance", instance);
+        completions = registry.counter(COMPLETIONS,
+                "Processes that finished their work", "receiver", receiver, "instance", instance);
+        rejected = registry.counter(REJECTED,
+                "Processes turned away because the receiver was full", "receiver", receiver, "instance", instance);
+        shed = registry.counter(SHED,
+                "Waiting processes dropped to make room for new ones", "receiver", receiver, "instance", instance);
+        rateLimited = registry.counter(RATE_LIMITED,
+                "Processes turned away because their submitter was over its rate", "receiver", receiver, "instance", instance);
+        batched = registry.counter(BATCHED,
+                "Processes run in what was left of another process's quantum", "receiver", receiver, "instance", instance);
+        contextSwitches = registry.counter(CONTEXT_SWITCHES,
+                "Dispatches of a different process to the last one", "receiver", receiver, "instance", instance);
+        switchOverhead = registry.counter(SWITCH_OVERHEAD,
+                "Time lost to context switches and cache refills", "receiver", receiver, "instance", instance);
+        queueWait = registry.histogram(QUEUE_WAIT,
+                "Time a process waited in the queue before being dispatched", "receiver", receiver, "instance", instance);
+        turnaround = registry.histogram(TURNAROUND,
+                "Time from a process being enqueued until it finished", "receiver", receiver, "instance", instance);
+        ioResponse = registry.histogram(IO_RESPONSE,
+                "Time from a process finishing its I/O until it next had the CPU", "receiver", receiver, "instance", instance);
+
+        // The depth is read from the published snapshot, so a scrape never touches the queues.
+        // The receiver is only weakly held, so the registry does not keep discarded receivers alive
+        WeakReference<ModRegReceiver> ref = new WeakReference<>(owner);
+        registry.gauge(RUN_QUEUE_DEPTH, "Processes waiting in each queue level", new MetricsRegistry.GaugeSource() {
+            @Override
+            public void collect(MetricsRegistry.GaugeSink sink) {
+                ModRegReceiver r = ref.get();
+                if(r == null) {
+                    registry.removeGauge(RUN_QUEUE_DEPTH, this);
+                    // So the series of discarded receivers do not pile up across runs
+                    removeSeries();
+                    return;
+                }
+                QueueSnapshot snapshot = r.getSnapshot();
+                for(int level = 0; level < snapshot.getLevelCount(); level++) {
+                    sink.sample(snapshot.levelSize(level), "receiver", receiver,
+                            "instance", instance, "level", Integer.toString(level));
+                }
+            }
+        });
+        registry.gauge(THROTTLED_SECONDS, "Total time each capped group has spent throttled", new MetricsRegistry.GaugeSource() {
+            @Override
+            public void collect(MetricsRegistry.GaugeSink sink) {
+                ModRegReceiver r = ref.get();
+                if(r == null) {
+                    registry.removeGauge(THROTTLED_SECONDS, this);
+                    return;
+                }
+                for(GroupBandwidth bandwidth : r.getQuotas()) {
+                    sink.sample(bandwidth.getThrottledTime() / 1000D, "receiver", receiver,
+                            "instance", instance, "group", bandwidth.getGroup());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the counter of the times a group used its quota - only called when a group is
+     * throttled, so it is looked up rather than kept
+     */
+    Counter throttled(String group) {
+        throttledGroups.add(group);
+        return registry.counter(THROTTLED, "Times a capped group used its quota and was throttled",
+                "receiver", receiver, "instance", instance, "group", group);
+    }
+
+    /**
+     * Removes the counter and histogram series of the receiver from the registry.
+     */
+    void removeSeries() {
+        for(String name : SERIES) {
+            registry.remove(name, "receiver", receiver, "instance", instance);
+        }
+        for(String group : throttledGroups) {
+            registry.remove(THROTTLED, "receiver", receiver, "instance", instance, "group", group);
+        }
+    }
+}
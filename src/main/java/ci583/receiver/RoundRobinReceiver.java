@@ -7,9 +7,8 @@ package ci583.receiver;
  * @author Jim Burton
  */
 
+import ci583.gui.QueueTable;
 import imgui.ImGui;
-import imgui.flag.ImGuiCol;
-import imgui.flag.ImGuiTableFlags;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -34,100 +33,82 @@ public class RoundRobinReceiver extends ModRegReceiver {
      */
     @Override
     public void enqueue(ModuleRegister m) {
-        // Add the object to the end of the queue
-        queue.add(m);
+        policy.onArrival(m);
+        admitted(m);
     }
 
     /**
-     * Schedule the processes, start registration. This method needs to:
-     * + create an empty list which will hold the completed processes. This will be the
-     *   return value of the method.
-     * + while the queue is not empty:
-     *   - take the next process from the queue and get its State.
-     *   - if the state is NEW, start the process then sleep for QUANTUM milliseconds
-     *     then put the process at the back of the queue.
-     *   - if the state is TERMINATED, add it to the results list.
-     *   - if the state is anything else then interrupt the process to wake it up then
-     *     sleep for QUANTUM milliseconds, then put the process at the back of the queue.
-     *  + when the queue is empty, return the list of completed processes.
-     * @return
+     * Schedule the processes, start registration. Each process is taken from the head of the
+     * queue, allowed to run for QUANTUM milliseconds and put at the back of the queue, until it
+     * has TERMINATED.
+     * @return the completed processes
      */
     @Override
     public List<ModuleRegister> startRegistration() {
-        ArrayList<ModuleRegister> results = new ArrayList<>();
+        return dispatch(policy);
+    }
+
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        @Override
+        public void onArrival(ModuleRegister m) {
+            // Add the object to the end of the queue
+            queue.add(m);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return queue.isEmpty(); // O(1) time complexity for isEmpty
+        }
 
-        while(!queue.isEmpty()) { // O(1) time complexity for isEmpty
+        @Override
+        public ModuleRegister pick() {
             // ArrayList#get is used here instead of remove, as otherwise the GUI
             // cannot see the first element on the scheduler
-            ModuleRegister process = queue.get(0); // O(1) time complexity for get operation
-            switch (process.getState()) {
-                case NEW -> {
-                    process.start();
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    queue.remove(0); // O(n) time complexity for remove - due to the shift
-                    queue.add(process); // O(1) [amortised] time complexity for add operation
-
-                }
-                case TERMINATED -> {
-                    queue.remove(0); // O(n) time complexity for remove - due to the shift
-                    results.add(process);
-                }
-                default -> {
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    queue.remove(0); // O(n) time complexity for remove - due to the shift
-                    queue.add(process); // O(1) [amortised] time complexity for add operation
-                }
-            }
+            return queue.get(0); // O(1) time complexity for get operation
+        }
+
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            queue.remove(0); // O(n) time complexity for remove - due to the shift
+            queue.add(m); // O(1) [amortised] time complexity for add operation
+        }
+
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            queue.remove(0); // O(n) time complexity for remove - due to the shift
         }
 
-        return results;
+        @Override
+        public void onComplete(ModuleRegister m) {
+            queue.remove(0); // O(n) time complexity for remove - due to the shift
+        }
+    };
+
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        return List.of(queue);
     }
 
     // Gui code
+    private final QueueTable table = new QueueTable("rr", false, false);
 
     @Override
     public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
         ImGui.begin("Round Robin");
 
-        if (ImGui.beginTable("rr", queue.size() + 2, ImGuiTableFlags.Borders)) {
-            ImGui.tableNextRow();
-            ImGui.tableNextColumn();
-            ImGui.text("Queue:");
-
-            synchronized (queue) {
-                Collection<ModuleRegister> copy = new ArrayList<>(queue);
-                for(ModuleRegister register : copy) {
-                    ImGui.tableNextColumn();
-
-                    ImGui.text(register.getName() + " - " +
-                            (register.isExecuting() ? "Executing" : "Runnable"));
-
-                    if(register.getState() != Thread.State.NEW) {
-                        ImGui.text(register.getWorkCompleted() + " / " + register.getWork());
-                    }
-
-                    // Slider to configure work done amount
-                    if(register.getState() == Thread.State.NEW) {
-                        int[] wrapper = {(int) register.getTotalWorkToDo()};
-                        if(ImGui.sliderInt("##work" + register.getName(), wrapper, 1000, 60000)) {
-                            register.setWorkToDo(wrapper[0]);
-                        }
-                    }
-                }
-            }
-
-            ImGui.tableNextColumn();
-            if(ImGui.button("+", ImGui.getColumnWidth(), 0)) {
-                enqueue(new ModuleRegister("P" + (queue.size() + 1), 5000));
-            }
-
-            ImGui.endTable();
+        ImGui.text("Queue:");
+        if(table.draw(snapshot, 0)) {
+            markDirty();
+        }
+
+        if(ImGui.button("+")) {
+            submit(new ModuleRegister("P" + (snapshot.size() + 1), 5000));
         }
 
         ImGui.end();
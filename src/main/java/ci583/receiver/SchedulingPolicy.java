@@ -0,0 +1,78 @@
+package ci583.receiver;
+
+/**
+ * <p>
+ * The part of a receiver that decides which process runs next. The dispatch loop itself, which
+ * starts processes, gives them the CPU, accounts for their time and collects them once they have
+ * finished, is shared by every receiver in {@link ModRegReceiver#dispatch(SchedulingPolicy)}, so
+ * a policy only has to keep its queues in order.
+ * </p>
+ * <p>
+ * A policy is only called by the thread that owns the receiver's queues. The process returned by
+ * {@link #pick()} stays at the head of its queue while it runs, so the GUI can see it, and is then
+ * passed to exactly one of {@link #requeue(ModuleRegister, long)},
+ * {@link #onBlock(ModuleRegister, long)} or {@link #onComplete(ModuleRegister)}.
+ * </p>
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Adds a process that has arrived at the receiver to the queues.
+     */
+    void onArrival(ModuleRegister m);
+
+    /**
+     * @return true if there are no processes in the queues
+     */
+    boolean isEmpty();
+
+    /**
+     * Chooses the next process to run, leaving it at the head of its queue.
+     * @return the process, or null if the queues only held processes which have since been
+     * removed, e.g. by shedding
+     */
+    ModuleRegister pick();
+
+    /**
+     * @return the queue level of the process last picked, for the trace and dispatch log
+     */
+    default int level() {
+        return 0;
+    }
+
+    /**
+     * Puts the process last picked back in the queues, after it has had the CPU.
+     * @param cpuMs the time in ms the process held the CPU, or 0 if it gave it up straight away
+     */
+    void requeue(ModuleRegister m, long cpuMs);
+
+    /**
+     * Removes the process last picked, which has finished a CPU burst and must wait for I/O, from
+     * the queues. The receiver holds it until the I/O completes, then hands it to
+     * {@link #onWake(ModuleRegister, int)}.
+     * @param cpuMs the time in ms the process held the CPU
+     */
+    void onBlock(ModuleRegister m, long cpuMs);
+
+    /**
+     * Puts a process back in the queues once its I/O has completed. By default it is treated as a
+     * new arrival.
+     * @param level the level the process was picked from before it blocked
+     */
+    default void onWake(ModuleRegister m, int level) {
+        onArrival(m);
+    }
+
+    /**
+     * Removes the process last picked, which has finished, from the queues.
+     */
+    void onComplete(ModuleRegister m);
+
+    /**
+     * @return true if processes may give up the CPU straight away, e.g. to wait for IO (see
+     * {@link ModuleRegister#hasYieldedCPU()}), rather than always running for a quantum
+     */
+    default boolean isInteractive() {
+        return false;
+    }
+}
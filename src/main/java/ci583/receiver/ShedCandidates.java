@@ -0,0 +1,96 @@
+package ci583.receiver;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * The processes a receiver could shed under {@link AdmissionPolicy#SHED_LOWEST_PRIORITY}: those
+ * in its queues which have not started, as a process which has started cannot be shed without
+ * its thread never finishing. They are kept in order as they are admitted, so that the one to
+ * shed is the last rather than found by scanning the queues.
+ * </p>
+ * <p>
+ * Only kept while the receiver is shedding, and only used by the thread that owns its queues.
+ * </p>
+ */
+final class ShedCandidates {
+
+    // Lowest priority last, and the most recently admitted last among equals
+    private static final Comparator<ModuleRegister> SHED_ORDER = Comparator
+            .<ModuleRegister>comparingInt(m -> m.shedPriority)
+            .thenComparingLong(m -> m.shedOrder);
+
+    private final TreeSet<ModuleRegister> candidates = new TreeSet<>(SHED_ORDER);
+    private boolean indexed;
+    private long admissions;
+
+    boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Starts or stops keeping the candidates, as the admission policy has changed since the last
+     * admission. Starting finds the processes already queued which have not started, in queue
+     * order, so ties between them go as they would have in the queues - O(n log n), once.
+     * @param arriving the process being admitted, which is left to its admission
+     */
+    void index(boolean shedding, List<? extends Collection<ModuleRegister>> levels, ModuleRegister arriving) {
+        for(ModuleRegister m : candidates) {
+            m.shedCandidate = false;
+        }
+        candidates.clear();
+        indexed = shedding;
+        if(!shedding) {
+            return;
+        }
+        for(Collection<ModuleRegister> level : levels) {
+            for(ModuleRegister m : level) {
+                if(m != arriving && m.getState() == Thread.State.NEW) {
+                    add(m);
+                }
+            }
+        }
+    }
+
+    // O(log n)
+    void add(ModuleRegister m) {
+        if(!m.shedCandidate) {
+            m.shedPriority = m.getPriority();
+            m.shedOrder = admissions++;
+            m.shedCandidate = true;
+            candidates.add(m);
+        }
+    }
+
+    // O(log n), or O(1) if the process is not a candidate
+    void remove(ModuleRegister m) {
+        if(m.shedCandidate) {
+            candidates.remove(m);
+            m.shedCandidate = false;
+        }
+    }
+
+    /**
+     * Re-keys a candidate whose priority has changed - O(log n)
+     */
+    void reprioritise(ModuleRegister m, int priority) {
+        if(m.shedCandidate) {
+            candidates.remove(m);
+            m.shedPriority = priority;
+            candidates.add(m);
+        }
+    }
+
+    /**
+     * Chooses the process to shed: the lowest priority candidate, and the most recently admitted
+     * of those, so a new process is shed rather than an equal waiting one - O(1)
+     * @param arriving the process being admitted
+     */
+    ModuleRegister victim(ModuleRegister arriving) {
+        ModuleRegister lowest = candidates.isEmpty() ? null : candidates.last();
+        return lowest != null && lowest.shedPriority > arriving.getPriority() ? lowest : arriving;
+    }
+}
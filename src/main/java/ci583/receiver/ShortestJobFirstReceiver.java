@@ -1,103 +1,127 @@
 package ci583.receiver;
 
+import ci583.gui.QueueTable;
 import imgui.ImGui;
-import imgui.flag.ImGuiCol;
-import imgui.flag.ImGuiTableFlags;
 
 import java.util.*;
 
+/**
+ * <p>
+ * Runs the process with the least work left, for a quantum at a time, so a shorter process that
+ * arrives takes over at the next dispatch (shortest remaining time first).
+ * </p>
+ * <p>
+ * By default the receiver is told how much work each process has. With a
+ * {@link BurstPredictor}, it orders by the predicted time left in each process's current CPU
+ * burst instead, learnt from the bursts processes have already run.
+ * </p>
+ */
 public class ShortestJobFirstReceiver extends ModRegReceiver {
 
     private final TreeSet<ModuleRegister> jobs;
+    private BurstPredictor predictor;
 
     public ShortestJobFirstReceiver(long quantum) {
         super(quantum);
+        // Ordered by the expected work when each process was queued, as the tree cannot be
+        // re-sorted when an estimate changes
         final Comparator<ModuleRegister> comparator =
-                (c1, c2) -> c1.getRemainingWorkToDo() == c2.getRemainingWorkToDo() ?
-                        1 : (int) (c1.getRemainingWorkToDo() - c2.getRemainingWorkToDo());
+                (c1, c2) -> c1.expectedRemaining == c2.expectedRemaining ?
+                        1 : Long.compare(c1.expectedRemaining, c2.expectedRemaining);
         jobs = new TreeSet<>(comparator);
     }
 
+    /**
+     * Orders the processes by their predicted rather than their actual remaining work. Only call
+     * before the receiver is given any processes.
+     * @param predictor the predictor, or null to use the actual work
+     */
+    public void setBurstPredictor(BurstPredictor predictor) {
+        this.predictor = predictor;
+    }
+
+    public BurstPredictor getBurstPredictor() {
+        return predictor;
+    }
+
     @Override
     public void enqueue(ModuleRegister m) {
-        jobs.add(m);
+        policy.onArrival(m);
+        admitted(m);
     }
 
     @Override
     public List<ModuleRegister> startRegistration() {
-        List<ModuleRegister> results = new ArrayList<>();
-
-        while(jobs.size() > 0) {
-            ModuleRegister process = jobs.first(); // Time complexity is only as great as the
-            // height of the tree
-            assert process != null; // Can't be null as jobs.size() > 0
-            switch (process.getState()) {
-                case NEW -> {
-                    process.start();
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    jobs.pollFirst(); // O(log n)
-                    jobs.add(process); // O(log n)
-                }
-                case TERMINATED -> {
-                    jobs.pollFirst(); // O(log n)
-                    results.add(process);
-                }
-                default -> {
-                    process.startWork();
-                    sleepIgnoreException(QUANTUM);
-                    process.stopWork();
-
-                    jobs.pollFirst(); // O(log n)
-                    jobs.add(process); // O(log n)
-                }
+        return dispatch(policy);
+    }
+
+    private final SchedulingPolicy policy = new SchedulingPolicy() {
+        @Override
+        public void onArrival(ModuleRegister m) {
+            BurstPredictor p = predictor;
+            m.expectedRemaining = p == null ? m.getRemainingWorkToDo() : p.predictRemaining(m);
+            jobs.add(m);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return jobs.isEmpty();
+        }
+
+        @Override
+        public ModuleRegister pick() {
+            return jobs.first(); // Time complexity is only as great as the height of the tree
+        }
+
+        @Override
+        public void requeue(ModuleRegister m, long cpuMs) {
+            // Re-sorted by the work it has left
+            jobs.pollFirst(); // O(log n)
+            onArrival(m); // O(log n)
+        }
+
+        @Override
+        public void onBlock(ModuleRegister m, long cpuMs) {
+            jobs.pollFirst(); // O(log n)
+            if(predictor != null) {
+                predictor.observe(m, false);
+            }
+        }
+
+        @Override
+        public void onComplete(ModuleRegister m) {
+            jobs.pollFirst(); // O(log n)
+            if(predictor != null) {
+                predictor.observe(m, true);
             }
         }
+    };
 
-        return results;
+    @Override
+    protected SchedulingPolicy policy() {
+        return policy;
+    }
+
+    @Override
+    protected List<? extends Collection<ModuleRegister>> queues() {
+        return List.of(jobs);
     }
 
     // Gui code
+    private final QueueTable table = new QueueTable("sjf", false, false);
+
     @Override
     public void imGuiDraw() {
+        QueueSnapshot snapshot = frameSnapshot();
         ImGui.begin("Shortest Job First");
 
-        if (ImGui.beginTable("sjf", jobs.size() + 2, ImGuiTableFlags.Borders)) {
-            ImGui.tableNextRow();
-            ImGui.tableNextColumn();
-            ImGui.text("Jobs:");
-
-            synchronized (jobs) {
-                Collection<ModuleRegister> copy = new ArrayList<>(jobs);
-                for(ModuleRegister register : copy) {
-                    ImGui.tableNextColumn();
-
-                    ImGui.text(register.getName() + " - " +
-                                    (register.isExecuting() ? "Executing" : "Runnable"));
-                    ImGui.text(register.getRemainingWorkToDo() + "ms remaining");
-
-                    // Display work done
-                    if(register.getState() != Thread.State.NEW) {
-                        ImGui.text(register.getWorkCompleted() + " / " + register.getWork());
-                    } else {
-                        // Thread state is NEW
-                        // Slider to configure work done amount
-                        int[] wrapper = {(int) register.getTotalWorkToDo()};
-                        if(ImGui.sliderInt("##work" + register.getName(), wrapper, 1000, 60000)) {
-                            register.setWorkToDo(wrapper[0]);
-                        }
-                    }
-                }
-            }
-
-            ImGui.tableNextColumn();
-            if(ImGui.button("+", ImGui.getColumnWidth(), 0)) {
-                enqueue(new ModuleRegister("P" + (jobs.size() + 1), 5000));
-            }
+        ImGui.text("Jobs:");
+        if(table.draw(snapshot, 0)) {
+            markDirty();
+        }
 
-            ImGui.endTable();
+        if(ImGui.button("+")) {
+            submit(new ModuleRegister("P" + (snapshot.size() + 1), 5000));
         }
 
         ImGui.end();
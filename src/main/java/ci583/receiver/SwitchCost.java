@@ -0,0 +1,69 @@
+package ci583.receiver;
+
+import java.util.function.LongConsumer;
+
+/**
+ * <p>
+ * Charges a receiver's dispatches for switching between processes, according to its
+ * {@link ContextSwitchModel} (see {@link ModRegReceiver#setContextSwitchModel}). Without a model,
+ * switches are free.
+ * </p>
+ * <p>
+ * Only used by the thread that owns the receiver's queues, apart from setting the model, which
+ * takes effect from the next dispatch.
+ * </p>
+ */
+final class SwitchCost {
+
+    private volatile ContextSwitchModel model;
+    // The model of the current dispatch, read once so that it does not change mid quantum
+    private ContextSwitchModel current;
+
+    void setModel(ContextSwitchModel model) {
+        this.model = model;
+    }
+
+    ContextSwitchModel getModel() {
+        return model;
+    }
+
+    /**
+     * Charges the switch to the process, if it was not the last to run, waiting out the switch
+     * overhead - O(cache slots)
+     * @param await waits for the given time in ms, in which no process has the CPU
+     * @param metrics the receiver's metrics, or null if metrics are off
+     * @return the time the process must spend refilling the cache at the start of its quantum
+     */
+    long switchTo(ModuleRegister process, LongConsumer await, ReceiverMetrics metrics) {
+        ContextSwitchModel model = current = this.model;
+        if(model == null) {
+            return 0;
+        }
+        long overhead = model.switchTo(process);
+        if(overhead > 0) {
+            await.accept(overhead);
+            if(metrics != null) {
+                metrics.contextSwitches.increment();
+                metrics.switchOverhead.add(overhead);
+            }
+        }
+        return model.refill(process);
+    }
+
+    /**
+     * Records how the quantum of the last process switched to was spent - O(1)
+     * @param refilled the time spent refilling the cache
+     * @param useful the time the process made progress
+     * @param metrics the receiver's metrics, or null if metrics are off
+     */
+    void charge(long refilled, long useful, ReceiverMetrics metrics) {
+        ContextSwitchModel model = current;
+        if(model == null) {
+            return;
+        }
+        model.charge(refilled, useful);
+        if(metrics != null && refilled > 0) {
+            metrics.switchOverhead.add(refilled);
+        }
+    }
+}
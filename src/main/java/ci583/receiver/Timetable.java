@@ -0,0 +1,238 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * The timetable slots each module is taught in, and the slots each student has booked, so that a
+ * student cannot register on two modules taught at the same time. A slot is any numbering of the
+ * teaching periods, e.g. {@code day * periodsPerDay + period}. A receiver given a timetable (see
+ * {@link ModRegReceiver#setTimetable(Timetable)}) turns away a submitted registration which
+ * clashes with the student's booked modules, and books the module's slots as each registration
+ * completes, before it claims a seat.
+ * </p>
+ * <p>
+ * The slots of a module and the booked slots of a student are both bitsets of the same few
+ * {@code long} words, one word for every 64 slots, so checking for a clash is one AND per word
+ * and booking one OR per word. The students' bitsets are packed into arrays of
+ * {@value #CHUNK_STUDENTS} students each, so 100,000 students with a 64-slot week take under 1MB,
+ * and the arrays never move once created, so a check neither allocates nor copies. Only the
+ * first booking of a new student allocates, to number them.
+ * </p>
+ * <p>
+ * A check and a booking are made under one of {@value #LOCK_STRIPES} locks, chosen by the
+ * student, so two registrations of the same student completing at once cannot both book a slot,
+ * while registrations of other students rarely wait. One timetable can be shared by many receivers.
+ * </p>
+ */
+public final class Timetable {
+
+    static final int CHUNK_STUDENTS = 1024;
+    static final int LOCK_STRIPES = 64;
+
+    private final int slots;
+    private final int words;
+    // The slots of each module, as a bitset of words
+    private final Map<String, long[]> modules = new ConcurrentHashMap<>();
+    // The number of each student, i.e. where their bitset is in the chunks
+    private final Map<String, Integer> students;
+    private final AtomicInteger nextStudent = new AtomicInteger();
+    // The booked slots of every student, CHUNK_STUDENTS to a chunk. Replaced, never changed, when
+    // chunks are added, so a reader sees every chunk of the students it has numbers for
+    private volatile long[][] chunks;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder clashes = new LongAdder();
+
+    /**
+     * @param slots the number of slots in the timetable
+     * @param expectedStudents the students to make room for up front
+     */
+    public Timetable(int slots, int expectedStudents) {
+        if(slots < 1) {
+            throw new IllegalArgumentException("There must be at least one slot: " + slots);
+        }
+        this.slots = slots;
+        words = (slots + Long.SIZE - 1) / Long.SIZE;
+        students = new ConcurrentHashMap<>(Math.max(16, expectedStudents * 4 / 3));
+        chunks = new long[(Math.max(1, expectedStudents) + CHUNK_STUDENTS - 1) / CHUNK_STUDENTS][];
+        for(int i = 0; i < chunks.length; i++) {
+            chunks[i] = new long[CHUNK_STUDENTS * words];
+        }
+        for(int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Sets the slots a module is taught in. Only call before registrations for the module arrive.
+     * @throws IllegalArgumentException if a slot is outside the timetable
+     */
+    public void setModule(String module, int... slots) {
+        long[] bits = new long[words];
+        for(int slot : slots) {
+            if(slot < 0 || slot >= this.slots) {
+                throw new IllegalArgumentException("No slot " + slot + ", there are " + this.slots);
+            }
+            bits[slot >>> 6] |= 1L << slot;
+        }
+        modules.put(module, bits);
+    }
+
+    /**
+     * Checks whether the registration's module clashes with what its student has booked, without
+     * booking it - O(words)
+     * @return false if the registration has no student or module, or the module is not timetabled
+     */
+    public boolean clashes(ModuleRegister m) {
+        long[] module = m.getStudent() == null || m.getModule() == null ? null : modules.get(m.getModule());
+        if(module == null) {
+            return false;
+        }
+        Integer student = students.get(m.getStudent());
+        if(student == null) {
+            // Has booked nothing yet
+            return false;
+        }
+        checks.increment();
+        long[] chunk = chunk(student);
+        int base = (student % CHUNK_STUDENTS) * words;
+        synchronized(locks[student & (LOCK_STRIPES - 1)]) {
+            for(int w = 0; w < words; w++) {
+                if((chunk[base + w] & module[w]) != 0) {
+                    clashes.increment();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Books the registration's module for its student, unless it clashes with what they have
+     * already booked, when the registration is marked as clashing (see
+     * {@link ModuleRegister#hasClash()}) - O(words)
+     * @return true if the module was booked, or needs no booking as the registration has no
+     * student or module, or the module is not timetabled
+     */
+    public boolean book(ModuleRegister m) {
+        long[] module = m.getStudent() == null || m.getModule() == null ? null : modules.get(m.getModule());
+        if(module == null) {
+            return true;
+        }
+        checks.increment();
+        int student = number(m.getStudent());
+        long[] chunk = chunk(student);
+        int base = (student % CHUNK_STUDENTS) * words;
+        synchronized(locks[student & (LOCK_STRIPES - 1)]) {
+            for(int w = 0; w < words; w++) {
+                if((chunk[base + w] & module[w]) != 0) {
+                    clashes.increment();
+                    m.clashed = true;
+                    return false;
+                }
+            }
+            for(int w = 0; w < words; w++) {
+                chunk[base + w] |= module[w];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Frees the slots of the registration's module for its student, e.g. when they withdraw or
+     * the module turns out to be full - O(words). Only call for a registration which was booked.
+     */
+    public void cancel(ModuleRegister m) {
+        long[] module = m.getStudent() == null || m.getModule() == null ? null : modules.get(m.getModule());
+        Integer student = module == null ? null : students.get(m.getStudent());
+        if(student == null) {
+            return;
+        }
+        long[] chunk = chunk(student);
+        int base = (student % CHUNK_STUDENTS) * words;
+        synchronized(locks[student & (LOCK_STRIPES - 1)]) {
+            // Booked modules never share a slot, so these bits are only this module's
+            for(int w = 0; w < words; w++) {
+                chunk[base + w] &= ~module[w];
+            }
+        }
+    }
+
+    /**
+     * @return true if the student has booked a module taught in the slot
+     */
+    public boolean isBooked(String student, int slot) {
+        Integer number = students.get(student);
+        if(number == null || slot < 0 || slot >= slots) {
+            return false;
+        }
+        synchronized(locks[number & (LOCK_STRIPES - 1)]) {
+            return (chunk(number)[(number % CHUNK_STUDENTS) * words + (slot >>> 6)] & 1L << slot) != 0;
+        }
+    }
+
+    /**
+     * @return the number of the student, numbering them if they are new
+     */
+    private int number(String student) {
+        Integer number = students.get(student);
+        if(number != null) {
+            return number;
+        }
+        return students.computeIfAbsent(student, s -> nextStudent.getAndIncrement());
+    }
+
+    /**
+     * @return the chunk holding the student's bitset, adding it if another thread has numbered the
+     * student but not yet made room for them
+     */
+    private long[] chunk(int student) {
+        long[][] chunks = this.chunks;
+        int chunk = student / CHUNK_STUDENTS;
+        if(chunk >= chunks.length) {
+            grow(chunk);
+            chunks = this.chunks;
+        }
+        return chunks[chunk];
+    }
+
+    private synchronized void grow(int chunk) {
+        long[][] old = chunks;
+        if(chunk < old.length) {
+            return;
+        }
+        // Doubled, so adding students one at a time copies the chunk references O(log n) times
+        long[][] grown = Arrays.copyOf(old, Math.max(chunk + 1, old.length * 2));
+        for(int i = old.length; i < grown.length; i++) {
+            grown[i] = new long[CHUNK_STUDENTS * words];
+        }
+        chunks = grown;
+    }
+
+    public int getSlotCount() {
+        return slots;
+    }
+
+    public int getStudentCount() {
+        return students.size();
+    }
+
+    /**
+     * @return the number of clash checks made, by checking or booking
+     */
+    public long getCheckCount() {
+        return checks.sum();
+    }
+
+    /**
+     * @return the number of registrations found to clash
+     */
+    public long getClashCount() {
+        return clashes.sum();
+    }
+}
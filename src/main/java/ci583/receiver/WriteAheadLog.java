@@ -0,0 +1,503 @@
+package ci583.receiver;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * An append-only log of the processes accepted by a receiver and the processes it completed, so
+ * that accepted registrations survive a crash. On open, the log is replayed to find the processes
+ * which were accepted but never completed, see {@link #recover(ModRegReceiver, Checkpoint)}. The
+ * seat claimed by each completed registration is logged too, and kept when the log is compacted,
+ * so that the seats taken on each module can be given back to the receiver's catalogue.
+ * </p>
+ * <p>
+ * Records are appended to an in-memory buffer, and a single flusher thread writes the buffer to
+ * the file and forces it to disk. Everything appended while one force is in progress goes out in
+ * the next (group commit), so the cost of each fsync is shared by every append waiting on it.
+ * </p>
+ * <p>
+ * Each record is framed as:
+ * </p>
+ * <pre>
+ *     length:int crc:int type:byte id:long payload
+ *     ENQUEUE payload:  name:utf work:long priority:byte yield:double deadline:long
+ *                       [group:utf [module:utf student:utf [burstCount:int burst:long...]]]
+ *     COMPLETE payload: enqueueId:long
+ *     SEAT payload:     module:utf student:utf
+ * </pre>
+ * <p>
+ * where the CRC32 covers the type, id and payload, and the group, module, student and bursts are
+ * left out of records written before processes had them. Replay stops at the first torn or corrupt
+ * record, which can only be at the end of the log, and the log is then rewritten with only the
+ * seats and the processes that are still live, so it grows across restarts by no more than the
+ * seats taken. A seat given back with {@link ModuleCatalogue#release(ModuleRegister)} is not
+ * logged, so is taken again on recovery.
+ * </p>
+ */
+public class WriteAheadLog implements Closeable {
+
+    static final byte ENQUEUE = 1;
+    static final byte COMPLETE = 2;
+    static final byte SEAT = 3;
+    private static final int HEADER_SIZE = 8;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Thread flusher;
+    // Accepted but not completed processes found on replay, by id, in the order they were accepted
+    private final LinkedHashMap<Long, Entry> recovered;
+    // The seats claimed by completed registrations found on replay, by id
+    private final LinkedHashMap<Long, Seat> seats;
+
+    // Guarded by lock. A ReentrantLock rather than a monitor, so a virtual thread waiting for its
+    // record to be durable unmounts from its carrier rather than pinning it
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when records are appended, become durable, or the log fails or closes
+    private final Condition changed = lock.newCondition();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private long nextId;
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+
+    private WriteAheadLog(Path file, LinkedHashMap<Long, Entry> recovered, LinkedHashMap<Long, Seat> seats,
+                          long nextId) throws IOException {
+        this.file = file;
+        this.recovered = recovered;
+        this.seats = seats;
+        this.nextId = nextId;
+        this.appended = this.durable = nextId - 1;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        flusher = new Thread(this::flush, "wal-" + file.getFileName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Opens a log, replaying and compacting it if it exists.
+     * @throws IOException if the log cannot be read or written
+     */
+    public static WriteAheadLog open(Path file) throws IOException {
+        LinkedHashMap<Long, Entry> live = new LinkedHashMap<>();
+        LinkedHashMap<Long, Seat> seats = new LinkedHashMap<>();
+        long maxId = 0;
+        if(Files.exists(file)) {
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                maxId = replay(in, live, seats);
+            }
+        }
+
+        // Rewrite the log with only the seats and live records, which also drops a torn tail
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for(Map.Entry<Long, Seat> e : seats.entrySet()) {
+                buffer = frame(buffer, SEAT, e.getKey(), e.getValue().encode());
+                if(buffer.position() > 32 * 1024) {
+                    writeFully(out, buffer);
+                }
+            }
+            for(Map.Entry<Long, Entry> e : live.entrySet()) {
+                buffer = frame(buffer, ENQUEUE, e.getKey(), e.getValue().encode());
+                if(buffer.position() > 32 * 1024) {
+                    writeFully(out, buffer);
+                }
+            }
+            writeFully(out, buffer);
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return new WriteAheadLog(file, live, seats, maxId + 1);
+    }
+
+    /**
+     * Appends an enqueue of the process, unless it is already in the log. Does not wait for the
+     * record to reach the disk, see {@link #awaitDurable(long)}.
+     * @return the id of the record, which identifies the process in the log
+     * @throws IOException if the log has failed
+     */
+    long logEnqueue(ModuleRegister m) throws IOException {
+        if(m.walId >= 0) {
+            return m.walId;
+        }
+        Entry entry = new Entry(m.getName(), m.getWork(), m.getPriority(), m.getInteractiveThreadChance(),
+                m.getDeadline(), m.getGroup() == null ? "" : m.getGroup(), m.getModule() == null ? "" : m.getModule(),
+                m.getStudent() == null ? "" : m.getStudent(), m.getBursts());
+        m.walId = append(ENQUEUE, entry.encode());
+        return m.walId;
+    }
+
+    /**
+     * Appends the completion of a process which was logged by {@link #logEnqueue(ModuleRegister)}.
+     * Does not wait for the record to reach the disk - if it is lost, the process runs again.
+     * @return the id of the record
+     * @throws IOException if the log has failed
+     */
+    long logCompletion(ModuleRegister m) throws IOException {
+        if(m.walId < 0) {
+            return -1;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES).putLong(m.walId);
+        return append(COMPLETE, payload.array());
+    }
+
+    /**
+     * Appends the seat claimed by a completed registration, before its completion, so that the
+     * seat is taken again on recovery. Does not wait for the record to reach the disk.
+     * @return the id of the record
+     * @throws IOException if the log has failed
+     */
+    long logSeat(ModuleRegister m) throws IOException {
+        Seat seat = new Seat(m.getModule(), m.getStudent() == null ? "" : m.getStudent());
+        return append(SEAT, seat.encode());
+    }
+
+    private long append(byte type, byte[] payload) throws IOException {
+        lock.lock();
+        try {
+            if(failure != null) {
+                throw new IOException("Write-ahead log has failed", failure);
+            }
+            if(closed) {
+                throw new IOException("Write-ahead log is closed");
+            }
+            long id = nextId++;
+            pending = frame(pending, type, id, payload);
+            appended = id;
+            changed.signalAll();
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the record with the given id, and every record before it, is on disk.
+     * @throws IOException if the log failed before the record was written
+     */
+    public void awaitDurable(long id) throws IOException {
+        lock.lock();
+        try {
+            while(durable < id) {
+                if(failure != null) {
+                    throw new IOException("Write-ahead log has failed", failure);
+                }
+                if(closed && !flusher.isAlive()) {
+                    throw new IOException("Write-ahead log is closed");
+                }
+                // Keeps the interrupt status for the caller
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The flusher thread: writes whatever has been appended since the last force, then forces it.
+     */
+    private void flush() {
+        while(true) {
+            long upTo;
+            lock.lock();
+            try {
+                while(pending.position() == 0 && !closed) {
+                    // Only stops once closed and drained
+                    changed.awaitUninterruptibly();
+                }
+                if(pending.position() == 0) {
+                    changed.signalAll();
+                    return;
+                }
+                ByteBuffer swap = writing;
+                writing = pending;
+                pending = swap;
+                upTo = appended;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                writeFully(channel, writing);
+                channel.force(false);
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                durable = upTo;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Finds the processes accepted but not completed before the last shutdown or crash, and puts
+     * them back in the receiver's queues. Processes in the checkpoint are restored with their
+     * progress, unless the log shows they completed after it was taken. The rest are enqueued in
+     * the order they were accepted. The seats claimed by completed registrations are taken again
+     * from the receiver's catalogue, if it has one, rather than from the checkpoint, as the log is
+     * more recent. Must be called before the receiver's dispatcher starts, and only once.
+     * @param receiver the receiver, which must already be using this log
+     * @param checkpoint the receiver's last checkpoint, or null
+     * @return the processes put back in the receiver
+     */
+    public List<ModuleRegister> recover(ModRegReceiver receiver, Checkpoint checkpoint) {
+        Map<String, Integer> taken = new HashMap<>();
+        for(Seat seat : seats.values()) {
+            taken.merge(seat.module, 1, Integer::sum);
+        }
+        taken.forEach(receiver::restoreSeats);
+        seats.clear();
+
+        List<ModuleRegister> restored = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        if(checkpoint != null) {
+            for(ModuleRegister m : checkpoint.restore(receiver, id -> id < 0 || recovered.containsKey(id))) {
+                restored.add(m);
+                seen.add(m.walId);
+            }
+        }
+        for(Map.Entry<Long, Entry> e : recovered.entrySet()) {
+            if(seen.contains(e.getKey())) continue;
+            ModuleRegister m = e.getValue().create();
+            m.walId = e.getKey();
+            receiver.enqueue(m);
+            restored.add(m);
+        }
+        recovered.clear();
+        return restored;
+    }
+
+    /**
+     * @return the number of seats claimed by completed registrations when the log was opened,
+     * until they are recovered
+     */
+    public int getSeatCount() {
+        return seats.size();
+    }
+
+    /**
+     * @return the number of processes accepted but not completed when the log was opened
+     */
+    public int getRecoveredCount() {
+        return recovered.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Writes and forces everything appended so far, then closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        lock.lock();
+        try {
+            if(failure != null) {
+                throw new IOException("Write-ahead log has failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long replay(DataInputStream in, Map<Long, Entry> live, Map<Long, Seat> seats) throws IOException {
+        long maxId = 0;
+        CRC32 crc = new CRC32();
+        while(true) {
+            byte[] body;
+            int expected;
+            try {
+                int length = in.readInt();
+                expected = in.readInt();
+                if(length < 9 || length > 1 << 20) {
+                    break;
+                }
+                body = new byte[length];
+                in.readFully(body);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(body);
+            if((int) crc.getValue() != expected) {
+                break;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            byte type = buffer.get();
+            long id = buffer.getLong();
+            maxId = Math.max(maxId, id);
+            if(type == ENQUEUE) {
+                live.put(id, Entry.decode(body, buffer.position()));
+            } else if(type == COMPLETE) {
+                live.remove(buffer.getLong());
+            } else if(type == SEAT) {
+                seats.put(id, Seat.decode(body, buffer.position()));
+            }
+        }
+        return maxId;
+    }
+
+    // Appends a framed record, growing the buffer if it is full
+    private static ByteBuffer frame(ByteBuffer buffer, byte type, long id, byte[] payload) {
+        int length = 1 + Long.BYTES + payload.length;
+        if(buffer.remaining() < HEADER_SIZE + length) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + HEADER_SIZE + length);
+            ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(id);
+        buffer.put(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start + HEADER_SIZE, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static final class Seat {
+        private final String module;
+        private final String student;
+
+        private Seat(String module, String student) {
+            this.module = module;
+            this.student = student;
+        }
+
+        private byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + module.length() + student.length());
+            try(DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(module);
+                out.writeUTF(student);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static Seat decode(byte[] body, int offset) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, offset, body.length - offset));
+            return new Seat(in.readUTF(), in.readUTF());
+        }
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final long work;
+        private final int priority;
+        private final double yieldChance;
+        private final long deadline;
+        private final String group;
+        private final String module;
+        private final String student;
+        // The CPU and I/O bursts, or null for a single CPU burst
+        private final long[] bursts;
+
+        private Entry(String name, long work, int priority, double yieldChance, long deadline, String group,
+                      String module, String student, long[] bursts) {
+            this.name = name;
+            this.work = work;
+            this.priority = priority;
+            this.yieldChance = yieldChance;
+            this.deadline = deadline;
+            this.group = group;
+            this.module = module;
+            this.student = student;
+            this.bursts = bursts;
+        }
+
+        private byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + name.length());
+            try(DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(name);
+                out.writeLong(work);
+                out.writeByte(priority);
+                out.writeDouble(yieldChance);
+                out.writeLong(deadline);
+                out.writeUTF(group);
+                out.writeUTF(module);
+                out.writeUTF(student);
+                Checkpoint.writeBursts(out, bursts);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static Entry decode(byte[] body, int offset) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, offset, body.length - offset));
+            return new Entry(in.readUTF(), in.readLong(), in.readByte(), in.readDouble(), in.readLong(),
+                    in.available() > 0 ? in.readUTF() : "", in.available() > 0 ? in.readUTF() : "",
+                    in.available() > 0 ? in.readUTF() : "", in.available() > 0 ? Checkpoint.readBursts(in) : null);
+        }
+
+        private ModuleRegister create() {
+            ModuleRegister m = new ModuleRegister(name, work);
+            if(bursts != null) {
+                m.setBursts(bursts);
+            }
+            m.setPriority(priority);
+            m.setInteractiveThreadChance(yieldChance);
+            m.setDeadline(deadline);
+            m.setGroup(group.isEmpty() ? null : group);
+            m.setModule(module.isEmpty() ? null : module);
+            m.setStudent(student.isEmpty() ? null : student);
+            return m;
+        }
+    }
+}
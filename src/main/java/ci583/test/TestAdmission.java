@@ -0,0 +1,106 @@
+package ci583.test;
+
+/**
+ * Tests for bounding the queues of a receiver and rate limiting its submitters.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TestAdmission {
+
+    @Test
+    public void testRejectWhenFull() {
+        RoundRobinReceiver receiver = new RoundRobinReceiver(50);
+        receiver.setAdmission(2, AdmissionPolicy.REJECT);
+        assertTrue(receiver.submit(new ModuleRegister("P1", 100)));
+        assertTrue(receiver.submit(new ModuleRegister("P2", 100)));
+        assertFalse(receiver.submit(new ModuleRegister("P3", 100)));
+        // Submissions hold their places before they are enqueued
+        receiver.enqueue(new ModuleRegister("P4", 100));
+        assertEquals(2, receiver.getRejectedCount());
+        assertEquals(2, receiver.getOccupancy());
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(2, results.size());
+        assertEquals(0, receiver.getOccupancy());
+        assertTrue(receiver.submit(new ModuleRegister("P5", 100)));
+    }
+
+    @Test
+    public void testShedLowestPriority() {
+        PriorityReceiver receiver = new PriorityReceiver(50);
+        receiver.setAdmission(2, AdmissionPolicy.SHED_LOWEST_PRIORITY);
+        ModuleRegister low = new ModuleRegister("P1", 100, ModuleRegister.Priority.LOW);
+        ModuleRegister high = new ModuleRegister("P2", 100, ModuleRegister.Priority.HIGH);
+        ModuleRegister med = new ModuleRegister("P3", 100, ModuleRegister.Priority.MED);
+        ModuleRegister late = new ModuleRegister("P4", 100, ModuleRegister.Priority.LOW);
+        receiver.enqueue(low);
+        receiver.enqueue(high);
+        receiver.enqueue(med);
+        // The new process is the lowest priority, so is shed itself
+        receiver.enqueue(late);
+        assertEquals(2, receiver.getShedCount());
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(List.of(high, med), results);
+        assertEquals(100, low.getRemainingWorkToDo());
+        assertEquals(100, late.getRemainingWorkToDo());
+    }
+
+    @Test
+    public void testShedsLatestAdmittedOfLowestPriority() {
+        PriorityReceiver receiver = new PriorityReceiver(50);
+        ModuleRegister first = new ModuleRegister("P1", 100, ModuleRegister.Priority.LOW);
+        ModuleRegister second = new ModuleRegister("P2", 100, ModuleRegister.Priority.LOW);
+        ModuleRegister med = new ModuleRegister("P3", 100, ModuleRegister.Priority.MED);
+        receiver.enqueue(first);
+        receiver.enqueue(second);
+        receiver.enqueue(med);
+        // Shedding from here on, over the processes already queued
+        receiver.setAdmission(3, AdmissionPolicy.SHED_LOWEST_PRIORITY);
+        ModuleRegister high = new ModuleRegister("P4", 100, ModuleRegister.Priority.HIGH);
+        receiver.enqueue(high);
+        ModuleRegister late = new ModuleRegister("P5", 100, ModuleRegister.Priority.LOW);
+        receiver.enqueue(late);
+        ModuleRegister high2 = new ModuleRegister("P6", 100, ModuleRegister.Priority.HIGH);
+        receiver.enqueue(high2);
+        // second, then late itself as it ties with first, then first
+        assertEquals(3, receiver.getShedCount());
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(Set.of(high, high2, med), new HashSet<>(results));
+        assertEquals(100, first.getRemainingWorkToDo());
+        assertEquals(100, second.getRemainingWorkToDo());
+        assertEquals(100, late.getRemainingWorkToDo());
+    }
+
+    @Test
+    public void testRateLimiter() {
+        AtomicLong now = new AtomicLong();
+        RateLimiter limiter = new RateLimiter(10, 2, now::get);
+        assertTrue(limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice"));
+        assertFalse(limiter.tryAcquire("alice"));
+        // Each submitter has its own bucket
+        assertTrue(limiter.tryAcquire("bob"));
+
+        // One token is added every 100ms
+        now.addAndGet(100_000_000);
+        assertTrue(limiter.tryAcquire("alice"));
+        assertFalse(limiter.tryAcquire("alice"));
+
+        RoundRobinReceiver receiver = new RoundRobinReceiver(50);
+        receiver.setRateLimiter(limiter);
+        assertFalse(receiver.submit("alice", new ModuleRegister("P1", 100)));
+        assertTrue(receiver.submit("carol", new ModuleRegister("P2", 100)));
+        assertEquals(1, receiver.getRateLimitedCount());
+    }
+}
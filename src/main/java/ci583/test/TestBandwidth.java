@@ -0,0 +1,40 @@
+package ci583.test;
+
+/**
+ * Tests for capping the CPU time of a group with a quota per period.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestBandwidth {
+
+    @Test
+    public void testGroupIsCappedWhenIdle() {
+        RoundRobinReceiver receiver = new RoundRobinReceiver(50);
+        receiver.setQuota("admin", 20, 100);
+        ModuleRegister imports = new ModuleRegister("P1", 100);
+        imports.setGroup("admin/imports");
+        ModuleRegister other = new ModuleRegister("P2", 100);
+        receiver.enqueue(imports);
+        receiver.enqueue(other);
+
+        long start = System.currentTimeMillis();
+        List<ModuleRegister> results = receiver.startRegistration();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(List.of(other, imports), results);
+        // 100ms of work at 20ms in every 100ms, even once the receiver has nothing else to run
+        assertTrue("Took " + elapsed + "ms", elapsed >= 400);
+
+        GroupBandwidth admin = receiver.getQuotas().get(0);
+        assertEquals("admin", admin.getGroup());
+        assertTrue(admin.getThrottleCount() >= 4);
+        assertTrue(admin.getThrottledTime() > 0);
+        assertEquals(0, receiver.getOccupancy());
+    }
+}
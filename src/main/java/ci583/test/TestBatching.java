@@ -0,0 +1,36 @@
+package ci583.test;
+
+/**
+ * Tests for running short processes back to back within one quantum.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestBatching {
+
+    @Test
+    public void testShortProcessesShareAQuantum() {
+        RoundRobinReceiver receiver = new RoundRobinReceiver(100);
+        receiver.setBatching(true);
+        for(int i = 0; i < 10; i++) {
+            receiver.enqueue(new ModuleRegister("P" + i, 10));
+        }
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(10, results.size());
+
+        // Measured from the first process finishing, as the first dispatch also loads classes.
+        // Unbatched, each of the other nine would hold the CPU for a whole quantum
+        long elapsed = results.get(results.size() - 1).getReadyTime() - results.get(0).getReadyTime();
+        assertTrue("Took " + elapsed + "ms", elapsed < 450);
+        assertTrue(receiver.getBatchedCount() > 0);
+        for(ModuleRegister m : results) {
+            assertTrue(m.getRemainingWorkToDo() <= 0);
+        }
+    }
+}
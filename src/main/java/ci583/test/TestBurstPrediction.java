@@ -0,0 +1,91 @@
+package ci583.test;
+
+/**
+ * Tests for predicting CPU bursts, so shortest-job scheduling need not know the work of each
+ * process.
+ */
+
+import ci583.collections.LongDoubleMap;
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestBurstPrediction {
+
+    @Test
+    public void testMapMatchesHashMap() {
+        LongDoubleMap map = new LongDoubleMap(4);
+        HashMap<Long, Double> expected = new HashMap<>();
+        Random random = new Random(1);
+        for(int i = 0; i < 100_000; i++) {
+            // Few enough keys that removals often land in the middle of a probe run
+            long key = random.nextInt(512) * 1024L;
+            if(random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                double value = random.nextDouble();
+                expected.put(key, value);
+                map.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for(long key = 0; key < 512 * 1024L; key += 1024) {
+            assertEquals(expected.getOrDefault(key, -1D), map.get(key, -1), 0);
+        }
+    }
+
+    @Test
+    public void testPredictsFromClassHistory() {
+        ShortestJobFirstReceiver receiver = new ShortestJobFirstReceiver(100);
+        BurstPredictor predictor = new BurstPredictor(0.5, 200);
+        receiver.setBurstPredictor(predictor);
+        ModuleRegister io = new ModuleRegister("IO", 0);
+        io.setBursts(50, 50, 50);
+        List<ModuleRegister> processes = List.of(new ModuleRegister("Long1", 400), new ModuleRegister("Short1", 50),
+                new ModuleRegister("Short2", 50), io);
+        for(ModuleRegister m : processes) {
+            receiver.enqueue(m);
+        }
+
+        List<ModuleRegister> results = receiver.startRegistration();
+
+        assertEquals(4, results.size());
+        for(ModuleRegister m : processes) {
+            assertTrue(m.getRemainingWorkToDo() <= 0);
+        }
+        // One burst for each process, and two for the I/O job
+        assertEquals(5, predictor.getErrors().getCount());
+        assertTrue(predictor.getMeanAbsoluteError() > 0);
+        // New processes are predicted from the bursts of their class
+        long shortBurst = predictor.predictBurst(new ModuleRegister("Short3", 0));
+        long longBurst = predictor.predictBurst(new ModuleRegister("Long2", 0));
+        assertTrue(shortBurst + " < " + longBurst, shortBurst < longBurst);
+        assertTrue(shortBurst < 200);
+        assertEquals(200, predictor.predictBurst(new ModuleRegister("Other", 0)));
+    }
+
+    @Test
+    public void testClassesWithTheSameHashAreKeptApart() {
+        ShortestJobFirstReceiver receiver = new ShortestJobFirstReceiver(100);
+        BurstPredictor predictor = new BurstPredictor(0.5, 200);
+        receiver.setBurstPredictor(predictor);
+        receiver.enqueue(new ModuleRegister("Aa1", 400));
+        receiver.startRegistration();
+
+        // "Aa" and "BB" have the same String hash
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertTrue(predictor.predictBurst(new ModuleRegister("Aa2", 0)) > 200);
+        assertEquals(200, predictor.predictBurst(new ModuleRegister("BB1", 0)));
+
+        // A process's class follows its group
+        ModuleRegister grouped = new ModuleRegister("Aa3", 0);
+        assertTrue(predictor.predictBurst(grouped) > 200);
+        grouped.setGroup("admin");
+        assertEquals(200, predictor.predictBurst(grouped));
+    }
+}
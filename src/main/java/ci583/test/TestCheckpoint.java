@@ -0,0 +1,159 @@
+package ci583.test;
+
+/**
+ * Tests for checkpointing and restoring the queues of a receiver.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestCheckpoint {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ModuleRegister p1 = new ModuleRegister("P1", 300);
+        ModuleRegister p2 = new ModuleRegister("P2", 500, ModuleRegister.Priority.HIGH);
+        ModuleRegister p3 = new ModuleRegister("P3", 100);
+        ModuleRegister done = new ModuleRegister("P4", 100);
+        p1.setWorkCompleted(250);
+        p2.setInteractiveThreadChance(0.25);
+        done.setWorkCompleted(100);
+
+        ArrayDeque<ModuleRegister> top = new ArrayDeque<>(List.of(p1, done));
+        ArrayDeque<ModuleRegister> bottom = new ArrayDeque<>(List.of(p2, p3));
+        Path file = Files.createTempFile("receiver", ".ckpt");
+        try {
+            Checkpoint.write(QueueSnapshot.of(7, List.of(top, bottom)),
+                    MultiLevelFeedbackQueueRealReceiver.class.getSimpleName(), file);
+
+            Checkpoint checkpoint = Checkpoint.read(file);
+            assertEquals(7, checkpoint.getSnapshotVersion());
+            assertEquals(2, checkpoint.getLevelCount());
+            // The finished process is left out
+            assertEquals(3, checkpoint.size());
+
+            List<ModuleRegister> restored = checkpoint.restore(new MultiLevelFeedbackQueueRealReceiver(100));
+            assertEquals("P1", restored.get(0).getName());
+            assertEquals(250, restored.get(0).getWorkCompleted());
+            assertEquals("P2", restored.get(1).getName());
+            assertEquals(ModuleRegister.Priority.HIGH.getVal(), restored.get(1).getPriority());
+            assertEquals(0.25, restored.get(1).getInteractiveThreadChance(), 0);
+            assertEquals("P3", restored.get(2).getName());
+
+            assertThrows(IllegalArgumentException.class, () -> checkpoint.restore(new RoundRobinReceiver(100)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRestoredReceiverResumes() throws IOException {
+        ModuleRegister p1 = new ModuleRegister("P1", 2000);
+        p1.setWorkCompleted(1900);
+        Path file = Files.createTempFile("receiver", ".ckpt");
+        try {
+            Checkpoint.write(QueueSnapshot.of(1, List.of(p1)), RoundRobinReceiver.class.getSimpleName(), file);
+            RoundRobinReceiver receiver = new RoundRobinReceiver(50);
+            Checkpoint.read(file).restore(receiver);
+
+            long start = System.currentTimeMillis();
+            List<ModuleRegister> results = receiver.startRegistration();
+            assertEquals(1, results.size());
+            // Only the last 100ms of work is left
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testDetectsCorruption() throws IOException {
+        Path file = Files.createTempFile("receiver", ".ckpt");
+        try {
+            Checkpoint.write(QueueSnapshot.of(1, List.of(new ModuleRegister("P1", 100))), "RoundRobinReceiver", file);
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length - 10] ^= 1;
+            Files.write(file, bytes);
+            assertThrows(IOException.class, () -> Checkpoint.read(file));
+
+            Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+            assertThrows(IOException.class, () -> Checkpoint.read(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testWritesDetailsAsOfTheSnapshot() throws IOException {
+        ModuleRegister p1 = new ModuleRegister("P1", 300);
+        p1.setGroup("computing");
+        p1.setModule("CI583");
+        p1.setStudent("cs-1");
+        QueueSnapshot snapshot = QueueSnapshot.of(1, List.of(p1));
+        // Changed after the snapshot was taken, as the dispatcher could while a checkpoint is written
+        p1.setGroup("maths");
+        p1.setModule("CI601");
+        p1.setStudent("cs-2");
+
+        Path file = Files.createTempFile("receiver", ".ckpt");
+        try {
+            Checkpoint.write(snapshot, RoundRobinReceiver.class.getSimpleName(), file);
+            ModuleRegister restored = Checkpoint.read(file).restore(new RoundRobinReceiver(50)).get(0);
+            assertEquals("computing", restored.getGroup());
+            assertEquals("CI583", restored.getModule());
+            assertEquals("cs-1", restored.getStudent());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testCheckpointerWritesOnceStarted() throws Exception {
+        Path file = Files.createTempFile("receiver", ".ckpt");
+        Files.delete(file);
+        try(Checkpointer checkpointer = new Checkpointer(new RoundRobinReceiver(50), file, 10)) {
+            Thread.sleep(100);
+            assertFalse(Files.exists(file));
+
+            checkpointer.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while(!Files.exists(file) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.exists(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRestoredIoJobStillBlocks() throws IOException {
+        ModuleRegister io = new ModuleRegister("IO", 0);
+        io.setBursts(50, 100, 50, 100, 50);
+        io.setWorkCompleted(20);
+        Path file = Files.createTempFile("receiver", ".ckpt");
+        try {
+            Checkpoint.write(QueueSnapshot.of(1, List.of(io)), RoundRobinReceiver.class.getSimpleName(), file);
+            RoundRobinReceiver receiver = new RoundRobinReceiver(100);
+            ModuleRegister restored = Checkpoint.read(file).restore(receiver).get(0);
+            assertArrayEquals(new long[] {50, 100, 50, 100, 50}, restored.getBursts());
+            assertEquals(20, restored.getWorkCompleted());
+
+            receiver.startRegistration();
+            assertTrue(restored.getRemainingWorkToDo() <= 0);
+            // Still waits for I/O after each of its first two CPU bursts
+            assertEquals(2, receiver.getIoResponseTimes().getCount());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
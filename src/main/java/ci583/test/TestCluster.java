@@ -0,0 +1,116 @@
+package ci583.test;
+
+/**
+ * Tests for running jobs on workers over loopback connections to a coordinator.
+ */
+
+import ci583.batch.Workload;
+import ci583.cluster.Completion;
+import ci583.cluster.Coordinator;
+import ci583.cluster.Worker;
+import ci583.receiver.ModuleRegister;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+public class TestCluster {
+
+    private static final int JOBS = 40;
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+
+    @After
+    public void closeWorkers() throws Exception {
+        for(Worker worker : workers) {
+            worker.close();
+        }
+    }
+
+    @Test
+    public void testRebalancesOntoAddedWorker() throws Exception {
+        try(Coordinator coordinator = new Coordinator(1, completions::add)) {
+            coordinator.addWorker(startWorker());
+            Set<Long> ids = submit(coordinator);
+
+            // With a window of one, nearly every job is still waiting for the first worker
+            InetSocketAddress second = startWorker();
+            int moved = coordinator.addWorker(second);
+            assertTrue("No waiting jobs moved to the new worker", moved > 0);
+            assertEquals(2, coordinator.getWorkerCount());
+
+            assertTrue(coordinator.awaitCompletion(30000));
+            assertEquals(ids, completedIds());
+            String name = second.getHostString() + ":" + second.getPort();
+            long onSecond = completions.stream().filter(c -> c.getWorker().equals(name)).count();
+            assertEquals(moved, onSecond);
+        }
+    }
+
+    @Test
+    public void testResubmitsJobsOfLostWorker() throws Exception {
+        try(Coordinator coordinator = new Coordinator(2, completions::add)) {
+            coordinator.addWorker(startWorker());
+            coordinator.addWorker(startWorker());
+            Set<Long> ids = submit(coordinator);
+
+            // Dies with jobs sent to it and waiting for it
+            workers.get(0).close();
+
+            assertTrue(coordinator.awaitCompletion(30000));
+            assertEquals(ids, completedIds());
+            assertEquals(1, coordinator.getWorkerCount());
+            assertEquals(0, coordinator.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testWorkerRunsTheWholeJob() throws Exception {
+        try(Coordinator coordinator = new Coordinator(1, completions::add)) {
+            coordinator.addWorker(startWorker());
+            // Waits 300ms for I/O between its two CPU bursts
+            Workload.Job job = new Workload.Job("io", "student1", 40, ModuleRegister.Priority.MED, 0, 0, 0,
+                    "computing", new long[] {20, 300, 20}, "CI583");
+            coordinator.submit(job.getKey(), job);
+
+            assertTrue(coordinator.awaitCompletion(30000));
+            Completion completion = completions.peek();
+            assertFalse(completion.isRejected());
+            assertTrue(completion.getWorkCompleted() >= 40);
+            assertTrue("Turnaround " + completion.getTurnaround(), completion.getTurnaround() >= 300);
+        }
+    }
+
+    private InetSocketAddress startWorker() throws Exception {
+        Worker worker = new Worker(0, "rr", 10);
+        workers.add(worker);
+        Thread thread = new Thread(worker::serve, "test-worker-" + worker.getPort());
+        thread.setDaemon(true);
+        thread.start();
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), worker.getPort());
+    }
+
+    private Set<Long> submit(Coordinator coordinator) {
+        Set<Long> ids = new HashSet<>();
+        for(int i = 0; i < JOBS; i++) {
+            Workload.Job job = new Workload.Job("job" + i, "student" + i, 20, ModuleRegister.Priority.MED,
+                    0, 0, 0);
+            ids.add(coordinator.submit(job.getKey(), job));
+        }
+        return ids;
+    }
+
+    private Set<Long> completedIds() {
+        Set<Long> ids = new HashSet<>();
+        for(Completion completion : completions) {
+            ids.add(completion.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,66 @@
+package ci583.test;
+
+/**
+ * Tests for the partitioning of jobs across cluster workers.
+ */
+
+import ci583.cluster.ConsistentHashRing;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestConsistentHashRing {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testSpreadsKeys() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(128);
+        assertNull(ring.nodeFor("student-1"));
+        for(int i = 0; i < 4; i++) {
+            ring.add("w" + i, "localhost:" + (9000 + i));
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        for(int i = 0; i < KEYS; i++) {
+            counts.merge(ring.nodeFor("student-" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for(int count : counts.values()) {
+            // Within 25% of an even share
+            assertEquals(KEYS / 4D, count, KEYS / 16D);
+        }
+    }
+
+    @Test
+    public void testAddingNodeOnlyMovesItsKeys() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(128);
+        for(int i = 0; i < 3; i++) {
+            ring.add("w" + i, "localhost:" + (9000 + i));
+        }
+        String[] before = new String[KEYS];
+        for(int i = 0; i < KEYS; i++) {
+            before[i] = ring.nodeFor("student-" + i);
+        }
+
+        ring.add("w3", "localhost:9003");
+        int moved = 0;
+        for(int i = 0; i < KEYS; i++) {
+            String owner = ring.nodeFor("student-" + i);
+            if(!owner.equals(before[i])) {
+                assertEquals("w3", owner);
+                moved++;
+            }
+        }
+        assertEquals(KEYS / 4D, moved, KEYS / 16D);
+
+        // Removing the node puts every key back where it was
+        assertTrue(ring.remove("w3"));
+        for(int i = 0; i < KEYS; i++) {
+            assertEquals(before[i], ring.nodeFor("student-" + i));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ci583.test;
+
+/**
+ * Tests for charging receivers for context switches.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestContextSwitch {
+
+    @Test
+    public void testSwitchesCostUtilisation() {
+        ContextSwitchModel cold = new ContextSwitchModel(5, 5, 1);
+        runAlternating(cold);
+        // The two processes take turns, so each dispatch is a switch and evicts the other's cache
+        assertTrue(cold.getSwitches() >= 8);
+        assertEquals(cold.getSwitches() * 5, cold.getSwitchTime());
+        assertTrue("Refilled for " + cold.getRefillTime() + "ms", cold.getRefillTime() >= cold.getSwitches() * 4);
+        assertTrue(cold.getUtilisation() > 0 && cold.getUtilisation() < 0.8);
+
+        // With room for both working sets, only the first dispatch of each refills the cache
+        ContextSwitchModel warm = new ContextSwitchModel(5, 5, 2);
+        runAlternating(warm);
+        assertTrue("Refilled for " + warm.getRefillTime() + "ms", warm.getRefillTime() < 20);
+        assertTrue(warm.getUtilisation() > cold.getUtilisation());
+    }
+
+    private static void runAlternating(ContextSwitchModel model) {
+        RoundRobinReceiver receiver = new RoundRobinReceiver(20);
+        receiver.setContextSwitchModel(model);
+        receiver.enqueue(new ModuleRegister("P1", 100));
+        receiver.enqueue(new ModuleRegister("P2", 100));
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(2, results.size());
+        for(ModuleRegister m : results) {
+            assertTrue(m.getRemainingWorkToDo() <= 0);
+        }
+    }
+}
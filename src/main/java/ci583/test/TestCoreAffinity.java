@@ -0,0 +1,68 @@
+package ci583.test;
+
+/**
+ * Tests for keeping processes on the core they last ran on, simulated on several cores.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestCoreAffinity {
+
+    @Test
+    public void testAffinityAvoidsMigrations() {
+        MultiCoreSimulator affine = simulate(true, 1);
+        MultiCoreSimulator spread = simulate(false, 1);
+        assertTrue(affine.getMigrations() + " < " + spread.getMigrations(),
+                affine.getMigrations() < spread.getMigrations());
+        assertEquals(affine.getMigrations() * 50, affine.getMigrationTime());
+        assertTrue(affine.getThroughput(3) > spread.getThroughput(3));
+
+        // Once a core is idle and the other has two processes, one of them moves over
+        assertEquals(1, affine.getMigrations());
+        // Unless the cores may be further out of balance
+        assertEquals(0, simulate(true, 2).getMigrations());
+    }
+
+    @Test
+    public void testIoBoundProcessReturnsToItsCore() {
+        List<ModRegReceiver> cores = List.of(new RoundRobinReceiver(100), new RoundRobinReceiver(100));
+        MultiCoreSimulator simulator = new MultiCoreSimulator(cores, 100);
+        simulator.setAffinity(true, 1, 50);
+        ModuleRegister cpu = new ModuleRegister("CPU", 1000);
+        ModuleRegister io = new ModuleRegister("IO", 0);
+        io.setBursts(50, 100, 50, 100, 50);
+        long[] finish = new long[2];
+        simulator.run(List.of(cpu, io), new long[2], finish);
+        // Each process has a core to itself, and the I/O-bound one wakes where its cache is warm
+        assertEquals(0, simulator.getMigrations());
+        assertEquals(1, io.getLastCore());
+        assertEquals(350, finish[1]);
+        assertEquals(1000, finish[0]);
+    }
+
+    /**
+     * Runs three processes round robin on two cores
+     */
+    private static MultiCoreSimulator simulate(boolean affinity, int imbalance) {
+        List<ModRegReceiver> cores = List.of(new RoundRobinReceiver(100), new RoundRobinReceiver(100));
+        MultiCoreSimulator simulator = new MultiCoreSimulator(cores, 100);
+        simulator.setAffinity(affinity, imbalance, 50);
+        List<ModuleRegister> processes = new ArrayList<>();
+        for(int i = 1; i <= 3; i++) {
+            processes.add(new ModuleRegister("P" + i, 600));
+        }
+        long[] finish = new long[3];
+        simulator.run(processes, new long[3], finish);
+        for(ModuleRegister m : processes) {
+            assertTrue(m.getRemainingWorkToDo() <= 0);
+            assertTrue(m.getLastCore() >= 0);
+        }
+        return simulator;
+    }
+}
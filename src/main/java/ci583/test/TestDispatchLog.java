@@ -0,0 +1,85 @@
+package ci583.test;
+
+/**
+ * Tests for the ring buffer of CPU slices behind the timeline view.
+ */
+
+import ci583.receiver.DispatchLog;
+import ci583.receiver.ModuleRegister;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestDispatchLog {
+
+    @Test
+    public void testRecordAndSearch() {
+        DispatchLog log = new DispatchLog(16);
+        ModuleRegister p1 = new ModuleRegister("P1", 1000);
+        ModuleRegister p2 = new ModuleRegister("P2", 1000);
+        long t = log.getEpoch();
+
+        log.record(p1, t, t + 100, DispatchLog.Outcome.PREEMPTED);
+        log.record(p2, t + 100, t + 200, DispatchLog.Outcome.COMPLETED);
+        log.record(p1, t + 200, t + 300, DispatchLog.Outcome.YIELDED);
+
+        assertEquals(3, log.head());
+        assertEquals(2, log.getRowCount());
+        assertEquals("P2", log.getRowName(log.getRow(1)));
+        assertEquals(log.getRow(0), log.getRow(2));
+        assertEquals(DispatchLog.Outcome.COMPLETED, log.getOutcome(1));
+
+        assertEquals(1, log.search(100));
+        assertEquals(2, log.search(150));
+        assertEquals(3, log.search(1000));
+    }
+
+    @Test
+    public void testOverwritesOldest() {
+        DispatchLog log = new DispatchLog(16);
+        ModuleRegister p1 = new ModuleRegister("P1", 1000);
+        long t = log.getEpoch();
+
+        for(int i = 0; i < 40; i++) {
+            log.record(p1, t + i * 10, t + i * 10 + 10, DispatchLog.Outcome.PREEMPTED);
+        }
+
+        assertEquals(40, log.head());
+        assertEquals(40 - log.getCapacity(), log.tail());
+        assertFalse(log.isValid(log.tail() - 1));
+        assertTrue(log.isValid(log.tail()));
+        assertEquals(log.tail() * 10, log.getStart(log.tail()));
+        // Searching before the oldest slice finds the oldest slice still in the buffer
+        assertEquals(log.tail(), log.search(0));
+    }
+
+    @Test
+    public void testRowsArePerLog() {
+        DispatchLog first = new DispatchLog(16);
+        DispatchLog second = new DispatchLog(16);
+        ModuleRegister p1 = new ModuleRegister("P1", 1000);
+        ModuleRegister p2 = new ModuleRegister("P2", 1000);
+        long t = first.getEpoch();
+
+        first.record(p1, t, t + 10, DispatchLog.Outcome.PREEMPTED);
+        // P2 is the first process in the second log, and P1 the second, whatever their rows in the first
+        second.record(p2, t, t + 10, DispatchLog.Outcome.PREEMPTED);
+        second.record(p1, t + 10, t + 20, DispatchLog.Outcome.PREEMPTED);
+
+        assertEquals(1, first.getRowCount());
+        assertEquals(2, second.getRowCount());
+        assertEquals("P2", second.getRowName(second.getRow(0)));
+        assertEquals("P1", second.getRowName(second.getRow(1)));
+    }
+
+    @Test
+    public void testManyRows() {
+        DispatchLog log = new DispatchLog(16);
+        long t = log.getEpoch();
+        for(int i = 0; i < 1000; i++) {
+            log.record(new ModuleRegister("P" + i, 10), t + i, t + i + 1, DispatchLog.Outcome.COMPLETED);
+        }
+        assertEquals(1000, log.getRowCount());
+        assertEquals("P999", log.getRowName(log.getRow(999)));
+    }
+}
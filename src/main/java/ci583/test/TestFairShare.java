@@ -0,0 +1,71 @@
+package ci583.test;
+
+/**
+ * Tests for the hierarchical fair-share receiver.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestFairShare {
+
+    @Test
+    public void testTimeDividedByWeight() {
+        FairShareReceiver receiver = new FairShareReceiver(20);
+        receiver.setWeight("computing", 3);
+        ModuleRegister heavy = new ModuleRegister("P1", 600);
+        heavy.setGroup("computing");
+        ModuleRegister light = new ModuleRegister("P2", 600);
+        light.setGroup("business");
+        long[] lightDone = new long[1];
+        receiver.setCompletionListener(m -> {
+            if(m == heavy) lightDone[0] = light.getWorkCompleted();
+        });
+        receiver.enqueue(heavy);
+        receiver.enqueue(light);
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(List.of(heavy, light), results);
+        // The light group gets a quarter of the time while both are running
+        assertTrue("Light group had " + lightDone[0] + "ms", lightDone[0] >= 100 && lightDone[0] <= 320);
+
+        FairShareReceiver.GroupUsage computing = receiver.getGroupUsage().get(0);
+        assertEquals("computing", computing.getGroup());
+        assertEquals(0.75, computing.getTargetShare(), 1e-9);
+        assertEquals(1, computing.getCompleted());
+    }
+
+    @Test
+    public void testBurstDoesNotStarveOtherGroups() {
+        FairShareReceiver receiver = new FairShareReceiver(20);
+        List<ModuleRegister> burst = new ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            ModuleRegister m = new ModuleRegister("C" + i, 100);
+            m.setGroup("computing/year" + (i % 2 + 1));
+            burst.add(m);
+            receiver.enqueue(m);
+        }
+        ModuleRegister other = new ModuleRegister("B1", 100);
+        other.setGroup("business");
+        receiver.enqueue(other);
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(9, results.size());
+        // Half the time goes to business, so it finishes long before the burst
+        assertTrue(results.indexOf(other) < 3);
+
+        // Subgroups add up to their parent
+        long computing = 0;
+        long years = 0;
+        for(FairShareReceiver.GroupUsage usage : receiver.getGroupUsage()) {
+            if(usage.getGroup().equals("computing")) computing = usage.getCpuTime();
+            if(usage.getGroup().startsWith("computing/")) years += usage.getCpuTime();
+        }
+        assertEquals(computing, years);
+    }
+}
@@ -0,0 +1,97 @@
+package ci583.test;
+
+/**
+ * Tests for accepting registrations over HTTP.
+ */
+
+import ci583.intake.IntakeServer;
+import ci583.receiver.AdmissionPolicy;
+import ci583.receiver.RoundRobinReceiver;
+import ci583.receiver.WriteAheadLog;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class TestIntakeServer {
+
+    @Test
+    public void testRepliesWhenRegistrationsComplete() throws Exception {
+        try(IntakeServer server = new IntakeServer(new RoundRobinReceiver(20), 0)) {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + server.getPort() + "/registrations");
+
+            // All pending at once, each waiting on its own virtual thread
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for(int i = 1; i <= 20; i++) {
+                responses.add(client.sendAsync(HttpRequest.newBuilder(uri)
+                        .POST(HttpRequest.BodyPublishers.ofString("P" + i + " 20 key=student" + i)).build(),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            for(int i = 1; i <= 20; i++) {
+                HttpResponse<String> response = responses.get(i - 1).get();
+                assertEquals(200, response.statusCode());
+                assertTrue(response.body(), response.body().startsWith("P" + i + " turnaround="));
+            }
+            assertEquals(0, server.getPendingCount());
+
+            // A bulk import of several lines is answered once they have all completed
+            HttpResponse<String> bulk = client.send(HttpRequest.newBuilder(uri)
+                    .POST(HttpRequest.BodyPublishers.ofString("B1 20\nB2 20 priority=HIGH\n")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, bulk.statusCode());
+            assertEquals(2, bulk.body().lines().count());
+
+            HttpResponse<String> bad = client.send(HttpRequest.newBuilder(uri)
+                    .POST(HttpRequest.BodyPublishers.ofString("P1 lots")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, bad.statusCode());
+            HttpResponse<String> get = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, get.statusCode());
+        }
+    }
+
+    @Test
+    public void testWaitsDoNotPinCarriers() throws Exception {
+        // More requests than carrier threads, each waiting for room and for its enqueue to be durable
+        int requests = Math.max(200, Runtime.getRuntime().availableProcessors() * 8);
+        Path log = Files.createTempFile("intake", ".wal");
+        RoundRobinReceiver receiver = new RoundRobinReceiver(5);
+        receiver.setBatching(true);
+        receiver.setAdmission(8, AdmissionPolicy.BLOCK);
+        try(WriteAheadLog wal = WriteAheadLog.open(log)) {
+            receiver.setWriteAheadLog(wal);
+            try(IntakeServer server = new IntakeServer(receiver, 0)) {
+                HttpClient client = HttpClient.newHttpClient();
+                URI uri = URI.create("http://localhost:" + server.getPort() + "/registrations");
+                List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+                for(int i = 0; i < requests; i++) {
+                    responses.add(client.sendAsync(HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofString("P" + i + " 2")).build(),
+                            HttpResponse.BodyHandlers.ofString()));
+                }
+                for(CompletableFuture<HttpResponse<String>> response : responses) {
+                    assertEquals(200, response.get().statusCode());
+                }
+            }
+            // A virtual thread waiting on a monitor pins its carrier, and the scheduler adds a
+            // carrier to make up for each one, so waiting for room or the log would add dozens. The
+            // JDK's server only pins briefly, while reading a body
+            long carriers = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().startsWith("ForkJoinPool-") && t.getName().contains("-worker-"))
+                    .count();
+            assertTrue(carriers + " carriers", carriers <= Runtime.getRuntime().availableProcessors() * 2L + 2);
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ci583.test;
+
+/**
+ * Tests for processes that alternate CPU bursts with waits for I/O.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestIoBursts {
+
+    @Test
+    public void testIoOverlapsWithCpuWork() {
+        RoundRobinReceiver receiver = new RoundRobinReceiver(100);
+        ModuleRegister cpu = new ModuleRegister("CPU", 1000);
+        ModuleRegister io = new ModuleRegister("IO", 0);
+        io.setBursts(50, 300, 50, 300, 50);
+        assertEquals(150, io.getWork());
+        receiver.enqueue(cpu);
+        receiver.enqueue(io);
+
+        List<ModuleRegister> results = receiver.startRegistration();
+
+        assertEquals(List.of(io, cpu), results);
+        assertTrue(io.getRemainingWorkToDo() <= 0);
+        assertEquals(0, receiver.getBlockedCount());
+        assertEquals(2, receiver.getIoResponseTimes().getCount());
+
+        // Each time the I/O job blocks, the CPU job gets the CPU rather than it sitting idle
+        DispatchLog log = receiver.getDispatchLog();
+        int blocks = 0;
+        for(long seq = log.tail(); seq < log.head(); seq++) {
+            if(log.getOutcome(seq) == DispatchLog.Outcome.BLOCKED) {
+                blocks++;
+                assertEquals("IO", log.getRowName(log.getRow(seq)));
+                assertTrue(seq + 1 < log.head());
+                assertEquals("CPU", log.getRowName(log.getRow(seq + 1)));
+            }
+        }
+        assertEquals(2, blocks);
+    }
+}
@@ -0,0 +1,57 @@
+package ci583.test;
+
+/**
+ * Tests for driving receivers at a fixed arrival rate.
+ */
+
+import ci583.batch.LoadDriver;
+import ci583.receiver.RoundRobinReceiver;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestLoadDriver {
+
+    @Test
+    public void testLightLoadIsSustainable() throws Exception {
+        LoadDriver driver = new LoadDriver(() -> {
+            RoundRobinReceiver receiver = new RoundRobinReceiver(20);
+            receiver.setBatching(true);
+            return receiver;
+        }, 5);
+        driver.setLimits(1000, 1000, 100);
+        LoadDriver.Step step = driver.run(20);
+
+        assertEquals(20, step.getOffered());
+        assertEquals(20, step.getCompleted());
+        assertEquals(0, step.getRejected());
+        assertEquals(0, step.getUnfinished());
+        assertTrue(step.isSustainable());
+        // Latency from when each job was due can only be longer than from when it was submitted
+        assertTrue(step.getLatency().getSum() >= step.getUncorrectedLatency().getSum());
+    }
+
+    @Test
+    public void testOverloadIsNotSustainable() throws Exception {
+        // Each job needs 50ms, but one is due every 10ms
+        List<RoundRobinReceiver> receivers = new ArrayList<>();
+        LoadDriver driver = new LoadDriver(() -> {
+            RoundRobinReceiver receiver = new RoundRobinReceiver(20);
+            receivers.add(receiver);
+            return receiver;
+        }, 50);
+        driver.setLimits(500, 200, 20);
+        LoadDriver.Step step = driver.run(100);
+
+        assertFalse(step.isSustainable());
+        assertTrue(step.getRejected() > 0);
+        assertTrue(step.getAchievedRate() < step.getRate());
+        // The backlog left over is finished before the step is returned, not while the next runs
+        assertTrue(step.getUnfinished() > 0);
+        assertFalse(receivers.get(0).isDispatching());
+        assertEquals(0, receivers.get(0).getOccupancy());
+    }
+}
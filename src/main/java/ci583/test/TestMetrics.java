@@ -0,0 +1,112 @@
+package ci583.test;
+
+/**
+ * Tests for the histograms and the Prometheus output of the metrics registry.
+ */
+
+import ci583.metrics.Histogram;
+import ci583.metrics.MetricsRegistry;
+import ci583.metrics.MetricsServer;
+import ci583.receiver.ModRegReceiver;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.RoundRobinReceiver;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.Assert.*;
+
+public class TestMetrics {
+
+    @Test
+    public void testHistogramPercentiles() {
+        Histogram h = new Histogram();
+        for(int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(500500, h.getSum());
+
+        // Buckets are within 12.5% of the values they hold
+        assertEquals(500, h.getValueAtPercentile(50), 500 * 0.125);
+        assertEquals(990, h.getValueAtPercentile(99), 990 * 0.125);
+        assertEquals(511, h.countBelow(512));
+        assertEquals(1000, h.countBelow(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        // Each value lands in a bucket whose upper bound is at most 12.5% above it
+        for(long v : new long[] {0, 1, 7, 8, 9, 15, 16, 1000, 123456789L, Long.MAX_VALUE / 2}) {
+            Histogram h = new Histogram();
+            h.record(v);
+            long upper = h.getValueAtPercentile(100);
+            assertTrue(upper >= v);
+            assertTrue(upper - v <= v / Histogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void testScrape() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_total", "A counter", "receiver", "RR").add(3);
+        registry.histogram("test_seconds", "A histogram", "receiver", "RR").record(1500);
+        // On the bound of a bucket, so counted in it
+        registry.histogram("test_seconds", "A histogram", "receiver", "RR").record(2048);
+        registry.gauge("test_depth", "A gauge", sink -> sink.sample(4, "level", "0"));
+
+        try(MetricsServer server = new MetricsServer(registry, 0)) {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            String body = response.body();
+
+            assertEquals(200, response.statusCode());
+            assertTrue(body.contains("# TYPE test_total counter\ntest_total{receiver=\"RR\"} 3\n"));
+            assertTrue(body.contains("test_seconds_bucket{receiver=\"RR\",le=\"1.024\"} 0\n"));
+            assertTrue(body.contains("test_seconds_bucket{receiver=\"RR\",le=\"2.048\"} 2\n"));
+            assertTrue(body.contains("test_seconds_sum{receiver=\"RR\"} 3.548\n"));
+            assertTrue(body.contains("test_depth{level=\"0\"} 4\n"));
+        }
+
+        registry.remove("test_total", "receiver", "RR");
+        StringBuilder out = new StringBuilder();
+        registry.writePrometheus(out);
+        assertFalse(out.toString().contains("test_total{"));
+    }
+
+    @Test
+    public void testReceiverFeedsMetrics() {
+        MetricsRegistry registry = new MetricsRegistry();
+        ModRegReceiver.setMetricsRegistry(registry);
+        try {
+            RoundRobinReceiver receiver = new RoundRobinReceiver(20);
+            receiver.enqueue(new ModuleRegister("P1", 40));
+            receiver.enqueue(new ModuleRegister("P2", 20));
+            receiver.startRegistration();
+        } finally {
+            ModRegReceiver.setMetricsRegistry(null);
+        }
+
+        StringBuilder out = new StringBuilder();
+        registry.writePrometheus(out);
+        String body = out.toString();
+        assertTrue(body, body.contains("ci583_completions_total{receiver=\"RoundRobinReceiver\""));
+        // P2 waits behind P1's first quantum, and P1 behind P2's
+        double waited = sample(body, "ci583_queue_wait_seconds_sum");
+        assertTrue(body, waited >= 0.03);
+        assertTrue(body, sample(body, "ci583_turnaround_seconds_count") == 2);
+    }
+
+    private static double sample(String body, String name) {
+        for(String line : body.split("\n")) {
+            if(line.startsWith(name + "{")) {
+                return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        throw new AssertionError("No sample " + name + " in " + body);
+    }
+}
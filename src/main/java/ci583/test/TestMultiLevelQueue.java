@@ -0,0 +1,86 @@
+package ci583.test;
+
+/**
+ * Tests for the multilevel queue receiver, run in simulated time so the order of the decisions
+ * is exact.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestMultiLevelQueue {
+
+    @Test
+    public void testFixedSplitRunsForegroundFirst() {
+        MultiLevelQueueReceiver receiver = new MultiLevelQueueReceiver(100);
+        receiver.setSplit(MultiLevelQueueReceiver.Split.FIXED);
+        receiver.assign("web", 0);
+        long[] finish = run(receiver);
+        // The foreground jobs share the CPU round robin, then the background job runs
+        assertArrayEquals(new long[] {500, 300, 400}, finish);
+    }
+
+    @Test
+    public void testWeightedSplitTakesTurns() {
+        MultiLevelQueueReceiver receiver = new MultiLevelQueueReceiver(100, MultiLevelQueueReceiver.Split.WEIGHTED);
+        receiver.addLevel("Foreground", MultiLevelQueueReceiver.Ordering.ROUND_ROBIN, 1);
+        receiver.addLevel("Background", MultiLevelQueueReceiver.Ordering.FIRST_COME_FIRST_SERVE, 1);
+        receiver.setDefaultLevel(1);
+        receiver.assign("web", 0);
+        long[] finish = run(receiver);
+        // The background job gets the second quantum, rather than waiting for the foreground
+        assertArrayEquals(new long[] {200, 400, 500}, finish);
+    }
+
+    @Test
+    public void testLevelOrderings() {
+        MultiLevelQueueReceiver receiver = new MultiLevelQueueReceiver(100, MultiLevelQueueReceiver.Split.FIXED);
+        receiver.addLevel("Jobs", MultiLevelQueueReceiver.Ordering.SHORTEST_JOB_FIRST, 1);
+        List<ModuleRegister> processes = List.of(new ModuleRegister("P1", 300), new ModuleRegister("P2", 100),
+                new ModuleRegister("P3", 200));
+        long[] finish = new long[3];
+        new PolicySimulator(receiver, 100).run(processes, new long[3], finish);
+        assertArrayEquals(new long[] {600, 100, 300}, finish);
+
+        assertThrows(IllegalArgumentException.class, () -> receiver.assign("web", 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> receiver.addLevel("Empty", MultiLevelQueueReceiver.Ordering.ROUND_ROBIN, 0));
+    }
+
+    // Spun forever when the level's bit outlived its processes
+    @Test(timeout = 5000)
+    public void testLevelEmptiedByAdmission() {
+        MultiLevelQueueReceiver receiver = new MultiLevelQueueReceiver(20);
+        receiver.assign("fg", 0);
+        receiver.setAdmission(2, AdmissionPolicy.REJECT);
+        receiver.enqueue(new ModuleRegister("Bulk1", 20));
+        receiver.enqueue(new ModuleRegister("Bulk2", 20));
+        // Taken straight back out of the foreground level, leaving it empty
+        ModuleRegister web = new ModuleRegister("Web", 20);
+        web.setGroup("fg");
+        receiver.enqueue(web);
+        assertEquals(1, receiver.getRejectedCount());
+
+        List<ModuleRegister> results = receiver.startRegistration();
+        assertEquals(2, results.size());
+    }
+
+    /**
+     * Runs a background job and two foreground jobs in the "web" group, all arriving at once
+     * @return the time each job finished
+     */
+    private static long[] run(MultiLevelQueueReceiver receiver) {
+        ModuleRegister bulk = new ModuleRegister("Bulk", 100);
+        ModuleRegister web1 = new ModuleRegister("Web1", 200);
+        web1.setGroup("web");
+        ModuleRegister web2 = new ModuleRegister("Web2", 200);
+        web2.setGroup("web");
+        long[] finish = new long[3];
+        new PolicySimulator(receiver, 100).run(List.of(bulk, web1, web2), new long[3], finish);
+        return finish;
+    }
+}
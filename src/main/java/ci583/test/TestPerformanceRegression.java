@@ -0,0 +1,57 @@
+package ci583.test;
+
+/**
+ * The performance regression gate: each receiver's throughput, allocation and turnaround on the
+ * benchmark workloads, through its policy and its real dispatch loop, must stay within tolerance
+ * of the committed baselines. Throughput is relative to a reference measured on the same machine,
+ * but on a noisy machine the tolerance can be widened with -Dci583.benchmark.tolerance=0.8
+ */
+
+import ci583.batch.Benchmark;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class TestPerformanceRegression {
+
+    @Test
+    public void testNoRegressions() throws IOException {
+        double tolerance = Double.parseDouble(System.getProperty("ci583.benchmark.tolerance",
+                Double.toString(Benchmark.THROUGHPUT_TOLERANCE)));
+        List<String> regressions = Benchmark.check(Benchmark.measureAll(), Benchmark.readBaseline(), tolerance);
+        assertTrue(String.join("\n", regressions), regressions.isEmpty());
+    }
+
+    @Test
+    public void testGateCatchesRegressions() {
+        double reference = Benchmark.measureReference();
+        Benchmark.Result result = Benchmark.measure("priority", Benchmark.Scenario.UNIFORM,
+                Benchmark.Mode.POLICY, reference);
+        // Same decisions, so the turnarounds match exactly
+        assertEquals(result.getP99(), Benchmark.measure("priority", Benchmark.Scenario.UNIFORM,
+                Benchmark.Mode.POLICY, reference).getP99());
+
+        Properties baseline = new Properties();
+        baseline.setProperty(result.getKey() + ".relativeThroughput", Double.toString(result.getRelativeThroughput() * 10));
+        baseline.setProperty(result.getKey() + ".p99", Long.toString(result.getP99() / 2));
+        assertEquals(2, Benchmark.compare(List.of(result), baseline, Benchmark.THROUGHPUT_TOLERANCE).size());
+    }
+
+    @Test
+    public void testDispatchPathIsDeterministic() {
+        double reference = Benchmark.measureReference();
+        Benchmark.Result first = Benchmark.measure("mlfq", Benchmark.Scenario.BURSTY, Benchmark.Mode.DISPATCH, reference);
+        Benchmark.Result second = Benchmark.measure("mlfq", Benchmark.Scenario.BURSTY, Benchmark.Mode.DISPATCH, reference);
+        assertEquals("mlfq.bursty.dispatch", first.getKey());
+        // The dispatch loop ran in simulated time, so made the same decisions both times
+        assertEquals(first.getP50(), second.getP50());
+        assertEquals(first.getP99(), second.getP99());
+        // The bursts arrive 10s apart, which took no time at all to wait out
+        assertTrue(first.getP99() > 0);
+        assertTrue(first.getDecisionsPerSecond() > 1000);
+    }
+}
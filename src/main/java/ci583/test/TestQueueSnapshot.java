@@ -0,0 +1,48 @@
+package ci583.test;
+
+/**
+ * Tests for how often the dispatcher publishes a snapshot of its queues.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestQueueSnapshot {
+
+    @Test
+    public void testUnreadQueuesAreNotPublished() {
+        RoundRobinReceiver receiver = new RoundRobinReceiver(5);
+        for(int i = 0; i < 5; i++) {
+            receiver.enqueue(new ModuleRegister("P" + i, 30));
+        }
+        receiver.startRegistration();
+        // Nothing read the snapshot, so the queues were never copied
+        assertEquals(0, receiver.getSnapshot().getVersion());
+    }
+
+    @Test
+    public void testReadQueuesArePublishedOncePerFrame() throws InterruptedException {
+        RoundRobinReceiver receiver = new RoundRobinReceiver(5);
+        for(int i = 0; i < 5; i++) {
+            receiver.enqueue(new ModuleRegister("P" + i, 30));
+        }
+        Thread reader = Thread.ofPlatform().daemon().start(() -> {
+            while(!Thread.currentThread().isInterrupted()) {
+                receiver.getSnapshot();
+                Thread.onSpinWait();
+            }
+        });
+        long start = System.currentTimeMillis();
+        receiver.startRegistration();
+        long elapsed = System.currentTimeMillis() - start;
+        reader.interrupt();
+        reader.join();
+
+        // At least 30 dispatch points, but only one publication per 16ms frame
+        long version = receiver.getSnapshot().getVersion();
+        assertTrue("Published " + version + " times", version > 0);
+        assertTrue("Published " + version + " times in " + elapsed + "ms", version <= elapsed / 16 + 1);
+    }
+}
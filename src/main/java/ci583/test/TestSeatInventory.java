@@ -0,0 +1,172 @@
+package ci583.test;
+
+/**
+ * Tests for reserving seats on modules as registrations complete.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestSeatInventory {
+
+    @Test
+    public void testConcurrentReservationsNeverOversell() throws Exception {
+        ModuleCatalogue catalogue = new ModuleCatalogue();
+        ModuleCatalogue.Seats seats = catalogue.addModule("CI583", 1000);
+        AtomicInteger reserved = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 16; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for(int i = 0; i < 500; i++) {
+                    if(seats.reserve()) {
+                        reserved.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1000, reserved.get());
+        assertEquals(0, seats.getAvailable());
+        assertEquals(16 * 500 - 1000, seats.getRefusedCount());
+
+        // A seat given back can be taken again, from any thread's stripe
+        seats.release();
+        assertEquals(1, seats.getAvailable());
+        assertTrue(seats.reserve());
+        assertFalse(seats.reserve());
+    }
+
+    @Test
+    public void testCompletedRegistrationsClaimSeats() {
+        ModuleCatalogue catalogue = new ModuleCatalogue();
+        catalogue.addModule("CI583", 2);
+        RoundRobinReceiver receiver = new RoundRobinReceiver(20);
+        receiver.setCatalogue(catalogue);
+        List<ModuleRegister> registrations = new ArrayList<>();
+        for(int i = 0; i < 3; i++) {
+            ModuleRegister m = new ModuleRegister("P" + i, 10);
+            m.setModule("CI583");
+            registrations.add(m);
+            receiver.enqueue(m);
+        }
+        ModuleRegister other = new ModuleRegister("P3", 10);
+        other.setModule("CI999");
+        receiver.enqueue(other);
+        receiver.startRegistration();
+
+        int seated = 0;
+        for(ModuleRegister m : registrations) {
+            assertTrue(m.hasSeat() != m.wasRefusedSeat());
+            seated += m.hasSeat() ? 1 : 0;
+        }
+        assertEquals(2, seated);
+        assertTrue(other.wasRefusedSeat());
+        assertEquals(1, catalogue.getUnknownCount());
+
+        // A withdrawal frees its seat, and only once
+        ModuleRegister withdrawn = registrations.stream().filter(ModuleRegister::hasSeat).findFirst().get();
+        assertTrue(catalogue.release(withdrawn));
+        assertFalse(catalogue.release(withdrawn));
+        assertEquals(1, catalogue.getSeats("CI583").getAvailable());
+    }
+
+    @Test
+    public void testCapacityCannotChange() {
+        ModuleCatalogue catalogue = new ModuleCatalogue();
+        ModuleCatalogue.Seats seats = catalogue.addModule("CI583", 2);
+        assertSame(seats, catalogue.addModule("CI583", 2));
+        // A receiver could be taking a seat from it at the same time
+        assertThrows(IllegalStateException.class, () -> catalogue.addModule("CI583", 3));
+        assertEquals(2, catalogue.getSeats("CI583").getCapacity());
+    }
+
+    @Test
+    public void testSeatsAreRecoveredFromTheLog() throws IOException {
+        Path file = Files.createTempFile("receiver", ".wal");
+        try {
+            WriteAheadLog wal = WriteAheadLog.open(file);
+            RoundRobinReceiver receiver = seatedReceiver();
+            receiver.setWriteAheadLog(wal);
+            for(int i = 0; i < 2; i++) {
+                receiver.submit(registration("P" + i));
+            }
+            receiver.startRegistration();
+            // Accepted but not run before the "crash"
+            receiver.submit(registration("P2"));
+            wal.close();
+
+            // Opened twice, so the seats must survive compaction
+            WriteAheadLog.open(file).close();
+            wal = WriteAheadLog.open(file);
+            assertEquals(2, wal.getSeatCount());
+            receiver = seatedReceiver();
+            receiver.setWriteAheadLog(wal);
+            wal.recover(receiver, null);
+            assertEquals(1, receiver.getCatalogue().getSeats("CI583").getAvailable());
+
+            List<ModuleRegister> results = receiver.startRegistration();
+            assertTrue(results.get(0).hasSeat());
+            assertEquals(0, receiver.getCatalogue().getSeats("CI583").getAvailable());
+            wal.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSeatsAreRestoredFromACheckpoint() throws Exception {
+        Path file = Files.createTempFile("receiver", ".ckpt");
+        try {
+            RoundRobinReceiver receiver = seatedReceiver();
+            for(int i = 0; i < 2; i++) {
+                receiver.enqueue(registration("P" + i));
+            }
+            receiver.startDispatcher(() -> {}).join();
+            Checkpoint.write(receiver.getSnapshot(), RoundRobinReceiver.class.getSimpleName(), file);
+
+            Checkpoint checkpoint = Checkpoint.read(file);
+            assertEquals(2, checkpoint.getSeats("CI583"));
+            receiver = seatedReceiver();
+            checkpoint.restore(receiver);
+            assertEquals(1, receiver.getCatalogue().getSeats("CI583").getAvailable());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static RoundRobinReceiver seatedReceiver() {
+        ModuleCatalogue catalogue = new ModuleCatalogue();
+        catalogue.addModule("CI583", 3);
+        RoundRobinReceiver receiver = new RoundRobinReceiver(20);
+        receiver.setCatalogue(catalogue);
+        return receiver;
+    }
+
+    private static ModuleRegister registration(String name) {
+        ModuleRegister m = new ModuleRegister(name, 10);
+        m.setModule("CI583");
+        return m;
+    }
+}
@@ -0,0 +1,96 @@
+package ci583.test;
+
+/**
+ * Tests for checking registrations against students' timetables.
+ */
+
+import ci583.receiver.ModuleCatalogue;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.RoundRobinReceiver;
+import ci583.receiver.Timetable;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestTimetable {
+
+    private static ModuleRegister registration(String name, String student, String module) {
+        ModuleRegister m = new ModuleRegister(name, 10);
+        m.setStudent(student);
+        m.setModule(module);
+        return m;
+    }
+
+    @Test
+    public void testClashesAcrossWords() {
+        // Two words of slots, with CI583 and CI601 clashing in the second
+        Timetable timetable = new Timetable(120, 10);
+        timetable.setModule("CI583", 3, 70);
+        timetable.setModule("CI601", 70, 100);
+        timetable.setModule("CI646", 4, 101);
+
+        assertTrue(timetable.book(registration("P1", "cs-1", "CI583")));
+        assertTrue(timetable.book(registration("P2", "cs-1", "CI646")));
+        ModuleRegister clash = registration("P3", "cs-1", "CI601");
+        assertTrue(timetable.clashes(clash));
+        assertFalse(timetable.book(clash));
+        assertTrue(clash.hasClash());
+        assertTrue(timetable.isBooked("cs-1", 70));
+        assertFalse(timetable.isBooked("cs-1", 100));
+
+        // Another student's timetable is their own
+        assertTrue(timetable.book(registration("P4", "cs-2", "CI601")));
+
+        // Withdrawing frees the slots
+        timetable.cancel(registration("P1", "cs-1", "CI583"));
+        assertFalse(timetable.isBooked("cs-1", 70));
+        assertTrue(timetable.book(registration("P5", "cs-1", "CI601")));
+    }
+
+    @Test
+    public void testManyStudents() {
+        // Starts with room for fewer students than book, so more is made
+        Timetable timetable = new Timetable(50, 1000);
+        timetable.setModule("CI583", 0, 1);
+        timetable.setModule("CI601", 1, 2);
+        for(int i = 0; i < 100_000; i++) {
+            assertTrue(timetable.book(registration("P", "s" + i, "CI583")));
+        }
+        for(int i = 0; i < 100_000; i++) {
+            assertTrue(timetable.clashes(registration("P", "s" + i, "CI601")));
+        }
+        assertEquals(100_000, timetable.getStudentCount());
+        assertEquals(100_000, timetable.getClashCount());
+    }
+
+    @Test
+    public void testReceiverChecksTimetable() {
+        Timetable timetable = new Timetable(50, 10);
+        timetable.setModule("CI583", 10);
+        timetable.setModule("CI601", 10);
+        ModuleCatalogue catalogue = new ModuleCatalogue();
+        catalogue.addModule("CI583", 10);
+        catalogue.addModule("CI601", 10);
+        RoundRobinReceiver receiver = new RoundRobinReceiver(20);
+        receiver.setTimetable(timetable);
+        receiver.setCatalogue(catalogue);
+
+        // Both accepted before either has booked its slot, so the second is caught as it completes
+        ModuleRegister first = registration("P1", "cs-1", "CI583");
+        ModuleRegister second = registration("P2", "cs-1", "CI601");
+        receiver.enqueue(first);
+        receiver.enqueue(second);
+        receiver.startRegistration();
+        assertTrue(first.hasSeat());
+        assertTrue(second.hasClash());
+        assertFalse(second.hasSeat());
+        assertEquals(9, catalogue.getSeats("CI583").getAvailable());
+        assertEquals(10, catalogue.getSeats("CI601").getAvailable());
+
+        // Once booked, a clashing submission is turned away
+        ModuleRegister third = registration("P3", "cs-1", "CI601");
+        assertFalse(receiver.submit(third));
+        assertTrue(third.hasClash());
+        assertTrue(receiver.submit(registration("P4", "cs-2", "CI601")));
+    }
+}
@@ -0,0 +1,162 @@
+package ci583.test;
+
+/**
+ * Tests for the hierarchical timing wheel used by the receivers. The wheel is driven by a
+ * manual clock so the tests run instantly.
+ */
+
+import ci583.collections.TimingWheel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestTimingWheel {
+
+    private long now;
+    private TimingWheel wheel;
+
+    @Before
+    public void setUp() {
+        now = 1000;
+        wheel = new TimingWheel(1, () -> now);
+    }
+
+    @Test
+    public void testFiresAtDeadline() {
+        List<String> fired = new ArrayList<>();
+        wheel.schedule(100, () -> fired.add("A"));
+        wheel.schedule(50, () -> fired.add("B"));
+
+        now += 49;
+        wheel.advance();
+        assertTrue(fired.isEmpty());
+
+        now += 1;
+        wheel.advance();
+        assertEquals("[B]", fired.toString());
+
+        now += 50;
+        wheel.advance();
+        assertEquals("[B, A]", fired.toString());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testCancel() {
+        List<String> fired = new ArrayList<>();
+        TimingWheel.Timeout a = wheel.schedule(10, () -> fired.add("A"));
+        wheel.schedule(10, () -> fired.add("B"));
+
+        assertTrue(a.cancel());
+        assertFalse(a.cancel());
+        assertEquals(1, wheel.size());
+
+        now += 10;
+        wheel.advance();
+        assertEquals("[B]", fired.toString());
+    }
+
+    @Test
+    public void testCascadesAcrossLevels() {
+        // Deadlines on every level of the wheel, checked against the exact tick they fire on
+        long[] delays = {1, 63, 64, 65, 4095, 4096, 4097, 300_000, 20_000_000};
+        long[] firedAt = new long[delays.length];
+        for(int i = 0; i < delays.length; i++) {
+            int index = i;
+            wheel.schedule(delays[i], () -> firedAt[index] = now);
+        }
+
+        long start = now;
+        while(!wheel.isEmpty()) {
+            // Jump straight to the next time the wheel has work, as a dispatcher would
+            now = wheel.nextExpiryTime();
+            wheel.advance();
+        }
+
+        for(int i = 0; i < delays.length; i++) {
+            assertEquals("delay " + delays[i], start + delays[i], firedAt[i]);
+        }
+    }
+
+    @Test
+    public void testPeriodic() {
+        int[] count = {0};
+        TimingWheel.Timeout boost = wheel.schedulePeriodic(100, () -> count[0]++);
+
+        now += 1000;
+        wheel.advance();
+        assertEquals(10, count[0]);
+        assertTrue(boost.isPending());
+
+        boost.cancel();
+        now += 1000;
+        wheel.advance();
+        assertEquals(10, count[0]);
+    }
+
+    @Test
+    public void testRescheduleReusesTimeout() {
+        int[] count = {0};
+        TimingWheel.Timeout quantum = new TimingWheel.Timeout(() -> count[0]++);
+        wheel.schedule(quantum, 100);
+        wheel.schedule(quantum, 200);
+        assertEquals(1, wheel.size());
+
+        now += 100;
+        wheel.advance();
+        assertEquals(0, count[0]);
+
+        now += 100;
+        wheel.advance();
+        assertEquals(1, count[0]);
+        assertFalse(quantum.isPending());
+    }
+
+    @Test
+    public void testTaskChangesTimeoutDueOnSameTick() {
+        List<String> fired = new ArrayList<>();
+        TimingWheel.Timeout cancelled = new TimingWheel.Timeout(() -> fired.add("cancelled"));
+        TimingWheel.Timeout moved = new TimingWheel.Timeout(() -> fired.add("moved"));
+        // Scheduled last, so it is at the head of the slot and runs first
+        wheel.schedule(cancelled, 10);
+        wheel.schedule(moved, 10);
+        wheel.schedule(10, () -> {
+            fired.add("first");
+            assertTrue(cancelled.cancel());
+            wheel.schedule(moved, 20);
+        });
+        wheel.schedule(15, () -> fired.add("other"));
+
+        now += 10;
+        assertEquals(1, wheel.advance());
+        assertEquals("[first]", fired.toString());
+        assertFalse(cancelled.isPending());
+        assertEquals(2, wheel.size());
+
+        now += 20;
+        assertEquals(2, wheel.advance());
+        assertEquals("[first, other, moved]", fired.toString());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testManyPendingTimers() {
+        int[] count = {0};
+        for(int i = 0; i < 10_000; i++) {
+            wheel.schedule(1000 + i, () -> count[0]++);
+        }
+        // Nothing expires before the first deadline, so the wheel can skip straight past
+        assertEquals(now + 1000, wheel.nextExpiryTime(), 64);
+
+        now += 999;
+        assertEquals(0, wheel.advance());
+
+        now += 10_000;
+        assertEquals(10_000, wheel.advance());
+        assertEquals(10_000, count[0]);
+    }
+}
@@ -0,0 +1,125 @@
+package ci583.test;
+
+/**
+ * Tests for the memory-mapped scheduler trace and its CSV decoder, and the JFR events.
+ */
+
+import ci583.receiver.ModRegReceiver;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.RoundRobinReceiver;
+import ci583.trace.TraceEvent;
+import ci583.trace.TraceReader;
+import ci583.trace.TraceWriter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.*;
+
+public class TestTrace {
+
+    @Test
+    public void testWriteAndDecode() throws IOException {
+        Path file = Files.createTempFile("trace", ".bin");
+        try {
+            TraceWriter writer = new TraceWriter(file, 16);
+            writer.write(TraceEvent.ENQUEUE, 7, 0, 0);
+            writer.write(TraceEvent.DISPATCH, 7, 2, 1);
+            writer.close();
+
+            StringWriter csv = new StringWriter();
+            assertEquals(2, new TraceReader(file).toCsv(csv));
+
+            String[] lines = csv.toString().split("\\R");
+            assertEquals(TraceReader.CSV_HEADER, lines[0]);
+            assertTrue(lines[1].startsWith("0,"));
+            assertTrue(lines[1].endsWith(",7,ENQUEUE,0,0"));
+            assertTrue(lines[2].endsWith(",7,DISPATCH,2,1"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRingKeepsNewestFromManyWriters() throws Exception {
+        // Repeated, as writers only lap each other on the same slot now and then
+        for(int round = 0; round < 20; round++) {
+            Path file = Files.createTempFile("trace", ".bin");
+            try {
+                TraceWriter writer = new TraceWriter(file, 256);
+                Thread[] threads = new Thread[4];
+                for(int t = 0; t < threads.length; t++) {
+                    int core = t;
+                    threads[t] = new Thread(() -> {
+                        for(int i = 0; i < 10_000; i++) {
+                            writer.write(TraceEvent.PREEMPT, i, 0, core);
+                        }
+                    });
+                    threads[t].start();
+                }
+                for(Thread thread : threads) {
+                    thread.join();
+                }
+                writer.close();
+
+                assertEquals(40_000, writer.getPosition());
+                long[] last = {-1};
+                long count = new TraceReader(file).forEach((seq, timeNs, jobId, event, level, core) -> {
+                    assertTrue(seq > last[0]);
+                    assertTrue(seq >= 40_000 - 256);
+                    assertEquals(TraceEvent.PREEMPT, event);
+                    last[0] = seq;
+                });
+                // Every slot ends up with the newest record written to it
+                assertEquals(256, count);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testJfrEvents() throws IOException {
+        Path file = Files.createTempFile("scheduler", ".jfr");
+        try(Recording recording = new Recording()) {
+            recording.enable("ci583.Dispatch");
+            recording.enable("ci583.QuantumExpired");
+            recording.enable("ci583.Completion");
+            recording.start();
+
+            ModRegReceiver r = new RoundRobinReceiver(20);
+            r.enqueue(new ModuleRegister("P1", 50));
+            r.enqueue(new ModuleRegister("P2", 10));
+            r.startRegistration();
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            long dispatches = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("ci583.Dispatch")).count();
+            long completions = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("ci583.Completion")).count();
+            assertTrue(dispatches >= 4);
+            assertEquals(2, completions);
+            // P2 waits behind P1's first quantum before it is first dispatched
+            assertTrue(events.stream().filter(e -> e.getEventType().getName().equals("ci583.Dispatch"))
+                    .allMatch(e -> e.getDuration("queueWait").toMillis() >= 0));
+            assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("ci583.Dispatch") &&
+                    e.getString("process").equals("P2") && e.getDuration("queueWait").toMillis() >= 15));
+            assertTrue(events.stream().anyMatch(e ->
+                    e.getEventType().getName().equals("ci583.QuantumExpired") &&
+                            e.getString("process").equals("P1")));
+        } finally {
+            ModRegReceiver.setQUANTUM(100);
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ci583.test;
+
+/**
+ * Tests for recovering accepted registrations from the write-ahead log.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestWriteAheadLog {
+
+    @Test
+    public void testRecoversUncompletedProcesses() throws IOException {
+        Path file = Files.createTempFile("receiver", ".wal");
+        try {
+            // Accept three processes, then "crash" before running them
+            WriteAheadLog wal = WriteAheadLog.open(file);
+            RoundRobinReceiver receiver = new RoundRobinReceiver(10);
+            receiver.setWriteAheadLog(wal);
+            receiver.submit(new ModuleRegister("P1", 20));
+            receiver.submit(new ModuleRegister("P2", 20, ModuleRegister.Priority.HIGH));
+            receiver.submit(new ModuleRegister("P3", 20));
+            wal.close();
+
+            // A torn record at the end is ignored
+            Files.write(file, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+            wal = WriteAheadLog.open(file);
+            assertEquals(3, wal.getRecoveredCount());
+            receiver = new RoundRobinReceiver(10);
+            receiver.setWriteAheadLog(wal);
+            List<ModuleRegister> recovered = wal.recover(receiver, null);
+            assertEquals(3, recovered.size());
+            assertEquals("P1", recovered.get(0).getName());
+            assertEquals(ModuleRegister.Priority.HIGH.getVal(), recovered.get(1).getPriority());
+            assertEquals("P3", recovered.get(2).getName());
+
+            // Once they have all completed there is nothing left to recover
+            assertEquals(3, receiver.startRegistration().size());
+            wal.close();
+            wal = WriteAheadLog.open(file);
+            assertEquals(0, wal.getRecoveredCount());
+            wal.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        Path file = Files.createTempFile("receiver", ".wal");
+        try(WriteAheadLog wal = WriteAheadLog.open(file)) {
+            RoundRobinReceiver receiver = new RoundRobinReceiver(10);
+            receiver.setWriteAheadLog(wal);
+
+            // Many threads submitting at once share each force of the log
+            Thread[] threads = new Thread[8];
+            for(int t = 0; t < threads.length; t++) {
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    for(int i = 0; i < 250; i++) {
+                        receiver.submit(new ModuleRegister("T" + thread + "-" + i, 10));
+                    }
+                });
+                threads[t].start();
+            }
+            for(Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        try(WriteAheadLog wal = WriteAheadLog.open(file)) {
+            assertEquals(2000, wal.getRecoveredCount());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRecoveredIoJobStillBlocks() throws IOException {
+        Path file = Files.createTempFile("receiver", ".wal");
+        try {
+            WriteAheadLog wal = WriteAheadLog.open(file);
+            RoundRobinReceiver receiver = new RoundRobinReceiver(100);
+            receiver.setWriteAheadLog(wal);
+            ModuleRegister io = new ModuleRegister("IO", 0);
+            io.setBursts(50, 100, 50, 100, 50);
+            receiver.submit(io);
+            wal.close();
+
+            wal = WriteAheadLog.open(file);
+            receiver = new RoundRobinReceiver(100);
+            receiver.setWriteAheadLog(wal);
+            ModuleRegister recovered = wal.recover(receiver, null).get(0);
+            assertArrayEquals(new long[] {50, 100, 50, 100, 50}, recovered.getBursts());
+            assertEquals(150, recovered.getWork());
+
+            receiver.startRegistration();
+            assertTrue(recovered.getRemainingWorkToDo() <= 0);
+            assertEquals(2, receiver.getIoResponseTimes().getCount());
+            wal.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ci583.trace;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a process whose priority was raised after waiting too long without CPU time.
+ */
+@Name("ci583.Aging")
+@Label("Priority Aging")
+@Category({"CI583", "Scheduler"})
+@StackTrace(false)
+public class AgingEvent extends Event {
+
+    @Label("Receiver")
+    public String receiver;
+
+    @Label("Process")
+    public String process;
+
+    @Label("Job Id")
+    public int jobId;
+
+    @Label("Old Priority")
+    public int oldPriority;
+
+    @Label("New Priority")
+    public int newPriority;
+}
@@ -0,0 +1,19 @@
+package ci583.trace;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a multi-level feedback queue boost, which moves every process to the top queue.
+ */
+@Name("ci583.Boost")
+@Label("MLFQ Boost")
+@Category({"CI583", "Scheduler"})
+@StackTrace(false)
+public class BoostEvent extends Event {
+
+    @Label("Receiver")
+    public String receiver;
+
+    @Label("Processes Moved")
+    public int moved;
+}
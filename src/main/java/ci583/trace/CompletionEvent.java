@@ -0,0 +1,31 @@
+package ci583.trace;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a process that finished its work.
+ */
+@Name("ci583.Completion")
+@Label("Completion")
+@Category({"CI583", "Scheduler"})
+@StackTrace(false)
+public class CompletionEvent extends Event {
+
+    @Label("Receiver")
+    public String receiver;
+
+    @Label("Process")
+    public String process;
+
+    @Label("Job Id")
+    public int jobId;
+
+    @Label("Turnaround")
+    @Description("Time from the process being enqueued until it finished")
+    @Timespan(Timespan.MILLISECONDS)
+    public long turnaround;
+
+    @Label("Work")
+    @Timespan(Timespan.MILLISECONDS)
+    public long work;
+}
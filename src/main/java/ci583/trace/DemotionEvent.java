@@ -0,0 +1,28 @@
+package ci583.trace;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a process moved to a lower priority queue of a multi-level feedback queue.
+ */
+@Name("ci583.Demotion")
+@Label("MLFQ Demotion")
+@Category({"CI583", "Scheduler"})
+@StackTrace(false)
+public class DemotionEvent extends Event {
+
+    @Label("Receiver")
+    public String receiver;
+
+    @Label("Process")
+    public String process;
+
+    @Label("Job Id")
+    public int jobId;
+
+    @Label("From Level")
+    public int fromLevel;
+
+    @Label("To Level")
+    public int toLevel;
+}
@@ -0,0 +1,30 @@
+package ci583.trace;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event covering a slice of CPU time given to a process, from dispatch until it gives up the CPU.
+ */
+@Name("ci583.Dispatch")
+@Label("Dispatch")
+@Category({"CI583", "Scheduler"})
+@StackTrace(false)
+public class DispatchEvent extends Event {
+
+    @Label("Receiver")
+    public String receiver;
+
+    @Label("Process")
+    public String process;
+
+    @Label("Job Id")
+    public int jobId;
+
+    @Label("Queue Level")
+    public int level;
+
+    @Label("Queue Wait")
+    @Description("Time the process waited in the queue since it was last runnable")
+    @Timespan(Timespan.MILLISECONDS)
+    public long queueWait;
+}
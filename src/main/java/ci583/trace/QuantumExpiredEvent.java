@@ -0,0 +1,29 @@
+package ci583.trace;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a process that used up its quantum and was put back in the queue.
+ */
+@Name("ci583.QuantumExpired")
+@Label("Quantum Expired")
+@Category({"CI583", "Scheduler"})
+@StackTrace(false)
+public class QuantumExpiredEvent extends Event {
+
+    @Label("Receiver")
+    public String receiver;
+
+    @Label("Process")
+    public String process;
+
+    @Label("Job Id")
+    public int jobId;
+
+    @Label("Queue Level")
+    public int level;
+
+    @Label("Remaining Work")
+    @Timespan(Timespan.MILLISECONDS)
+    public long remainingWork;
+}
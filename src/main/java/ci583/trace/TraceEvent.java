@@ -0,0 +1,34 @@
+package ci583.trace;
+
+/**
+ * The types of event written to a scheduler trace. The ordinal is the code stored in the trace,
+ * so new events must only ever be added at the end.
+ */
+public enum TraceEvent {
+    /** A process was added to a receiver's queue */
+    ENQUEUE,
+    /** A process was given the CPU */
+    DISPATCH,
+    /** A process used up its quantum and was put back in the queue */
+    PREEMPT,
+    /** A process gave up the CPU before the end of its quantum */
+    YIELD,
+    /** A process finished its work and left the receiver */
+    COMPLETE,
+    /** A process was moved to a lower priority queue */
+    DEMOTE,
+    /** All processes were moved to the highest priority queue */
+    BOOST,
+    /** The priority of a waiting process was raised, the level field holds the new priority */
+    AGE,
+    /** A process finished a CPU burst and left the queue to wait for I/O */
+    BLOCK,
+    /** A process finished its I/O and was put back in the queue */
+    WAKE;
+
+    private static final TraceEvent[] VALUES = values();
+
+    public static TraceEvent fromCode(int code) {
+        return code >= 0 && code < VALUES.length ? VALUES[code] : null;
+    }
+}
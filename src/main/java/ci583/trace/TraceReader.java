@@ -0,0 +1,124 @@
+package ci583.trace;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Decodes a trace written by {@link TraceWriter}, in sequence order, skipping any records that
+ * were overwritten or only partly written. Can be run from the command line to turn a trace into CSV:
+ * </p>
+ * <pre>
+ *     java ci583.trace.TraceReader trace.bin [trace.csv]
+ * </pre>
+ */
+public class TraceReader {
+
+    public static final String CSV_HEADER = "seq,epoch_ms,time_ns,job,event,level,core";
+
+    private final ByteBuffer buffer;
+    private final long capacity;
+    private final long startEpochMs;
+
+    /**
+     * Maps an existing trace file.
+     * @param file the trace file
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public TraceReader(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if(buffer.capacity() < TraceWriter.HEADER_SIZE || buffer.getInt(0) != TraceWriter.MAGIC) {
+            throw new IOException("Not a scheduler trace: " + file);
+        }
+        if(buffer.getInt(4) != TraceWriter.VERSION) {
+            throw new IOException("Unsupported trace version " + buffer.getInt(4));
+        }
+        capacity = buffer.getLong(TraceWriter.CAPACITY_OFFSET);
+        startEpochMs = buffer.getLong(TraceWriter.START_OFFSET);
+    }
+
+    /**
+     * Visits each valid record still in the trace, oldest first.
+     * @param visitor receives each record
+     * @return the number of records visited
+     */
+    public long forEach(RecordVisitor visitor) {
+        long position = (long) TraceWriter.LONGS.getAcquire(buffer, TraceWriter.POSITION_OFFSET);
+        long visited = 0;
+        for(long seq = Math.max(0, position - capacity); seq < position; seq++) {
+            int offset = (int) (TraceWriter.HEADER_SIZE + (seq % capacity) * TraceWriter.RECORD_SIZE);
+            if((long) TraceWriter.LONGS.getAcquire(buffer, offset) != seq + 1) {
+                continue;
+            }
+            TraceEvent event = TraceEvent.fromCode(buffer.get(offset + 20));
+            long timeNs = buffer.getLong(offset + 8);
+            int jobId = buffer.getInt(offset + 16);
+            int level = buffer.get(offset + 21);
+            int core = buffer.getShort(offset + 22);
+            // A writer which claimed the slot while the fields were read may have torn them
+            VarHandle.loadLoadFence();
+            if(event == null || (long) TraceWriter.LONGS.getAcquire(buffer, offset) != seq + 1) {
+                continue;
+            }
+            visitor.visit(seq, timeNs, jobId, event, level, core);
+            visited++;
+        }
+        return visited;
+    }
+
+    /**
+     * Writes every valid record as a line of CSV, preceded by {@link #CSV_HEADER}.
+     * @param out where to write the CSV
+     * @return the number of records written
+     */
+    public long toCsv(Writer out) {
+        PrintWriter writer = new PrintWriter(out);
+        writer.println(CSV_HEADER);
+        long count = forEach((seq, timeNs, jobId, event, level, core) ->
+                writer.println(seq + "," + (startEpochMs + timeNs / 1_000_000) + "," + timeNs + "," +
+                        jobId + "," + event + "," + level + "," + core));
+        writer.flush();
+        return count;
+    }
+
+    public long getStartEpochMs() {
+        return startEpochMs;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** Receives the decoded fields of a trace record */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(long seq, long timeNs, int jobId, TraceEvent event, int level, int core);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: TraceReader <trace file> [csv file]");
+            System.exit(1);
+        }
+
+        TraceReader reader = new TraceReader(Path.of(args[0]));
+        if(args.length > 1) {
+            try(Writer out = Files.newBufferedWriter(Path.of(args[1]))) {
+                System.out.println(reader.toCsv(out) + " records written to " + args[1]);
+            }
+        } else {
+            reader.toCsv(new PrintWriter(System.out));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ci583.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Writes a compact binary stream of scheduler events to a memory-mapped file, which is used as a
+ * ring: once it is full the oldest events are overwritten. Writing an event does not allocate or
+ * lock, so tracing can be left on in production.
+ * </p>
+ * <p>
+ * File layout (little endian):
+ * <pre>
+ *   header (64 bytes)
+ *     0  int   magic ("CI58")
+ *     4  int   version
+ *     8  long  capacity (records)
+ *     16 long  wall clock time of the start of the trace (ms since the epoch)
+ *     24 long  next sequence number - claimed by writers with an atomic add
+ *   records (24 bytes each), record n is at HEADER_SIZE + (n % capacity) * RECORD_SIZE
+ *     0  long  stamp: sequence number + 1 once written, -(sequence number + 1) while being
+ *              written, 0 if never written
+ *     8  long  time since the start of the trace (ns)
+ *     16 int   job id
+ *     20 byte  event ({@link TraceEvent} ordinal)
+ *     21 byte  queue level
+ *     22 short core
+ * </pre>
+ * Writers claim a sequence number by atomically incrementing the header, then claim the record's
+ * slot by a compare-and-set of its stamp, fill in the record, and publish it by writing its
+ * sequence number as the stamp. A writer which finds a newer record in the slot, written or being
+ * written, drops its own, as the ring keeps the newest; one which finds an older record still being
+ * written waits for it to be published, which only happens if the whole ring was written in the
+ * meantime. So two writers never fill the same slot at once, and the slot always ends up with the
+ * newest record. A reader only accepts a record whose stamp matches the slot it expects, both
+ * before and after reading its fields, so a torn or overwritten record is skipped rather than misread.
+ * </p>
+ */
+public class TraceWriter implements Closeable {
+
+    public static final int MAGIC = 0x38354943; // "CI58" in little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 24;
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    static final int CAPACITY_OFFSET = 8;
+    static final int START_OFFSET = 16;
+    static final int POSITION_OFFSET = 24;
+
+    static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final long startNanos;
+
+    /**
+     * Creates (or truncates) a trace file.
+     * @param file the file to write to
+     * @param capacity the number of records kept before the oldest are overwritten
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public TraceWriter(Path file, int capacity) throws IOException {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        startNanos = System.nanoTime();
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(CAPACITY_OFFSET, capacity);
+        buffer.putLong(START_OFFSET, System.currentTimeMillis());
+        LONGS.setRelease(buffer, POSITION_OFFSET, 0L);
+    }
+
+    /**
+     * Writes an event - allocation free, safe to call from any thread, and only waits for another
+     * writer if that writer has been lapped by the whole ring.
+     * @param event the event
+     * @param jobId the id of the process
+     * @param level the queue level of the process
+     * @param core the core the process is on
+     */
+    public void write(TraceEvent event, int jobId, int level, int core) {
+        long seq = (long) LONGS.getAndAdd(buffer, POSITION_OFFSET, 1L);
+        int offset = (int) (HEADER_SIZE + (seq % capacity) * RECORD_SIZE);
+
+        // Claim the slot, which also invalidates it, so a reader never pairs the old stamp with new
+        // fields. The compare-and-set is a full fence, so the fields below are not written before it
+        long claimed = -(seq + 1);
+        for(;;) {
+            long stamp = (long) LONGS.getAcquire(buffer, offset);
+            long owner = stamp < 0 ? -stamp - 1 : stamp - 1;
+            if(owner > seq) {
+                // Lapped by a newer record, which the ring keeps instead
+                return;
+            }
+            if(stamp < 0) {
+                // An older record is still being written
+                Thread.onSpinWait();
+            } else if(LONGS.compareAndSet(buffer, offset, stamp, claimed)) {
+                break;
+            }
+        }
+        buffer.putLong(offset + 8, System.nanoTime() - startNanos);
+        buffer.putInt(offset + 16, jobId);
+        buffer.put(offset + 20, (byte) event.ordinal());
+        buffer.put(offset + 21, (byte) level);
+        buffer.putShort(offset + 22, (short) core);
+        LONGS.setRelease(buffer, offset, seq + 1);
+    }
+
+    /**
+     * @return the number of events written so far, including any that have been overwritten
+     */
+    public long getPosition() {
+        return (long) LONGS.getAcquire(buffer, POSITION_OFFSET);
+    }
+
+    /**
+     * Flushes the trace to disk. The mapping is released when the writer is garbage collected.
+     */
+    @Override
+    public void close() {
+        buffer.force();
+    }
+}